@@ -15,14 +15,24 @@ import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.consulkv.common.ConsulDatacenters;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.ConsulFanOut;
+import org.jenkinsci.plugins.consulkv.common.ConsulRunMemo;
 import org.jenkinsci.plugins.consulkv.common.Constants;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.MemoMode;
 import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.ValueFormat;
 import org.jenkinsci.plugins.consulkv.common.VariableInjectionAction;
 import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
 import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.transport.UnixSocketTransport;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulChunkUtils;
 import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
 import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.jenkinsci.plugins.consulkv.common.utils.ValueFlattener;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
@@ -30,9 +40,19 @@ import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 /**
@@ -54,8 +74,19 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
     private RequestMode requestMode;
     private int timeoutConnection;
     private int timeoutResponse;
+    private int timeoutTotal;
     private DebugMode debugMode;
     private boolean ignoreGlobalSettings;
+    private ValueFormat valueFormat;
+    private String valueSelect;
+    private String file;
+    private boolean chunked;
+    private boolean compress;
+    private MemoMode memoMode;
+    private int memoTtl;
+    private String dc;
+    private String datacenters;
+    private int quorum;
 
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
     @Deprecated
@@ -152,6 +183,15 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
         this.timeoutResponse = timeoutResponse;
     }
 
+    public int getTimeoutTotal() {
+        return this.timeoutTotal;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
     public DebugMode getDebugMode() {
         return this.debugMode;
     }
@@ -170,6 +210,96 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
         this.ignoreGlobalSettings = ignoreGlobalSettings;
     }
 
+    public ValueFormat getValueFormat() {
+        return this.valueFormat;
+    }
+
+    @DataBoundSetter
+    public void setValueFormat(@CheckForNull ValueFormat valueFormat) {
+        this.valueFormat = valueFormat;
+    }
+
+    public String getValueSelect() {
+        return this.valueSelect;
+    }
+
+    @DataBoundSetter
+    public void setValueSelect(@CheckForNull String valueSelect) {
+        this.valueSelect = valueSelect;
+    }
+
+    public String getFile() {
+        return this.file;
+    }
+
+    @DataBoundSetter
+    public void setFile(@CheckForNull String file) {
+        this.file = file;
+    }
+
+    public boolean isChunked() {
+        return this.chunked;
+    }
+
+    @DataBoundSetter
+    public void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    public boolean isCompress() {
+        return this.compress;
+    }
+
+    @DataBoundSetter
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public MemoMode getMemoMode() {
+        return this.memoMode;
+    }
+
+    @DataBoundSetter
+    public void setMemoMode(@CheckForNull MemoMode memoMode) {
+        this.memoMode = memoMode;
+    }
+
+    public int getMemoTtl() {
+        return this.memoTtl;
+    }
+
+    @DataBoundSetter
+    public void setMemoTtl(int memoTtl) {
+        this.memoTtl = memoTtl;
+    }
+
+    public String getDc() {
+        return this.dc;
+    }
+
+    @DataBoundSetter
+    public void setDc(String dc) {
+        this.dc = dc;
+    }
+
+    public String getDatacenters() {
+        return this.datacenters;
+    }
+
+    @DataBoundSetter
+    public void setDatacenters(String datacenters) {
+        this.datacenters = datacenters;
+    }
+
+    public int getQuorum() {
+        return this.quorum;
+    }
+
+    @DataBoundSetter
+    public void setQuorum(int quorum) {
+        this.quorum = quorum;
+    }
+
     /**
      * Perform the work of the build step
      *
@@ -201,6 +331,8 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
                     .TIMEOUT_CONNECTION : this.timeoutConnection;
             int timeoutResp = (this.timeoutResponse == 0) ? Constants
                     .TIMEOUT_RESPONSE : this.timeoutResponse;
+            //Bounds the whole step, whatever the connect and response timeouts add up to
+            ConsulDeadline deadline = ConsulDeadline.after(this.timeoutTotal);
 
             String expandedUrl = environment.expand(this.hostUrl);
             StringBuilder urlStringBuilder = new StringBuilder(expandedUrl);
@@ -217,59 +349,170 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
 
             String responseRaw = null;
             String expandedKey = environment.expand(this.key);
+            String expandedToken = null;
+            FilePath target = Strings.isEmpty(this.file) ? null : workspace.child(environment.expand(this.file));
 
             if (Strings.isEmpty(this.aclToken)) {
                 //No token
                 urlStringBuilder.append(apiUrl).append(expandedKey);
             } else {
 
-                String expandedToken = environment.expand(this.aclToken);
+                expandedToken = environment.expand(this.aclToken);
                 String formattedTokenString = String.format(Constants.TOKEN_URL_PATTERN, expandedToken);
                 urlStringBuilder.append(apiUrl).append(expandedKey).append(formattedTokenString);
             }
 
+            final String expandedDc = Strings.isBlank(this.dc) ? null : environment.expand(this.dc);
+            boolean fanOut = !Strings.isBlank(this.datacenters) && !this.requestMode.equals(RequestMode.READ);
+            if (expandedDc != null && !ConsulDatacenters.isNearest(expandedDc) && !fanOut) {
+                String dcUrl = ConsulDatacenters.url(urlStringBuilder.toString(), expandedDc);
+                urlStringBuilder.setLength(0);
+                urlStringBuilder.append(dcUrl);
+            }
+
             if (this.debugMode.equals(DebugMode.ENABLED)) {
                 logger.println("Consul " + this.requestMode.name() + " URL:  " + urlStringBuilder.toString());
             }
 
             if (this.requestMode.equals(RequestMode.READ)) {
                 //Read
-                ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(urlStringBuilder.toString())
-                        .withTimeoutConnect
-                                (timeoutConn).withTimeoutResponse(timeoutResp).withDebugMode(debugMode).withRequestMode
-                                (requestMode).withLogger(logger).build();
+                final ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(urlStringBuilder
+                        .toString()).withTimeoutConnect
+                                (timeoutConn).withTimeoutResponse(timeoutResp).withTimeoutTotal(this.timeoutTotal)
+                        .withDeadline(deadline).withDebugMode(debugMode).withRequestMode(requestMode).withLogger
+                                (logger).build();
+
+                Callable<String> loader = new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return Strings.nvl(ConsulDatacenters.read(consulRequest, expandedDc, ConsulDatacenters
+                                .VALUE), "");
+                    }
+                };
+                long memoAge = ConsulRunMemo.maxAge(environment.get(Constants.ENV_MEMO), this.memoMode, this
+                        .memoTtl);
+                //Branches and cells of the run share the first read of the key
+                String value = (memoAge == ConsulRunMemo.DISABLED) ? ConsulRunMemo.load(loader) : ConsulRunMemo.of
+                        (build).read(urlStringBuilder.toString(), memoAge, consulRequest, loader);
+
+                if (ConsulChunkUtils.isManifest(value)) {
+                    logger.println(String.format("Consul K/V chunk manifest:  %s=%s", this.key, value));
+
+                    if (target != null) {
+                        long size = 0;
+                        try (OutputStream out = target.write()) {
+                            size = ConsulChunkUtils.read(consulRequest, expandedUrl, apiUrl, expandedKey,
+                                    expandedToken, value, out);
+                        } catch (ConsulRequestException cre) {
+                            //No partial or unverified file is left for the next steps
+                            target.delete();
+                            throw cre;
+                        }
+                        logger.println(String.format("Wrote %d bytes to %s", size, target.getRemote()));
+                        return;
+                    }
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ConsulChunkUtils.read(consulRequest, expandedUrl, apiUrl, expandedKey, expandedToken, value,
+                            out);
+                    value = out.toString(Constants.DEFAULT_ENCODING);
+                } else if (target != null) {
+                    target.write(value, Constants.DEFAULT_ENCODING);
+                    logger.println(String.format("Wrote %s to %s", this.key, target.getRemote()));
+                    return;
+                }
 
-                responseRaw = ConsulRequestUtils.read(consulRequest);
-                String value =
-                        ConsulRequestUtils.decodeValue(ConsulRequestUtils.parseJson(responseRaw, Constants.FIELD_VALUE));
                 logger.println(String.format("Consul K/V pair:  %s=%s", this.key, value));
 
                 //Set ENV Variable
                 String expandedEnvVarKey = environment.expand(this.envVarKey);
                 String storageKey = Strings.normalizeStoragekey(expandedEnvVarKey);
-                environment.addLine(String.format("%s=%s", storageKey, value));
 
-                logger.println(String.format("Stored ENV variable (k,v):  %s=%s", storageKey, environment.get(storageKey)));
+                if (this.valueFormat == null || this.valueFormat == ValueFormat.TEXT) {
+                    environment.addLine(String.format("%s=%s", storageKey, value));
+
+                    logger.println(String.format("Stored ENV variable (k,v):  %s=%s", storageKey, environment.get(storageKey)));
+                } else {
+                    Map<String, String> variables = ValueFlattener.flatten(value, this.valueFormat, storageKey,
+                            environment.expand(this.valueSelect));
+
+                    for (Map.Entry<String, String> variable : variables.entrySet()) {
+                        environment.addLine(String.format("%s=%s", variable.getKey(), variable.getValue()));
+                        logger.println(String.format("Stored ENV variable (k,v):  %s=%s", variable.getKey(),
+                                environment.get(variable.getKey())));
+                    }
+                }
             } else if (this.requestMode.equals(RequestMode.WRITE)) {
                 //Write
-                String expandedKeyValue = environment.expand(this.keyValue);
+                byte[] data = (target == null) ? Strings.nvl(environment.expand(this.keyValue), "").getBytes
+                        (Constants.DEFAULT_ENCODING) : ConsulKVBuilder.readFile(target);
+                //Chunked writes send the bytes themselves, the request only carries the settings
+                String text = this.chunked ? new String(data, Constants.DEFAULT_ENCODING) : ConsulKVBuilder.toText
+                        (data, (target == null) ? this.key : target.getRemote());
+                ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(urlStringBuilder.toString())
+                        .withValue(text)
+                        .withTimeoutConnect(timeoutConn).withTimeoutResponse(timeoutResp).withDeadline(deadline)
+                        .withDebugMode(debugMode).withRequestMode(requestMode).withLogger(logger).build();
+
+                if (this.chunked && fanOut) {
+                    throw new ValidationException("Chunked values are written to a single datacenter.");
+                } else if (fanOut) {
+                    this.fanOut(build, environment, consulRequest, new ConsulFanOut.Writer<String>() {
+                        @Override
+                        public String write(ConsulRequest consulRequest) throws ConsulRequestException,
+                                InterruptedException {
+                            return ConsulRequestUtils.write(consulRequest);
+                        }
+                    }, logger);
+                } else if (this.chunked) {
+                    responseRaw = ConsulChunkUtils.write(consulRequest, expandedUrl, apiUrl, expandedKey,
+                            expandedToken, data, this.compress);
+                    logger.println(String.format("Consul K/V chunked value written:  %s, %d bytes", this.key, data
+                            .length));
+                } else {
+                    responseRaw = ConsulRequestUtils.write(consulRequest);
+                }
+            } else if (this.requestMode.equals(RequestMode.CONDITIONAL_WRITE)) {
+                //Write only if changed, with check-and-set, the value read like a WRITE's
+                String expandedKeyValue = (target == null) ? environment.expand(this.keyValue) : ConsulKVBuilder
+                        .toText(ConsulKVBuilder.readFile(target), target.getRemote());
                 ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(urlStringBuilder.toString())
                         .withValue(expandedKeyValue)
-                        .withTimeoutConnect(timeoutConn).withTimeoutResponse(timeoutResp).withDebugMode(debugMode)
-                        .withRequestMode(requestMode).withLogger(logger).build();
-
-                responseRaw = ConsulRequestUtils.write(consulRequest);
+                        .withTimeoutConnect(timeoutConn).withTimeoutResponse(timeoutResp).withDeadline(deadline)
+                        .withDebugMode(debugMode).withRequestMode(requestMode).withLogger(logger).build();
+
+                if (fanOut) {
+                    this.fanOut(build, environment, consulRequest, new ConsulFanOut.Writer<Boolean>() {
+                        @Override
+                        public Boolean write(ConsulRequest consulRequest) throws ConsulRequestException,
+                                InterruptedException {
+                            return ConsulRequestUtils.writeIfChanged(consulRequest);
+                        }
+                    }, logger);
+                } else if (ConsulRequestUtils.writeIfChanged(consulRequest)) {
+                    logger.println(String.format("Consul K/V pair written:  %s", this.key));
+                }
             } else {
                 //Delete
                 ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(urlStringBuilder.toString())
                         .withTimeoutConnect
-                                (timeoutConn).withTimeoutResponse(timeoutResp).withDebugMode(debugMode).withRequestMode
-                                (requestMode).withLogger(logger).build();
-
-                responseRaw = ConsulRequestUtils.delete(consulRequest);
+                                (timeoutConn).withTimeoutResponse(timeoutResp).withDeadline(deadline)
+                        .withDebugMode(debugMode).withRequestMode(requestMode).withLogger(logger).build();
+
+                if (fanOut) {
+                    this.fanOut(build, environment, consulRequest, new ConsulFanOut.Writer<String>() {
+                        @Override
+                        public String write(ConsulRequest consulRequest) throws ConsulRequestException,
+                                InterruptedException {
+                            return ConsulRequestUtils.delete(consulRequest);
+                        }
+                    }, logger);
+                } else {
+                    responseRaw = ConsulRequestUtils.delete(consulRequest);
+                }
             }
 
-            if (this.debugMode.equals(DebugMode.ENABLED)) {
+            if (this.debugMode.equals(DebugMode.ENABLED) && responseRaw != null) {
                 logger.printf("Raw content:  %s%n", responseRaw);
             }
 
@@ -286,6 +529,43 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
 
     }
 
+    /*
+     * Sends the write to every configured datacenter and returns once the quorum succeeded.
+     */
+    private void fanOut(Run<?, ?> build, EnvVars environment, ConsulRequest consulRequest, ConsulFanOut.Writer<?>
+            writer, PrintStream logger) throws ConsulRequestException, ValidationException, InterruptedException {
+        List<String> names = ConsulFanOut.parse(environment.expand(this.datacenters));
+        String operation = String.format("%s %s", this.requestMode.name(), environment.expand(this.key));
+        int needed = ConsulFanOut.quorum(this.quorum, names.size());
+
+        logger.println(String.format("Consul %s sent to %d datacenters, waiting for %d of them.", operation, names
+                .size(), needed));
+        int succeeded = ConsulFanOut.write(build, operation, names, this.quorum, consulRequest, writer);
+        if (succeeded < names.size()) {
+            logger.println(String.format("Consul %s reached its quorum, the remaining %d datacenters complete in " +
+                    "the background.", operation, names.size() - succeeded));
+        }
+    }
+
+    private static byte[] readFile(FilePath source) throws IOException, InterruptedException {
+        try (InputStream in = source.read()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    /*
+     * Values are written as text, decoding a binary file would silently replace its bytes.
+     */
+    static String toText(byte[] data, String source) throws ValidationException {
+        try {
+            return Charset.forName(Constants.DEFAULT_ENCODING).newDecoder().onMalformedInput(CodingErrorAction
+                    .REPORT).onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(data)).toString();
+        } catch (CharacterCodingException cce) {
+            throw new ValidationException(String.format("%s is not %s text, enable chunked to write binary files.",
+                    source, Constants.DEFAULT_ENCODING), cce);
+        }
+    }
+
     private DescriptorImpl getDescriptorImpl() {
         return ((DescriptorImpl) getDescriptor());
     }
@@ -306,6 +586,7 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
                 this.aclToken = globalDescriptor.getConsulAclToken();
                 this.timeoutConnection = globalDescriptor.getConsulTimeoutConnection();
                 this.timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                this.timeoutTotal = globalDescriptor.getConsulTimeoutTotal();
                 this.debugMode = globalDescriptor.getConsulDebugMode();
             } else {
                 LOGGER.warning("Could not load global settings.");
@@ -327,8 +608,19 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
                 ", requestMode=" + requestMode +
                 ", timeoutConnection=" + timeoutConnection +
                 ", timeoutResponse=" + timeoutResponse +
+                ", timeoutTotal=" + timeoutTotal +
                 ", debugMode=" + debugMode +
                 ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                ", valueFormat=" + valueFormat +
+                ", valueSelect='" + valueSelect + '\'' +
+                ", file='" + file + '\'' +
+                ", chunked=" + chunked +
+                ", compress=" + compress +
+                ", memoMode=" + memoMode +
+                ", memoTtl=" + memoTtl +
+                ", dc='" + dc + '\'' +
+                ", datacenters='" + datacenters + '\'' +
+                ", quorum=" + quorum +
                 '}';
     }
 
@@ -348,6 +640,7 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
         private String apiUri;
         private int timeoutConnection;
         private int timeoutResponse;
+        private int timeoutTotal;
         private DebugMode debugMode;
         private boolean ignoreGlobalSettings;
 
@@ -395,6 +688,14 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
             this.timeoutResponse = timeoutResponse;
         }
 
+        public int getTimeoutTotal() {
+            return timeoutTotal;
+        }
+
+        public void setTimeoutTotal(int timeoutTotal) {
+            this.timeoutTotal = timeoutTotal;
+        }
+
         public ListBoxModel doFillRequestModeItems() {
             return RequestMode.getFillItems();
         }
@@ -403,10 +704,18 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
             return RequestMode.getFillItems();
         }
 
+        public ListBoxModel doFillValueFormatItems() {
+            return ValueFormat.getFillItems();
+        }
+
         public ListBoxModel doFillDebugModeItems() {
             return DebugMode.getFillItems();
         }
 
+        public ListBoxModel doFillMemoModeItems() {
+            return MemoMode.getFillItems();
+        }
+
         public ListBoxModel doFillDefaultDebugModeItems() {
             return DebugMode.getFillItems();
         }
@@ -452,12 +761,19 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
         }
 
         public FormValidation doCheckHostUrl(@QueryParameter String value) {
-            String message = "Please set a Host URL, including protocol, eg: http/https.";
+            String message = "Please set a Host URL, including protocol, eg: http/https, or unix:// and the path " +
+                    "of the agent's socket.";
 
             if (value.length() == 0) {
                 return FormValidation.error(message);
             }
 
+            if (UnixSocketTransport.isUnixSocket(value) && !value.startsWith("/", Constants.UNIX_SOCKET_SCHEME
+                    .length())) {
+                return FormValidation.error("Please set the absolute path of the agent's socket, eg: " +
+                        "unix:///var/run/consul/consul.sock.");
+            }
+
             return FormValidation.ok();
         }
 
@@ -533,6 +849,7 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
                     aclToken = globalDescriptor.getConsulAclToken();
                     timeoutConnection = globalDescriptor.getConsulTimeoutConnection();
                     timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                    timeoutTotal = globalDescriptor.getConsulTimeoutTotal();
                     debugMode = globalDescriptor.getConsulDebugMode();
                 } else {
                     LOGGER.warning("Could not load global settings.");
@@ -550,6 +867,7 @@ public class ConsulKVBuilder extends Builder implements SimpleBuildStep {
                     ", apiUri='" + apiUri + '\'' +
                     ", timeoutConnection=" + timeoutConnection +
                     ", timeoutResponse=" + timeoutResponse +
+                    ", timeoutTotal=" + timeoutTotal +
                     ", debugMode=" + debugMode +
                     ", ignoreGlobalSettings=" + ignoreGlobalSettings +
                     '}';
@@ -0,0 +1,520 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.VariableInjectionAction;
+import org.jenkinsci.plugins.consulkv.common.cache.StageCache;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Build step caching the outputs of the build steps it wraps.  The declared input files are hashed on the agent,
+ * along with the declared parameters, and <code>&lt;prefix&gt;/&lt;hash&gt;</code> is looked up in Consul.  On a hit
+ * the stored outputs are injected as ENV variables and the wrapped steps are skipped; on a miss the steps run and, if
+ * they succeed, their outputs are stored under a session whose TTL deletes the entry.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVCacheBuilder extends Builder implements SimpleBuildStep {
+    private static Logger LOGGER = Logger.getLogger(ConsulKVCacheBuilder.class.getName());
+
+    private String hostUrl;
+    private String prefix;
+    private List<Builder> builders;
+    private String aclToken;
+    private String apiUri;
+    private int timeoutConnection;
+    private int timeoutResponse;
+    private int timeoutTotal;
+    private DebugMode debugMode;
+    private boolean ignoreGlobalSettings;
+    private String includes;
+    private String excludes;
+    private String parameters;
+    private String outputs;
+    private int ttl;
+
+    @DataBoundConstructor
+    public ConsulKVCacheBuilder(@CheckForNull String hostUrl, @CheckForNull String prefix, @CheckForNull
+            List<Builder> builders) {
+        this.hostUrl = hostUrl;
+        this.prefix = prefix;
+        this.builders = builders;
+    }
+
+    public String getHostUrl() {
+        return this.hostUrl;
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public List<Builder> getBuilders() {
+        return (this.builders == null) ? Collections.<Builder>emptyList() : this.builders;
+    }
+
+    public String getAclToken() {
+        return this.aclToken;
+    }
+
+    @DataBoundSetter
+    public void setAclToken(@CheckForNull String aclToken) {
+        this.aclToken = aclToken;
+    }
+
+    public String getApiUri() {
+        return this.apiUri;
+    }
+
+    @DataBoundSetter
+    public void setApiUri(@CheckForNull String apiUri) {
+        this.apiUri = apiUri;
+    }
+
+    public int getTimeoutConnection() {
+        return this.timeoutConnection;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutConnection(int timeoutConnection) {
+        this.timeoutConnection = timeoutConnection;
+    }
+
+    public int getTimeoutResponse() {
+        return this.timeoutResponse;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutResponse(int timeoutResponse) {
+        this.timeoutResponse = timeoutResponse;
+    }
+
+    public int getTimeoutTotal() {
+        return this.timeoutTotal;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
+    public DebugMode getDebugMode() {
+        return this.debugMode;
+    }
+
+    @DataBoundSetter
+    public void setDebugMode(@CheckForNull DebugMode debugMode) {
+        this.debugMode = debugMode;
+    }
+
+    public boolean isIgnoreGlobalSettings() {
+        return this.ignoreGlobalSettings;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreGlobalSettings(boolean ignoreGlobalSettings) {
+        this.ignoreGlobalSettings = ignoreGlobalSettings;
+    }
+
+    public String getIncludes() {
+        return this.includes;
+    }
+
+    @DataBoundSetter
+    public void setIncludes(@CheckForNull String includes) {
+        this.includes = includes;
+    }
+
+    public String getExcludes() {
+        return this.excludes;
+    }
+
+    @DataBoundSetter
+    public void setExcludes(@CheckForNull String excludes) {
+        this.excludes = excludes;
+    }
+
+    public String getParameters() {
+        return this.parameters;
+    }
+
+    @DataBoundSetter
+    public void setParameters(@CheckForNull String parameters) {
+        this.parameters = parameters;
+    }
+
+    public String getOutputs() {
+        return this.outputs;
+    }
+
+    @DataBoundSetter
+    public void setOutputs(@CheckForNull String outputs) {
+        this.outputs = outputs;
+    }
+
+    public int getTtl() {
+        return this.ttl;
+    }
+
+    @DataBoundSetter
+    public void setTtl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Perform the work of the build step
+     *
+     * @param build
+     * @param workspace
+     * @param launcher
+     * @param listener
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    @Override
+    public void perform(@Nonnull Run<?, ?> build, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull
+    TaskListener listener) throws InterruptedException, IOException {
+
+        final PrintStream logger = listener.getLogger();
+        final EnvVars environment = build.getEnvironment(listener);
+
+        try {
+            if (!this.ignoreGlobalSettings) {
+                //Try to use global settings and backup from constants.
+                this.updateFromGlobalConfiguration();
+
+                if (Strings.isEmpty(this.hostUrl)) {
+                    throw new ConsulRequestException("Global settings host URL was not found.");
+                }
+            }
+
+            if (Strings.isBlank(this.prefix)) {
+                throw new ValidationException("Cache prefix is required.");
+            }
+
+            if (this.debugMode == null) {
+                this.debugMode = DebugMode.DISABLED;
+            }
+
+            String filesHash = Strings.isBlank(this.includes) ? "" : workspace.act(new StageCache.HashInputs
+                    (environment.expand(this.includes), Strings.isBlank(this.excludes) ? null : environment.expand
+                    (this.excludes)));
+
+            Map<String, String> parameterValues = new LinkedHashMap<String, String>();
+            for (String name : names(this.parameters)) {
+                parameterValues.put(name, Strings.nvl(environment.get(name), ""));
+            }
+
+            String hash = StageCache.key(filesHash, parameterValues);
+            String cacheKey = Strings.nvl(environment.expand(this.prefix), "").trim().replaceAll("^/+|/+$", "") +
+                    "/" + hash;
+
+            logger.println(String.format("Consul K/V cache key:  %s", cacheKey));
+            build.addAction(new VariableInjectionAction(Constants.ENV_CACHE_KEY, hash));
+
+            //The lookup and the store get a budget each, the wrapped steps run in between
+            ConsulRequest readRequest = this.request(this.url(environment, cacheKey, null), null, RequestMode.READ,
+                    ConsulDeadline.after(this.timeoutTotal), logger);
+            List<ConsulKVEntry> entries = ConsulRequestUtils.parseEntries(ConsulRequestUtils.readResponse
+                    (readRequest).getBody());
+
+            if (!entries.isEmpty() && entries.get(0).getValue() != null) {
+                Map<String, String> cached = StageCache.parseOutputs(entries.get(0).getValue());
+                logger.println(String.format("Consul K/V cache hit, skipping %d build steps.", this.getBuilders()
+                        .size()));
+
+                for (Map.Entry<String, String> output : cached.entrySet()) {
+                    build.addAction(new VariableInjectionAction(output.getKey(), output.getValue()));
+                    logger.println(String.format("Stored ENV variable (k,v):  %s=%s", output.getKey(), output
+                            .getValue()));
+                }
+                build.addAction(new VariableInjectionAction(Constants.ENV_CACHE_HIT, "true"));
+
+                return;
+            }
+
+            logger.println("Consul K/V cache miss, running the build steps.");
+            build.addAction(new VariableInjectionAction(Constants.ENV_CACHE_HIT, "false"));
+
+            if (!this.runBuilders(build, workspace, launcher, listener)) {
+                logger.println("Build steps did not succeed, nothing is cached.");
+                return;
+            }
+
+            //Outputs are read after the steps, which may have contributed them
+            EnvVars after = build.getEnvironment(listener);
+            Map<String, String> outputValues = new LinkedHashMap<String, String>();
+            for (String name : names(this.outputs)) {
+                if (after.get(name) == null) {
+                    logger.println(String.format("Output %s was not set by the build steps, it is not cached.",
+                            name));
+                } else {
+                    outputValues.put(name, after.get(name));
+                }
+            }
+
+            this.store(environment, cacheKey, StageCache.toJson(outputValues, build.getExternalizableId()),
+                    logger);
+
+        } catch (IOException ioe) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("IO exception was detected:  %s%n", ioe);
+        } catch (ValidationException ve) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Validation exception was detected:  %s%n", ve);
+        } catch (ConsulRequestException cre) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Consul request exception was detected:  %s%n", cre);
+        }
+    }
+
+    /*
+     * Runs the wrapped steps in order, stopping at the first one that does not succeed.  Steps other than simple
+     * build steps need a freestyle build.
+     */
+    private boolean runBuilders(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws InterruptedException, IOException, ValidationException {
+        for (Builder builder : this.getBuilders()) {
+            if (builder instanceof SimpleBuildStep) {
+                ((SimpleBuildStep) builder).perform(build, workspace, launcher, listener);
+            } else if (build instanceof AbstractBuild && listener instanceof BuildListener) {
+                if (!builder.perform((AbstractBuild<?, ?>) build, launcher, (BuildListener) listener)) {
+                    build.setResult(Result.FAILURE);
+                }
+            } else {
+                throw new ValidationException(String.format("Build step %s can only be cached in a freestyle " +
+                        "build.", builder.getDescriptor().getDisplayName()));
+            }
+
+            Result result = build.getResult();
+            if (result != null && result.isWorseThan(Result.SUCCESS)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Writes the entry held by a new session, the session expiring deletes it.  A failure here does not fail the
+     * build, the next run misses the cache and stores it again.
+     */
+    private void store(EnvVars environment, String cacheKey, String value, PrintStream logger) throws
+            ValidationException, IOException, InterruptedException {
+        int ttlSeconds = (this.ttl <= 0) ? Constants.CACHE_TTL : this.ttl;
+        ConsulDeadline deadline = ConsulDeadline.after(this.timeoutTotal);
+
+        try {
+            String sessionUrl = environment.expand(this.hostUrl) + Constants.SESSION_URI + "create";
+            if (!Strings.isEmpty(this.aclToken)) {
+                sessionUrl += String.format(Constants.TOKEN_URL_PATTERN, environment.expand(this.aclToken));
+            }
+
+            String session = ConsulRequestUtils.createSession(this.request(sessionUrl, StageCache.sessionJson
+                    ("consul-kv-cache " + cacheKey, ttlSeconds), RequestMode.WRITE, deadline, logger));
+            String response = ConsulRequestUtils.write(this.request(this.url(environment, cacheKey, "acquire=" +
+                    session), value, RequestMode.WRITE, deadline, logger));
+
+            if ("true".equals(Strings.nvl(response, "").trim())) {
+                logger.println(String.format("Consul K/V cache entry stored for %d seconds:  %s", ttlSeconds,
+                        cacheKey));
+            } else {
+                logger.println(String.format("Consul K/V cache entry %s is held by another run, not stored.",
+                        cacheKey));
+            }
+        } catch (ConsulRequestException cre) {
+            logger.println(String.format("Could not store the Consul K/V cache entry:  %s", cre));
+        }
+    }
+
+    private String url(EnvVars environment, String cacheKey, String query) {
+        String api = Strings.isEmpty(this.apiUri) ? Constants.API_URI : environment.expand(this.apiUri);
+        StringBuilder urlStringBuilder = new StringBuilder(environment.expand(this.hostUrl)).append(api).append
+                (cacheKey);
+        char separator = '?';
+
+        if (query != null) {
+            urlStringBuilder.append(separator).append(query);
+            separator = '&';
+        }
+        if (!Strings.isEmpty(this.aclToken)) {
+            urlStringBuilder.append(separator).append("token=").append(environment.expand(this.aclToken));
+        }
+
+        return urlStringBuilder.toString();
+    }
+
+    private ConsulRequest request(String url, String value, RequestMode requestMode, ConsulDeadline deadline,
+                                  PrintStream logger) throws ValidationException {
+        int timeoutConn = (this.timeoutConnection == 0) ? Constants.TIMEOUT_CONNECTION : this.timeoutConnection;
+        int timeoutResp = (this.timeoutResponse == 0) ? Constants.TIMEOUT_RESPONSE : this.timeoutResponse;
+
+        return ConsulRequestFactory.request().withUrl(url).withValue(value).withTimeoutConnect(timeoutConn)
+                .withTimeoutResponse(timeoutResp).withDeadline(deadline).withDebugMode(this.debugMode)
+                .withRequestMode(requestMode).withLogger(logger).build();
+    }
+
+    /*
+     * Names separated by commas, spaces or new lines.
+     */
+    private static List<String> names(String value) {
+        List<String> names = new ArrayList<String>();
+
+        if (value != null) {
+            for (String name : value.split("[,\\s]+")) {
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+
+        return names;
+    }
+
+    /*
+     * Loads global settings from <code>GlobalConsulConfig</code>
+     */
+    private void updateFromGlobalConfiguration() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = (GlobalConsulConfig.DescriptorImpl)
+                    jenkins.getDescriptor(GlobalConsulConfig.class);
+
+            if (globalDescriptor != null) {
+                this.hostUrl = globalDescriptor.getConsulHostUrl();
+                this.apiUri = globalDescriptor.getConsulApiUri();
+                this.aclToken = globalDescriptor.getConsulAclToken();
+                this.timeoutConnection = globalDescriptor.getConsulTimeoutConnection();
+                this.timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                this.timeoutTotal = globalDescriptor.getConsulTimeoutTotal();
+                this.debugMode = globalDescriptor.getConsulDebugMode();
+            } else {
+                LOGGER.warning("Could not load global settings.");
+            }
+        } else {
+            LOGGER.warning("Could not load global settings.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKVCacheBuilder{" +
+                "hostUrl='" + hostUrl + '\'' +
+                ", prefix='" + prefix + '\'' +
+                ", builders=" + builders +
+                ", token='" + aclToken + '\'' +
+                ", apiUri='" + apiUri + '\'' +
+                ", timeoutConnection=" + timeoutConnection +
+                ", timeoutResponse=" + timeoutResponse +
+                ", timeoutTotal=" + timeoutTotal +
+                ", debugMode=" + debugMode +
+                ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                ", includes='" + includes + '\'' +
+                ", excludes='" + excludes + '\'' +
+                ", parameters='" + parameters + '\'' +
+                ", outputs='" + outputs + '\'' +
+                ", ttl=" + ttl +
+                '}';
+    }
+
+    /**
+     * Descriptor for {@link ConsulKVCacheBuilder}.
+     */
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        public ListBoxModel doFillDebugModeItems() {
+            return DebugMode.getFillItems();
+        }
+
+        public DebugMode getDefaultDebugMode() {
+            return DebugMode.DISABLED;
+        }
+
+        /**
+         * @param project project being configured, or null
+         * @return build steps that can be wrapped, without this one
+         */
+        public List<Descriptor<Builder>> getBuilderDescriptors(@CheckForNull AbstractProject<?, ?> project) {
+            List<Descriptor<Builder>> descriptors = new ArrayList<Descriptor<Builder>>(BuildStepDescriptor.filter
+                    (Builder.all(), (project == null) ? FreeStyleProject.class : project.getClass()));
+            descriptors.remove(this);
+
+            return descriptors;
+        }
+
+        public FormValidation doCheckHostUrl(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set a Host URL, including protocol, eg: http/https.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckPrefix(@QueryParameter String value) {
+            if (value.trim().replace("/", "").isEmpty()) {
+                return FormValidation.error("Please set the prefix of the cache entries.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTtl(@QueryParameter int value) {
+            if (value != 0 && (value < StageCache.TTL_MIN || value > StageCache.TTL_MAX)) {
+                return FormValidation.warning(String.format("Consul session TTLs range from %d to %d seconds, the " +
+                        "TTL will be clamped.", StageCache.TTL_MIN, StageCache.TTL_MAX));
+            }
+
+            return FormValidation.ok();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Consul K/V Cache";
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.consulkv;
+
+import org.jenkinsci.plugins.consulkv.common.Constants;
+
+import java.nio.charset.Charset;
+
+/**
+ * Consul K/V entry domain type, as returned by the K/V read endpoint.  The value is kept as the raw bytes Consul
+ * stored, binary values included, and decoded as UTF-8 text on {@link #getValue()}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVEntry {
+    private String key;
+    private byte[] data;
+    private long modifyIndex;
+    private String session;
+
+    public ConsulKVEntry(String key, String value, long modifyIndex) {
+        this(key, value, modifyIndex, null);
+    }
+
+    public ConsulKVEntry(String key, String value, long modifyIndex, String session) {
+        this(key, (value == null) ? null : value.getBytes(Charset.forName(Constants.DEFAULT_ENCODING)), modifyIndex,
+                session);
+    }
+
+    public ConsulKVEntry(String key, byte[] data, long modifyIndex, String session) {
+        this.key = key;
+        this.data = data;
+        this.modifyIndex = modifyIndex;
+        this.session = session;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return decoded value, may be null for keys without a value (e.g. folders).
+     */
+    public String getValue() {
+        return (data == null) ? null : new String(data, Charset.forName(Constants.DEFAULT_ENCODING));
+    }
+
+    /**
+     * @return raw value, may be null for keys without a value (e.g. folders).
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getModifyIndex() {
+        return modifyIndex;
+    }
+
+    /**
+     * @return ID of the session holding the key, or null when it is not locked.
+     */
+    public String getSession() {
+        return session;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKVEntry{" +
+                "key='" + key + '\'' +
+                ", value='" + getValue() + '\'' +
+                ", modifyIndex=" + modifyIndex +
+                ", session='" + session + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,517 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.ValueFormat;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulTxnUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.jenkinsci.plugins.consulkv.common.utils.ValueFlattener;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Build step importing a properties, JSON or YAML file from the workspace into a K/V prefix.  The file is flattened
+ * into keys on the agent, and written in transactions of up to {@link Constants#TXN_MAX_OPS} keys submitted
+ * concurrently.  In diff-only mode, keys whose value already matches are left alone.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVImportBuilder extends Builder implements SimpleBuildStep {
+    private static Logger LOGGER = Logger.getLogger(ConsulKVImportBuilder.class.getName());
+
+    private static final String WRITTEN = "written";
+    private static final String UNCHANGED = "unchanged";
+    private static final String FAILED = "failed";
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V import"));
+
+    private String hostUrl;
+    private String file;
+    private String prefix;
+    private String aclToken;
+    private int timeoutConnection;
+    private int timeoutResponse;
+    private int timeoutTotal;
+    private DebugMode debugMode;
+    private boolean ignoreGlobalSettings;
+    private ValueFormat valueFormat;
+    private boolean diffOnly;
+    private int concurrency;
+
+    @DataBoundConstructor
+    public ConsulKVImportBuilder(@CheckForNull String hostUrl, @CheckForNull String file, @CheckForNull String
+            prefix) {
+        this.hostUrl = hostUrl;
+        this.file = file;
+        this.prefix = prefix;
+    }
+
+    public String getHostUrl() {
+        return this.hostUrl;
+    }
+
+    public String getFile() {
+        return this.file;
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public String getAclToken() {
+        return this.aclToken;
+    }
+
+    @DataBoundSetter
+    public void setAclToken(@CheckForNull String aclToken) {
+        this.aclToken = aclToken;
+    }
+
+    public int getTimeoutConnection() {
+        return this.timeoutConnection;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutConnection(int timeoutConnection) {
+        this.timeoutConnection = timeoutConnection;
+    }
+
+    public int getTimeoutResponse() {
+        return this.timeoutResponse;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutResponse(int timeoutResponse) {
+        this.timeoutResponse = timeoutResponse;
+    }
+
+    public int getTimeoutTotal() {
+        return this.timeoutTotal;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
+    public DebugMode getDebugMode() {
+        return this.debugMode;
+    }
+
+    @DataBoundSetter
+    public void setDebugMode(@CheckForNull DebugMode debugMode) {
+        this.debugMode = debugMode;
+    }
+
+    public boolean isIgnoreGlobalSettings() {
+        return this.ignoreGlobalSettings;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreGlobalSettings(boolean ignoreGlobalSettings) {
+        this.ignoreGlobalSettings = ignoreGlobalSettings;
+    }
+
+    public ValueFormat getValueFormat() {
+        return this.valueFormat;
+    }
+
+    @DataBoundSetter
+    public void setValueFormat(@CheckForNull ValueFormat valueFormat) {
+        this.valueFormat = valueFormat;
+    }
+
+    public boolean isDiffOnly() {
+        return this.diffOnly;
+    }
+
+    @DataBoundSetter
+    public void setDiffOnly(boolean diffOnly) {
+        this.diffOnly = diffOnly;
+    }
+
+    public int getConcurrency() {
+        return this.concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Perform the work of the build step
+     *
+     * @param build
+     * @param workspace
+     * @param launcher
+     * @param listener
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    @Override
+    public void perform(@Nonnull Run<?, ?> build, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull
+    TaskListener listener) throws InterruptedException, IOException {
+
+        final PrintStream logger = listener.getLogger();
+        final EnvVars environment = build.getEnvironment(listener);
+
+        try {
+            if (!this.ignoreGlobalSettings) {
+                //Try to use global settings and backup from constants.
+                this.updateFromGlobalConfiguration();
+
+                if (Strings.isEmpty(this.hostUrl)) {
+                    throw new ConsulRequestException("Global settings host URL was not found.");
+                }
+            }
+
+            if (Strings.isBlank(this.file)) {
+                throw new ValidationException("File path is required.");
+            }
+
+            if (this.debugMode == null) {
+                this.debugMode = DebugMode.DISABLED;
+            }
+
+            String expandedFile = environment.expand(this.file);
+            //Keys are written as prefix/path/to/field
+            String expandedPrefix = Strings.nvl(environment.expand(this.prefix), "").trim().replaceAll("^/+|/+$", "");
+            ValueFormat format = (this.valueFormat == null) ? guessFormat(expandedFile) : this.valueFormat;
+            FilePath filePath = workspace.child(expandedFile);
+
+            if (!filePath.exists()) {
+                throw new ValidationException(String.format("File %s was not found.", filePath.getRemote()));
+            }
+
+            //Parsed on the agent, only the keys and values come back
+            Map<String, String> values = filePath.act(new ReadFile(format, expandedPrefix));
+            logger.println(String.format("Read %d keys from %s (%s).", values.size(), expandedFile, format));
+
+            final ConsulDeadline deadline = ConsulDeadline.after(this.timeoutTotal);
+            Map<String, String> results = new TreeMap<String, String>();
+            Map<String, String> pending = new LinkedHashMap<String, String>(values);
+
+            if (this.diffOnly) {
+                Map<String, String> current = this.list(expandedPrefix, deadline, environment, logger);
+
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    if (entry.getValue().equals(current.get(entry.getKey()))) {
+                        pending.remove(entry.getKey());
+                        results.put(entry.getKey(), UNCHANGED);
+                    }
+                }
+            }
+
+            List<Map<String, String>> chunks = ConsulTxnUtils.chunk(pending, Constants.TXN_MAX_OPS, Constants
+                    .TXN_MAX_VALUE_BYTES);
+            this.write(chunks, deadline, environment, results, logger);
+
+            int failed = 0;
+            int written = 0;
+            for (Map.Entry<String, String> result : results.entrySet()) {
+                logger.println(String.format("  %-9s %s", result.getValue(), result.getKey()));
+                if (FAILED.equals(result.getValue())) {
+                    failed++;
+                } else if (WRITTEN.equals(result.getValue())) {
+                    written++;
+                }
+            }
+
+            logger.println(String.format("Imported %d keys in %d transactions:  %d written, %d unchanged, %d " +
+                    "failed.", results.size(), chunks.size(), written, results.size() - written - failed, failed));
+
+            if (failed > 0) {
+                build.setResult(Result.FAILURE);
+            }
+
+        } catch (IOException ioe) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("IO exception was detected:  %s%n", ioe);
+        } catch (ValidationException ve) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Validation exception was detected:  %s%n", ve);
+        } catch (ConsulRequestException cre) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Consul request exception was detected:  %s%n", cre);
+        }
+    }
+
+    /*
+     * Current values under the prefix, in one recursive read.
+     */
+    private Map<String, String> list(String keyPrefix, ConsulDeadline deadline, EnvVars environment, PrintStream
+            logger) throws ConsulRequestException, ValidationException, IOException, InterruptedException {
+        StringBuilder urlStringBuilder = new StringBuilder(environment.expand(this.hostUrl)).append(Constants
+                .API_URI);
+        if (!Strings.isEmpty(keyPrefix)) {
+            urlStringBuilder.append(keyPrefix).append('/');
+        }
+        urlStringBuilder.append("?recurse");
+        if (!Strings.isEmpty(this.aclToken)) {
+            urlStringBuilder.append("&token=").append(environment.expand(this.aclToken));
+        }
+
+        ConsulRequest consulRequest = this.request(urlStringBuilder.toString(), null, RequestMode.READ, deadline,
+                logger);
+
+        Map<String, String> current = new HashMap<String, String>();
+        for (ConsulKVEntry entry : ConsulRequestUtils.parseEntries(ConsulRequestUtils.readResponse(consulRequest)
+                .getBody())) {
+            current.put(entry.getKey(), Strings.nvl(entry.getValue(), ""));
+        }
+
+        return current;
+    }
+
+    /*
+     * Submits the chunks, at most the configured concurrency at a time, and records the outcome of each key.
+     */
+    private void write(List<Map<String, String>> chunks, ConsulDeadline deadline, EnvVars environment, Map<String,
+            String> results, final PrintStream logger) throws ConsulRequestException, ValidationException,
+            IOException, InterruptedException {
+        String url = environment.expand(this.hostUrl) + Constants.TXN_URI;
+        if (!Strings.isEmpty(this.aclToken)) {
+            url += String.format(Constants.TOKEN_URL_PATTERN, environment.expand(this.aclToken));
+        }
+
+        int limit = (this.concurrency <= 0) ? Constants.IMPORT_CONCURRENCY : this.concurrency;
+        CompletionService<List<String>> completionService = new ExecutorCompletionService<List<String>>(EXECUTOR);
+        Map<Future<List<String>>, Map<String, String>> submitted = new HashMap<Future<List<String>>, Map<String,
+                String>>();
+        int next = 0;
+
+        try {
+            while (next < chunks.size() || !submitted.isEmpty()) {
+                while (next < chunks.size() && submitted.size() < limit) {
+                    Map<String, String> chunk = chunks.get(next++);
+                    List<Map<String, Object>> ops = new ArrayList<Map<String, Object>>();
+                    for (Map.Entry<String, String> entry : chunk.entrySet()) {
+                        ops.add(ConsulTxnUtils.setOp(entry.getKey(), entry.getValue()));
+                    }
+
+                    final ConsulRequest consulRequest = this.request(url, ConsulTxnUtils.toJson(ops), RequestMode
+                            .WRITE, deadline, logger);
+                    submitted.put(completionService.submit(new Callable<List<String>>() {
+                        @Override
+                        public List<String> call() throws Exception {
+                            ConsulResponse response = ConsulRequestUtils.transaction(consulRequest);
+
+                            if (response.getStatus() == Constants.HTTP_CONFLICT) {
+                                return ConsulTxnUtils.parseErrors(response.getBody());
+                            }
+                            return Collections.emptyList();
+                        }
+                    }), chunk);
+                }
+
+                Future<List<String>> future = completionService.take();
+                Map<String, String> chunk = submitted.remove(future);
+                List<String> errors;
+
+                try {
+                    errors = future.get();
+                } catch (ExecutionException ee) {
+                    errors = Collections.singletonList(String.valueOf(ee.getCause()));
+                }
+
+                if (!errors.isEmpty()) {
+                    logger.println(String.format("Transaction of %d keys, starting at %s, was rolled back:  %s",
+                            chunk.size(), chunk.keySet().iterator().next(), errors));
+                }
+
+                for (String key : chunk.keySet()) {
+                    results.put(key, errors.isEmpty() ? WRITTEN : FAILED);
+                }
+            }
+        } finally {
+            //Aborts the transactions still running after an interrupt
+            for (Future<List<String>> future : submitted.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private ConsulRequest request(String url, String value, RequestMode requestMode, ConsulDeadline deadline,
+                                  PrintStream logger) throws ValidationException {
+        int timeoutConn = (this.timeoutConnection == 0) ? Constants.TIMEOUT_CONNECTION : this.timeoutConnection;
+        int timeoutResp = (this.timeoutResponse == 0) ? Constants.TIMEOUT_RESPONSE : this.timeoutResponse;
+
+        return ConsulRequestFactory.request().withUrl(url).withValue(value).withTimeoutConnect(timeoutConn)
+                .withTimeoutResponse(timeoutResp).withDeadline(deadline).withDebugMode(this.debugMode)
+                .withRequestMode(requestMode).withLogger(logger).build();
+    }
+
+    private static ValueFormat guessFormat(String fileName) {
+        String name = fileName.toLowerCase(Locale.ENGLISH);
+
+        if (name.endsWith(".json")) {
+            return ValueFormat.JSON;
+        } else if (name.endsWith(".yml") || name.endsWith(".yaml")) {
+            return ValueFormat.YAML;
+        }
+
+        return ValueFormat.PROPERTIES;
+    }
+
+    /*
+     * Loads global settings from <code>GlobalConsulConfig</code>
+     */
+    private void updateFromGlobalConfiguration() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = (GlobalConsulConfig.DescriptorImpl)
+                    jenkins.getDescriptor(GlobalConsulConfig.class);
+
+            if (globalDescriptor != null) {
+                this.hostUrl = globalDescriptor.getConsulHostUrl();
+                this.aclToken = globalDescriptor.getConsulAclToken();
+                this.timeoutConnection = globalDescriptor.getConsulTimeoutConnection();
+                this.timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                this.timeoutTotal = globalDescriptor.getConsulTimeoutTotal();
+                this.debugMode = globalDescriptor.getConsulDebugMode();
+            } else {
+                LOGGER.warning("Could not load global settings.");
+            }
+        } else {
+            LOGGER.warning("Could not load global settings.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKVImportBuilder{" +
+                "hostUrl='" + hostUrl + '\'' +
+                ", file='" + file + '\'' +
+                ", prefix='" + prefix + '\'' +
+                ", token='" + aclToken + '\'' +
+                ", timeoutConnection=" + timeoutConnection +
+                ", timeoutResponse=" + timeoutResponse +
+                ", timeoutTotal=" + timeoutTotal +
+                ", debugMode=" + debugMode +
+                ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                ", valueFormat=" + valueFormat +
+                ", diffOnly=" + diffOnly +
+                ", concurrency=" + concurrency +
+                '}';
+    }
+
+    /**
+     * Flattens the file into K/V pairs, on the agent.
+     */
+    private static final class ReadFile extends MasterToSlaveFileCallable<LinkedHashMap<String, String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ValueFormat format;
+        private final String prefix;
+
+        private ReadFile(ValueFormat format, String prefix) {
+            this.format = format;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public LinkedHashMap<String, String> invoke(File file, VirtualChannel channel) throws IOException,
+                InterruptedException {
+            return new LinkedHashMap<String, String>(ValueFlattener.flattenKeys(new BufferedReader(new
+                    InputStreamReader(new FileInputStream(file), Constants.DEFAULT_ENCODING)), format, prefix));
+        }
+    }
+
+    /**
+     * Descriptor for {@link ConsulKVImportBuilder}.
+     */
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        public ListBoxModel doFillDebugModeItems() {
+            return DebugMode.getFillItems();
+        }
+
+        public ListBoxModel doFillValueFormatItems() {
+            return ValueFormat.getFillItems();
+        }
+
+        public DebugMode getDefaultDebugMode() {
+            return DebugMode.DISABLED;
+        }
+
+        public FormValidation doCheckHostUrl(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set a Host URL, including protocol, eg: http/https.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckFile(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set the workspace path of the file to import.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Consul K/V Import";
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildWrapperDescriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildWrapper;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.lock.ConsulLock;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.logging.Logger;
+
+/**
+ * Wrapper holding a Consul lock, or a slot of a semaphore, for the duration of the build.  Builds on any Jenkins
+ * controller sharing the Consul cluster wait for each other; a waiting build wakes up as soon as Consul reports the
+ * release, through a blocking query, rather than polling.  The session is renewed by this controller while the lock is
+ * held, and is invalidated by Consul after its TTL if the controller goes away.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVLockWrapper extends SimpleBuildWrapper {
+    private static Logger LOGGER = Logger.getLogger(ConsulKVLockWrapper.class.getName());
+
+    private String hostUrl;
+    private String key;
+    private String aclToken;
+    private String apiUri;
+    private int timeoutConnection;
+    private int timeoutResponse;
+    private DebugMode debugMode;
+    private boolean ignoreGlobalSettings;
+    private int limit;
+    private int ttl;
+    private int timeout;
+
+    @DataBoundConstructor
+    public ConsulKVLockWrapper(@CheckForNull String hostUrl, @CheckForNull String key) {
+        this.hostUrl = hostUrl;
+        this.key = key;
+    }
+
+    public String getHostUrl() {
+        return this.hostUrl;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public String getAclToken() {
+        return this.aclToken;
+    }
+
+    @DataBoundSetter
+    public void setAclToken(String aclToken) {
+        this.aclToken = aclToken;
+    }
+
+    public String getApiUri() {
+        return this.apiUri;
+    }
+
+    @DataBoundSetter
+    public void setApiUri(String apiUri) {
+        this.apiUri = apiUri;
+    }
+
+    public int getTimeoutConnection() {
+        return this.timeoutConnection;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutConnection(int timeoutConnection) {
+        this.timeoutConnection = timeoutConnection;
+    }
+
+    public int getTimeoutResponse() {
+        return this.timeoutResponse;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutResponse(int timeoutResponse) {
+        this.timeoutResponse = timeoutResponse;
+    }
+
+    public DebugMode getDebugMode() {
+        return this.debugMode;
+    }
+
+    @DataBoundSetter
+    public void setDebugMode(@CheckForNull DebugMode debugMode) {
+        this.debugMode = debugMode;
+    }
+
+    public boolean isIgnoreGlobalSettings() {
+        return this.ignoreGlobalSettings;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreGlobalSettings(boolean ignoreGlobalSettings) {
+        this.ignoreGlobalSettings = ignoreGlobalSettings;
+    }
+
+    /**
+     * @return holders of the semaphore, 0 or 1 for a lock
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    @DataBoundSetter
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return session TTL in seconds, 0 for the default
+     */
+    public int getTtl() {
+        return this.ttl;
+    }
+
+    @DataBoundSetter
+    public void setTtl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return seconds to wait for the lock, 0 to wait until it is acquired or the build is aborted
+     */
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void setUp(Context context, Run<?, ?> run, FilePath filePath, Launcher launcher, TaskListener
+            listener, EnvVars envVars) throws IOException, InterruptedException {
+        PrintStream logger = listener.getLogger();
+
+        try {
+            if (!this.ignoreGlobalSettings) {
+                //Try to use global settings and backup from constants.
+                this.updateFromGlobalConfiguration();
+
+                if (Strings.isEmpty(this.hostUrl)) {
+                    throw new ConsulRequestException("Global settings host URL was not found.");
+                }
+            }
+
+            if (Strings.isBlank(this.key)) {
+                throw new ValidationException("Lock key is required.");
+            }
+
+            int timeoutConn = (this.timeoutConnection == 0) ? Constants.TIMEOUT_CONNECTION : this.timeoutConnection;
+            int timeoutResp = (this.timeoutResponse == 0) ? Constants.TIMEOUT_RESPONSE : this.timeoutResponse;
+            String apiUrl = Strings.isBlank(this.apiUri) ? Constants.API_URI : envVars.expand(this.apiUri);
+            String expandedKey = envVars.expand(this.key);
+
+            ConsulLock lock = new ConsulLock(envVars.expand(this.hostUrl), apiUrl, expandedKey, Strings.isEmpty(this
+                    .aclToken) ? null : envVars.expand(this.aclToken), this.limit, (this.ttl <= 0) ? Constants
+                    .LOCK_TTL : this.ttl, timeoutConn, timeoutResp, this.debugMode, logger);
+
+            logger.println(String.format("Waiting for the Consul lock %s.", expandedKey));
+            long started = System.currentTimeMillis();
+            String session = lock.acquire(run.getExternalizableId(), ConsulDeadline.after(this.timeout * 1000L));
+            logger.println(String.format("Acquired the Consul lock %s in %d ms, session %s.", expandedKey, System
+                    .currentTimeMillis() - started, session));
+
+            context.env(Constants.ENV_LOCK_SESSION, session);
+            context.setDisposer(new Release(expandedKey, session));
+        } catch (ValidationException ve) {
+            listener.fatalError("Validation exception was detected:  %s%n", ve);
+            throw new AbortException("Consul lock was not acquired.");
+        } catch (ConsulRequestException cre) {
+            listener.fatalError("Consul request exception was detected:  %s%n", cre);
+            throw new AbortException("Consul lock was not acquired.");
+        }
+    }
+
+    private void updateFromGlobalConfiguration() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = (GlobalConsulConfig.DescriptorImpl)
+                    jenkins.getDescriptor(GlobalConsulConfig.class);
+
+            if (globalDescriptor != null) {
+                this.hostUrl = globalDescriptor.getConsulHostUrl();
+                this.apiUri = globalDescriptor.getConsulApiUri();
+                this.aclToken = globalDescriptor.getConsulAclToken();
+                this.timeoutConnection = globalDescriptor.getConsulTimeoutConnection();
+                this.timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                this.debugMode = globalDescriptor.getConsulDebugMode();
+            } else {
+                LOGGER.warning("Could not load global settings.");
+            }
+        } else {
+            LOGGER.warning("Could not load global settings.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKVLockWrapper{" +
+                "hostUrl='" + hostUrl + '\'' +
+                ", key='" + key + '\'' +
+                ", token='" + aclToken + '\'' +
+                ", apiUri='" + apiUri + '\'' +
+                ", timeoutConnection=" + timeoutConnection +
+                ", timeoutResponse=" + timeoutResponse +
+                ", debugMode=" + debugMode +
+                ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                ", limit=" + limit +
+                ", ttl=" + ttl +
+                ", timeout=" + timeout +
+                '}';
+    }
+
+    /**
+     * Releases the lock when the build completes, aborted builds included.
+     */
+    private static final class Release extends Disposer {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final String session;
+
+        private Release(String key, String session) {
+            this.key = key;
+            this.session = session;
+        }
+
+        @Override
+        public void tearDown(Run<?, ?> run, FilePath filePath, Launcher launcher, TaskListener listener) throws
+                IOException, InterruptedException {
+            try {
+                if (ConsulLock.release(this.session)) {
+                    listener.getLogger().println(String.format("Released the Consul lock %s.", this.key));
+                } else {
+                    listener.getLogger().println(String.format("The Consul lock %s is no longer held by this " +
+                            "controller, its session expires with its TTL.", this.key));
+                }
+            } catch (ConsulRequestException cre) {
+                listener.error("Could not release the Consul lock %s, its session was destroyed:  %s", this.key,
+                        cre);
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildWrapperDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "Hold a Consul K/V lock";
+        }
+
+        @Override
+        public boolean isApplicable(AbstractProject<?, ?> item) {
+            return true;
+        }
+
+        public ListBoxModel doFillDebugModeItems() {
+            return DebugMode.getFillItems();
+        }
+
+        public DebugMode getDefaultDebugMode() {
+            return DebugMode.DISABLED;
+        }
+
+        public FormValidation doCheckHostUrl(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set a Host URL, including protocol, eg: http/https.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckKey(@QueryParameter String value) {
+            if (value.trim().isEmpty()) {
+                return FormValidation.error("Please set the lock key, or the semaphore prefix.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTtl(@QueryParameter int value) {
+            if (value != 0 && (value < Constants.SESSION_TTL_MIN || value > Constants.SESSION_TTL_MAX)) {
+                return FormValidation.warning(String.format("Consul session TTLs range from %d to %d seconds, the " +
+                        "TTL will be clamped.", Constants.SESSION_TTL_MIN, Constants.SESSION_TTL_MAX));
+            }
+
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.jenkinsci.plugins.consulkv;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.consulkv.common.ConsulInFlight;
+import org.jenkinsci.plugins.consulkv.common.ConsulLimiter;
+import org.jenkinsci.plugins.consulkv.common.ConsulMetrics;
+import org.jenkinsci.plugins.consulkv.common.ConsulRunMemo;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.transport.ConsulTransports;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulAsyncRequestUtils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <code>Manage Jenkins &raquo; Consul K/V Requests</code>:  live view of the Consul requests in flight, the request
+ * slots of each cluster, the asynchronous connection pool, the run memo hit ratio and the recent error rate of each
+ * endpoint.  The same data is served as JSON at <code>/manage/consul-kv/json</code>, and stuck requests can be
+ * cancelled.  Complements the one-off Test Connection of {@link GlobalConsulConfig}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+@Extension
+public class ConsulKVManagementLink extends ManagementLink {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Override
+    public String getIconFileName() {
+        return "gear2.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "consul-kv";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Consul K/V Requests";
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("Requests in flight, connection pools and error rates of the %s.", Constants
+                .PLUGIN_NAME);
+    }
+
+    public List<ConsulInFlight.Request> getRequests() {
+        return ConsulInFlight.getRequests();
+    }
+
+    public Collection<ConsulLimiter> getLimiters() {
+        return ConsulLimiter.getLimiters();
+    }
+
+    /**
+     * Blocking requests over TCP are not pooled, each opens its own connection, so only the asynchronous client's
+     * routes and the Unix sockets are listed.
+     *
+     * @return leased, available and pending connections by route or socket
+     */
+    public Map<String, int[]> getPoolStats() {
+        Map<String, int[]> stats = new TreeMap<String, int[]>(ConsulAsyncRequestUtils.getPoolStats());
+
+        stats.putAll(ConsulTransports.getPoolStats());
+        return stats;
+    }
+
+    public Map<String, long[]> getErrorRates() {
+        return ConsulInFlight.getErrorRates();
+    }
+
+    public int getRequestsInFlight() {
+        return ConsulMetrics.getInFlight();
+    }
+
+    public int getQueueDepth() {
+        int queueDepth = 0;
+
+        for (ConsulLimiter limiter : ConsulLimiter.getLimiters()) {
+            queueDepth += limiter.getQueueDepth();
+        }
+        return queueDepth;
+    }
+
+    public long getMemoHits() {
+        return ConsulRunMemo.getTotalHits();
+    }
+
+    public long getMemoMisses() {
+        return ConsulRunMemo.getTotalMisses();
+    }
+
+    /**
+     * @return run memo hit ratio in percent, e.g. <code>87.5</code>, or <code>-</code> before the first read
+     */
+    public String getMemoHitRatio() {
+        return ratio(this.getMemoHits(), this.getMemoHits() + this.getMemoMisses());
+    }
+
+    /**
+     * @param counts requests and errors, as in {@link #getErrorRates()}
+     * @return error rate in percent
+     */
+    public String errorRate(long[] counts) {
+        return ratio(counts[1], counts[0]);
+    }
+
+    public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkPermission();
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(this.toJson().toString());
+    }
+
+    @RequirePOST
+    public HttpResponse doCancel(@QueryParameter long id) {
+        checkPermission();
+
+        ConsulInFlight.cancel(id);
+        return HttpResponses.redirectToDot();
+    }
+
+    ObjectNode toJson() {
+        ObjectNode json = MAPPER.createObjectNode();
+
+        ArrayNode requests = json.putArray("requests");
+        for (ConsulInFlight.Request request : this.getRequests()) {
+            ObjectNode node = requests.addObject();
+            node.put("id", request.getId());
+            node.put("method", request.getMethod());
+            node.put("endpoint", request.getEndpoint());
+            node.put("path", request.getPath());
+            node.put("job", request.getJob());
+            node.put("ageMs", request.getAge());
+            node.put("cancelled", request.isCancelled());
+        }
+
+        json.put("requestsInFlight", this.getRequestsInFlight());
+        json.put("queueDepth", this.getQueueDepth());
+
+        ArrayNode limiters = json.putArray("limiters");
+        for (ConsulLimiter limiter : this.getLimiters()) {
+            ObjectNode node = limiters.addObject();
+            node.put("cluster", limiter.getCluster());
+            node.put("write", limiter.isWrite());
+            node.put("limit", limiter.getCurrentLimit());
+            node.put("inFlight", limiter.getInFlight());
+            node.put("queueDepth", limiter.getQueueDepth());
+        }
+
+        //Blocking requests over TCP open a connection each, they have no pool to report
+        json.put("blockingTcpPooled", false);
+        ObjectNode pools = json.putObject("connectionPool");
+        for (Map.Entry<String, int[]> route : this.getPoolStats().entrySet()) {
+            ObjectNode node = pools.putObject(route.getKey());
+            node.put("leased", route.getValue()[0]);
+            node.put("available", route.getValue()[1]);
+            node.put("pending", route.getValue()[2]);
+        }
+
+        ObjectNode memo = json.putObject("memo");
+        memo.put("hits", this.getMemoHits());
+        memo.put("misses", this.getMemoMisses());
+
+        ObjectNode errors = json.putObject("errorRates");
+        for (Map.Entry<String, long[]> endpoint : this.getErrorRates().entrySet()) {
+            ObjectNode node = errors.putObject(endpoint.getKey());
+            node.put("requests", endpoint.getValue()[0]);
+            node.put("errors", endpoint.getValue()[1]);
+        }
+
+        return json;
+    }
+
+    private static String ratio(long part, long total) {
+        if (total == 0) {
+            return "-";
+        }
+
+        return String.format(Locale.ENGLISH, "%.1f", 100.0 * part / total);
+    }
+
+    private static void checkPermission() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            jenkins.checkPermission(Jenkins.ADMINISTER);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.mirror.MirrorSync;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Build step mirroring a K/V prefix into a workspace directory, one file per key.  Each sync takes one recursive read
+ * of the prefix, and only the keys whose <code>ModifyIndex</code> changed since the last sync are sent to the agent
+ * and written, see {@link MirrorSync}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVMirrorBuilder extends Builder implements SimpleBuildStep {
+    private static Logger LOGGER = Logger.getLogger(ConsulKVMirrorBuilder.class.getName());
+
+    private String hostUrl;
+    private String prefix;
+    private String directory;
+    private String aclToken;
+    private String apiUri;
+    private int timeoutConnection;
+    private int timeoutResponse;
+    private int timeoutTotal;
+    private DebugMode debugMode;
+    private boolean ignoreGlobalSettings;
+
+    @DataBoundConstructor
+    public ConsulKVMirrorBuilder(@CheckForNull String hostUrl, @CheckForNull String prefix, @CheckForNull String
+            directory) {
+        this.hostUrl = hostUrl;
+        this.prefix = prefix;
+        this.directory = directory;
+    }
+
+    public String getHostUrl() {
+        return this.hostUrl;
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public String getDirectory() {
+        return this.directory;
+    }
+
+    public String getAclToken() {
+        return this.aclToken;
+    }
+
+    @DataBoundSetter
+    public void setAclToken(@CheckForNull String aclToken) {
+        this.aclToken = aclToken;
+    }
+
+    public String getApiUri() {
+        return this.apiUri;
+    }
+
+    @DataBoundSetter
+    public void setApiUri(@CheckForNull String apiUri) {
+        this.apiUri = apiUri;
+    }
+
+    public int getTimeoutConnection() {
+        return this.timeoutConnection;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutConnection(int timeoutConnection) {
+        this.timeoutConnection = timeoutConnection;
+    }
+
+    public int getTimeoutResponse() {
+        return this.timeoutResponse;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutResponse(int timeoutResponse) {
+        this.timeoutResponse = timeoutResponse;
+    }
+
+    public int getTimeoutTotal() {
+        return this.timeoutTotal;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
+    public DebugMode getDebugMode() {
+        return this.debugMode;
+    }
+
+    @DataBoundSetter
+    public void setDebugMode(@CheckForNull DebugMode debugMode) {
+        this.debugMode = debugMode;
+    }
+
+    public boolean isIgnoreGlobalSettings() {
+        return this.ignoreGlobalSettings;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreGlobalSettings(boolean ignoreGlobalSettings) {
+        this.ignoreGlobalSettings = ignoreGlobalSettings;
+    }
+
+    /**
+     * Perform the work of the build step
+     *
+     * @param build
+     * @param workspace
+     * @param launcher
+     * @param listener
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    @Override
+    public void perform(@Nonnull Run<?, ?> build, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull
+    TaskListener listener) throws InterruptedException, IOException {
+
+        final PrintStream logger = listener.getLogger();
+        final EnvVars environment = build.getEnvironment(listener);
+
+        try {
+            if (!this.ignoreGlobalSettings) {
+                //Try to use global settings and backup from constants.
+                this.updateFromGlobalConfiguration();
+
+                if (Strings.isEmpty(this.hostUrl)) {
+                    throw new ConsulRequestException("Global settings host URL was not found.");
+                }
+            }
+
+            if (Strings.isBlank(this.directory)) {
+                throw new ValidationException("Directory path is required.");
+            }
+
+            if (this.debugMode == null) {
+                this.debugMode = DebugMode.DISABLED;
+            }
+
+            if (Strings.isEmpty(this.apiUri)) {
+                this.apiUri = Constants.API_URI;
+            }
+
+            int timeoutConn = (this.timeoutConnection == 0) ? Constants.TIMEOUT_CONNECTION : this.timeoutConnection;
+            int timeoutResp = (this.timeoutResponse == 0) ? Constants.TIMEOUT_RESPONSE : this.timeoutResponse;
+
+            String expandedPrefix = MirrorSync.normalizePrefix(environment.expand(this.prefix));
+            FilePath directoryPath = workspace.child(environment.expand(this.directory));
+
+            //Indices of the last sync, only they cross the channel
+            Map<String, Long> manifest = directoryPath.act(new MirrorSync.ReadManifest());
+
+            StringBuilder urlStringBuilder = new StringBuilder(environment.expand(this.hostUrl)).append(environment
+                    .expand(this.apiUri)).append(expandedPrefix).append("?recurse");
+            if (!Strings.isEmpty(this.aclToken)) {
+                urlStringBuilder.append("&token=").append(environment.expand(this.aclToken));
+            }
+
+            ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(urlStringBuilder.toString())
+                    .withTimeoutConnect(timeoutConn).withTimeoutResponse(timeoutResp)
+                    .withTimeoutTotal(this.timeoutTotal).withDebugMode(this.debugMode)
+                    .withRequestMode(RequestMode.READ).withLogger(logger).build();
+            //The whole prefix comes in one listing, sized for prefixes of thousands of keys
+            consulRequest.setMaxResponseSize(Math.max(consulRequest.getMaxResponseSize(), Constants
+                    .MIRROR_MAX_RESPONSE_SIZE));
+
+            //An empty or missing prefix answers 404, every mirrored file is then deleted
+            ConsulResponse response = ConsulRequestUtils.readResponse(consulRequest);
+            List<ConsulKVEntry> entries = ConsulRequestUtils.parseEntries(response.getBody());
+
+            List<String> skipped = new ArrayList<String>();
+            MirrorSync.Changes changes = MirrorSync.diff(manifest, entries, expandedPrefix, skipped);
+
+            for (String key : skipped) {
+                logger.println(String.format("Skipped key %s, it does not map to a file in the directory.", key));
+            }
+
+            if (!changes.isEmpty()) {
+                directoryPath.act(new MirrorSync.Apply(changes));
+            }
+
+            logger.println(String.format("Mirrored %s into %s:  %d written, %d deleted, %d unchanged.",
+                    expandedPrefix, this.directory, changes.getWrites().size(), changes.getDeletes().size(), changes
+                            .getManifest().size() - changes.getWrites().size()));
+
+            if (this.debugMode.equals(DebugMode.ENABLED)) {
+                logger.println(String.format("Written:  %s", new TreeSet<String>(changes.getWrites()
+                        .keySet())));
+                logger.println(String.format("Deleted:  %s", changes.getDeletes()));
+            }
+
+        } catch (IOException ioe) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("IO exception was detected:  %s%n", ioe);
+        } catch (ValidationException ve) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Validation exception was detected:  %s%n", ve);
+        } catch (ConsulRequestException cre) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Consul request exception was detected:  %s%n", cre);
+        }
+    }
+
+    /*
+     * Loads global settings from <code>GlobalConsulConfig</code>
+     */
+    private void updateFromGlobalConfiguration() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = (GlobalConsulConfig.DescriptorImpl)
+                    jenkins.getDescriptor(GlobalConsulConfig.class);
+
+            if (globalDescriptor != null) {
+                this.hostUrl = globalDescriptor.getConsulHostUrl();
+                this.apiUri = globalDescriptor.getConsulApiUri();
+                this.aclToken = globalDescriptor.getConsulAclToken();
+                this.timeoutConnection = globalDescriptor.getConsulTimeoutConnection();
+                this.timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                this.timeoutTotal = globalDescriptor.getConsulTimeoutTotal();
+                this.debugMode = globalDescriptor.getConsulDebugMode();
+            } else {
+                LOGGER.warning("Could not load global settings.");
+            }
+        } else {
+            LOGGER.warning("Could not load global settings.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKVMirrorBuilder{" +
+                "hostUrl='" + hostUrl + '\'' +
+                ", prefix='" + prefix + '\'' +
+                ", directory='" + directory + '\'' +
+                ", token='" + aclToken + '\'' +
+                ", apiUri='" + apiUri + '\'' +
+                ", timeoutConnection=" + timeoutConnection +
+                ", timeoutResponse=" + timeoutResponse +
+                ", timeoutTotal=" + timeoutTotal +
+                ", debugMode=" + debugMode +
+                ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                '}';
+    }
+
+    /**
+     * Descriptor for {@link ConsulKVMirrorBuilder}.
+     */
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        public ListBoxModel doFillDebugModeItems() {
+            return DebugMode.getFillItems();
+        }
+
+        public DebugMode getDefaultDebugMode() {
+            return DebugMode.DISABLED;
+        }
+
+        public FormValidation doCheckHostUrl(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set a Host URL, including protocol, eg: http/https.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckDirectory(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set the workspace directory to mirror the prefix into.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckApiUri(@QueryParameter String value) {
+            if (value.length() > 0 && !Strings.checkPattern(value, Constants.REGEX_PATTERN_API_URI)) {
+                return FormValidation.error("Invalid API URI pattern supplied.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Consul K/V Mirror";
+        }
+    }
+}
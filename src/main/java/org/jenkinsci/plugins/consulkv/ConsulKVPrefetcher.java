@@ -0,0 +1,297 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.Extension;
+import hudson.model.BuildableItemWithBuildWrappers;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.model.queue.QueueListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.consulkv.common.ConsulDatacenters;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts the {@link ConsulKVReadWrapper} reads of a queued item as soon as it becomes buildable, so that Consul
+ * latency overlaps with the wait for an executor.  <code>setUp</code> then consumes the prefetched values, see
+ * {@link #consume(long, String, ConsulDeadline)}.  Disabled unless a prefetch freshness is set in
+ * {@link GlobalConsulConfig}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+@Extension
+public class ConsulKVPrefetcher extends QueueListener {
+    private static Logger LOGGER = Logger.getLogger(ConsulKVPrefetcher.class.getName());
+
+    private static final int THREADS = 4;
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(30);
+
+    private static final ConcurrentMap<Long, Map<String, Prefetch>> PREFETCHED = new ConcurrentHashMap<Long,
+            Map<String, Prefetch>>();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V prefetch"));
+
+    @Override
+    public void onEnterBuildable(Queue.BuildableItem item) {
+        long freshness = getFreshness();
+
+        if (freshness <= 0 || !(item.task instanceof BuildableItemWithBuildWrappers)) {
+            return;
+        }
+
+        ConsulKVReadWrapper wrapper = ((BuildableItemWithBuildWrappers) item.task).getBuildWrappersList().get
+                (ConsulKVReadWrapper.class);
+
+        //Snapshot reads must all come from one transaction
+        if (wrapper == null || wrapper.getReads() == null || wrapper.isSnapshotRead() || PREFETCHED.containsKey(item
+                .getId())) {
+            return;
+        }
+
+        purge();
+
+        Map<String, String> variables = getParameters(item);
+        PrintStream logger = TaskListener.NULL.getLogger();
+
+        for (final ReadBean read : wrapper.getReads()) {
+            try {
+                if (!read.isIgnoreGlobalSettings()) {
+                    read.updateFromGlobalConfiguration();
+                }
+
+                if (Strings.isBlank(read.getHostUrl())) {
+                    continue;
+                }
+
+                //Same URL and datacenter routing as setUp, so the value is the one setUp would read
+                String url = ConsulKVReadWrapper.buildUrl(read, variables, logger);
+                int timeoutConn = (read.getTimeoutConnect() == 0) ? Constants.TIMEOUT_CONNECTION : read
+                        .getTimeoutConnect();
+                int timeoutResp = (read.getTimeoutResponse() == 0) ? Constants.TIMEOUT_RESPONSE : read
+                        .getTimeoutResponse();
+
+                final ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(url)
+                        .withTimeoutConnect(timeoutConn).withTimeoutResponse(timeoutResp)
+                        .withTimeoutTotal(read.getTimeoutTotal()).withRequestMode(RequestMode.READ)
+                        .withDebugMode(DebugMode.DISABLED).withLogger(logger).build();
+
+                prefetch(item.getId(), url, timeoutResp, new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return Strings.nvl(ConsulDatacenters.read(consulRequest, read.getDc(), ConsulDatacenters
+                                .VALUE), "");
+                    }
+                });
+            } catch (Exception e) {
+                //setUp reports the failure, if any, when it reads the key itself.
+                LOGGER.log(Level.FINE, String.format("Could not prefetch %s.", read.getKey()), e);
+            }
+        }
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem item) {
+        //A started build consumes its prefetches in setUp, a cancelled one never will
+        if (item.isCancelled()) {
+            discard(item.getId());
+        }
+
+        purge();
+    }
+
+    /**
+     * Starts a prefetch for a queue item.
+     *
+     * @param queueId         queue id of the item
+     * @param url             read URL, as built by setUp
+     * @param timeoutResponse longest wait for the prefetch in {@link #consume(long, String, ConsulDeadline)}
+     * @param loader          reads the value
+     */
+    static void prefetch(long queueId, String url, int timeoutResponse, Callable<String> loader) {
+        Map<String, Prefetch> prefetches = PREFETCHED.get(queueId);
+
+        if (prefetches == null) {
+            prefetches = new ConcurrentHashMap<String, Prefetch>();
+            Map<String, Prefetch> existing = PREFETCHED.putIfAbsent(queueId, prefetches);
+            prefetches = (existing == null) ? prefetches : existing;
+        }
+
+        prefetches.put(url, new Prefetch(timeoutResponse, loader));
+    }
+
+    /**
+     * Drops the prefetches of a queue item and aborts those still in flight.
+     *
+     * @param queueId queue id of the item
+     */
+    static void discard(long queueId) {
+        cancel(PREFETCHED.remove(queueId));
+    }
+
+    /**
+     * @param queueId queue id of the item
+     * @return true when prefetches of the item are pending
+     */
+    static boolean isPrefetched(long queueId) {
+        return PREFETCHED.containsKey(queueId);
+    }
+
+    /**
+     * Returns the value prefetched for a queue item and URL, waiting for an in-flight prefetch if need be.
+     *
+     * @param queueId  queue id of the build
+     * @param url      read URL
+     * @param deadline deadline of the reads, the wait for a prefetch never outlasts it, or null
+     * @return value, or null when there is no usable prefetch and the caller must read the key itself
+     */
+    public static String consume(long queueId, String url, ConsulDeadline deadline) {
+        return consume(queueId, url, deadline, getFreshness());
+    }
+
+    static String consume(long queueId, String url, ConsulDeadline deadline, long freshness) {
+        Map<String, Prefetch> prefetches = PREFETCHED.get(queueId);
+
+        if (prefetches == null) {
+            return null;
+        }
+
+        Prefetch prefetch = prefetches.remove(url);
+
+        if (prefetches.isEmpty()) {
+            PREFETCHED.remove(queueId, prefetches);
+        }
+
+        if (prefetch == null) {
+            return null;
+        }
+
+        long wait = (deadline == null) ? prefetch.timeoutResponse : Math.min(prefetch.timeoutResponse, deadline
+                .remaining());
+
+        try {
+            String value = prefetch.future.get(wait, TimeUnit.MILLISECONDS);
+
+            if (System.currentTimeMillis() - prefetch.completed > freshness) {
+                //Too old, revalidate
+                return null;
+            }
+
+            return value;
+        } catch (InterruptedException ie) {
+            prefetch.future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            prefetch.future.cancel(true);
+            LOGGER.log(Level.FINE, String.format("Prefetch of %s failed, reading again.", url), e);
+        }
+
+        return null;
+    }
+
+    private static long getFreshness() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = (GlobalConsulConfig.DescriptorImpl) jenkins
+                    .getDescriptor(GlobalConsulConfig.class);
+
+            if (globalDescriptor != null) {
+                return globalDescriptor.getConsulPrefetchFreshness();
+            }
+        }
+
+        return 0;
+    }
+
+    /*
+     * Parameters are what ${PARM} tokens refer to, the full build environment does not exist yet.
+     */
+    private static Map<String, String> getParameters(Queue.Item item) {
+        Map<String, String> variables = new HashMap<String, String>();
+        ParametersAction parametersAction = item.getAction(ParametersAction.class);
+
+        if (parametersAction != null) {
+            for (ParameterValue parameterValue : parametersAction.getParameters()) {
+                Object value = parameterValue.getValue();
+                if (value instanceof Secret) {
+                    variables.put(parameterValue.getName(), ((Secret) value).getPlainText());
+                } else if (value != null) {
+                    variables.put(parameterValue.getName(), value.toString());
+                }
+            }
+        }
+
+        return variables;
+    }
+
+    /*
+     * Drops prefetches of items that never reached setUp, e.g. builds that failed before the wrapper ran.
+     */
+    private static void purge() {
+        long now = System.currentTimeMillis();
+        Iterator<Map<String, Prefetch>> iterator = PREFETCHED.values().iterator();
+
+        while (iterator.hasNext()) {
+            Map<String, Prefetch> prefetches = iterator.next();
+
+            for (Prefetch prefetch : prefetches.values()) {
+                if (now - prefetch.started > MAX_AGE) {
+                    iterator.remove();
+                    cancel(prefetches);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void cancel(Map<String, Prefetch> prefetches) {
+        if (prefetches != null) {
+            for (Prefetch prefetch : prefetches.values()) {
+                prefetch.future.cancel(true);
+            }
+        }
+    }
+
+    private static final class Prefetch {
+        private final int timeoutResponse;
+        private final long started = System.currentTimeMillis();
+        private final Future<String> future;
+        private volatile long completed;
+
+        private Prefetch(int timeoutResponse, final Callable<String> loader) {
+            this.timeoutResponse = timeoutResponse;
+            this.future = EXECUTOR.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    String value = loader.call();
+                    completed = System.currentTimeMillis();
+                    return value;
+                }
+            });
+        }
+    }
+}
@@ -9,20 +9,35 @@ import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildWrapperDescriptor;
+import hudson.util.ListBoxModel;
 import jenkins.tasks.SimpleBuildWrapper;
+import org.jenkinsci.plugins.consulkv.common.ConsulDatacenters;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.ConsulFlightRecorder;
+import org.jenkinsci.plugins.consulkv.common.ConsulRunMemo;
 import org.jenkinsci.plugins.consulkv.common.Constants;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.MemoMode;
 import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.ValueFormat;
 import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
 import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
 import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulTxnUtils;
 import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.jenkinsci.plugins.consulkv.common.utils.ValueFlattener;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.CheckForNull;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Wrapper plugin to read Consul K/V data and store in ENV variables
@@ -32,18 +47,73 @@ import java.util.List;
  */
 public class ConsulKVReadWrapper extends SimpleBuildWrapper {
     protected List<ReadBean> reads;
+    private boolean snapshotRead;
+    private int deadline;
+    private MemoMode memoMode;
+    private int memoTtl;
 
     @DataBoundConstructor
     public ConsulKVReadWrapper(@CheckForNull List<ReadBean> reads) {
         this.reads = reads;
     }
 
+    public boolean isSnapshotRead() {
+        return snapshotRead;
+    }
+
+    @DataBoundSetter
+    public void setSnapshotRead(boolean snapshotRead) {
+        this.snapshotRead = snapshotRead;
+    }
+
+    /**
+     * @return milliseconds all reads of the wrapper, retries included, must complete in, 0 for no deadline
+     */
+    public int getDeadline() {
+        return deadline;
+    }
+
+    @DataBoundSetter
+    public void setDeadline(int deadline) {
+        this.deadline = deadline;
+    }
+
+    public MemoMode getMemoMode() {
+        return memoMode;
+    }
+
+    @DataBoundSetter
+    public void setMemoMode(@CheckForNull MemoMode memoMode) {
+        this.memoMode = memoMode;
+    }
+
+    /**
+     * @return seconds a memoized value is shared for, in TTL memo mode
+     */
+    public int getMemoTtl() {
+        return memoTtl;
+    }
+
+    @DataBoundSetter
+    public void setMemoTtl(int memoTtl) {
+        this.memoTtl = memoTtl;
+    }
+
     @Override
     public void setUp(Context context, Run<?, ?> run, FilePath filePath, Launcher launcher, TaskListener
             listener, EnvVars envVars) throws IOException, InterruptedException {
-        PrintStream logger = listener.getLogger();
+        final PrintStream logger = listener.getLogger();
+        ConsulDeadline consulDeadline = ConsulDeadline.after(this.deadline);
+
+        if (this.snapshotRead) {
+            setUpSnapshot(context, run, listener, consulDeadline);
+            return;
+        }
 
-        for (ReadBean read : reads) {
+        long memoAge = ConsulRunMemo.maxAge(envVars.get(Constants.ENV_MEMO), this.memoMode, this.memoTtl);
+        ConsulRunMemo memo = (memoAge == ConsulRunMemo.DISABLED) ? null : ConsulRunMemo.of(run);
+
+        for (final ReadBean read : reads) {
 
             try {
                 if (!read.isIgnoreGlobalSettings()) {
@@ -61,80 +131,304 @@ public class ConsulKVReadWrapper extends SimpleBuildWrapper {
                 int timeoutResp = (read.getTimeoutResponse() == 0) ? Constants
                         .TIMEOUT_RESPONSE : read.getTimeoutResponse();
 
-                String apiUrl = null;
-                if (Strings.isBlank(read.getApiUri())) {
-                    apiUrl = Constants.API_URI;
-                } else {
-                    apiUrl = read.getApiUri();
+                final String token = resolveToken(read, run.getEnvironment(listener), logger);
+                String url = buildUrl(read, token);
+
+                if (read.getDebugMode().equals(DebugMode.ENABLED)) {
+                    logger.println("Consul READ URL:  " + url.toString());
                 }
 
-                String url = read.getHostUrl();
+                String value = ConsulKVPrefetcher.consume(run.getQueueId(), url, consulDeadline);
 
+                if (value != null) {
+                    if (read.getDebugMode().equals(DebugMode.ENABLED)) {
+                        logger.println("Using value prefetched while the build was queued.");
+                    }
+                    ConsulFlightRecorder.cached("GET", url, ConsulFlightRecorder.CACHE_PREFETCHED, value);
 
-                if (Strings.isBlank(read.getAclToken())) {
-                    url += apiUrl + read.getKey();
+                    if (read.isLastKnownGood()) {
+                        ConsulValueStore.put(storeUrl(read), token, value);
+                    }
                 } else {
-                    if (read.getAclToken().contains("${")) {
-                        if (read.getDebugMode().equals(DebugMode.ENABLED)) {
-                            logger.println("ACL Token=" + read.getAclToken());
+                    final ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(url)
+                            .withTimeoutConnect(timeoutConn).withTimeoutResponse(timeoutResp).withTimeoutTotal(read
+                                    .getTimeoutTotal()).withDeadline(consulDeadline).withRequestMode(RequestMode.READ)
+                            .withDebugMode(read.getDebugMode()).withLogger
+                                    (logger).build();
+                    Callable<String> loader = new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            if (read.isLastKnownGood()) {
+                                return ConsulValueStore.read(consulRequest, read.getDc(), storeUrl(read), token,
+                                        read.getLatencyBudget(), read.getMaxStaleness(), logger);
+                            }
+                            return Strings.nvl(ConsulDatacenters.read(consulRequest, read.getDc(), ConsulDatacenters
+                                    .VALUE), "");
                         }
+                    };
 
-                        //Resolve token from supplied build parm
-                        List<String> tokenKeys = Strings.parseRegExGroups(read.getAclToken(), Constants
-                                .REGEX_PATTERN_BUILD_PARM);
+                    //Branches and cells of the run share the first read of the key
+                    value = (memo == null) ? ConsulRunMemo.load(loader) : memo.read(url, memoAge, consulRequest,
+                            loader);
+                }
 
-                        if (tokenKeys == null || tokenKeys.isEmpty()) {
-                            throw new ValidationException(String.format("Wrapper could not parse build parameter from" +
-                                            " %s.",
-                                    read.getAclToken()));
-                        }
+                setEnv(context, read, value, logger);
+            } catch (IOException ioe) {
+                run.setResult(Result.FAILURE);
+                listener.fatalError("IO exception was detected:  %s%n", ioe);
+            } catch (ValidationException ve) {
+                run.setResult(Result.FAILURE);
+                listener.fatalError("Validation exception was detected:  %s%n", ve);
+            } catch (ConsulRequestException cre) {
+                run.setResult(Result.FAILURE);
+                listener.fatalError("Consul request exception was detected:  %s%n", cre);
+            }
+        }
+    }
 
-                        String tokenLocal = run.getEnvironment(listener).get(tokenKeys.get(0));
+    /*
+     * Reads every key in one transaction per Consul host/token, so that all values come from the same Raft index.
+     */
+    private void setUpSnapshot(Context context, Run<?, ?> run, TaskListener listener, ConsulDeadline
+            consulDeadline) throws IOException, InterruptedException {
+        PrintStream logger = listener.getLogger();
+        EnvVars environment = run.getEnvironment(listener);
 
-                        if (read.getDebugMode().equals(DebugMode.ENABLED)) {
-                            logger.println("Token to be used=" + tokenLocal);
-                        }
+        try {
+            Map<String, List<ReadBean>> groups = new LinkedHashMap<String, List<ReadBean>>();
+            Map<String, String> groupTokens = new HashMap<String, String>();
+
+            for (ReadBean read : reads) {
+                if (!read.isIgnoreGlobalSettings()) {
+                    //Try to use global settings and backup from constants.
+                    read.updateFromGlobalConfiguration();
 
-                        url += apiUrl + read.getKey() + String.format(Constants.TOKEN_URL_PATTERN, tokenLocal);
-                    } else {
-                        //Use token field value
-                        url += apiUrl + read.getKey() + String.format(Constants.TOKEN_URL_PATTERN, read.getAclToken());
+                    if (Strings.isEmpty(read.getHostUrl())) {
+                        throw new ConsulRequestException("Global settings host URL was not found.");
                     }
                 }
 
-                if (read.getDebugMode().equals(DebugMode.ENABLED)) {
-                    logger.println("Consul READ URL:  " + url.toString());
+                String token = resolveToken(read, environment, logger);
+                String group = read.getHostUrl() + '|' + ConsulTxnUtils.txnUri(read.getApiUri()) + '|' + Strings.nvl
+                        (token, "") + '|' + Strings.nvl(read.getDc(), "").trim();
+
+                if (!groups.containsKey(group)) {
+                    groups.put(group, new ArrayList<ReadBean>());
+                    groupTokens.put(group, token);
                 }
+                groups.get(group).add(read);
+            }
 
-                ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(url).withTimeoutConnect
-                        (timeoutConn).withTimeoutResponse(timeoutResp).withRequestMode(RequestMode.READ)
-                        .withDebugMode(read.getDebugMode()).withLogger
-                                (logger).build();
+            if (groups.size() > 1) {
+                logger.println(String.format("Snapshot read spans %d Consul hosts/tokens, values are only " +
+                        "consistent within each of them.", groups.size()));
+            }
 
-                String responseRaw = ConsulRequestUtils.read(consulRequest);
-                String value = ConsulRequestUtils.decodeValue(ConsulRequestUtils.parseJson(responseRaw, Constants
-                        .FIELD_VALUE));
+            long snapshotIndex = 0;
+            for (Map.Entry<String, List<ReadBean>> group : groups.entrySet()) {
+                List<ReadBean> groupReads = group.getValue();
+                ReadBean first = groupReads.get(0);
 
-                read.setEnvKey(Strings.normalizeStoragekey(read.getEnvKey()));
+                if (groupReads.size() > Constants.TXN_MAX_OPS) {
+                    throw new ValidationException(String.format("Snapshot reads are limited to %d keys per " +
+                            "transaction, %d were configured.", Constants.TXN_MAX_OPS, groupReads.size()));
+                }
 
-                context.env(read.getEnvKey(), value);
+                List<Map<String, Object>> ops = new ArrayList<Map<String, Object>>();
+                for (ReadBean read : groupReads) {
+                    ops.add(ConsulTxnUtils.getOp(read.getKey()));
+                }
 
-                if (read.getDebugMode().equals(DebugMode.ENABLED)) {
-                    logger.printf("Raw content:  %s%n", responseRaw);
-                    logger.println(String.format("Stored ENV variable (k,v):  %s=%s", read.getEnvKey(),
-                            context.getEnv().get(read.getEnvKey())));
+                String url = first.getHostUrl() + ConsulTxnUtils.txnUri(first.getApiUri());
+                String token = groupTokens.get(group.getKey());
+                if (token != null) {
+                    url += String.format(Constants.TOKEN_URL_PATTERN, token);
                 }
-            } catch (IOException ioe) {
-                run.setResult(Result.FAILURE);
-                listener.fatalError("IO exception was detected:  %s%n", ioe);
-            } catch (ValidationException ve) {
-                run.setResult(Result.FAILURE);
-                listener.fatalError("Validation exception was detected:  %s%n", ve);
-            } catch (ConsulRequestException cre) {
-                run.setResult(Result.FAILURE);
-                listener.fatalError("Consul request exception was detected:  %s%n", cre);
+                url = ConsulDatacenters.url(url, first.getDc());
+
+                if (first.getDebugMode().equals(DebugMode.ENABLED)) {
+                    logger.println("Consul snapshot READ URL:  " + url);
+                }
+
+                int timeoutConn = (first.getTimeoutConnect() == 0) ? Constants
+                        .TIMEOUT_CONNECTION : first.getTimeoutConnect();
+                int timeoutResp = (first.getTimeoutResponse() == 0) ? Constants
+                        .TIMEOUT_RESPONSE : first.getTimeoutResponse();
+
+                ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(url).withValue(ConsulTxnUtils
+                        .toJson(ops)).withTimeoutConnect(timeoutConn).withTimeoutResponse(timeoutResp)
+                        .withTimeoutTotal(first.getTimeoutTotal()).withDeadline(consulDeadline)
+                        .withRequestMode(RequestMode.READ).withDebugMode(first.getDebugMode()).withLogger(logger)
+                        .build();
+
+                ConsulResponse response = ConsulDatacenters.read(consulRequest, first.getDc(), new ConsulDatacenters
+                        .Reader<ConsulResponse>() {
+                    @Override
+                    public ConsulResponse read(ConsulRequest consulRequest) throws ConsulRequestException,
+                            InterruptedException {
+                        return ConsulRequestUtils.transaction(consulRequest);
+                    }
+                });
+
+                if (response.getStatus() == Constants.HTTP_CONFLICT) {
+                    throw new ConsulRequestException(String.format("Snapshot read was rolled back:  %s",
+                            ConsulTxnUtils.parseErrors(response.getBody())));
+                }
+
+                List<ConsulKVEntry> entries = ConsulTxnUtils.parseResults(response.getBody());
+                if (entries.size() != groupReads.size()) {
+                    throw new ConsulRequestException(String.format("Snapshot read returned %d results for %d keys.",
+                            entries.size(), groupReads.size()));
+                }
+
+                for (int i = 0; i < groupReads.size(); i++) {
+                    setEnv(context, groupReads.get(i), Strings.nvl(entries.get(i).getValue(), ""), logger);
+                }
+
+                snapshotIndex = Math.max(snapshotIndex, response.getIndex());
+            }
+
+            context.env(Constants.ENV_SNAPSHOT_INDEX, String.valueOf(snapshotIndex));
+            logger.println(String.format("Consul snapshot read of %d keys at index %d.", reads.size(),
+                    snapshotIndex));
+        } catch (IOException ioe) {
+            run.setResult(Result.FAILURE);
+            listener.fatalError("IO exception was detected:  %s%n", ioe);
+        } catch (ValidationException ve) {
+            run.setResult(Result.FAILURE);
+            listener.fatalError("Validation exception was detected:  %s%n", ve);
+        } catch (ConsulRequestException cre) {
+            run.setResult(Result.FAILURE);
+            listener.fatalError("Consul request exception was detected:  %s%n", cre);
+        }
+    }
+
+    /*
+     * Stores the value in the bean's ENV variable, or flattens it into one ENV variable per field.
+     */
+    private static void setEnv(Context context, ReadBean read, String value, PrintStream logger) throws
+            IOException, ValidationException {
+        read.setEnvKey(Strings.normalizeStoragekey(read.getEnvKey()));
+
+        if (read.getValueFormat() == null || read.getValueFormat() == ValueFormat.TEXT) {
+            context.env(read.getEnvKey(), value);
+
+            if (read.getDebugMode().equals(DebugMode.ENABLED)) {
+                logger.println(String.format("Stored ENV variable (k,v):  %s=%s", read.getEnvKey(),
+                        context.getEnv().get(read.getEnvKey())));
+            }
+            return;
+        }
+
+        Map<String, String> variables = ValueFlattener.flatten(value, read.getValueFormat(), read.getEnvKey(), read
+                .getValueSelect());
+
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            context.env(variable.getKey(), variable.getValue());
+
+            if (read.getDebugMode().equals(DebugMode.ENABLED)) {
+                logger.println(String.format("Stored ENV variable (k,v):  %s=%s", variable.getKey(), variable
+                        .getValue()));
             }
         }
+
+        logger.println(String.format("Flattened %s value of %s into %d ENV variables.", read.getValueFormat(), read
+                .getKey(), variables.size()));
+    }
+
+    /**
+     * Builds the read URL for a bean, resolving a <code>${PARM}</code> token from the supplied variables.
+     *
+     * @param read      bean, global settings already applied
+     * @param variables build variables used to resolve the token
+     * @param logger    logger
+     * @return URL
+     * @throws ValidationException when the token parameter cannot be parsed
+     */
+    static String buildUrl(ReadBean read, Map<String, String> variables, PrintStream logger) throws
+            ValidationException {
+        return buildUrl(read, resolveToken(read, variables, logger));
+    }
+
+    /**
+     * @param read  bean, global settings already applied
+     * @param token resolved ACL token, null for none
+     * @return URL
+     */
+    static String buildUrl(ReadBean read, String token) {
+        String url = keyUrl(read);
+
+        if (token != null) {
+            url += String.format(Constants.TOKEN_URL_PATTERN, token);
+        }
+
+        return ConsulDatacenters.url(url, read.getDc());
+    }
+
+    /**
+     * @param read bean, global settings already applied
+     * @return URL of the bean's key in its datacenter, without the token:  identifies its last-known-good value
+     */
+    static String storeUrl(ReadBean read) {
+        return ConsulDatacenters.url(keyUrl(read), read.getDc());
+    }
+
+    /**
+     * @param read bean, global settings already applied
+     * @return URL of the bean's key, without the token
+     */
+    static String keyUrl(ReadBean read) {
+        String apiUrl = null;
+        if (Strings.isBlank(read.getApiUri())) {
+            apiUrl = Constants.API_URI;
+        } else {
+            apiUrl = read.getApiUri();
+        }
+
+        return read.getHostUrl() + apiUrl + read.getKey();
+    }
+
+    /**
+     * Resolves the ACL token of a bean, either the token field value or a <code>${PARM}</code> build parameter.
+     *
+     * @param read      bean, global settings already applied
+     * @param variables build variables used to resolve the token
+     * @param logger    logger
+     * @return token, or null when the bean has no token
+     * @throws ValidationException when the token parameter cannot be parsed
+     */
+    static String resolveToken(ReadBean read, Map<String, String> variables, PrintStream logger) throws
+            ValidationException {
+        if (Strings.isBlank(read.getAclToken())) {
+            return null;
+        }
+
+        if (!read.getAclToken().contains("${")) {
+            //Use token field value
+            return read.getAclToken();
+        }
+
+        if (read.getDebugMode().equals(DebugMode.ENABLED)) {
+            logger.println("ACL Token=" + read.getAclToken());
+        }
+
+        //Resolve token from supplied build parm
+        List<String> tokenKeys = Strings.parseRegExGroups(read.getAclToken(), Constants
+                .REGEX_PATTERN_BUILD_PARM);
+
+        if (tokenKeys == null || tokenKeys.isEmpty()) {
+            throw new ValidationException(String.format("Wrapper could not parse build parameter from" +
+                            " %s.",
+                    read.getAclToken()));
+        }
+
+        String tokenLocal = variables.get(tokenKeys.get(0));
+
+        if (read.getDebugMode().equals(DebugMode.ENABLED)) {
+            logger.println("Token to be used=" + tokenLocal);
+        }
+
+        return tokenLocal;
     }
 
     protected boolean doTearDown() throws IOException, InterruptedException {
@@ -158,6 +452,10 @@ public class ConsulKVReadWrapper extends SimpleBuildWrapper {
             return true;
         }
 
+        public ListBoxModel doFillMemoModeItems() {
+            return MemoMode.getFillItems();
+        }
+
     }
 
 }
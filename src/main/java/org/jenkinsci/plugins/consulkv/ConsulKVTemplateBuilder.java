@@ -0,0 +1,449 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.template.TemplatePlan;
+import org.jenkinsci.plugins.consulkv.common.template.TemplateRenderer;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.SizeLimitedInputStream;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Build step rendering a workspace template with <code>${consul:path/to/key}</code> placeholders.  The template is
+ * scanned on the agent, its keys are fetched with the fewest reads (see {@link TemplatePlan}) sent concurrently, and
+ * the output is rendered on the agent, so large templates never pass through the controller.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVTemplateBuilder extends Builder implements SimpleBuildStep {
+    private static Logger LOGGER = Logger.getLogger(ConsulKVTemplateBuilder.class.getName());
+
+    private static final int THREADS = 8;
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V template"));
+
+    private String hostUrl;
+    private String template;
+    private String output;
+    private String aclToken;
+    private String apiUri;
+    private int timeoutConnection;
+    private int timeoutResponse;
+    private int timeoutTotal;
+    private DebugMode debugMode;
+    private boolean ignoreGlobalSettings;
+    private boolean failOnMissing;
+
+    @DataBoundConstructor
+    public ConsulKVTemplateBuilder(@CheckForNull String hostUrl, @CheckForNull String template, @CheckForNull
+            String output) {
+        this.hostUrl = hostUrl;
+        this.template = template;
+        this.output = output;
+    }
+
+    public String getHostUrl() {
+        return this.hostUrl;
+    }
+
+    public String getTemplate() {
+        return this.template;
+    }
+
+    public String getOutput() {
+        return this.output;
+    }
+
+    public String getAclToken() {
+        return this.aclToken;
+    }
+
+    @DataBoundSetter
+    public void setAclToken(@CheckForNull String aclToken) {
+        this.aclToken = aclToken;
+    }
+
+    public String getApiUri() {
+        return this.apiUri;
+    }
+
+    @DataBoundSetter
+    public void setApiUri(@CheckForNull String apiUri) {
+        this.apiUri = apiUri;
+    }
+
+    public int getTimeoutConnection() {
+        return this.timeoutConnection;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutConnection(int timeoutConnection) {
+        this.timeoutConnection = timeoutConnection;
+    }
+
+    public int getTimeoutResponse() {
+        return this.timeoutResponse;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutResponse(int timeoutResponse) {
+        this.timeoutResponse = timeoutResponse;
+    }
+
+    public int getTimeoutTotal() {
+        return this.timeoutTotal;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
+    public DebugMode getDebugMode() {
+        return this.debugMode;
+    }
+
+    @DataBoundSetter
+    public void setDebugMode(@CheckForNull DebugMode debugMode) {
+        this.debugMode = debugMode;
+    }
+
+    public boolean isIgnoreGlobalSettings() {
+        return this.ignoreGlobalSettings;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreGlobalSettings(boolean ignoreGlobalSettings) {
+        this.ignoreGlobalSettings = ignoreGlobalSettings;
+    }
+
+    public boolean isFailOnMissing() {
+        return this.failOnMissing;
+    }
+
+    @DataBoundSetter
+    public void setFailOnMissing(boolean failOnMissing) {
+        this.failOnMissing = failOnMissing;
+    }
+
+    /**
+     * Perform the work of the build step
+     *
+     * @param build
+     * @param workspace
+     * @param launcher
+     * @param listener
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    @Override
+    public void perform(@Nonnull Run<?, ?> build, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull
+    TaskListener listener) throws InterruptedException, IOException {
+
+        final PrintStream logger = listener.getLogger();
+        final EnvVars environment = build.getEnvironment(listener);
+
+        try {
+            if (!this.ignoreGlobalSettings) {
+                //Try to use global settings and backup from constants.
+                this.updateFromGlobalConfiguration();
+
+                if (Strings.isEmpty(this.hostUrl)) {
+                    throw new ConsulRequestException("Global settings host URL was not found.");
+                }
+            }
+
+            if (Strings.isBlank(this.template) || Strings.isBlank(this.output)) {
+                throw new ValidationException("Template and output paths are required.");
+            }
+
+            if (this.debugMode == null) {
+                this.debugMode = DebugMode.DISABLED;
+            }
+
+            if (Strings.isEmpty(this.apiUri)) {
+                this.apiUri = Constants.API_URI;
+            }
+
+            FilePath templatePath = workspace.child(environment.expand(this.template));
+            FilePath outputPath = workspace.child(environment.expand(this.output));
+
+            if (!templatePath.exists()) {
+                throw new ValidationException(String.format("Template %s was not found.", templatePath.getRemote()));
+            }
+
+            //Scan on the agent, only the keys come back
+            Set<String> keys = templatePath.act(new TemplateRenderer.Scan());
+            TemplatePlan plan = TemplatePlan.plan(keys);
+
+            logger.println(String.format("Consul template %s:  %d keys, %d requests (%d recursive).", this.template,
+                    keys.size(), plan.size(), plan.getPrefixes().size()));
+            if (this.debugMode.equals(DebugMode.ENABLED)) {
+                logger.println(String.format("Consul template plan:  %s", plan));
+            }
+
+            Map<String, String> values = this.fetch(plan, keys, environment, logger);
+
+            Set<String> missing = new TreeSet<String>(keys);
+            missing.removeAll(values.keySet());
+
+            if (!missing.isEmpty()) {
+                if (this.failOnMissing) {
+                    throw new ConsulRequestException(String.format("Template keys were not found:  %s", missing));
+                }
+                logger.println(String.format("Template keys were not found, rendered as empty:  %s", missing));
+            }
+
+            //Render on the agent, only the values go there
+            int placeholders = templatePath.act(new TemplateRenderer.Render(outputPath.getRemote(), values));
+            logger.println(String.format("Rendered %d placeholders into %s.", placeholders, this.output));
+
+        } catch (IOException ioe) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("IO exception was detected:  %s%n", ioe);
+        } catch (ValidationException ve) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Validation exception was detected:  %s%n", ve);
+        } catch (ConsulRequestException cre) {
+            build.setResult(Result.FAILURE);
+            listener.fatalError("Consul request exception was detected:  %s%n", cre);
+        }
+    }
+
+    /*
+     * Runs the planned reads concurrently, keeping the values of the template keys only.
+     */
+    private Map<String, String> fetch(TemplatePlan plan, final Set<String> keys, EnvVars environment, final
+    PrintStream logger) throws ConsulRequestException, IOException, InterruptedException {
+        final int timeoutConn = (this.timeoutConnection == 0) ? Constants.TIMEOUT_CONNECTION : this.timeoutConnection;
+        final int timeoutResp = (this.timeoutResponse == 0) ? Constants.TIMEOUT_RESPONSE : this.timeoutResponse;
+        //Bounds the whole step, however many reads the template takes
+        final ConsulDeadline deadline = ConsulDeadline.after(this.timeoutTotal);
+        final String baseUrl = environment.expand(this.hostUrl) + environment.expand(this.apiUri);
+        final String token = Strings.isEmpty(this.aclToken) ? null : environment.expand(this.aclToken);
+        final DebugMode debug = this.debugMode;
+
+        final Map<String, String> values = new ConcurrentHashMap<String, String>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for (final String prefix : plan.getPrefixes()) {
+            futures.add(EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        String url = baseUrl + prefix + "?recurse" + ((token == null) ? "" : "&token=" + token);
+                        collect(read(url, timeoutConn, timeoutResp, deadline, debug, logger), keys, values);
+                    } catch (ConsulRequestException cre) {
+                        if (!(cre.getCause() instanceof SizeLimitedInputStream.ResponseTooLargeException)) {
+                            throw cre;
+                        }
+                        //Folder too large to read at once, read its template keys one by one
+                        for (String key : keys) {
+                            if (key.startsWith(prefix)) {
+                                collect(read(keyUrl(baseUrl, key, token), timeoutConn, timeoutResp, deadline,
+                                        debug, logger), keys, values);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        for (final String key : plan.getKeys()) {
+            futures.add(EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    collect(read(keyUrl(baseUrl, key, token), timeoutConn, timeoutResp, deadline, debug, logger),
+                            keys, values);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof ConsulRequestException) {
+                throw (ConsulRequestException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new ConsulRequestException("Consul template read failed.", cause);
+        } finally {
+            //Aborts the reads still running after a failure or an interrupt
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return values;
+    }
+
+    private static String keyUrl(String baseUrl, String key, String token) {
+        return baseUrl + key + ((token == null) ? "" : String.format(Constants.TOKEN_URL_PATTERN, token));
+    }
+
+    private static List<ConsulKVEntry> read(String url, int timeoutConn, int timeoutResp, ConsulDeadline deadline,
+                                            DebugMode debugMode, PrintStream logger) throws ConsulRequestException,
+            ValidationException, IOException, InterruptedException {
+        ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(url).withTimeoutConnect(timeoutConn)
+                .withTimeoutResponse(timeoutResp).withDeadline(deadline).withDebugMode(debugMode)
+                .withRequestMode(RequestMode.READ).withLogger(logger).build();
+
+        //Missing keys and folders answer 404, without a body
+        return ConsulRequestUtils.parseEntries(ConsulRequestUtils.readResponse(consulRequest).getBody());
+    }
+
+    private static void collect(List<ConsulKVEntry> entries, Set<String> keys, Map<String, String> values) {
+        for (ConsulKVEntry entry : entries) {
+            if (keys.contains(entry.getKey())) {
+                values.put(entry.getKey(), Strings.nvl(entry.getValue(), ""));
+            }
+        }
+    }
+
+    /*
+     * Loads global settings from <code>GlobalConsulConfig</code>
+     */
+    private void updateFromGlobalConfiguration() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = (GlobalConsulConfig.DescriptorImpl)
+                    jenkins.getDescriptor(GlobalConsulConfig.class);
+
+            if (globalDescriptor != null) {
+                this.hostUrl = globalDescriptor.getConsulHostUrl();
+                this.apiUri = globalDescriptor.getConsulApiUri();
+                this.aclToken = globalDescriptor.getConsulAclToken();
+                this.timeoutConnection = globalDescriptor.getConsulTimeoutConnection();
+                this.timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                this.timeoutTotal = globalDescriptor.getConsulTimeoutTotal();
+                this.debugMode = globalDescriptor.getConsulDebugMode();
+            } else {
+                LOGGER.warning("Could not load global settings.");
+            }
+        } else {
+            LOGGER.warning("Could not load global settings.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKVTemplateBuilder{" +
+                "hostUrl='" + hostUrl + '\'' +
+                ", template='" + template + '\'' +
+                ", output='" + output + '\'' +
+                ", token='" + aclToken + '\'' +
+                ", apiUri='" + apiUri + '\'' +
+                ", timeoutConnection=" + timeoutConnection +
+                ", timeoutResponse=" + timeoutResponse +
+                ", timeoutTotal=" + timeoutTotal +
+                ", debugMode=" + debugMode +
+                ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                ", failOnMissing=" + failOnMissing +
+                '}';
+    }
+
+    /**
+     * Descriptor for {@link ConsulKVTemplateBuilder}.
+     */
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        public ListBoxModel doFillDebugModeItems() {
+            return DebugMode.getFillItems();
+        }
+
+        public DebugMode getDefaultDebugMode() {
+            return DebugMode.DISABLED;
+        }
+
+        public FormValidation doCheckHostUrl(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set a Host URL, including protocol, eg: http/https.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTemplate(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set the workspace path of the template.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckOutput(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set the workspace path of the rendered file.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckApiUri(@QueryParameter String value) {
+            if (value.length() > 0 && !Strings.checkPattern(value, Constants.REGEX_PATTERN_API_URI)) {
+                return FormValidation.error("Invalid API URI pattern supplied.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Consul K/V Template";
+        }
+    }
+}
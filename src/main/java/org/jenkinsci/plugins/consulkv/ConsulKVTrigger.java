@@ -0,0 +1,275 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.Extension;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.StringParameterValue;
+import hudson.triggers.Trigger;
+import hudson.triggers.TriggerDescriptor;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.jenkinsci.plugins.consulkv.common.watch.ConsulWatchListener;
+import org.jenkinsci.plugins.consulkv.common.watch.ConsulWatchRegistry;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Trigger that schedules a build when a Consul key, or any key under a prefix, gets a new <code>ModifyIndex</code>.
+ * Triggers watching the same key/prefix share one blocking query, see {@link ConsulWatchRegistry}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVTrigger extends Trigger<Job<?, ?>> implements ConsulWatchListener {
+    private static Logger LOGGER = Logger.getLogger(ConsulKVTrigger.class.getName());
+
+    public static final String PARAM_KEY = "CONSUL_KV_KEY";
+    public static final String PARAM_MODIFY_INDEX = "CONSUL_KV_MODIFY_INDEX";
+    public static final String PARAM_CHANGED_KEYS = "CONSUL_KV_CHANGED_KEYS";
+    public static final String DEFAULT_ENV_VAR_KEY = "CONSUL_KV_VALUE";
+
+    private String hostUrl;
+    private String key;
+    private String aclToken;
+    private String apiUri;
+    private String envVarKey;
+    private boolean recurse;
+    private int timeoutConnection;
+    private boolean ignoreGlobalSettings;
+
+    @DataBoundConstructor
+    public ConsulKVTrigger(@CheckForNull String hostUrl, @CheckForNull String key) {
+        super();
+        this.hostUrl = hostUrl;
+        this.key = key;
+    }
+
+    public String getHostUrl() {
+        return this.hostUrl;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public String getAclToken() {
+        return this.aclToken;
+    }
+
+    @DataBoundSetter
+    public void setAclToken(@CheckForNull String aclToken) {
+        this.aclToken = aclToken;
+    }
+
+    public String getApiUri() {
+        return this.apiUri;
+    }
+
+    @DataBoundSetter
+    public void setApiUri(@CheckForNull String apiUri) {
+        this.apiUri = apiUri;
+    }
+
+    public String getEnvVarKey() {
+        return this.envVarKey;
+    }
+
+    @DataBoundSetter
+    public void setEnvVarKey(@CheckForNull String envVarKey) {
+        this.envVarKey = envVarKey;
+    }
+
+    public boolean isRecurse() {
+        return this.recurse;
+    }
+
+    @DataBoundSetter
+    public void setRecurse(boolean recurse) {
+        this.recurse = recurse;
+    }
+
+    public int getTimeoutConnection() {
+        return this.timeoutConnection;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutConnection(int timeoutConnection) {
+        this.timeoutConnection = timeoutConnection;
+    }
+
+    public boolean isIgnoreGlobalSettings() {
+        return this.ignoreGlobalSettings;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreGlobalSettings(boolean ignoreGlobalSettings) {
+        this.ignoreGlobalSettings = ignoreGlobalSettings;
+    }
+
+    @Override
+    public void start(Job<?, ?> project, boolean newInstance) {
+        super.start(project, newInstance);
+
+        String host = this.hostUrl;
+        String api = this.apiUri;
+        String token = this.aclToken;
+        int timeoutConn = this.timeoutConnection;
+
+        if (!this.ignoreGlobalSettings) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = getGlobalDescriptor();
+
+            if (globalDescriptor != null) {
+                host = globalDescriptor.getConsulHostUrl();
+                api = globalDescriptor.getConsulApiUri();
+                token = globalDescriptor.getConsulAclToken();
+                timeoutConn = globalDescriptor.getConsulTimeoutConnection();
+            } else {
+                LOGGER.warning("Could not load global settings.");
+            }
+        }
+
+        if (Strings.isBlank(host) || Strings.isBlank(this.key)) {
+            LOGGER.warning(String.format("Consul K/V trigger for %s is missing a host URL or key, not watching.",
+                    project.getFullName()));
+            return;
+        }
+
+        String url = host + Strings.nvlOrEmpty(api, Constants.API_URI) + this.key;
+        ConsulWatchRegistry.subscribe(url, token, this.recurse, (timeoutConn == 0) ? Constants.TIMEOUT_CONNECTION :
+                timeoutConn, this);
+    }
+
+    @Override
+    public void stop() {
+        ConsulWatchRegistry.unsubscribe(this);
+        super.stop();
+    }
+
+    @Override
+    public void onChange(List<ConsulKVEntry> changed, List<String> removed) {
+        if (job == null) {
+            return;
+        }
+
+        List<String> changedKeys = new ArrayList<String>();
+        long modifyIndex = 0;
+        for (ConsulKVEntry entry : changed) {
+            changedKeys.add(entry.getKey());
+            modifyIndex = Math.max(modifyIndex, entry.getModifyIndex());
+        }
+        changedKeys.addAll(removed);
+
+        List<ParameterValue> parameters = new ArrayList<ParameterValue>();
+        parameters.add(new StringParameterValue(PARAM_KEY, this.key));
+        parameters.add(new StringParameterValue(PARAM_MODIFY_INDEX, String.valueOf(modifyIndex)));
+        parameters.add(new StringParameterValue(PARAM_CHANGED_KEYS, Strings.join(changedKeys, ',')));
+
+        //The value is only unambiguous when a single key changed
+        if (changed.size() == 1 && removed.isEmpty()) {
+            String parameterName = Strings.normalizeStoragekey(Strings.nvlOrEmpty(this.envVarKey,
+                    DEFAULT_ENV_VAR_KEY));
+            parameters.add(new StringParameterValue(parameterName, Strings.nvl(changed.get(0).getValue(), "")));
+        }
+
+        LOGGER.info(String.format("Consul K/V change on %s, scheduling %s.", changedKeys, job.getFullName()));
+
+        ParameterizedJobMixIn.scheduleBuild2(job, -1, new CauseAction(new ConsulKVCause(this.key, modifyIndex)),
+                new ParametersAction(parameters));
+    }
+
+    private static GlobalConsulConfig.DescriptorImpl getGlobalDescriptor() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            return (GlobalConsulConfig.DescriptorImpl) jenkins.getDescriptor(GlobalConsulConfig.class);
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKVTrigger{" +
+                "hostUrl='" + hostUrl + '\'' +
+                ", key='" + key + '\'' +
+                ", apiUri='" + apiUri + '\'' +
+                ", envVarKey='" + envVarKey + '\'' +
+                ", recurse=" + recurse +
+                ", timeoutConnection=" + timeoutConnection +
+                ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                '}';
+    }
+
+    /**
+     * Cause of builds started by a {@link ConsulKVTrigger}
+     */
+    public static class ConsulKVCause extends Cause {
+        private final String key;
+        private final long modifyIndex;
+
+        public ConsulKVCause(String key, long modifyIndex) {
+            this.key = key;
+            this.modifyIndex = modifyIndex;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getModifyIndex() {
+            return modifyIndex;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return String.format("Started by Consul K/V change on %s (ModifyIndex %d)", key, modifyIndex);
+        }
+    }
+
+    /**
+     * Descriptor for {@link ConsulKVTrigger}.
+     */
+    @Extension
+    public static final class DescriptorImpl extends TriggerDescriptor {
+
+        @Override
+        public boolean isApplicable(Item item) {
+            return item instanceof Job && item instanceof ParameterizedJobMixIn.ParameterizedJob;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Build when a Consul K/V key changes";
+        }
+
+        public FormValidation doCheckKey(@QueryParameter String value) {
+            if (value.length() == 0) {
+                return FormValidation.error("Please set the key or prefix to watch.");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckEnvVarKey(@QueryParameter String value) {
+            if (value.contains(".") || value.contains("/")) {
+                return FormValidation.error("Please enter a parameter name that is only RegEx word characters, and " +
+                        "hyphens.");
+            }
+
+            return FormValidation.ok();
+        }
+    }
+}
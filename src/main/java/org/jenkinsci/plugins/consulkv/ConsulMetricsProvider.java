@@ -0,0 +1,24 @@
+package org.jenkinsci.plugins.consulkv;
+
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import org.jenkinsci.plugins.consulkv.common.ConsulMetrics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Publishes {@link ConsulMetrics} through the Metrics plugin.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+@Extension
+public class ConsulMetricsProvider extends MetricProvider {
+
+    @Nonnull
+    @Override
+    public MetricSet getMetricSet() {
+        return ConsulMetrics.getRegistry();
+    }
+}
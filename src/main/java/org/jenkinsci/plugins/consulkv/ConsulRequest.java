@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.consulkv;
 
 
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
 import org.jenkinsci.plugins.consulkv.common.RequestMode;
 
@@ -20,6 +21,10 @@ public class ConsulRequest {
     private PrintStream logger;
     private DebugMode debugMode;
     private RequestMode requestMode;
+    private long maxResponseSize;
+    private int timeoutTotal;
+    private ConsulDeadline deadline;
+    private boolean blockingQuery;
 
     public String getUrl() {
         return url;
@@ -77,6 +82,47 @@ public class ConsulRequest {
         this.value = value;
     }
 
+    public long getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    public void setMaxResponseSize(long maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * @return total time in milliseconds the request may take, from connecting to the last byte, 0 for no limit
+     */
+    public int getTimeoutTotal() {
+        return timeoutTotal;
+    }
+
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
+    /**
+     * @return deadline of the step the request belongs to, shared with its other requests, may be null
+     */
+    public ConsulDeadline getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(ConsulDeadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return true for blocking queries, which wait on the server and so bypass the concurrency limiter
+     */
+    public boolean isBlockingQuery() {
+        return blockingQuery;
+    }
+
+    public void setBlockingQuery(boolean blockingQuery) {
+        this.blockingQuery = blockingQuery;
+    }
+
     @Override
     public String toString() {
         return "ConsulRequest{" +
@@ -86,6 +132,10 @@ public class ConsulRequest {
                 ", timeoutResponse=" + timeoutResponse +
                 ", debugMode=" + debugMode +
                 ", requestMode=" + requestMode +
+                ", maxResponseSize=" + maxResponseSize +
+                ", timeoutTotal=" + timeoutTotal +
+                ", deadline=" + deadline +
+                ", blockingQuery=" + blockingQuery +
                 '}';
     }
 }
@@ -1,5 +1,8 @@
 package org.jenkinsci.plugins.consulkv;
 
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
 import org.jenkinsci.plugins.consulkv.common.RequestMode;
 import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
@@ -25,6 +28,19 @@ public class ConsulRequestFactory {
         return new ConsulRequestFactory();
     }
 
+    /**
+     * @param consulRequest request to start from
+     * @return factory of a request with the same settings, e.g. the read before a conditional write
+     */
+    public static ConsulRequestFactory copyOf(final ConsulRequest consulRequest) {
+        return new ConsulRequestFactory().withUrl(consulRequest.getUrl()).withValue(consulRequest.getValue())
+                .withTimeoutConnect(consulRequest.getTimeoutConnect()).withTimeoutResponse(consulRequest
+                        .getTimeoutResponse()).withTimeoutTotal(consulRequest.getTimeoutTotal()).withDeadline
+                        (consulRequest.getDeadline()).withMaxResponseSize(consulRequest.getMaxResponseSize())
+                .withBlockingQuery(consulRequest.isBlockingQuery()).withRequestMode(consulRequest.getRequestMode())
+                .withDebugMode(consulRequest.getDebugMode()).withLogger(consulRequest.getLogger());
+    }
+
     public ConsulRequestFactory withUrl(final String url) {
         consulRequest.setUrl(url);
         return this;
@@ -60,11 +76,50 @@ public class ConsulRequestFactory {
         return this;
     }
 
+    public ConsulRequestFactory withMaxResponseSize(final long maxResponseSize) {
+        consulRequest.setMaxResponseSize(maxResponseSize);
+        return this;
+    }
+
+    public ConsulRequestFactory withTimeoutTotal(final int timeoutTotal) {
+        consulRequest.setTimeoutTotal(timeoutTotal);
+        return this;
+    }
+
+    public ConsulRequestFactory withDeadline(final ConsulDeadline deadline) {
+        consulRequest.setDeadline(deadline);
+        return this;
+    }
+
+    public ConsulRequestFactory withBlockingQuery(final boolean blockingQuery) {
+        consulRequest.setBlockingQuery(blockingQuery);
+        return this;
+    }
+
     public ConsulRequest build() throws ValidationException {
+        if (0 == this.consulRequest.getMaxResponseSize()) {
+            this.consulRequest.setMaxResponseSize(getGlobalMaxResponseSize());
+        }
+
         this.validate();
         return this.consulRequest;
     }
 
+    private static long getGlobalMaxResponseSize() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins != null) {
+            GlobalConsulConfig.DescriptorImpl globalDescriptor = (GlobalConsulConfig.DescriptorImpl) jenkins
+                    .getDescriptor(GlobalConsulConfig.class);
+
+            if (globalDescriptor != null && globalDescriptor.getConsulMaxResponseSize() > 0) {
+                return globalDescriptor.getConsulMaxResponseSize();
+            }
+        }
+
+        return Constants.MAX_RESPONSE_SIZE;
+    }
+
     private boolean validate() throws ValidationException {
         if (Strings.isBlank(this.consulRequest.getUrl())) {
             throw new ValidationException("Empty url");
@@ -90,6 +145,14 @@ public class ConsulRequestFactory {
             throw new ValidationException("0 response timeout");
         }
 
+        if (this.consulRequest.getTimeoutTotal() < 0) {
+            throw new ValidationException("Negative total timeout");
+        }
+
+        if (this.consulRequest.getMaxResponseSize() < 0) {
+            throw new ValidationException("Negative max response size");
+        }
+
         switch (this.consulRequest.getRequestMode()) {
             case WRITE:
                 if (Strings.isBlank(this.consulRequest.getValue())) {
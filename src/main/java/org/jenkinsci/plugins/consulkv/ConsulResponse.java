@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.consulkv;
+
+/**
+ * Consul Response domain type, carries the body along with the Consul index headers.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulResponse {
+    private int status;
+    private String body;
+    private long index;
+
+    public ConsulResponse(int status, String body, long index) {
+        this.status = status;
+        this.body = body;
+        this.index = index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return value of the <code>X-Consul-Index</code> header, or 0 when the header was missing.
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulResponse{" +
+                "status=" + status +
+                ", body='" + body + '\'' +
+                ", index=" + index +
+                '}';
+    }
+}
@@ -0,0 +1,26 @@
+package org.jenkinsci.plugins.consulkv;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import org.jenkinsci.plugins.consulkv.common.ConsulRunMemo;
+
+/**
+ * Drops the {@link ConsulRunMemo} of a run once it is finalized, so that the values it read do not outlive it.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+@Extension
+public class ConsulRunMemoListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onFinalized(Run<?, ?> run) {
+        ConsulRunMemo.discard(run);
+    }
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        ConsulRunMemo.discard(run);
+    }
+}
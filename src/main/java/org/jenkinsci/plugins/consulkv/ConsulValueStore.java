@@ -0,0 +1,378 @@
+package org.jenkinsci.plugins.consulkv;
+
+import com.google.api.client.util.Base64;
+import com.google.common.io.BaseEncoding;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.consulkv.common.ConsulDatacenters;
+import org.jenkinsci.plugins.consulkv.common.ConsulFlightRecorder;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent store of last-known-good K/V values under <code>JENKINS_HOME</code>, used by reads that opt into
+ * degraded mode when Consul is slow or unreachable.  The store is an append-only log, compacted when it grows, and
+ * is loaded into memory at startup.  A value is stored per key URL and ACL token, so that a read is only ever served
+ * a value read with the same token:  the store keeps a SHA-256 digest of the token, never the token itself.  Values
+ * read with an ACL token are encrypted with the controller's secret key.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulValueStore {
+    private static Logger LOGGER = Logger.getLogger(ConsulValueStore.class.getName());
+
+    private static final String STORE_DIR = Constants.PLUGIN_LABEL;
+    private static final String STORE_FILE = "last-known-good.log";
+    private static final String FLAG_PLAIN = "P";
+    private static final String FLAG_ENCRYPTED = "E";
+    private static final Charset UTF8 = Charset.forName(Constants.DEFAULT_ENCODING);
+    private static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final int COMPACTION_SLACK = 1000;
+    private static final char TOKEN_SEPARATOR = '#';
+
+    private static final Map<String, Record> RECORDS = new ConcurrentHashMap<String, Record>();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V last-known-good read"));
+
+    private static int lines;
+
+    private ConsulValueStore() {
+
+    }
+
+    /**
+     * Reads a value, falling back to the last-known-good value when Consul is unavailable:  on I/O errors, timeouts
+     * and 5xx responses, or when it does not answer within the latency budget.  Answers such as 403 and 404 are
+     * never papered over.  A read that exceeds the budget keeps running, and refreshes the store when it completes.
+     *
+     * @param consulRequest request
+     * @param keyUrl        URL of the key without the token, identifies the value in the store
+     * @param token         ACL token of the read, null for none, identifies the value in the store
+     * @param latencyBudget milliseconds to wait for Consul before serving from the store, 0 to wait for the response
+     * @param maxStaleness  maximum age in seconds of a stored value that may be served
+     * @param logger        logger
+     * @return value
+     * @throws ConsulRequestException when Consul failed and there is no usable stored value
+     * @throws InterruptedException   when interrupted while waiting for Consul
+     */
+    public static String read(final ConsulRequest consulRequest, final String keyUrl, final String token, final
+    int latencyBudget, final int maxStaleness, final PrintStream logger) throws ConsulRequestException,
+            InterruptedException {
+        return ConsulValueStore.read(consulRequest, null, keyUrl, token, latencyBudget, maxStaleness, logger);
+    }
+
+    /**
+     * Reads a value as {@link #read(ConsulRequest, String, String, int, int, PrintStream)} does, routed to the
+     * nearest datacenter when <code>dc</code> is <code>nearest</code>.  The last-known-good value is only served
+     * once every datacenter failed.
+     *
+     * @param consulRequest request
+     * @param dc            <code>dc</code> option, see {@link ConsulDatacenters}
+     * @param keyUrl        URL of the key without the token, identifies the value in the store
+     * @param token         ACL token of the read, null for none, identifies the value in the store
+     * @param latencyBudget milliseconds to wait for Consul before serving from the store, 0 to wait for the response
+     * @param maxStaleness  maximum age in seconds of a stored value that may be served
+     * @param logger        logger
+     * @return value
+     * @throws ConsulRequestException when Consul failed and there is no usable stored value
+     * @throws InterruptedException   when interrupted while waiting for Consul
+     */
+    public static String read(final ConsulRequest consulRequest, final String dc, final String keyUrl, final
+    String token, final int latencyBudget, final int maxStaleness, final PrintStream logger) throws
+            ConsulRequestException, InterruptedException {
+        Future<String> future = EXECUTOR.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                String value = Strings.nvl(ConsulDatacenters.read(consulRequest, dc, ConsulDatacenters.VALUE), "");
+                put(keyUrl, token, value);
+                return value;
+            }
+        });
+
+        try {
+            if (latencyBudget > 0) {
+                try {
+                    return future.get(latencyBudget, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException te) {
+                    String stale = get(keyUrl, token, maxStaleness, logger);
+                    if (stale != null) {
+                        logger.println(String.format("Consul did not answer within %d ms, using last-known-good " +
+                                "value.", latencyBudget));
+                        ConsulFlightRecorder.cached("GET", keyUrl, ConsulFlightRecorder.CACHE_STALE, stale);
+                        return stale;
+                    }
+                }
+            }
+
+            return future.get();
+        } catch (ExecutionException ee) {
+            String stale = ConsulRequestUtils.isUnavailable(ee.getCause()) ? get(keyUrl, token, maxStaleness,
+                    logger) : null;
+            if (stale != null) {
+                logger.println(String.format("Consul read failed (%s), using last-known-good value.", ee.getCause()));
+                ConsulFlightRecorder.cached("GET", keyUrl, ConsulFlightRecorder.CACHE_STALE, stale);
+                return stale;
+            }
+
+            if (ee.getCause() instanceof ConsulRequestException) {
+                throw (ConsulRequestException) ee.getCause();
+            }
+            throw new ConsulRequestException("Consul Request Failed.", ee.getCause());
+        } catch (InterruptedException ie) {
+            future.cancel(true);
+            throw ie;
+        }
+    }
+
+    /**
+     * @param keyUrl       URL of the key without the token
+     * @param token        ACL token, null for none
+     * @param maxStaleness maximum age in seconds, 0 for no limit
+     * @param logger       logger
+     * @return stored value, or null when there is none or it is too old
+     */
+    public static String get(final String keyUrl, final String token, final int maxStaleness, final PrintStream
+            logger) {
+        Record record = RECORDS.get(id(keyUrl, token));
+
+        if (record == null) {
+            return null;
+        }
+
+        long age = System.currentTimeMillis() - record.timestamp;
+        if (maxStaleness > 0 && age > TimeUnit.SECONDS.toMillis(maxStaleness)) {
+            logger.println(String.format("Last-known-good value of %s is %d s old, over the %d s limit.", keyUrl,
+                    TimeUnit.MILLISECONDS.toSeconds(age), maxStaleness));
+            return null;
+        }
+
+        return decode(record);
+    }
+
+    /**
+     * @param keyUrl URL of the key without the token
+     * @param token  ACL token the value was read with, null for none, the value is then encrypted at rest
+     * @param value  value read
+     */
+    public static synchronized void put(final String keyUrl, final String token, final String value) {
+        boolean encrypt = token != null;
+        String flag = encrypt ? FLAG_ENCRYPTED : FLAG_PLAIN;
+        String id = id(keyUrl, token);
+        long now = System.currentTimeMillis();
+        Record previous = RECORDS.get(id);
+
+        //Only the timestamp would change, refresh it at most once a minute
+        if (previous != null && previous.flag.equals(flag) && now - previous.timestamp < REFRESH_INTERVAL && value
+                .equals(decode(previous))) {
+            return;
+        }
+
+        String data = encrypt ? Secret.fromString(value).getEncryptedValue() : Base64
+                .encodeBase64URLSafeString(value.getBytes(UTF8));
+        Record record = new Record(now, flag, data);
+
+        //The log first, a value only served from memory would be lost by a restart
+        try {
+            append(id, record);
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Could not persist last-known-good value.", ioe);
+        }
+
+        RECORDS.put(id, record);
+    }
+
+    /*
+     * Key URL, followed by the SHA-256 of the token when there is one.
+     */
+    private static String id(final String keyUrl, final String token) {
+        if (token == null) {
+            return keyUrl;
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(UTF8));
+            return keyUrl + TOKEN_SEPARATOR + BaseEncoding.base16().lowerCase().encode(digest);
+        } catch (NoSuchAlgorithmException nsae) {
+            //Every JRE has SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    private static String decode(final Record record) {
+        if (FLAG_ENCRYPTED.equals(record.flag)) {
+            Secret secret = Secret.decrypt(record.data);
+            return (secret == null) ? null : secret.getPlainText();
+        }
+
+        return new String(Base64.decodeBase64(record.data), UTF8);
+    }
+
+    public static int size() {
+        return RECORDS.size();
+    }
+
+    /*
+     * Forgets the values in memory, the log is kept:  a load() then reads them back.
+     */
+    static synchronized void clear() {
+        RECORDS.clear();
+    }
+
+    /**
+     * Loads the store at startup, so degraded-mode reads are served right after a restart.
+     */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static synchronized void load() {
+        File file = getFile();
+
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        lines = 0;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                lines++;
+                if (fields.length != 4) {
+                    //Torn write at the end of the log
+                    continue;
+                }
+                try {
+                    String id = new String(Base64.decodeBase64(fields[2]), UTF8);
+                    RECORDS.put(id, new Record(Long.parseLong(fields[0]), fields[1], fields[3]));
+                } catch (NumberFormatException nfe) {
+                    LOGGER.fine("Skipping invalid last-known-good record.");
+                }
+            }
+            LOGGER.info(String.format("Loaded %d last-known-good Consul values.", RECORDS.size()));
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Could not load last-known-good values.", ioe);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /*
+     * Called by put(), which holds the lock for the log and the records.
+     */
+    private static void append(final String id, final Record record) throws IOException {
+        File file = getFile();
+
+        if (file == null) {
+            return;
+        }
+
+        if (lines > RECORDS.size() * 2 + COMPACTION_SLACK) {
+            compact(file, id, record);
+            return;
+        }
+
+        file.getParentFile().mkdirs();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8));
+        try {
+            writeRecord(writer, id, record);
+            lines++;
+        } finally {
+            writer.close();
+        }
+    }
+
+    /*
+     * Rewrites the log with one record per key, the record being appended included, then swaps it in.
+     */
+    private static void compact(final File file, final String id, final Record record) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+        int written = 0;
+        try {
+            for (Map.Entry<String, Record> entry : RECORDS.entrySet()) {
+                if (!entry.getKey().equals(id)) {
+                    writeRecord(writer, entry.getKey(), entry.getValue());
+                    written++;
+                }
+            }
+            writeRecord(writer, id, record);
+            written++;
+        } finally {
+            writer.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+        lines = written;
+    }
+
+    private static void writeRecord(final Writer writer, final String id, final Record record) throws
+            IOException {
+        writer.write(String.valueOf(record.timestamp));
+        writer.write('\t');
+        writer.write(record.flag);
+        writer.write('\t');
+        writer.write(Base64.encodeBase64URLSafeString(id.getBytes(UTF8)));
+        writer.write('\t');
+        writer.write(record.data);
+        writer.write('\n');
+    }
+
+    static File getFile() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        if (jenkins == null) {
+            return null;
+        }
+
+        return new File(new File(jenkins.getRootDir(), STORE_DIR), STORE_FILE);
+    }
+
+    private static final class Record {
+        private final long timestamp;
+        private final String flag;
+        private final String data;
+
+        private Record(long timestamp, String flag, String data) {
+            this.timestamp = timestamp;
+            this.flag = flag;
+            this.data = data;
+        }
+    }
+}
@@ -2,18 +2,35 @@ package org.jenkinsci.plugins.consulkv;
 
 import hudson.Extension;
 import hudson.model.Descriptor;
+import hudson.model.TaskListener;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.GlobalPluginConfiguration;
 import net.sf.json.JSONObject;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.jenkinsci.plugins.consulkv.common.ConsulHedger;
+import org.jenkinsci.plugins.consulkv.common.ConsulLimiter;
+import org.jenkinsci.plugins.consulkv.common.ConsulMetrics;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
 import org.jenkinsci.plugins.consulkv.common.Constants;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.transport.ConsulTransports;
+import org.jenkinsci.plugins.consulkv.common.transport.TransportType;
+import org.jenkinsci.plugins.consulkv.common.transport.UnixSocketTransport;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -38,11 +55,28 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
         private String consulApiUri;
         private int consulTimeoutConnection;
         private int consulTimeoutResponse;
+        private int consulTimeoutTotal;
         private String consulTestUri;
         private DebugMode consulDebugMode;
+        private int consulPrefetchFreshness;
+        private long consulMaxResponseSize;
+        private int consulConcurrencyLimitRead;
+        private int consulConcurrencyLimitWrite;
+        private int consulQueueTimeout;
+        private int consulHedgePercent;
+        private String consulHedgeUrls;
+        private int consulSlowRequestThreshold;
+        private int consulSlowRequestRate;
+        private TransportType consulTransport;
 
         public DescriptorImpl() {
             load();
+            ConsulMetrics.maxResponseSize(consulMaxResponseSize > 0 ? consulMaxResponseSize : Constants
+                    .MAX_RESPONSE_SIZE);
+            configureLimiter();
+            ConsulHedger.configure(consulHedgePercent, consulHedgeUrls);
+            configureSlowLog();
+            ConsulTransports.configure(consulTransport);
         }
 
         public String getConsulHostUrl() {
@@ -65,6 +99,10 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
             return consulTimeoutResponse;
         }
 
+        public int getConsulTimeoutTotal() {
+            return consulTimeoutTotal;
+        }
+
         public String getConsulTestUri() {
             return consulTestUri;
         }
@@ -73,6 +111,68 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
             return consulDebugMode;
         }
 
+        public int getConsulPrefetchFreshness() {
+            return consulPrefetchFreshness;
+        }
+
+        public long getConsulMaxResponseSize() {
+            return consulMaxResponseSize;
+        }
+
+        public int getConsulConcurrencyLimitRead() {
+            return consulConcurrencyLimitRead;
+        }
+
+        public int getConsulConcurrencyLimitWrite() {
+            return consulConcurrencyLimitWrite;
+        }
+
+        public int getConsulQueueTimeout() {
+            return consulQueueTimeout;
+        }
+
+        public int getConsulHedgePercent() {
+            return consulHedgePercent;
+        }
+
+        public String getConsulHedgeUrls() {
+            return consulHedgeUrls;
+        }
+
+        public int getConsulSlowRequestThreshold() {
+            return consulSlowRequestThreshold;
+        }
+
+        public int getConsulSlowRequestRate() {
+            return consulSlowRequestRate;
+        }
+
+        public TransportType getConsulTransport() {
+            return consulTransport;
+        }
+
+        /*
+         * 0 (e.g. a configuration saved before these settings existed) means the default, negative values disable.
+         */
+        private void configureLimiter() {
+            ConsulLimiter.configure(limiterSetting(consulConcurrencyLimitRead, Constants.CONCURRENCY_LIMIT_READ),
+                    limiterSetting(consulConcurrencyLimitWrite, Constants.CONCURRENCY_LIMIT_WRITE),
+                    limiterSetting(consulQueueTimeout, Constants.QUEUE_TIMEOUT));
+        }
+
+        private void configureSlowLog() {
+            ConsulSlowLog.configure(consulSlowRequestThreshold, (consulSlowRequestRate > 0) ? consulSlowRequestRate
+                    : Constants.SLOW_REQUEST_RATE);
+        }
+
+        private static int limiterSetting(int value, int defaultValue) {
+            if (value == 0) {
+                return defaultValue;
+            }
+
+            return Math.max(0, value);
+        }
+
         public ListBoxModel doFillConsulDebugModeItems() {
             return DebugMode.getFillItems();
         }
@@ -81,6 +181,14 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
             return DebugMode.DISABLED;
         }
 
+        public ListBoxModel doFillConsulTransportItems() {
+            return TransportType.getFillItems();
+        }
+
+        public TransportType getDefaultConsulTransport() {
+            return TransportType.APACHE;
+        }
+
         @Override
         public String getDisplayName() {
             return Constants.PLUGIN_NAME;
@@ -108,6 +216,73 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
                 consulTimeoutResponse = Constants.TIMEOUT_RESPONSE;
             }
 
+            try {
+                consulTimeoutTotal = Integer.parseInt(json.optString("consulTimeoutTotal"));
+            } catch (NumberFormatException nfe) {
+                consulTimeoutTotal = Constants.TIMEOUT_TOTAL;
+            }
+
+            try {
+                consulPrefetchFreshness = Integer.parseInt(json.optString("consulPrefetchFreshness"));
+            } catch (NumberFormatException nfe) {
+                consulPrefetchFreshness = Constants.PREFETCH_FRESHNESS;
+            }
+
+            try {
+                consulMaxResponseSize = Long.parseLong(json.optString("consulMaxResponseSize"));
+            } catch (NumberFormatException nfe) {
+                consulMaxResponseSize = Constants.MAX_RESPONSE_SIZE;
+            }
+            ConsulMetrics.maxResponseSize(consulMaxResponseSize > 0 ? consulMaxResponseSize : Constants
+                    .MAX_RESPONSE_SIZE);
+
+            try {
+                consulConcurrencyLimitRead = Integer.parseInt(json.optString("consulConcurrencyLimitRead"));
+            } catch (NumberFormatException nfe) {
+                consulConcurrencyLimitRead = Constants.CONCURRENCY_LIMIT_READ;
+            }
+
+            try {
+                consulConcurrencyLimitWrite = Integer.parseInt(json.optString("consulConcurrencyLimitWrite"));
+            } catch (NumberFormatException nfe) {
+                consulConcurrencyLimitWrite = Constants.CONCURRENCY_LIMIT_WRITE;
+            }
+
+            try {
+                consulQueueTimeout = Integer.parseInt(json.optString("consulQueueTimeout"));
+            } catch (NumberFormatException nfe) {
+                consulQueueTimeout = Constants.QUEUE_TIMEOUT;
+            }
+            configureLimiter();
+
+            try {
+                consulHedgePercent = Integer.parseInt(json.optString("consulHedgePercent"));
+            } catch (NumberFormatException nfe) {
+                consulHedgePercent = Constants.HEDGE_PERCENT;
+            }
+            consulHedgeUrls = json.optString("consulHedgeUrls");
+            ConsulHedger.configure(consulHedgePercent, consulHedgeUrls);
+
+            try {
+                consulSlowRequestThreshold = Integer.parseInt(json.optString("consulSlowRequestThreshold"));
+            } catch (NumberFormatException nfe) {
+                consulSlowRequestThreshold = Constants.SLOW_REQUEST_THRESHOLD;
+            }
+
+            try {
+                consulSlowRequestRate = Integer.parseInt(json.optString("consulSlowRequestRate"));
+            } catch (NumberFormatException nfe) {
+                consulSlowRequestRate = Constants.SLOW_REQUEST_RATE;
+            }
+            configureSlowLog();
+
+            try {
+                consulTransport = TransportType.valueOf(json.optString("consulTransport"));
+            } catch (IllegalArgumentException iae) {
+                consulTransport = TransportType.APACHE;
+            }
+            ConsulTransports.configure(consulTransport);
+
             consulTestUri = json.getString("consulTestUri");
             consulDebugMode = DebugMode.valueOf(json.getString("consulDebugMode"));
 
@@ -123,11 +298,32 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
 
             //Validation
             if (consulHostUrl.isEmpty()) {
-                return FormValidation.warning("Please enter a Consul host with protocol (http/https) and port.");
+                return FormValidation.warning("Please enter a Consul host with protocol (http/https) and port, or " +
+                        "unix:// and the path of the agent's socket.");
             }
 
             final String URL_VALUE = consulHostUrl + consulTestUri;
 
+            if (UnixSocketTransport.isUnixSocket(URL_VALUE)) {
+                ConsulSlowLog.Timing timing = ConsulSlowLog.start("HEAD", URL_VALUE);
+                try {
+                    int code = testUnixSocket(URL_VALUE, timing);
+                    timing.finish(null, null);
+                    if (code >= 400) {
+                        return FormValidation.error("Could not connect to %s, with HEAD request. HTTP Response Code " +
+                                "was:  %s", URL_VALUE, code);
+                    }
+                } catch (IOException ioe) {
+                    timing.finish(null, ioe);
+                    Logger.getLogger(ConsulKVBuilder.class.getName()).log(Level.WARNING, String.format("Unable to " +
+                            "connect to Consul at URL: %s", URL_VALUE), ioe);
+                    return FormValidation.error("Unable to connect to Consul at URL: %s - %s", URL_VALUE, ioe
+                            .getMessage());
+                }
+
+                return FormValidation.ok("Connected to " + URL_VALUE);
+            }
+
             URL url;
             try {
                 url = new URL(URL_VALUE);
@@ -137,19 +333,22 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
                 return FormValidation.error(ERROR_INVALID_URL);
             }
 
+            ConsulSlowLog.Timing timing = ConsulSlowLog.start("HEAD", URL_VALUE);
             try {
                 URLConnection connection = url.openConnection();
                 if (connection instanceof HttpURLConnection) {
                     HttpURLConnection httpConnection = (HttpURLConnection) connection;
                     httpConnection.setRequestMethod("HEAD");
-                    int code = httpConnection.getResponseCode();
+                    int code = testConnection(httpConnection, timing);
                     httpConnection.disconnect();
+                    timing.finish(null, null);
                     if (code >= 400) {
                         return FormValidation.error("Could not connect to %s, with HEAD request. HTTP Response Code " +
                                 "was:  %s", URL_VALUE, code);
                     }
                 }
             } catch (IOException ioe) {
+                timing.finish(null, ioe);
                 final String ERROR_UNABLE_TO_CONNECT = String.format("Unable to connect to Consul at URL: %Ss",
                         URL_VALUE);
                 Logger.getLogger(ConsulKVBuilder.class.getName()).log(Level.WARNING, ERROR_UNABLE_TO_CONNECT, ioe);
@@ -158,5 +357,58 @@ public class GlobalConsulConfig extends GlobalPluginConfiguration {
 
             return FormValidation.ok("Connected to " + consulHostUrl + consulTestUri);
         }
+
+        /*
+         * Goes through the Unix socket transport, whatever transport is configured.  There is no DNS or TLS phase.
+         * Failures are reported by the form validation and logged like the TCP test, not to stdout.
+         */
+        private static int testUnixSocket(String url, ConsulSlowLog.Timing timing) throws IOException {
+            HttpHead httpHead = new HttpHead(url);
+            httpHead.setConfig(RequestConfig.custom().setConnectTimeout(Constants.TIMEOUT_CONNECTION)
+                    .setSocketTimeout(Constants.TIMEOUT_RESPONSE).build());
+
+            ConsulRequest consulRequest;
+            try {
+                consulRequest = ConsulRequestFactory.request().withUrl(url).withTimeoutConnect(Constants
+                        .TIMEOUT_CONNECTION).withTimeoutResponse(Constants.TIMEOUT_RESPONSE).withDebugMode(DebugMode
+                        .DISABLED).withRequestMode(RequestMode.READ).withLogger(TaskListener.NULL.getLogger()).build();
+            } catch (ValidationException ve) {
+                throw new IOException(ve);
+            }
+
+            timing.dequeued();
+            return ConsulTransports.forUrl(url).execute(consulRequest, httpHead, new ResponseHandler<Integer>() {
+                @Override
+                public Integer handleResponse(HttpResponse response) throws IOException {
+                    EntityUtils.consume(response.getEntity());
+                    return response.getStatusLine().getStatusCode();
+                }
+            }, timing);
+        }
+
+        /*
+         * HttpURLConnection has no hooks into its phases:  DNS is timed by resolving the host first (the JVM caches
+         * the answer for the connection), and the connect includes the TLS handshake.
+         */
+        private static int testConnection(HttpURLConnection httpConnection, ConsulSlowLog.Timing timing) throws
+                IOException {
+            if (!timing.isEnabled()) {
+                return httpConnection.getResponseCode();
+            }
+
+            timing.dequeued();
+            timing.dnsStarted();
+            InetAddress address = InetAddress.getByName(httpConnection.getURL().getHost());
+            timing.dnsFinished();
+
+            timing.connectStarted(new InetSocketAddress(address, Math.max(0, httpConnection.getURL().getPort())));
+            httpConnection.connect();
+            timing.connectFinished();
+
+            timing.requestSent();
+            int code = httpConnection.getResponseCode();
+            timing.responseStarted(code);
+            return code;
+        }
     }
 }
@@ -7,7 +7,10 @@ import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.consulkv.common.Constants;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.ValueFormat;
+import org.jenkinsci.plugins.consulkv.common.transport.UnixSocketTransport;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -33,7 +36,14 @@ public class ReadBean extends AbstractDescribableImpl<ReadBean> {
     private String apiUri;
     private int timeoutConnect;
     private int timeoutResponse;
+    private int timeoutTotal;
     private boolean ignoreGlobalSettings;
+    private boolean lastKnownGood;
+    private int latencyBudget;
+    private int maxStaleness;
+    private ValueFormat valueFormat;
+    private String valueSelect;
+    private String dc;
 
     @DataBoundConstructor
     public ReadBean(String aclToken, String hostUrl,
@@ -81,6 +91,15 @@ public class ReadBean extends AbstractDescribableImpl<ReadBean> {
         this.timeoutResponse = timeoutResponse;
     }
 
+    public int getTimeoutTotal() {
+        return timeoutTotal;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
     public boolean isIgnoreGlobalSettings() {
         return this.ignoreGlobalSettings;
     }
@@ -90,6 +109,60 @@ public class ReadBean extends AbstractDescribableImpl<ReadBean> {
         this.ignoreGlobalSettings = ignoreGlobalSettings;
     }
 
+    public boolean isLastKnownGood() {
+        return lastKnownGood;
+    }
+
+    @DataBoundSetter
+    public void setLastKnownGood(boolean lastKnownGood) {
+        this.lastKnownGood = lastKnownGood;
+    }
+
+    public int getLatencyBudget() {
+        return latencyBudget;
+    }
+
+    @DataBoundSetter
+    public void setLatencyBudget(int latencyBudget) {
+        this.latencyBudget = latencyBudget;
+    }
+
+    public int getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    @DataBoundSetter
+    public void setMaxStaleness(int maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    public ValueFormat getValueFormat() {
+        return valueFormat;
+    }
+
+    @DataBoundSetter
+    public void setValueFormat(ValueFormat valueFormat) {
+        this.valueFormat = valueFormat;
+    }
+
+    public String getValueSelect() {
+        return valueSelect;
+    }
+
+    @DataBoundSetter
+    public void setValueSelect(String valueSelect) {
+        this.valueSelect = valueSelect;
+    }
+
+    public String getDc() {
+        return dc;
+    }
+
+    @DataBoundSetter
+    public void setDc(String dc) {
+        this.dc = dc;
+    }
+
     public String getKey() {
         return key;
     }
@@ -133,7 +206,14 @@ public class ReadBean extends AbstractDescribableImpl<ReadBean> {
                 ", apiUri='" + apiUri + '\'' +
                 ", timeoutConnect=" + timeoutConnect +
                 ", timeoutResponse=" + timeoutResponse +
+                ", timeoutTotal=" + timeoutTotal +
                 ", ignoreGlobalSettings=" + ignoreGlobalSettings +
+                ", lastKnownGood=" + lastKnownGood +
+                ", latencyBudget=" + latencyBudget +
+                ", maxStaleness=" + maxStaleness +
+                ", valueFormat=" + valueFormat +
+                ", valueSelect='" + valueSelect + '\'' +
+                ", dc='" + dc + '\'' +
                 '}';
     }
 
@@ -153,6 +233,7 @@ public class ReadBean extends AbstractDescribableImpl<ReadBean> {
                 this.aclToken = globalDescriptor.getConsulAclToken();
                 this.timeoutConnect = globalDescriptor.getConsulTimeoutConnection();
                 this.timeoutResponse = globalDescriptor.getConsulTimeoutResponse();
+                this.timeoutTotal = globalDescriptor.getConsulTimeoutTotal();
                 this.debugMode = globalDescriptor.getConsulDebugMode();
             } else {
                 LOGGER.warning("Could not load global settings.");
@@ -252,6 +333,10 @@ public class ReadBean extends AbstractDescribableImpl<ReadBean> {
             if (0 == value.length()) {
                 return FormValidation.error("Empty URL.");
             }
+            if (UnixSocketTransport.isUnixSocket(value) && !value.startsWith("/", Constants.UNIX_SOCKET_SCHEME
+                    .length())) {
+                return FormValidation.error("Unix socket URL without an absolute socket path.");
+            }
             return FormValidation.ok();
         }
 
@@ -277,6 +362,10 @@ public class ReadBean extends AbstractDescribableImpl<ReadBean> {
             return DebugMode.getFillItems();
         }
 
+        public ListBoxModel doFillValueFormatItems() {
+            return ValueFormat.getFillItems();
+        }
+
         public ListBoxModel doFillDefaultDebugModeItems() {
             return DebugMode.getFillItems();
         }
@@ -14,9 +14,47 @@ public final class Constants {
             '\"', ' '};
     public static final Integer TIMEOUT_CONNECTION = 10000;
     public static final Integer TIMEOUT_RESPONSE = 30000;
+    public static final Integer TIMEOUT_TOTAL = 0;
+    public static final Integer CONCURRENCY_LIMIT_READ = 64;
+    public static final Integer CONCURRENCY_LIMIT_WRITE = 16;
+    public static final Integer CONCURRENCY_LIMIT_INITIAL = 8;
+    public static final Integer QUEUE_TIMEOUT = 30000;
+    public static final Integer HEDGE_PERCENT = 0;
+    public static final Integer PREFETCH_FRESHNESS = 0;
+    public static final Integer SLOW_REQUEST_THRESHOLD = 0;
+    public static final Integer SLOW_REQUEST_RATE = 60;
+    public static final long MAX_RESPONSE_SIZE = 2L * 1024 * 1024;
+    public static final long MIRROR_MAX_RESPONSE_SIZE = 64L * 1024 * 1024;
+    public static final int UNIX_SOCKET_MAX_CONNECTIONS = 64;
+    public static final long UNIX_SOCKET_IDLE = 30000L;
     public static final String LABEL_CONTENT_TYPE = "Content-Type";
     public static final String LABEL_ACCEPT = "Accept";
+    public static final String UNIX_SOCKET_SCHEME = "unix://";
     public static final String API_URI = "/v1/kv/";
+    public static final String TXN_URI = "/v1/txn";
+    public static final String SESSION_URI = "/v1/session/";
+    public static final int SESSION_TTL_MIN = 10;
+    public static final int SESSION_TTL_MAX = 86400;
+    public static final String SESSION_BEHAVIOR_RELEASE = "release";
+    public static final String SESSION_BEHAVIOR_DELETE = "delete";
+    public static final String DATACENTERS_URI = "/v1/catalog/datacenters";
+    public static final int TXN_MAX_OPS = 64;
+    public static final long TXN_MAX_VALUE_BYTES = 256L * 1024;
+    public static final int IMPORT_CONCURRENCY = 4;
+    public static final long CHUNK_SIZE = 256L * 1024;
+    public static final int CAS_RETRIES = 5;
+    public static final long CAS_BACKOFF = 50L;
+    public static final long DC_REFRESH = 60000L;
+    public static final long DC_COOLDOWN = 30000L;
+    public static final int FANOUT_RETRIES = 3;
+    public static final long FANOUT_BACKOFF = 1000L;
+    public static final String ENV_SNAPSHOT_INDEX = "CONSUL_KV_SNAPSHOT_INDEX";
+    public static final String ENV_CACHE_HIT = "CONSUL_KV_CACHE_HIT";
+    public static final String ENV_CACHE_KEY = "CONSUL_KV_CACHE_KEY";
+    public static final String ENV_MEMO = "CONSUL_KV_MEMO";
+    public static final String ENV_LOCK_SESSION = "CONSUL_KV_LOCK_SESSION";
+    public static final int CACHE_TTL = 86400;
+    public static final int LOCK_TTL = 30;
     public static final String REGEX_PATTERN_API_URI = "^([\\/]\\w+)+\\/$";
     public static final String MEDIA_TYPE_APP_JSON = "application/json; charset=utf-8";
     public static final String MEDIA_TYPE_PLAIN_TEXT = "plain/text; charset=utf-8";
@@ -29,9 +67,22 @@ public final class Constants {
             ".36 (KHTML, like Gecko) Chrome/49.0.2623.87 Safari/537.36";
     public static final int HTTP_OK = 200;
     public static final int HTTP_MULTI_CHOICES = 300;
+    public static final int HTTP_NOT_FOUND = 404;
+    public static final int HTTP_CONFLICT = 409;
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+    public static final int HTTP_SERVER_ERROR = 500;
+    public static final String HEADER_CONSUL_INDEX = "X-Consul-Index";
     public static final String TOKEN_URL_PATTERN = "?token=%s";
 
     public static final String FIELD_VALUE = "Value";
+    public static final String FIELD_KEY = "Key";
+    public static final String FIELD_MODIFY_INDEX = "ModifyIndex";
+    public static final String FIELD_ID = "ID";
+    public static final String FIELD_SESSION = "Session";
+
+    public static final int WATCH_WAIT_SECONDS = 300;
+    public static final long WATCH_BACKOFF_MIN = 1000L;
+    public static final long WATCH_BACKOFF_MAX = 60000L;
 
     private Constants() {
 
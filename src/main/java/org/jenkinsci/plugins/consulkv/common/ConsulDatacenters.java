@@ -0,0 +1,269 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Datacenter routing of the reads sent to one Consul cluster.  With <code>dc</code> set to {@link #NEAREST} reads go
+ * to the datacenter with the lowest round trip time from the agent, as ranked by Consul's network coordinates
+ * (<code>/v1/catalog/datacenters</code>, refreshed every minute), and fall back to the next datacenters in latency
+ * order when a datacenter is unavailable.  A datacenter whose read failed is tried last until its cool-down has
+ * passed.  Answers such as a 404 for a missing key or a 403 for a rejected token are returned as they are.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulDatacenters {
+    /**
+     * <code>dc</code> value routing reads to the nearest datacenter.
+     */
+    public static final String NEAREST = "nearest";
+
+    private static final Logger LOGGER = Logger.getLogger(ConsulDatacenters.class.getName());
+    private static final Map<String, ConsulDatacenters> CLUSTERS = new ConcurrentHashMap<String,
+            ConsulDatacenters>();
+
+    private final String cluster;
+    private final Map<String, Long> failures = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile List<String> ranked = Collections.emptyList();
+    private volatile long refreshed;
+
+    private ConsulDatacenters(String cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Reads Consul through the request.
+     *
+     * @param <T> type read
+     */
+    public interface Reader<T> {
+        T read(ConsulRequest consulRequest) throws ConsulRequestException, InterruptedException;
+    }
+
+    /**
+     * Reads the decoded value of the first entry, null when the key has no value.
+     */
+    public static final Reader<String> VALUE = new Reader<String>() {
+        @Override
+        public String read(ConsulRequest consulRequest) throws ConsulRequestException, InterruptedException {
+            return ConsulRequestUtils.readValue(consulRequest);
+        }
+    };
+
+    /**
+     * @param dc <code>dc</code> option
+     * @return true when reads are routed to the nearest datacenter
+     */
+    public static boolean isNearest(String dc) {
+        return dc != null && NEAREST.equalsIgnoreCase(dc.trim());
+    }
+
+    /**
+     * Adds the <code>dc</code> query parameter to a URL.
+     *
+     * @param url URL, with or without a query string
+     * @param dc  datacenter, blank or {@link #NEAREST} leave the URL as is
+     * @return URL
+     */
+    public static String url(String url, String dc) {
+        if (Strings.isBlank(dc) || isNearest(dc)) {
+            return url;
+        }
+
+        try {
+            return url + ((url.indexOf('?') == -1) ? '?' : '&') + "dc=" + URLEncoder.encode(dc.trim(), Constants
+                    .DEFAULT_ENCODING);
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * Reads with the request, routed to the nearest datacenter when <code>dc</code> is {@link #NEAREST}.  Otherwise
+     * the request is read as is, its URL already carrying an explicit datacenter.
+     *
+     * @param consulRequest read request
+     * @param dc            <code>dc</code> option
+     * @param reader        reads Consul
+     * @param <T>           type read
+     * @return value read
+     * @throws ConsulRequestException when a datacenter answered with an error, every datacenter was unavailable, or
+     *                                the deadline expired
+     * @throws ValidationException    when a routed request cannot be built
+     * @throws InterruptedException   when interrupted
+     */
+    public static <T> T read(ConsulRequest consulRequest, String dc, Reader<T> reader) throws
+            ConsulRequestException, ValidationException, InterruptedException {
+        if (!isNearest(dc)) {
+            return reader.read(consulRequest);
+        }
+
+        ConsulDatacenters datacenters = of(consulRequest.getUrl());
+        List<String> route = datacenters.route(consulRequest);
+
+        if (route.isEmpty()) {
+            //No ranking yet, the agent's own datacenter
+            return reader.read(consulRequest);
+        }
+
+        ConsulRequestException failure = null;
+        for (String name : route) {
+            if (failure != null) {
+                if (consulRequest.getDeadline() != null && consulRequest.getDeadline().isExpired()) {
+                    break;
+                }
+                consulRequest.getLogger().println(String.format("Consul READ failed, trying datacenter %s:  %s",
+                        name, failure.getMessage()));
+            } else if (consulRequest.getDebugMode() == DebugMode.ENABLED) {
+                consulRequest.getLogger().println(String.format("Consul READ routed to datacenter %s.", name));
+            }
+
+            try {
+                T value = reader.read(ConsulRequestFactory.copyOf(consulRequest).withUrl(url(consulRequest.getUrl(),
+                        name)).build());
+                datacenters.failures.remove(name);
+                return value;
+            } catch (ConsulRequestException cre) {
+                //A 404 or 403 is the datacenter's answer, not an outage to route around
+                if (!ConsulRequestUtils.isUnavailable(cre)) {
+                    throw cre;
+                }
+                datacenters.failures.put(name, System.currentTimeMillis() + Constants.DC_COOLDOWN);
+                failure = cre;
+            }
+        }
+
+        throw failure;
+    }
+
+    /**
+     * @param url read URL
+     * @return routing of the read's cluster
+     */
+    static ConsulDatacenters of(String url) {
+        String cluster = ConsulLimiter.cluster(url);
+        ConsulDatacenters datacenters = CLUSTERS.get(cluster);
+
+        if (datacenters == null) {
+            synchronized (CLUSTERS) {
+                datacenters = CLUSTERS.get(cluster);
+                if (datacenters == null) {
+                    datacenters = new ConsulDatacenters(cluster);
+                    CLUSTERS.put(cluster, datacenters);
+                }
+            }
+        }
+
+        return datacenters;
+    }
+
+    /**
+     * @param consulRequest read request, its timeouts and deadline also bound the refresh of the ranking
+     * @return datacenters in latency order, those cooling down after a failure last
+     */
+    List<String> route(ConsulRequest consulRequest) throws InterruptedException {
+        if (System.currentTimeMillis() - this.refreshed > Constants.DC_REFRESH) {
+            this.refresh(consulRequest);
+        }
+
+        return order(this.ranked, System.currentTimeMillis());
+    }
+
+    /**
+     * @param ranked datacenters in latency order
+     * @param now    current time
+     * @return datacenters in latency order, those cooling down after a failure last
+     */
+    List<String> order(List<String> ranked, long now) {
+        List<String> route = new ArrayList<String>(ranked.size());
+        List<String> cooling = new ArrayList<String>();
+
+        for (String name : ranked) {
+            Long until = this.failures.get(name);
+
+            if (until != null && until > now) {
+                cooling.add(name);
+            } else {
+                route.add(name);
+            }
+        }
+        route.addAll(cooling);
+
+        return route;
+    }
+
+    /**
+     * Consul sorts the datacenters by the median round trip time estimated from its network coordinates.
+     *
+     * @param data response of <code>/v1/catalog/datacenters</code>
+     * @return datacenters in latency order
+     * @throws IOException when the response is not a JSON array
+     */
+    static List<String> parse(String data) throws IOException {
+        JsonNode array = new ObjectMapper().readTree(data);
+
+        if (array == null || !array.isArray()) {
+            throw new IOException(String.format("Unexpected datacenters response:  %s", data));
+        }
+
+        List<String> names = new ArrayList<String>(array.size());
+        for (JsonNode name : array) {
+            if (!Strings.isBlank(name.asText())) {
+                names.add(name.asText());
+            }
+        }
+
+        return Collections.unmodifiableList(names);
+    }
+
+    /*
+     * One reader refreshes the ranking, the others keep routing with the previous one instead of waiting for it.
+     */
+    private void refresh(ConsulRequest consulRequest) throws InterruptedException {
+        if (!this.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            if (System.currentTimeMillis() - this.refreshed <= Constants.DC_REFRESH) {
+                //Refreshed by another reader in the meantime
+                return;
+            }
+
+            String data = ConsulRequestUtils.read(ConsulRequestFactory.copyOf(consulRequest).withUrl(this.cluster +
+                    Constants.DATACENTERS_URI).withRequestMode(RequestMode.READ).build());
+
+            if (data != null) {
+                this.ranked = parse(data);
+            }
+        } catch (ConsulRequestException | ValidationException | IOException e) {
+            //Keep routing with the previous ranking
+            LOGGER.log(Level.WARNING, String.format("Could not rank the datacenters of %s.", this.cluster), e);
+        } finally {
+            this.refreshed = System.currentTimeMillis();
+            this.refreshing.set(false);
+        }
+    }
+}
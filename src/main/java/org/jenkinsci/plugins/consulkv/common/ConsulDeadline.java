@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Absolute point in time by which a build step, or a wrapper, must be done with Consul.  One deadline is shared by
+ * every request (and retry) the step makes, so that the step as a whole cannot outlive its budget.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulDeadline {
+    private final long budget;
+    private final long expiresAt;
+
+    private ConsulDeadline(long budget) {
+        this.budget = budget;
+        this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+    }
+
+    /**
+     * @param budget milliseconds from now
+     * @return deadline, or null when the budget is 0 (no deadline)
+     */
+    public static ConsulDeadline after(long budget) {
+        return (budget > 0) ? new ConsulDeadline(budget) : null;
+    }
+
+    /**
+     * @return the budget the deadline was created with, in milliseconds
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return milliseconds left, 0 once the deadline has passed
+     */
+    public long remaining() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return remaining() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulDeadline{" +
+                "budget=" + budget +
+                ", remaining=" + remaining() +
+                '}';
+    }
+}
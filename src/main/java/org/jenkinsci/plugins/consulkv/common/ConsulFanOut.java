@@ -0,0 +1,219 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the same write to several datacenters concurrently, through the configured host with <code>?dc=</code>.
+ * The step waits for a quorum of them only, so it takes the latency of the slowest datacenter in the quorum rather
+ * than the sum of all of them.  The other writes keep running, and retrying, in the background; their outcome is
+ * recorded on the run by {@link ConsulFanOutAction}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulFanOut {
+    private static final Logger LOGGER = Logger.getLogger(ConsulFanOut.class.getName());
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V fan-out"));
+
+    private ConsulFanOut() {
+
+    }
+
+    /**
+     * Sends a write to Consul.
+     *
+     * @param <T> response type
+     */
+    public interface Writer<T> {
+        T write(ConsulRequest consulRequest) throws ConsulRequestException, InterruptedException;
+    }
+
+    /**
+     * @param datacenters comma or space separated datacenters
+     * @return datacenters, in the configured order, without duplicates
+     */
+    public static List<String> parse(String datacenters) {
+        Set<String> names = new LinkedHashSet<String>();
+
+        if (!Strings.isBlank(datacenters)) {
+            for (String name : datacenters.split("[,\\s]+")) {
+                if (!Strings.isBlank(name)) {
+                    names.add(name.trim());
+                }
+            }
+        }
+
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * @param quorum configured quorum, 0 for all
+     * @param count  number of datacenters
+     * @return writes that must succeed
+     */
+    public static int quorum(int quorum, int count) {
+        return (quorum <= 0 || quorum > count) ? count : quorum;
+    }
+
+    /**
+     * Writes to every datacenter and waits for the quorum.  Each write is retried with a growing backoff before it
+     * counts as failed.  The request's deadline bounds the wait for the quorum, not the writes themselves.
+     *
+     * @param run           run the outcome is recorded on
+     * @param operation     description of the write, e.g. <code>WRITE app/version</code>
+     * @param datacenters   datacenters
+     * @param quorum        configured quorum, 0 for all
+     * @param consulRequest write request, its URL without a datacenter
+     * @param writer        sends the write
+     * @return datacenters that succeeded when the quorum was reached
+     * @throws ConsulRequestException when too many writes failed for the quorum, or the deadline expired first
+     * @throws ValidationException    when a datacenter request cannot be built
+     * @throws InterruptedException   when interrupted, the writes still running are cancelled
+     */
+    public static int write(Run<?, ?> run, String operation, List<String> datacenters, int quorum, ConsulRequest
+            consulRequest, Writer<?> writer) throws ConsulRequestException, ValidationException,
+            InterruptedException {
+        return ConsulFanOut.write(ConsulFanOutAction.of(run), run, operation, datacenters, quorum, consulRequest,
+                writer);
+    }
+
+    /*
+     * The run is saved as the background writes complete, unless it is null.
+     */
+    static int write(final ConsulFanOutAction results, final Run<?, ?> run, final String operation, List<String>
+            datacenters, int quorum, ConsulRequest consulRequest, final Writer<?> writer) throws
+            ConsulRequestException, ValidationException, InterruptedException {
+        if (datacenters.isEmpty()) {
+            throw new ValidationException("No datacenters to write to.");
+        }
+
+        final BlockingQueue<Boolean> outcomes = new LinkedBlockingQueue<Boolean>();
+        List<Future<?>> writes = new ArrayList<Future<?>>();
+        int needed = quorum(quorum, datacenters.size());
+
+        for (final String datacenter : datacenters) {
+            //Stragglers outlive the step, only the wait for the quorum is bound by its deadline
+            final ConsulRequest request = ConsulRequestFactory.copyOf(consulRequest).withUrl(ConsulDatacenters.url
+                    (consulRequest.getUrl(), datacenter)).withDeadline(null).build();
+
+            results.record(operation, datacenter, ConsulFanOutAction.PENDING, 0, 0, null);
+            writes.add(EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    outcomes.add(ConsulFanOut.send(results, operation, datacenter, request, writer));
+                    if (run != null) {
+                        ConsulFanOut.save(run);
+                    }
+                }
+            }));
+        }
+
+        int succeeded = 0;
+        int failed = 0;
+        ConsulDeadline deadline = consulRequest.getDeadline();
+
+        try {
+            while (succeeded < needed) {
+                if (failed > datacenters.size() - needed) {
+                    throw new ConsulRequestException(String.format("%s failed in %d of %d datacenters, the quorum " +
+                            "of %d cannot be reached.", operation, failed, datacenters.size(), needed));
+                }
+
+                Boolean outcome = (deadline == null) ? outcomes.take() : outcomes.poll(deadline.remaining(),
+                        TimeUnit.MILLISECONDS);
+                if (outcome == null) {
+                    throw new ConsulRequestException(String.format("%s reached %d of %d datacenters before the " +
+                            "deadline, the quorum is %d.", operation, succeeded, datacenters.size(), needed));
+                }
+
+                if (outcome) {
+                    succeeded++;
+                } else {
+                    failed++;
+                }
+            }
+        } catch (InterruptedException ie) {
+            for (Future<?> write : writes) {
+                write.cancel(true);
+            }
+            throw ie;
+        }
+
+        return succeeded;
+    }
+
+    /*
+     * Sends the write, retrying it, and records every attempt.
+     */
+    private static boolean send(ConsulFanOutAction results, String operation, String datacenter, ConsulRequest
+            request, Writer<?> writer) {
+        long started = System.currentTimeMillis();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writer.write(request);
+                results.record(operation, datacenter, ConsulFanOutAction.SUCCEEDED, attempt, System
+                        .currentTimeMillis() - started, null);
+                return true;
+            } catch (ConsulRequestException cre) {
+                boolean retry = attempt <= Constants.FANOUT_RETRIES;
+                results.record(operation, datacenter, retry ? ConsulFanOutAction.RETRYING : ConsulFanOutAction
+                        .FAILED, attempt, System.currentTimeMillis() - started, cre.getMessage());
+
+                if (!retry) {
+                    LOGGER.log(Level.WARNING, String.format("%s failed in datacenter %s.", operation, datacenter),
+                            cre);
+                    return false;
+                }
+
+                try {
+                    Thread.sleep(Constants.FANOUT_BACKOFF * attempt);
+                } catch (InterruptedException ie) {
+                    results.record(operation, datacenter, ConsulFanOutAction.FAILED, attempt, System
+                            .currentTimeMillis() - started, "Interrupted");
+                    return false;
+                }
+            } catch (InterruptedException ie) {
+                results.record(operation, datacenter, ConsulFanOutAction.FAILED, attempt, System
+                        .currentTimeMillis() - started, "Interrupted");
+                return false;
+            }
+        }
+    }
+
+    /*
+     * A finished run is not saved again by Jenkins, writes completing after it are saved here.
+     */
+    private static void save(Run<?, ?> run) {
+        if (!run.isBuilding()) {
+            try {
+                run.save();
+            } catch (IOException ioe) {
+                LOGGER.log(Level.WARNING, String.format("Could not save the Consul write results of %s.", run),
+                        ioe);
+            }
+        }
+    }
+}
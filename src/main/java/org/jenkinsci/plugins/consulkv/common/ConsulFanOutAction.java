@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of the writes a run fanned out to several datacenters, per operation and datacenter.  Writes that were
+ * still running when the quorum was reached complete in the background and update their record, so the run shows
+ * whether every datacenter eventually got the write.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulFanOutAction extends InvisibleAction {
+    public static final String PENDING = "PENDING";
+    public static final String RETRYING = "RETRYING";
+    public static final String SUCCEEDED = "SUCCEEDED";
+    public static final String FAILED = "FAILED";
+
+    private static final Object LOCK = new Object();
+
+    private final Map<String, Record> records = new LinkedHashMap<String, Record>();
+
+    ConsulFanOutAction() {
+
+    }
+
+    /**
+     * @param run run
+     * @return results of the run, attached on first use
+     */
+    public static ConsulFanOutAction of(Run<?, ?> run) {
+        synchronized (LOCK) {
+            ConsulFanOutAction action = run.getAction(ConsulFanOutAction.class);
+
+            if (action == null) {
+                action = new ConsulFanOutAction();
+                run.addAction(action);
+            }
+
+            return action;
+        }
+    }
+
+    /**
+     * @param operation  e.g. <code>WRITE app/version</code>
+     * @param datacenter datacenter
+     * @param state      {@link #PENDING}, {@link #RETRYING}, {@link #SUCCEEDED} or {@link #FAILED}
+     * @param attempts   requests sent so far
+     * @param millis     time since the first request
+     * @param error      last error, or null
+     */
+    public synchronized void record(String operation, String datacenter, String state, int attempts, long millis,
+                                    String error) {
+        this.records.put(operation + '@' + datacenter, new Record(operation, datacenter, state, attempts, millis,
+                error));
+    }
+
+    /**
+     * @return records, in the order the writes were sent
+     */
+    public synchronized List<Record> getRecords() {
+        return new ArrayList<Record>(this.records.values());
+    }
+
+    /**
+     * Outcome of one write to one datacenter.
+     */
+    public static final class Record {
+        private final String operation;
+        private final String datacenter;
+        private final String state;
+        private final int attempts;
+        private final long millis;
+        private final String error;
+
+        Record(String operation, String datacenter, String state, int attempts, long millis, String error) {
+            this.operation = operation;
+            this.datacenter = datacenter;
+            this.state = state;
+            this.attempts = attempts;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getDatacenter() {
+            return datacenter;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{" +
+                    "operation='" + operation + '\'' +
+                    ", datacenter='" + datacenter + '\'' +
+                    ", state='" + state + '\'' +
+                    ", attempts=" + attempts +
+                    ", millis=" + millis +
+                    ", error='" + error + '\'' +
+                    '}';
+        }
+    }
+}
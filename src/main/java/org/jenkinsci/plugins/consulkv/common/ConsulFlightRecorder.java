@@ -0,0 +1,297 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import hudson.model.Executor;
+import hudson.model.Queue;
+import hudson.model.Run;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JDK Flight Recorder events for Consul operations, <code>org.jenkinsci.plugins.consulkv.Request</code> in the
+ * <code>Jenkins / Consul K/V</code> category.  Every request sent carries its operation, key path, host, bytes sent
+ * and received, status, retries, and the run it was sent for; operations served from a cache carry the cache outcome
+ * instead of a status.
+ * <p>
+ * The plugin targets Java 7, so the event type is created at runtime through <code>jdk.jfr.EventFactory</code>,
+ * looked up reflectively.  On a JVM without that API, and whenever no recording has the event enabled,
+ * {@link #begin(String, String)} returns {@link #NONE} and recording costs a single check.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulFlightRecorder {
+    public static final String EVENT_NAME = "org.jenkinsci.plugins.consulkv.Request";
+    public static final String CACHE_NONE = "none";
+    public static final String CACHE_MEMO = "memo-hit";
+    public static final String CACHE_PREFETCHED = "prefetched";
+    public static final String CACHE_STALE = "stale";
+
+    /**
+     * Recording that records nothing.
+     */
+    public static final Recording NONE = new Recording(null, null, null);
+
+    private static final Logger LOGGER = Logger.getLogger(ConsulFlightRecorder.class.getName());
+
+    private static final String[] FIELDS = {"operation", "key", "host", "bytesIn", "bytesOut", "status", "retries",
+            "cache", "run"};
+    private static final String[] LABELS = {"Operation", "Key", "Host", "Bytes In", "Bytes Out", "Status",
+            "Retries", "Cache", "Run"};
+    private static final Class<?>[] TYPES = {String.class, String.class, String.class, long.class, long.class, int
+            .class, int.class, String.class, String.class};
+
+    private static final Bridge BRIDGE = Bridge.load();
+
+    private ConsulFlightRecorder() {
+
+    }
+
+    /**
+     * @return true when events are being recorded
+     */
+    public static boolean isEnabled() {
+        return BRIDGE != null && BRIDGE.isEnabled();
+    }
+
+    /**
+     * Starts the event of a request; its duration runs until {@link Recording#end()}.
+     *
+     * @param operation e.g. <code>GET</code>, <code>PUT</code>
+     * @param url       request URL, only its path and host are recorded
+     * @return recording, {@link #NONE} when events are not recorded
+     */
+    public static Recording begin(String operation, String url) {
+        if (!isEnabled()) {
+            return NONE;
+        }
+
+        Object event = BRIDGE.newEvent();
+        if (event == null) {
+            return NONE;
+        }
+
+        return new Recording(event, operation, url);
+    }
+
+    /**
+     * Records an operation served from a cache, without a request to Consul.
+     *
+     * @param operation e.g. <code>GET</code>
+     * @param url       URL the value would have been read from
+     * @param cache     {@link #CACHE_MEMO}, {@link #CACHE_PREFETCHED} or {@link #CACHE_STALE}
+     * @param value     value served, for its size
+     */
+    public static void cached(String operation, String url, String cache, String value) {
+        Recording recording = begin(operation, url);
+
+        if (recording != NONE) {
+            recording.cache(cache);
+            recording.bytesIn((value == null) ? 0 : value.length());
+            recording.end();
+        }
+    }
+
+    /*
+     * The key path without the query string, which may carry the ACL token.
+     */
+    static String path(String url) {
+        if (url == null) {
+            return "";
+        }
+
+        try {
+            String path = new URI(url).getRawPath();
+            if (path != null) {
+                return path;
+            }
+        } catch (URISyntaxException use) {
+            //Fall through, e.g. an unencoded query string
+        }
+
+        String withoutQuery = url.split("\\?")[0];
+        int start = withoutQuery.indexOf("://");
+        int slash = withoutQuery.indexOf('/', (start == -1) ? 0 : start + 3);
+        return (slash == -1) ? "" : withoutQuery.substring(slash);
+    }
+
+    /*
+     * Build the request is sent for, when it runs on a build executor.  Pipeline steps run elsewhere and carry none.
+     */
+    static String runId() {
+        Executor executor = Executor.currentExecutor();
+        Queue.Executable executable = (executor == null) ? null : executor.getCurrentExecutable();
+
+        return (executable instanceof Run) ? ((Run<?, ?>) executable).getExternalizableId() : "";
+    }
+
+    /**
+     * Event of one operation, filled in as the request proceeds.  The setters may be called from the thread running
+     * the request, {@link #end()} from the caller.
+     */
+    public static final class Recording {
+        private final Object event;
+        private final String operation;
+        private final String url;
+        private final String run;
+        private volatile long bytesIn;
+        private volatile long bytesOut;
+        private volatile int status;
+        private volatile int retries;
+        private volatile String cache = CACHE_NONE;
+
+        private Recording(Object event, String operation, String url) {
+            this.event = event;
+            this.operation = operation;
+            this.url = url;
+            this.run = (event == null) ? null : runId();
+        }
+
+        public void bytesIn(long bytes) {
+            this.bytesIn = bytes;
+        }
+
+        public void bytesOut(long bytes) {
+            this.bytesOut = bytes;
+        }
+
+        public void status(int code) {
+            this.status = code;
+        }
+
+        public void retry() {
+            this.retries++;
+        }
+
+        public void cache(String outcome) {
+            this.cache = outcome;
+        }
+
+        /**
+         * Ends and commits the event.
+         */
+        public void end() {
+            if (this.event == null) {
+                return;
+            }
+
+            BRIDGE.commit(this.event, this.operation, path(this.url), ConsulLimiter.cluster(Strings.nvl(this.url,
+                    "")), this.bytesIn, this.bytesOut, this.status, this.retries, this.cache, this.run);
+        }
+    }
+
+    /*
+     * Method handles on the jdk.jfr dynamic event API, resolved once.
+     */
+    private static final class Bridge {
+        private final MethodHandle isEnabled;
+        private final MethodHandle newEvent;
+        private final MethodHandle begin;
+        private final MethodHandle set;
+        private final MethodHandle end;
+        private final MethodHandle shouldCommit;
+        private final MethodHandle commit;
+
+        private Bridge(MethodHandle isEnabled, MethodHandle newEvent, MethodHandle begin, MethodHandle set,
+                       MethodHandle end, MethodHandle shouldCommit, MethodHandle commit) {
+            this.isEnabled = isEnabled;
+            this.newEvent = newEvent;
+            this.begin = begin;
+            this.set = set;
+            this.end = end;
+            this.shouldCommit = shouldCommit;
+            this.commit = commit;
+        }
+
+        /*
+         * @return bridge, or null when the JVM has no dynamic event API (before JDK 11, or 8u262)
+         */
+        private static Bridge load() {
+            try {
+                Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventType = Class.forName("jdk.jfr.EventType");
+                Class<?> event = Class.forName("jdk.jfr.Event");
+                Class<?> label = Class.forName("jdk.jfr.Label");
+                Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+                Constructor<?> newField = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+                List<Object> annotations = new ArrayList<Object>();
+                annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Name"), EVENT_NAME));
+                annotations.add(newAnnotation.newInstance(label, "Consul K/V Request"));
+                annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Jenkins",
+                        "Consul K/V"}));
+                annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Description"), "Request to " +
+                        "Consul, or operation served from a cache, by the Consul K/V Builder plugin."));
+
+                List<Object> fields = new ArrayList<Object>();
+                for (int i = 0; i < FIELDS.length; i++) {
+                    fields.add(newField.newInstance(TYPES[i], FIELDS[i], Collections.singletonList(newAnnotation
+                            .newInstance(label, LABELS[i]))));
+                }
+
+                Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null,
+                        annotations, fields);
+                Object type = eventFactory.getMethod("getEventType").invoke(factory);
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+                return new Bridge(lookup.findVirtual(eventType, "isEnabled", MethodType.methodType(boolean.class))
+                        .bindTo(type), lookup.findVirtual(eventFactory, "newEvent", MethodType.methodType(event))
+                        .bindTo(factory), lookup.findVirtual(event, "begin", MethodType.methodType(void.class)),
+                        lookup.findVirtual(event, "set", MethodType.methodType(void.class, int
+                        .class, Object.class)), lookup.findVirtual(event, "end", MethodType.methodType(void.class)),
+                        lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class)), lookup
+                        .findVirtual(event, "commit", MethodType.methodType(void.class)));
+            } catch (ClassNotFoundException cnfe) {
+                return null;
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                LOGGER.log(Level.FINE, "Flight Recorder events are not available.", e);
+                return null;
+            }
+        }
+
+        private boolean isEnabled() {
+            try {
+                return (boolean) this.isEnabled.invoke();
+            } catch (Throwable t) {
+                return false;
+            }
+        }
+
+        private Object newEvent() {
+            try {
+                Object event = this.newEvent.invoke();
+                this.begin.invoke(event);
+                return event;
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Could not create a Flight Recorder event.", t);
+                return null;
+            }
+        }
+
+        private void commit(Object event, Object... values) {
+            try {
+                this.end.invoke(event);
+                if ((boolean) this.shouldCommit.invoke(event)) {
+                    for (int i = 0; i < values.length; i++) {
+                        this.set.invoke(event, i, values[i]);
+                    }
+                    this.commit.invoke(event);
+                }
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Could not commit a Flight Recorder event.", t);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingWindowReservoir;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hedging policy of the reads sent to one Consul cluster.  A read that has not answered by the cluster's observed
+ * p95 latency is duplicated to another endpoint, the first answer wins.  Hedges are capped at a percentage of the
+ * reads, so that hedging never doubles the load on a cluster that is slow across the board.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulHedger {
+    private static final int WINDOW = 1024;
+    private static final int MIN_SAMPLES = 50;
+    private static final int REFRESH_SAMPLES = 64;
+    private static final long DECAY_READS = 10000;
+
+    private static final Map<String, ConsulHedger> HEDGERS = new ConcurrentHashMap<String, ConsulHedger>();
+
+    private static volatile int percent = Constants.HEDGE_PERCENT;
+    private static volatile List<String> endpoints = Collections.emptyList();
+
+    private final String cluster;
+    private final Histogram latencies = new Histogram(new SlidingWindowReservoir(WINDOW));
+
+    private long samples;
+    private long threshold = -1;
+    private long reads;
+    private long hedges;
+    private int nextEndpoint;
+
+    private ConsulHedger(String cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Applies the global settings.
+     *
+     * @param hedgePercent maximum hedges, as a percentage of reads, 0 disables hedging
+     * @param hedgeUrls    comma separated host URLs hedges may go to, when blank hedges go to the read's own URL
+     */
+    public static void configure(int hedgePercent, String hedgeUrls) {
+        List<String> urls = new ArrayList<String>();
+
+        if (!Strings.isBlank(hedgeUrls)) {
+            for (String url : hedgeUrls.split(",")) {
+                if (!Strings.isBlank(url)) {
+                    urls.add(ConsulLimiter.cluster(url.trim()));
+                }
+            }
+        }
+
+        percent = Math.max(0, Math.min(100, hedgePercent));
+        endpoints = Collections.unmodifiableList(urls);
+    }
+
+    /**
+     * @param url read URL
+     * @return hedger of the read's cluster, or null when hedging is disabled
+     */
+    public static ConsulHedger get(String url) {
+        if (percent <= 0) {
+            return null;
+        }
+
+        String cluster = ConsulLimiter.cluster(url);
+        ConsulHedger hedger = HEDGERS.get(cluster);
+
+        if (hedger == null) {
+            synchronized (HEDGERS) {
+                hedger = HEDGERS.get(cluster);
+                if (hedger == null) {
+                    hedger = new ConsulHedger(cluster);
+                    HEDGERS.put(cluster, hedger);
+                }
+            }
+        }
+
+        return hedger;
+    }
+
+    /**
+     * Records the latency of a successful read.
+     *
+     * @param latency milliseconds
+     */
+    public synchronized void record(long latency) {
+        latencies.update(latency);
+        samples++;
+
+        //Sorting the window on every read would cost more than the hedge saves
+        if (samples >= MIN_SAMPLES && (threshold < 0 || samples % REFRESH_SAMPLES == 0)) {
+            threshold = (long) Math.ceil(latencies.getSnapshot().get95thPercentile());
+        }
+    }
+
+    /**
+     * Counts a read, see {@link #tryHedge()}.
+     *
+     * @return milliseconds to wait for the read before hedging it, -1 until enough reads were observed
+     */
+    public synchronized long started() {
+        reads++;
+
+        if (reads > DECAY_READS) {
+            //Halve the history so the cap follows recent traffic
+            reads /= 2;
+            hedges /= 2;
+        }
+
+        return threshold;
+    }
+
+    /**
+     * @return true when a hedge fits in the budget, the hedge is then counted
+     */
+    public synchronized boolean tryHedge() {
+        if ((hedges + 1) * 100 > reads * percent) {
+            return false;
+        }
+
+        hedges++;
+        return true;
+    }
+
+    /**
+     * @param url read URL
+     * @return URL to send the hedge to, on the next configured endpoint other than the read's own
+     */
+    public synchronized String hedgeUrl(String url) {
+        List<String> candidates = new ArrayList<String>(endpoints);
+        candidates.remove(cluster);
+
+        if (candidates.isEmpty() || !url.startsWith(cluster)) {
+            //A new connection, which a load balancer or round-robin DNS may send to another server
+            return url;
+        }
+
+        nextEndpoint = (nextEndpoint + 1) % candidates.size();
+        return candidates.get(nextEndpoint) + url.substring(cluster.length());
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConsulHedger{" +
+                "cluster='" + cluster + '\'' +
+                ", threshold=" + threshold +
+                ", reads=" + reads +
+                ", hedges=" + hedges +
+                '}';
+    }
+}
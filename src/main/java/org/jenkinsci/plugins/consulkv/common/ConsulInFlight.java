@@ -0,0 +1,261 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the Consul requests in flight on the controller, with the error rate of each endpoint over the last
+ * {@link #WINDOW_MINUTES} minutes.  A request can be cancelled, e.g. from the management page:  a synchronous request
+ * is interrupted and fails with a {@link org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException},
+ * an asynchronous one is cancelled.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulInFlight {
+    static final int WINDOW_MINUTES = 5;
+
+    private static final Map<Long, Request> REQUESTS = new ConcurrentHashMap<Long, Request>();
+    private static final Map<String, Endpoint> ENDPOINTS = new ConcurrentHashMap<String, Endpoint>();
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private ConsulInFlight() {
+
+    }
+
+    /**
+     * Registers a request waited for by the current thread, which cancelling interrupts.
+     *
+     * @param method e.g. <code>GET</code>
+     * @param url    request URL, only its server and path are kept
+     * @return request, to finish once answered
+     */
+    public static Request start(String method, String url) {
+        return ConsulInFlight.register(new Request(method, url, Thread.currentThread()));
+    }
+
+    /**
+     * Registers an asynchronous request, cancelled through the future set with {@link Request#setFuture(Future)}.
+     *
+     * @param method e.g. <code>GET</code>
+     * @param url    request URL, only its server and path are kept
+     * @return request, to finish once answered
+     */
+    public static Request startAsync(String method, String url) {
+        return ConsulInFlight.register(new Request(method, url, null));
+    }
+
+    private static Request register(Request request) {
+        REQUESTS.put(request.id, request);
+        return request;
+    }
+
+    /**
+     * @return requests in flight, oldest first
+     */
+    public static List<Request> getRequests() {
+        List<Request> requests = new ArrayList<Request>(REQUESTS.values());
+
+        Collections.sort(requests, new Comparator<Request>() {
+            @Override
+            public int compare(Request r1, Request r2) {
+                return Long.compare(r1.started, r2.started);
+            }
+        });
+        return requests;
+    }
+
+    /**
+     * @param id request ID
+     * @return true when the request was in flight and is now cancelled
+     */
+    public static boolean cancel(long id) {
+        Request request = REQUESTS.get(id);
+
+        return request != null && request.cancel();
+    }
+
+    /**
+     * @return requests and errors of each endpoint over the last minutes, by endpoint
+     */
+    public static Map<String, long[]> getErrorRates() {
+        long minute = minute(System.currentTimeMillis());
+        Map<String, long[]> rates = new TreeMap<String, long[]>();
+
+        for (Map.Entry<String, Endpoint> entry : ENDPOINTS.entrySet()) {
+            long[] counts = entry.getValue().counts(minute);
+            if (counts[0] > 0) {
+                rates.put(entry.getKey(), counts);
+            }
+        }
+        return rates;
+    }
+
+    static void record(String endpoint, boolean failed, long now) {
+        Endpoint stats = ENDPOINTS.get(endpoint);
+
+        if (stats == null) {
+            synchronized (ENDPOINTS) {
+                stats = ENDPOINTS.get(endpoint);
+                if (stats == null) {
+                    stats = new Endpoint();
+                    ENDPOINTS.put(endpoint, stats);
+                }
+            }
+        }
+
+        stats.add(minute(now), failed);
+    }
+
+    private static long minute(long millis) {
+        return TimeUnit.MILLISECONDS.toMinutes(millis);
+    }
+
+    /**
+     * One request in flight.
+     */
+    public static final class Request {
+        private final long id = IDS.incrementAndGet();
+        private final String method;
+        private final String endpoint;
+        private final String path;
+        private final String job;
+        private final long started = System.currentTimeMillis();
+        private final Thread thread;
+        private Future<?> future;
+        private boolean cancelled;
+        private boolean finished;
+
+        private Request(String method, String url, Thread thread) {
+            this.method = method;
+            this.endpoint = ConsulLimiter.cluster(Strings.nvl(url, ""));
+            this.path = ConsulFlightRecorder.path(url);
+            this.job = ConsulFlightRecorder.runId();
+            this.thread = thread;
+        }
+
+        public long getId() {
+            return this.id;
+        }
+
+        public String getMethod() {
+            return this.method;
+        }
+
+        public String getEndpoint() {
+            return this.endpoint;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        public String getJob() {
+            return this.job;
+        }
+
+        public long getStarted() {
+            return this.started;
+        }
+
+        public long getAge() {
+            return System.currentTimeMillis() - this.started;
+        }
+
+        public synchronized boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        /**
+         * @param future handle of the asynchronous request, cancelled at once when the request already was
+         */
+        public synchronized void setFuture(Future<?> future) {
+            this.future = future;
+            if (this.cancelled && future != null) {
+                future.cancel(true);
+            }
+        }
+
+        private synchronized boolean cancel() {
+            if (this.finished || this.cancelled) {
+                return false;
+            }
+
+            this.cancelled = true;
+            if (this.thread != null) {
+                this.thread.interrupt();
+            } else if (this.future != null) {
+                this.future.cancel(true);
+            }
+            return true;
+        }
+
+        /**
+         * Unregisters the request, once, and counts it against its endpoint.  A synchronous request cancelled just as
+         * it finished clears the interrupt it was sent.
+         *
+         * @param failed true when the request failed
+         */
+        public void finish(boolean failed) {
+            synchronized (this) {
+                if (this.finished) {
+                    return;
+                }
+                this.finished = true;
+
+                if (this.cancelled && this.thread == Thread.currentThread()) {
+                    Thread.interrupted();
+                }
+            }
+
+            REQUESTS.remove(this.id);
+            ConsulInFlight.record(this.endpoint, failed, System.currentTimeMillis());
+        }
+    }
+
+    /*
+     * Requests and errors per minute, in a ring of WINDOW_MINUTES buckets.
+     */
+    private static final class Endpoint {
+        private final long[] minutes = new long[WINDOW_MINUTES];
+        private final long[] requests = new long[WINDOW_MINUTES];
+        private final long[] errors = new long[WINDOW_MINUTES];
+
+        private synchronized void add(long minute, boolean failed) {
+            int bucket = (int) (minute % WINDOW_MINUTES);
+
+            if (this.minutes[bucket] != minute) {
+                this.minutes[bucket] = minute;
+                this.requests[bucket] = 0;
+                this.errors[bucket] = 0;
+            }
+
+            this.requests[bucket]++;
+            if (failed) {
+                this.errors[bucket]++;
+            }
+        }
+
+        private synchronized long[] counts(long minute) {
+            long[] counts = new long[2];
+
+            for (int bucket = 0; bucket < WINDOW_MINUTES; bucket++) {
+                if (minute - this.minutes[bucket] < WINDOW_MINUTES) {
+                    counts[0] += this.requests[bucket];
+                    counts[1] += this.errors[bucket];
+                }
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.transport.UnixSocketTransport;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller-wide adaptive concurrency limit of the requests sent to one Consul cluster, reads and writes having a
+ * limit each.  The limit follows AIMD: it grows by one per window of requests answered at the no-load latency, and
+ * shrinks by {@link #BACKOFF_RATIO} when a request fails or is answered much slower than that.  Requests over the
+ * limit wait in a FIFO queue, up to the queue timeout.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulLimiter {
+    private static final double MIN_LIMIT = 1;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final long LATENCY_SLACK = 10;
+    private static final int BASELINE_SAMPLES = 1000;
+
+    private static final Map<String, ConsulLimiter> LIMITERS = new ConcurrentHashMap<String, ConsulLimiter>();
+
+    private static volatile int maxReadLimit = Constants.CONCURRENCY_LIMIT_READ;
+    private static volatile int maxWriteLimit = Constants.CONCURRENCY_LIMIT_WRITE;
+    private static volatile int queueTimeout = Constants.QUEUE_TIMEOUT;
+
+    private final String cluster;
+    private final boolean write;
+    private final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+
+    private double limit;
+    private int inFlight;
+    private long noLoadLatency;
+    private long samples;
+    private long lastBackoff;
+
+    private ConsulLimiter(String cluster, boolean write) {
+        this.cluster = cluster;
+        this.write = write;
+        this.limit = Math.min(Constants.CONCURRENCY_LIMIT_INITIAL, getMaxLimit());
+        this.lastBackoff = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    }
+
+    /**
+     * Applies the global settings, limits of 0 disable limiting.
+     *
+     * @param maxRead  maximum concurrent reads per cluster
+     * @param maxWrite maximum concurrent writes per cluster
+     * @param timeout  milliseconds a request may wait in the queue, 0 for no limit
+     */
+    public static void configure(int maxRead, int maxWrite, int timeout) {
+        maxReadLimit = maxRead;
+        maxWriteLimit = maxWrite;
+        queueTimeout = timeout;
+    }
+
+    public static int getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * @param url   request URL, the cluster is its scheme, host and port
+     * @param write true for writes and deletes
+     * @return limiter of the cluster, or null when limiting is disabled
+     */
+    public static ConsulLimiter get(String url, boolean write) {
+        if ((write ? maxWriteLimit : maxReadLimit) <= 0) {
+            return null;
+        }
+
+        String cluster = cluster(url);
+        String name = cluster + '|' + (write ? "write" : "read");
+        ConsulLimiter limiter = LIMITERS.get(name);
+
+        if (limiter == null) {
+            synchronized (LIMITERS) {
+                limiter = LIMITERS.get(name);
+                if (limiter == null) {
+                    limiter = new ConsulLimiter(cluster, write);
+                    LIMITERS.put(name, limiter);
+                }
+            }
+        }
+
+        return limiter;
+    }
+
+    /**
+     * @return limiters created so far
+     */
+    public static Collection<ConsulLimiter> getLimiters() {
+        return Collections.unmodifiableCollection(LIMITERS.values());
+    }
+
+    /**
+     * Takes a slot, waiting behind the requests queued before this one.
+     *
+     * @param timeout milliseconds to wait, 0 to wait until a slot frees up
+     * @throws ConsulRequestException when no slot freed up in time
+     * @throws InterruptedException   when interrupted while queued
+     */
+    public synchronized void acquire(long timeout) throws ConsulRequestException, InterruptedException {
+        if (queue.isEmpty() && inFlight < getCurrentLimit()) {
+            inFlight++;
+            return;
+        }
+
+        Object ticket = new Object();
+        long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        queue.addLast(ticket);
+        try {
+            while (queue.peekFirst() != ticket || inFlight >= getCurrentLimit()) {
+                if (timeout == 0) {
+                    wait();
+                    continue;
+                }
+
+                long remaining = expiresAt - System.nanoTime();
+                if (remaining <= 0) {
+                    ConsulMetrics.limiterTimedOut();
+                    throw new ConsulRequestException(String.format("Consul %s concurrency limit of %d reached on " +
+                            "%s, gave up after %d ms in the queue.", write ? "write" : "read", getCurrentLimit(),
+                            cluster, timeout));
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+        } finally {
+            queue.remove(ticket);
+            //Wake the new head of the queue
+            notifyAll();
+        }
+    }
+
+    /**
+     * Takes a slot if one is free and nobody is queued, for optional requests such as hedges.
+     *
+     * @return true when a slot was taken
+     */
+    public synchronized boolean tryAcquire() {
+        if (queue.isEmpty() && inFlight < getCurrentLimit()) {
+            inFlight++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Frees a slot and adjusts the limit from the outcome of the request.
+     *
+     * @param latency milliseconds the request took
+     * @param dropped true when the request failed in a way that hints at overload, e.g. a timeout
+     */
+    public synchronized void release(long latency, boolean dropped) {
+        inFlight--;
+        long now = System.nanoTime();
+
+        if (!dropped) {
+            samples++;
+            //The baseline is re-learned now and then, so it follows servers that got slower for good
+            if (noLoadLatency == 0 || latency < noLoadLatency || samples % BASELINE_SAMPLES == 0) {
+                noLoadLatency = latency;
+            }
+        }
+
+        if (dropped || latency > noLoadLatency * LATENCY_TOLERANCE + LATENCY_SLACK) {
+            //At most one decrease per round trip, one slow period must not collapse the limit
+            if (now - lastBackoff > TimeUnit.MILLISECONDS.toNanos(latency)) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                lastBackoff = now;
+            }
+        } else if (inFlight * 2 >= limit) {
+            //Only grow when the limit is actually in use
+            limit = Math.min(getMaxLimit(), limit + 1 / limit);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Frees a slot without adjusting the limit, for requests that never reached Consul or were abandoned.
+     */
+    public synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+    public synchronized int getCurrentLimit() {
+        return (int) Math.max(MIN_LIMIT, Math.min(limit, getMaxLimit()));
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    private int getMaxLimit() {
+        return Math.max(1, write ? maxWriteLimit : maxReadLimit);
+    }
+
+    /**
+     * @param url request URL
+     * @return scheme, host and port of the URL, never its path or query string
+     */
+    public static String cluster(String url) {
+        if (UnixSocketTransport.isUnixSocket(url)) {
+            return UnixSocketTransport.host(url);
+        }
+
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() != null) {
+                return uri.getScheme() + "://" + uri.getHost() + ((uri.getPort() == -1) ? "" : ":" + uri.getPort());
+            }
+        } catch (URISyntaxException use) {
+            //Fall through, e.g. an unencoded query string
+        }
+
+        //Never let the path or query (and its token) into the cluster name
+        int start = url.indexOf("://");
+        int end = url.indexOf('/', (start == -1) ? 0 : start + 3);
+        return (end == -1) ? url.split("\\?")[0] : url.substring(0, end);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConsulLimiter{" +
+                "cluster='" + cluster + '\'' +
+                ", write=" + write +
+                ", limit=" + limit +
+                ", inFlight=" + inFlight +
+                ", queueDepth=" + queue.size() +
+                ", noLoadLatency=" + noLoadLatency +
+                '}';
+    }
+}
@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controller-wide metrics of the Consul request path, published through the Metrics plugin by
+ * <code>ConsulMetricsProvider</code>.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulMetrics {
+    private static final String PREFIX = Constants.PLUGIN_LABEL;
+
+    private static final MetricRegistry REGISTRY = new MetricRegistry();
+    private static final AtomicLong MAX_RESPONSE_SIZE = new AtomicLong(Constants.MAX_RESPONSE_SIZE);
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private static final Histogram RESPONSE_BYTES = REGISTRY.histogram(MetricRegistry.name(PREFIX, "response",
+            "bytes"));
+    private static final Counter RESPONSES_REJECTED = REGISTRY.counter(MetricRegistry.name(PREFIX, "response",
+            "rejected"));
+    private static final Counter HEDGES_SENT = REGISTRY.counter(MetricRegistry.name(PREFIX, "hedge", "sent"));
+    private static final Counter HEDGES_WON = REGISTRY.counter(MetricRegistry.name(PREFIX, "hedge", "won"));
+    private static final Counter LIMITER_TIMEOUTS = REGISTRY.counter(MetricRegistry.name(PREFIX, "limiter",
+            "queue-timeouts"));
+
+    static {
+        REGISTRY.register(MetricRegistry.name(PREFIX, "response", "max-bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return MAX_RESPONSE_SIZE.get();
+            }
+        });
+        REGISTRY.register(MetricRegistry.name(PREFIX, "requests", "in-flight"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return IN_FLIGHT.get();
+            }
+        });
+        REGISTRY.register(MetricRegistry.name(PREFIX, "response", "in-flight-max-bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return IN_FLIGHT.get() * MAX_RESPONSE_SIZE.get();
+            }
+        });
+        registerLimiters(false);
+        registerLimiters(true);
+    }
+
+    /*
+     * The Metrics plugin reads the registry once, so the limiters created later are published through a fixed set
+     * of gauges summing over all clusters, e.g. consul-kv-builder.limiter.read.limit.  The per-cluster figures are
+     * listed on the management page.
+     */
+    private static void registerLimiters(final boolean write) {
+        String name = MetricRegistry.name(PREFIX, "limiter", write ? "write" : "read");
+
+        REGISTRY.register(MetricRegistry.name(name, "limit"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int limit = 0;
+                for (ConsulLimiter limiter : ConsulLimiter.getLimiters()) {
+                    if (limiter.isWrite() == write) {
+                        limit += limiter.getCurrentLimit();
+                    }
+                }
+                return limit;
+            }
+        });
+        REGISTRY.register(MetricRegistry.name(name, "in-flight"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int inFlight = 0;
+                for (ConsulLimiter limiter : ConsulLimiter.getLimiters()) {
+                    if (limiter.isWrite() == write) {
+                        inFlight += limiter.getInFlight();
+                    }
+                }
+                return inFlight;
+            }
+        });
+        REGISTRY.register(MetricRegistry.name(name, "queue-depth"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int queueDepth = 0;
+                for (ConsulLimiter limiter : ConsulLimiter.getLimiters()) {
+                    if (limiter.isWrite() == write) {
+                        queueDepth += limiter.getQueueDepth();
+                    }
+                }
+                return queueDepth;
+            }
+        });
+    }
+
+    private ConsulMetrics() {
+
+    }
+
+    public static MetricRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    public static void maxResponseSize(long maxResponseSize) {
+        MAX_RESPONSE_SIZE.set(maxResponseSize);
+    }
+
+    public static void requestStarted() {
+        IN_FLIGHT.incrementAndGet();
+    }
+
+    public static void requestFinished() {
+        IN_FLIGHT.decrementAndGet();
+    }
+
+    public static int getInFlight() {
+        return IN_FLIGHT.get();
+    }
+
+    public static void responseRead(long bytes) {
+        RESPONSE_BYTES.update(bytes);
+    }
+
+    public static void responseRejected() {
+        RESPONSES_REJECTED.inc();
+    }
+
+    public static void limiterTimedOut() {
+        LIMITER_TIMEOUTS.inc();
+    }
+
+    public static void hedgeSent() {
+        HEDGES_SENT.inc();
+    }
+
+    public static void hedgeWon() {
+        HEDGES_WON.inc();
+    }
+}
@@ -0,0 +1,316 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import hudson.model.Run;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memo of the values read during a run, kept per root run so that the parallel branches of a pipeline and the cells
+ * of a matrix build share it.  The first read of a key loads it, concurrent reads of the same key wait for that load
+ * instead of reading Consul again.  Values are kept in memory only, never saved with the run, and are dropped once the
+ * run is finalized, see {@link #discard(Run)}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulRunMemo {
+    /**
+     * Memo age of a value that is never reloaded.
+     */
+    public static final long PINNED = 0L;
+    /**
+     * Memo age of a value that is always read from Consul.
+     */
+    public static final long DISABLED = -1L;
+
+    private static final ConcurrentMap<String, ConsulRunMemo> MEMOS = new ConcurrentHashMap<String,
+            ConsulRunMemo>();
+    private static final AtomicLong TOTAL_HITS = new AtomicLong();
+    private static final AtomicLong TOTAL_MISSES = new AtomicLong();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ConsulRunMemo() {
+
+    }
+
+    /**
+     * @param run run, or one of its matrix cells
+     * @return memo of the root run, created on first use
+     */
+    public static ConsulRunMemo of(Run<?, ?> run) {
+        return of(root(run).getExternalizableId());
+    }
+
+    static ConsulRunMemo of(String rootId) {
+        ConsulRunMemo memo = MEMOS.get(rootId);
+
+        if (memo == null) {
+            ConsulRunMemo created = new ConsulRunMemo();
+            memo = MEMOS.putIfAbsent(rootId, created);
+            if (memo == null) {
+                memo = created;
+            }
+        }
+
+        return memo;
+    }
+
+    /**
+     * Drops the memo of a finalized run, values read with a token included.  Matrix cells leave the memo to their
+     * parent build, which is finalized after them.
+     *
+     * @param run finalized run
+     */
+    public static void discard(Run<?, ?> run) {
+        if (root(run) == run) {
+            discard(run.getExternalizableId());
+        }
+    }
+
+    static void discard(String rootId) {
+        MEMOS.remove(rootId);
+    }
+
+    /**
+     * Resolves how long a value may be served from the memo.  The <code>CONSUL_KV_MEMO</code> ENV variable, e.g. a
+     * build parameter, overrides the configuration for the run:  <code>pinned</code>, <code>off</code>, or a TTL in
+     * seconds.
+     *
+     * @param override   value of <code>CONSUL_KV_MEMO</code>, or null
+     * @param memoMode   configured mode, null for disabled
+     * @param ttlSeconds configured TTL
+     * @return maximum age in milliseconds, {@link #PINNED} or {@link #DISABLED}
+     */
+    public static long maxAge(String override, MemoMode memoMode, int ttlSeconds) {
+        String value = (override == null) ? "" : override.trim().toLowerCase(Locale.ENGLISH);
+
+        if (!value.isEmpty()) {
+            if ("pinned".equals(value)) {
+                return PINNED;
+            }
+
+            try {
+                int seconds = Integer.parseInt(value);
+                return (seconds > 0) ? TimeUnit.SECONDS.toMillis(seconds) : DISABLED;
+            } catch (NumberFormatException nfe) {
+                //off, false, disabled...
+                return DISABLED;
+            }
+        }
+
+        if (memoMode == MemoMode.PINNED) {
+            return PINNED;
+        } else if (memoMode == MemoMode.TTL && ttlSeconds > 0) {
+            return TimeUnit.SECONDS.toMillis(ttlSeconds);
+        }
+
+        return DISABLED;
+    }
+
+    /**
+     * @param url    URL of the read, token included, so that values are only shared between identical reads
+     * @param maxAge maximum age in milliseconds, {@link #PINNED} or {@link #DISABLED}
+     * @param loader reads the value from Consul
+     * @return value
+     * @throws ConsulRequestException when the load failed, the failure is not memoized
+     * @throws InterruptedException   when interrupted while loading or waiting for the load
+     */
+    public String read(String url, long maxAge, Callable<String> loader) throws ConsulRequestException,
+            InterruptedException {
+        return this.read(url, maxAge, null, loader);
+    }
+
+    /**
+     * @param url           URL of the read, token included, so that values are only shared between identical reads
+     * @param maxAge        maximum age in milliseconds, {@link #PINNED} or {@link #DISABLED}
+     * @param consulRequest request of the caller, its deadline and total timeout limit the wait for another load, or
+     *                      null to wait without limit
+     * @param loader        reads the value from Consul
+     * @return value
+     * @throws ConsulRequestException when the load failed, the failure is not memoized, or the wait for another
+     *                                load exceeded the time limit of the caller
+     * @throws InterruptedException   when interrupted while loading or waiting for the load
+     */
+    public String read(String url, long maxAge, ConsulRequest consulRequest, Callable<String> loader) throws
+            ConsulRequestException, InterruptedException {
+        if (maxAge == DISABLED) {
+            return ConsulRunMemo.load(loader);
+        }
+
+        while (true) {
+            Entry entry = this.entries.get(url);
+
+            if (entry != null && maxAge != PINNED && entry.isDone() && System.currentTimeMillis() - entry.loaded >
+                    maxAge) {
+                this.entries.remove(url, entry);
+                continue;
+            }
+
+            boolean hit = true;
+            if (entry == null) {
+                Entry created = new Entry(loader);
+                entry = this.entries.putIfAbsent(url, created);
+
+                if (entry == null) {
+                    hit = false;
+                    this.misses.incrementAndGet();
+                    TOTAL_MISSES.incrementAndGet();
+                    entry = created;
+                    entry.run();
+                } else {
+                    this.hits.incrementAndGet();
+                    TOTAL_HITS.incrementAndGet();
+                }
+            } else {
+                this.hits.incrementAndGet();
+                TOTAL_HITS.incrementAndGet();
+            }
+
+            try {
+                String value = ConsulRunMemo.await(entry, consulRequest);
+                if (hit) {
+                    ConsulFlightRecorder.cached("GET", url, ConsulFlightRecorder.CACHE_MEMO, value);
+                }
+                return value;
+            } catch (ExecutionException ee) {
+                this.entries.remove(url, entry);
+
+                if (ee.getCause() instanceof InterruptedException) {
+                    //The branch that loaded the value was aborted, waiters that were not interrupted load it again
+                    if (hit && !Thread.currentThread().isInterrupted()) {
+                        continue;
+                    }
+                    throw (InterruptedException) ee.getCause();
+                }
+                if (ee.getCause() instanceof ConsulRequestException) {
+                    throw (ConsulRequestException) ee.getCause();
+                }
+                throw new ConsulRequestException("Consul Request Failed.", ee.getCause());
+            }
+        }
+    }
+
+    /*
+     * Waits for the value, no longer than the deadline and total timeout of the waiting request allow.
+     */
+    private static String await(Entry entry, ConsulRequest consulRequest) throws ExecutionException,
+            ConsulRequestException, InterruptedException {
+        long limit = (consulRequest == null || entry.isDone()) ? 0 : ConsulRequestUtils.getTimeLimit(consulRequest);
+
+        if (limit < 0) {
+            throw new ConsulRequestException(String.format("Deadline of %d ms expired before the Consul request.",
+                    consulRequest.getDeadline().getBudget()));
+        } else if (limit == 0) {
+            return entry.get();
+        }
+
+        try {
+            return entry.get(limit, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            ConsulDeadline deadline = consulRequest.getDeadline();
+            if (deadline != null && deadline.isExpired()) {
+                throw new ConsulRequestException(String.format("Deadline of %d ms expired while the Consul request" +
+                        " was waiting for the read of another branch.", deadline.getBudget()), te);
+            }
+            throw new ConsulRequestException(String.format("Consul request did not complete within %d ms, " +
+                    "aborted.", limit), te);
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return memo hits of all runs since the controller started
+     */
+    public static long getTotalHits() {
+        return TOTAL_HITS.get();
+    }
+
+    /**
+     * @return memo misses of all runs since the controller started
+     */
+    public static long getTotalMisses() {
+        return TOTAL_MISSES.get();
+    }
+
+    /**
+     * Loads a value without memoizing it.
+     *
+     * @param loader reads the value from Consul
+     * @return value
+     * @throws ConsulRequestException when the load failed
+     * @throws InterruptedException   when interrupted
+     */
+    public static String load(Callable<String> loader) throws ConsulRequestException, InterruptedException {
+        try {
+            return loader.call();
+        } catch (ConsulRequestException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConsulRequestException("Consul Request Failed.", e);
+        }
+    }
+
+    /*
+     * Matrix cells have a parent build, looked up reflectively so that the matrix plugin stays optional.  Pipeline
+     * branches already share their run.
+     */
+    static Run<?, ?> root(Run<?, ?> run) {
+        Run<?, ?> current = run;
+
+        for (int depth = 0; depth < 8; depth++) {
+            try {
+                Method getParentBuild = current.getClass().getMethod("getParentBuild");
+                Object parent = getParentBuild.invoke(current);
+
+                if (!(parent instanceof Run) || parent == current) {
+                    break;
+                }
+                current = (Run<?, ?>) parent;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                //Not a matrix cell
+                break;
+            }
+        }
+
+        return current;
+    }
+
+    private static final class Entry extends FutureTask<String> {
+        private volatile long loaded;
+
+        private Entry(Callable<String> loader) {
+            super(loader);
+        }
+
+        @Override
+        protected void done() {
+            this.loaded = System.currentTimeMillis();
+        }
+    }
+}
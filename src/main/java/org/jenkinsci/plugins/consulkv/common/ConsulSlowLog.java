@@ -0,0 +1,332 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Log of the Consul requests slower than a threshold, one JSON record per line in
+ * <code>JENKINS_HOME/consul-kv-builder/slow-requests.N.log</code>, rotated at {@link #FILE_LIMIT} bytes over
+ * {@link #FILE_COUNT} files.  A record carries the phase timings of the request (queue, DNS, connect, TLS, time to
+ * first byte, body), the limiter and request pool state, the server and the job.  At most the configured number of
+ * records is written per minute; the records dropped meanwhile are counted in the next one written.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulSlowLog {
+    private static Logger LOGGER = Logger.getLogger(ConsulSlowLog.class.getName());
+
+    static final int FILE_LIMIT = 10 * 1024 * 1024;
+    static final int FILE_COUNT = 5;
+    private static final String LOG_DIR = Constants.PLUGIN_LABEL;
+    private static final String LOG_FILE = "slow-requests.%g.log";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Timing of a request that is not logged, its marks are ignored.
+     */
+    public static final Timing NONE = new Timing(null, null, null);
+
+    private static volatile long threshold = Constants.SLOW_REQUEST_THRESHOLD;
+    private static volatile Sampler sampler = new Sampler(Constants.SLOW_REQUEST_RATE);
+    private static Handler handler;
+
+    private ConsulSlowLog() {
+
+    }
+
+    /**
+     * Applies the global settings.
+     *
+     * @param thresholdMillis requests taking longer are logged, 0 disables the log
+     * @param ratePerMinute   maximum records written per minute
+     */
+    public static void configure(int thresholdMillis, int ratePerMinute) {
+        threshold = Math.max(0, thresholdMillis);
+        sampler = new Sampler(ratePerMinute);
+    }
+
+    public static boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    /**
+     * Starts timing a request, on the thread that sends it so that the job is known.
+     *
+     * @param method e.g. <code>GET</code>
+     * @param url    request URL, only its server and path are logged
+     * @return timing, {@link #NONE} when the log is disabled
+     */
+    public static Timing start(String method, String url) {
+        if (!isEnabled()) {
+            return NONE;
+        }
+
+        return new Timing(method, url, ConsulFlightRecorder.runId());
+    }
+
+    private static void write(String record) {
+        Handler target = handler();
+
+        if (target == null) {
+            LOGGER.info(record);
+        } else {
+            target.publish(new LogRecord(Level.INFO, record));
+            target.flush();
+        }
+    }
+
+    /*
+     * Opened on first use, there is no file before Jenkins started (e.g. in unit tests).
+     */
+    private static synchronized Handler handler() {
+        if (handler != null) {
+            return handler;
+        }
+
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return null;
+        }
+
+        File dir = new File(jenkins.getRootDir(), LOG_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warning(String.format("Could not create %s, logging slow requests here.", dir));
+            return null;
+        }
+
+        try {
+            handler = new FileHandler(new File(dir, LOG_FILE).getPath(), FILE_LIMIT, FILE_COUNT, true);
+            handler.setEncoding(Constants.DEFAULT_ENCODING);
+            handler.setFormatter(new Formatter() {
+                @Override
+                public String format(LogRecord record) {
+                    return record.getMessage() + System.lineSeparator();
+                }
+            });
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Could not open the slow request log, logging slow requests here.", ioe);
+        }
+
+        return handler;
+    }
+
+    private static long millis(long from, long to) {
+        return (from == 0 || to == 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(to - from);
+    }
+
+    /**
+     * Timestamps of the phases of one request.  The request thread marks the phases, the job is taken when the
+     * timing starts.  Phases that did not happen, e.g. TLS over plain HTTP, are logged as -1.
+     */
+    public static final class Timing {
+        private final String method;
+        private final String url;
+        private final String job;
+        private final long started;
+        private volatile long dequeued;
+        private volatile long dnsStarted;
+        private volatile long dnsFinished;
+        private volatile long connectStarted;
+        private volatile long connectFinished;
+        private volatile long tlsStarted;
+        private volatile long tlsFinished;
+        private volatile long requestSent;
+        private volatile long responseStarted;
+        private volatile int status;
+        private volatile String address;
+
+        private Timing(String method, String url, String job) {
+            this.method = method;
+            this.url = url;
+            this.job = job;
+            this.started = (url == null) ? 0 : System.nanoTime();
+        }
+
+        public boolean isEnabled() {
+            return this.started != 0;
+        }
+
+        /**
+         * Marks the end of the wait for a limiter slot and a request thread.
+         */
+        public void dequeued() {
+            if (this.isEnabled()) {
+                this.dequeued = System.nanoTime();
+            }
+        }
+
+        public void dnsStarted() {
+            if (this.isEnabled()) {
+                this.dnsStarted = System.nanoTime();
+            }
+        }
+
+        public void dnsFinished() {
+            if (this.isEnabled()) {
+                this.dnsFinished = System.nanoTime();
+            }
+        }
+
+        /**
+         * @param remote address connected to
+         */
+        public void connectStarted(InetSocketAddress remote) {
+            if (this.isEnabled()) {
+                this.connectStarted = System.nanoTime();
+                this.address = (remote == null || remote.getAddress() == null) ? null : remote.getAddress()
+                        .getHostAddress();
+            }
+        }
+
+        public void connectFinished() {
+            if (this.isEnabled() && this.connectFinished == 0) {
+                this.connectFinished = System.nanoTime();
+            }
+        }
+
+        /**
+         * Marks the start of the TLS handshake, which also ends the TCP connect.
+         */
+        public void tlsStarted() {
+            if (this.isEnabled()) {
+                this.connectFinished();
+                this.tlsStarted = System.nanoTime();
+            }
+        }
+
+        public void tlsFinished() {
+            if (this.isEnabled()) {
+                this.tlsFinished = System.nanoTime();
+            }
+        }
+
+        public void requestSent() {
+            if (this.isEnabled()) {
+                this.requestSent = System.nanoTime();
+            }
+        }
+
+        /**
+         * @param code status of the response, whose headers were just received
+         */
+        public void responseStarted(int code) {
+            if (this.isEnabled()) {
+                this.responseStarted = System.nanoTime();
+                this.status = code;
+            }
+        }
+
+        /**
+         * Ends the timing, logging the request when it was slow.
+         *
+         * @param limiter limiter the request took a slot from, or null
+         * @param failure failure of the request, or null
+         */
+        public void finish(ConsulLimiter limiter, Throwable failure) {
+            if (!this.isEnabled()) {
+                return;
+            }
+
+            long finished = System.nanoTime();
+            if (TimeUnit.NANOSECONDS.toMillis(finished - this.started) <= threshold) {
+                return;
+            }
+
+            int suppressed = sampler.admit(System.currentTimeMillis());
+            if (suppressed >= 0) {
+                ConsulSlowLog.write(this.toJson(finished, limiter, failure, suppressed).toString());
+            }
+        }
+
+        ObjectNode toJson(long finished, ConsulLimiter limiter, Throwable failure, int suppressed) {
+            SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+            iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+            ObjectNode record = MAPPER.createObjectNode();
+            record.put("time", iso.format(new Date()));
+            record.put("job", Strings.nvl(this.job, ""));
+            record.put("method", this.method);
+            record.put("server", ConsulLimiter.cluster(this.url));
+            record.put("address", this.address);
+            record.put("path", ConsulFlightRecorder.path(this.url));
+            record.put("status", this.status);
+            record.put("error", (failure == null) ? null : failure.toString());
+
+            //Phases
+            record.put("totalMs", millis(this.started, finished));
+            record.put("queueMs", millis(this.started, this.dequeued));
+            record.put("dnsMs", millis(this.dnsStarted, this.dnsFinished));
+            record.put("connectMs", millis(this.connectStarted, this.connectFinished));
+            record.put("tlsMs", millis(this.tlsStarted, this.tlsFinished));
+            record.put("ttfbMs", millis(this.requestSent, this.responseStarted));
+            record.put("bodyMs", millis(this.responseStarted, finished));
+
+            //Pool state
+            record.put("requestsInFlight", ConsulMetrics.getInFlight());
+            if (limiter != null) {
+                ObjectNode pool = record.putObject("limiter");
+                pool.put("cluster", limiter.getCluster());
+                pool.put("write", limiter.isWrite());
+                pool.put("limit", limiter.getCurrentLimit());
+                pool.put("inFlight", limiter.getInFlight());
+                pool.put("queueDepth", limiter.getQueueDepth());
+            }
+
+            record.put("suppressed", suppressed);
+            return record;
+        }
+    }
+
+    /*
+     * Admits up to rate records per minute.
+     */
+    static final class Sampler {
+        private final int rate;
+        private long window;
+        private int admitted;
+        private int dropped;
+
+        Sampler(int rate) {
+            this.rate = Math.max(1, rate);
+        }
+
+        /**
+         * @param now current time in milliseconds
+         * @return records dropped since the last one admitted, -1 when this one is dropped
+         */
+        synchronized int admit(long now) {
+            if (now - this.window >= TimeUnit.MINUTES.toMillis(1)) {
+                this.window = now;
+                this.admitted = 0;
+            }
+
+            if (this.admitted >= this.rate) {
+                this.dropped++;
+                return -1;
+            }
+
+            this.admitted++;
+            int suppressed = this.dropped;
+            this.dropped = 0;
+            return suppressed;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import hudson.util.ListBoxModel;
+
+/**
+ * Memoization of reads within a run:  DISABLED reads Consul every time, PINNED keeps the first value read for the
+ * whole run, TTL keeps it for a number of seconds.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public enum MemoMode {
+
+    DISABLED, PINNED, TTL;
+
+    public static ListBoxModel getFillItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (MemoMode memoMode : values()) {
+            items.add(memoMode.name());
+        }
+        return items;
+    }
+}
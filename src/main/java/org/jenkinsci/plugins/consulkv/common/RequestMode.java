@@ -3,14 +3,14 @@ package org.jenkinsci.plugins.consulkv.common;
 import hudson.util.ListBoxModel;
 
 /**
- * Request Mode ENUM
+ * Request Mode ENUM.  CONDITIONAL_WRITE only writes when the value changed, with check-and-set.
  *
  * @author Jimmy Ray
  * @version 1.0.0
  */
 public enum RequestMode {
 
-    READ, WRITE, DELETE;
+    READ, WRITE, CONDITIONAL_WRITE, DELETE;
 
     public static ListBoxModel getFillItems() {
         ListBoxModel items = new ListBoxModel();
@@ -0,0 +1,23 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import hudson.util.ListBoxModel;
+
+/**
+ * Value Format ENUM, how a read value is turned into ENV variables.  TEXT stores the value as is, the other formats
+ * flatten a structured value into one ENV variable per field.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public enum ValueFormat {
+
+    TEXT, JSON, YAML, PROPERTIES;
+
+    public static ListBoxModel getFillItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (ValueFormat valueFormat : values()) {
+            items.add(valueFormat.name());
+        }
+        return items;
+    }
+}
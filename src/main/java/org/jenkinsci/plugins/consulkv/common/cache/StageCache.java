@@ -0,0 +1,167 @@
+package org.jenkinsci.plugins.consulkv.common.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.BaseEncoding;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.tools.ant.DirectoryScanner;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keys and entries of the stage result cache.  The key of an entry is the SHA-256 of the declared input files, hashed
+ * on the agent by {@link HashInputs}, and of the declared parameters; the entry is a JSON object holding the outputs
+ * of the run that stored it.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class StageCache {
+    public static final String FIELD_OUTPUTS = "outputs";
+    public static final String FIELD_BUILD = "build";
+    /**
+     * Bounds of a Consul session TTL, in seconds.
+     */
+    public static final int TTL_MIN = Constants.SESSION_TTL_MIN;
+    public static final int TTL_MAX = Constants.SESSION_TTL_MAX;
+
+    private static final Charset UTF_8 = Charset.forName(Constants.DEFAULT_ENCODING);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private StageCache() {
+
+    }
+
+    /**
+     * @param filesHash  hash of the input files
+     * @param parameters parameter values by name
+     * @return cache key, independent of the order of the parameters
+     */
+    public static String key(String filesHash, Map<String, String> parameters) {
+        MessageDigest digest = digest();
+        update(digest, filesHash);
+
+        for (Map.Entry<String, String> parameter : new TreeMap<String, String>(parameters).entrySet()) {
+            update(digest, parameter.getKey());
+            update(digest, (parameter.getValue() == null) ? "" : parameter.getValue());
+        }
+
+        return BaseEncoding.base16().lowerCase().encode(digest.digest());
+    }
+
+    /**
+     * @param outputs outputs by name
+     * @param build   run that produced them
+     * @return entry value
+     * @throws IOException on serialization failures
+     */
+    public static String toJson(Map<String, String> outputs, String build) throws IOException {
+        Map<String, Object> entry = new LinkedHashMap<String, Object>();
+        entry.put(FIELD_BUILD, build);
+        entry.put(FIELD_OUTPUTS, new TreeMap<String, String>(outputs));
+
+        return MAPPER.writeValueAsString(entry);
+    }
+
+    /**
+     * @param data entry value
+     * @return outputs by name
+     * @throws IOException on parse failures
+     */
+    public static Map<String, String> parseOutputs(String data) throws IOException {
+        Map<String, String> outputs = new LinkedHashMap<String, String>();
+        JsonNode node = MAPPER.readTree(data).path(FIELD_OUTPUTS);
+
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            outputs.put(field.getKey(), field.getValue().asText());
+        }
+
+        return outputs;
+    }
+
+    /**
+     * Body of a session whose expiry deletes the keys it holds.  Consul invalidates a session within twice its TTL.
+     *
+     * @param name       session name
+     * @param ttlSeconds TTL, clamped to the bounds Consul accepts
+     * @return session creation body
+     * @throws IOException on serialization failures
+     */
+    public static String sessionJson(String name, int ttlSeconds) throws IOException {
+        return ConsulRequestUtils.sessionJson(name, ttlSeconds, Constants.SESSION_BEHAVIOR_DELETE);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(UTF_8));
+        //Separates the fields, so that "ab","c" and "a","bc" differ
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            //Every JRE has SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Hashes the paths and contents of the files matching Ant patterns, on the agent.
+     */
+    public static final class HashInputs extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+        private final String excludes;
+
+        public HashInputs(String includes, String excludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        @Override
+        public String invoke(File directory, VirtualChannel channel) throws IOException, InterruptedException {
+            MessageDigest digest = digest();
+            DirectoryScanner scanner = Util.createFileSet(directory, includes, excludes).getDirectoryScanner();
+            String[] files = scanner.getIncludedFiles();
+            //Scan order depends on the file system
+            Arrays.sort(files);
+
+            byte[] buffer = new byte[8192];
+            for (String path : files) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                update(digest, path.replace(File.separatorChar, '/'));
+                try (InputStream in = new FileInputStream(new File(directory, path))) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                digest.update((byte) 0);
+            }
+
+            return BaseEncoding.base16().lowerCase().encode(digest.digest());
+        }
+    }
+}
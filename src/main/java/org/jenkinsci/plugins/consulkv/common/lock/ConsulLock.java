@@ -0,0 +1,456 @@
+package org.jenkinsci.plugins.consulkv.common.lock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lock, or semaphore with several holders, held by a Consul session.  The session is renewed from the controller at
+ * half its TTL for as long as the lock is held or waited for; if Jenkins stops renewing it, Consul invalidates the
+ * session once the TTL has passed and the lock is freed.
+ * <p>
+ * A lock is a key acquired with <code>?acquire=</code>.  A semaphore follows Consul's semaphore recipe:  every
+ * contender acquires <code>&lt;prefix&gt;/&lt;session&gt;</code>, and <code>&lt;prefix&gt;/.lock</code> lists the
+ * holders, updated with check-and-set.  Holders whose contender key is gone, i.e. whose session was invalidated, are
+ * pruned.  Waiters block on Consul blocking queries against the key or prefix, so they wake up as soon as it changes
+ * instead of polling.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulLock {
+    /**
+     * Key of the semaphore holders, under the semaphore prefix.
+     */
+    public static final String SEMAPHORE_KEY = ".lock";
+
+    private static final String EMPTY_BODY = "{}";
+    private static final Logger LOGGER = Logger.getLogger(ConsulLock.class.getName());
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ScheduledExecutorService RENEWALS = Executors.newSingleThreadScheduledExecutor(new
+            NamingThreadFactory(new DaemonThreadFactory(), "Consul K/V lock renewal"));
+    private static final Map<String, ConsulLock> HELD = new ConcurrentHashMap<String, ConsulLock>();
+
+    private final String hostUrl;
+    private final String apiUrl;
+    private final String key;
+    private final String token;
+    private final int limit;
+    private final int ttl;
+    private final int timeoutConnect;
+    private final int timeoutResponse;
+    private final DebugMode debugMode;
+    private final PrintStream logger;
+
+    private volatile String session;
+    private String holder;
+    private ScheduledFuture<?> renewal;
+
+    /**
+     * @param hostUrl         host URL
+     * @param apiUrl          K/V API URI
+     * @param key             lock key, or semaphore prefix
+     * @param token           ACL token, or null
+     * @param limit           holders, 1 for a lock
+     * @param ttl             session TTL in seconds
+     * @param timeoutConnect  connection timeout in milliseconds
+     * @param timeoutResponse response timeout in milliseconds, blocking queries add their wait to it
+     * @param debugMode       debug mode
+     * @param logger          build logger
+     */
+    public ConsulLock(String hostUrl, String apiUrl, String key, String token, int limit, int ttl, int
+            timeoutConnect, int timeoutResponse, DebugMode debugMode, PrintStream logger) {
+        this.hostUrl = hostUrl;
+        this.apiUrl = apiUrl;
+        this.limit = Math.max(1, limit);
+        this.key = (this.limit > 1 && !key.endsWith("/")) ? key + "/" : key;
+        this.token = Strings.isBlank(token) ? null : token;
+        this.ttl = Math.max(Constants.SESSION_TTL_MIN, Math.min(Constants.SESSION_TTL_MAX, ttl));
+        this.timeoutConnect = timeoutConnect;
+        this.timeoutResponse = timeoutResponse;
+        this.debugMode = (debugMode == null) ? DebugMode.DISABLED : debugMode;
+        this.logger = logger;
+    }
+
+    /**
+     * Creates the session and waits until the lock, or a semaphore slot, is acquired.
+     *
+     * @param holder   description of the holder, stored as the value of the lock or contender key
+     * @param deadline bounds the wait, null to wait until the lock is acquired or the build is aborted
+     * @return ID of the session holding the lock
+     * @throws ConsulRequestException when Consul failed or the deadline expired, the session is then destroyed
+     * @throws ValidationException    when a semaphore is configured with another limit than the one in Consul
+     * @throws InterruptedException   when interrupted, the session is then destroyed
+     */
+    public String acquire(String holder, ConsulDeadline deadline) throws ConsulRequestException,
+            ValidationException, InterruptedException {
+        this.holder = Strings.isBlank(holder) ? this.key : holder;
+
+        String sessionJson;
+        try {
+            sessionJson = ConsulRequestUtils.sessionJson("consul-kv-lock " + this.key, this.ttl, this.behavior());
+        } catch (IOException ioe) {
+            throw new ConsulRequestException("Consul Request Failed.", ioe);
+        }
+
+        this.session = ConsulRequestUtils.createSession(this.request(this.url(Constants.SESSION_URI + "create",
+                null), sessionJson, RequestMode.WRITE, this.timeoutResponse, false));
+        //Waiting may outlast the TTL
+        this.renewal = RENEWALS.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                ConsulLock.this.renew();
+            }
+        }, Math.max(1, this.ttl / 2), Math.max(1, this.ttl / 2), TimeUnit.SECONDS);
+
+        boolean acquired = false;
+        try {
+            if (this.limit > 1) {
+                this.acquireSemaphore(deadline);
+            } else {
+                this.acquireLock(deadline);
+            }
+            acquired = true;
+            HELD.put(this.session, this);
+
+            return this.session;
+        } finally {
+            if (!acquired) {
+                this.destroy();
+            }
+        }
+    }
+
+    /**
+     * Releases a lock acquired by this controller.
+     *
+     * @param session ID of the session holding the lock
+     * @return false when the lock is not held here, e.g. after a restart
+     * @throws ConsulRequestException when the release failed, the session is destroyed anyway
+     * @throws InterruptedException   when interrupted
+     */
+    public static boolean release(String session) throws ConsulRequestException, InterruptedException {
+        ConsulLock lock = HELD.remove(session);
+
+        if (lock == null) {
+            return false;
+        }
+
+        lock.release();
+        return true;
+    }
+
+    /**
+     * @return locks held by this controller
+     */
+    public static int held() {
+        return HELD.size();
+    }
+
+    /*
+     * An invalidated session leaves a lock key in place, unlocked, as a release does.  Contender keys belong to one
+     * session and are deleted with it.
+     */
+    private String behavior() {
+        return (this.limit > 1) ? Constants.SESSION_BEHAVIOR_DELETE : Constants.SESSION_BEHAVIOR_RELEASE;
+    }
+
+    private void acquireLock(ConsulDeadline deadline) throws ConsulRequestException,
+            ValidationException, InterruptedException {
+        while (true) {
+            if (this.tryAcquire(this.key)) {
+                return;
+            }
+
+            //Held by another session, wait for Consul to report a change of the key
+            long index = 0;
+            while (true) {
+                ConsulResponse response = this.await(this.key, index, false, deadline);
+                List<ConsulKVEntry> entries = this.parse(response);
+
+                if (entries.isEmpty() || entries.get(0).getSession() == null) {
+                    break;
+                }
+                index = (response.getIndex() < index) ? 0 : response.getIndex();
+            }
+        }
+    }
+
+    private void acquireSemaphore(ConsulDeadline deadline) throws ConsulRequestException,
+            ValidationException, InterruptedException {
+        String contender = this.key + this.session;
+        String semaphoreKey = this.key + SEMAPHORE_KEY;
+
+        if (!this.tryAcquire(contender)) {
+            throw new ConsulRequestException(String.format("Could not register as a contender of %s.", this.key));
+        }
+
+        long index = 0;
+        while (true) {
+            ConsulResponse response = this.await(this.key, index, true, deadline);
+            List<ConsulKVEntry> entries = this.parse(response);
+            Set<String> live = new HashSet<String>();
+            ConsulKVEntry semaphoreEntry = null;
+
+            for (ConsulKVEntry entry : entries) {
+                if (semaphoreKey.equals(entry.getKey())) {
+                    semaphoreEntry = entry;
+                } else if (entry.getSession() != null) {
+                    live.add(entry.getSession());
+                }
+            }
+
+            Semaphore semaphore = Semaphore.parse((semaphoreEntry == null) ? null : semaphoreEntry.getValue());
+            if (semaphore.limit != 0 && semaphore.limit != this.limit) {
+                throw new ValidationException(String.format("Semaphore %s has a limit of %d, %d was configured.",
+                        this.key, semaphore.limit, this.limit));
+            }
+
+            semaphore.holders.retainAll(live);
+            if (semaphore.holders.size() < this.limit) {
+                semaphore.holders.add(this.session);
+                long cas = (semaphoreEntry == null) ? 0 : semaphoreEntry.getModifyIndex();
+
+                if (this.write(semaphoreKey, "cas=" + cas, new Semaphore(this.limit, semaphore.holders).toJson())) {
+                    return;
+                }
+                //Another contender updated the holders first, read them again
+                index = 0;
+            } else {
+                index = (response.getIndex() < index) ? 0 : response.getIndex();
+            }
+        }
+    }
+
+    private void release() throws ConsulRequestException, InterruptedException {
+        try {
+            if (this.limit > 1) {
+                this.releaseSemaphore();
+            } else {
+                //The value is written along with the release, keep it
+                this.write(this.key, "release=" + this.session, this.holder);
+            }
+        } catch (ValidationException ve) {
+            throw new ConsulRequestException("Consul Request Failed.", ve);
+        } finally {
+            this.destroy();
+        }
+    }
+
+    private void releaseSemaphore() throws ConsulRequestException, ValidationException, InterruptedException {
+        String semaphoreKey = this.key + SEMAPHORE_KEY;
+
+        for (int attempt = 0; attempt < Constants.CAS_RETRIES; attempt++) {
+            List<ConsulKVEntry> entries = this.parse(ConsulRequestUtils.readResponse(this.request(this.url
+                    (semaphoreKey, null), null, RequestMode.READ, this.timeoutResponse, false)));
+
+            if (entries.isEmpty()) {
+                break;
+            }
+
+            Semaphore semaphore = Semaphore.parse(entries.get(0).getValue());
+            if (!semaphore.holders.remove(this.session) || this.write(semaphoreKey, "cas=" + entries.get(0)
+                    .getModifyIndex(), semaphore.toJson())) {
+                break;
+            }
+        }
+
+        //Destroying the session deletes the contender key as well, deleting it here wakes the waiters up sooner
+        ConsulRequestUtils.delete(this.request(this.url(this.key + this.session, null), null, RequestMode.DELETE,
+                this.timeoutResponse, false));
+    }
+
+    private boolean tryAcquire(String lockKey) throws ConsulRequestException, ValidationException,
+            InterruptedException {
+        return this.write(lockKey, "acquire=" + this.session, this.holder);
+    }
+
+    private boolean write(String writeKey, String query, String value) throws ConsulRequestException,
+            ValidationException, InterruptedException {
+        String response = ConsulRequestUtils.write(this.request(this.url(writeKey, query), value, RequestMode.WRITE,
+                this.timeoutResponse, false));
+
+        return "true".equals(Strings.nvl(response, "").trim());
+    }
+
+    /*
+     * Blocking query:  returns when the key, or prefix, changes past the index, or when the wait elapsed.  Index 0
+     * returns at once.
+     */
+    private ConsulResponse await(String waitKey, long index, boolean recurse, ConsulDeadline deadline) throws
+            ConsulRequestException, ValidationException, InterruptedException {
+        long waitSeconds = Constants.WATCH_WAIT_SECONDS;
+
+        if (deadline != null) {
+            if (deadline.isExpired()) {
+                throw new ConsulRequestException(String.format("Timed out waiting for the Consul lock %s.", this
+                        .key));
+            }
+            waitSeconds = Math.max(1, Math.min(waitSeconds, TimeUnit.MILLISECONDS.toSeconds(deadline.remaining())));
+        }
+
+        String query = "index=" + index + "&wait=" + waitSeconds + "s" + (recurse ? "&recurse" : "");
+        // Consul adds up to wait/16 of jitter to blocking queries, leave room for it on the socket.
+        int timeout = (int) (waitSeconds * 1000 + waitSeconds * 1000 / 16) + this.timeoutResponse;
+
+        if (this.debugMode.equals(DebugMode.ENABLED)) {
+            this.logger.println(String.format("Waiting for the Consul lock %s at index %d.", this.key, index));
+        }
+
+        return ConsulRequestUtils.readResponse(this.request(this.url(waitKey, query), null, RequestMode.READ,
+                timeout, true));
+    }
+
+    private List<ConsulKVEntry> parse(ConsulResponse response) throws ConsulRequestException {
+        try {
+            return ConsulRequestUtils.parseEntries(response.getBody());
+        } catch (IOException ioe) {
+            throw new ConsulRequestException("Consul Request Failed.", ioe);
+        }
+    }
+
+    private void renew() {
+        String current = this.session;
+
+        try {
+            ConsulRequestUtils.write(this.request(this.url(Constants.SESSION_URI + "renew/" + current, null),
+                    EMPTY_BODY, RequestMode.WRITE, this.timeoutResponse, false));
+        } catch (ConsulRequestException | ValidationException e) {
+            //Retried at the next renewal, Consul keeps the session until its TTL has passed
+            this.logger.println(String.format("Could not renew the Consul lock session %s:  %s", current, e));
+            LOGGER.log(Level.WARNING, String.format("Could not renew the Consul lock session %s.", current), e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void destroy() {
+        if (this.renewal != null) {
+            this.renewal.cancel(false);
+        }
+
+        //An aborted build frees the lock at once too, rather than once the TTL has passed
+        boolean interrupted = Thread.interrupted();
+        try {
+            ConsulRequestUtils.write(this.request(this.url(Constants.SESSION_URI + "destroy/" + this.session,
+                    null), EMPTY_BODY, RequestMode.WRITE, this.timeoutResponse, false));
+        } catch (ConsulRequestException | ValidationException e) {
+            //The session expires with its TTL
+            this.logger.println(String.format("Could not destroy the Consul lock session %s:  %s", this.session,
+                    e));
+        } catch (InterruptedException ie) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String url(String path, String query) {
+        StringBuilder url = new StringBuilder(this.hostUrl);
+
+        if (!path.startsWith(Constants.SESSION_URI)) {
+            url.append(this.apiUrl);
+        }
+        url.append(path);
+
+        if (!Strings.isBlank(query)) {
+            url.append('?').append(query);
+        }
+        if (this.token != null) {
+            url.append(Strings.isBlank(query) ? '?' : '&').append("token=").append(this.token);
+        }
+
+        return url.toString();
+    }
+
+    private ConsulRequest request(String url, String value, RequestMode requestMode, int timeout, boolean
+            blockingQuery) throws ValidationException {
+        return ConsulRequestFactory.request().withUrl(url).withValue(value).withTimeoutConnect(this.timeoutConnect)
+                .withTimeoutResponse(timeout).withRequestMode(requestMode).withDebugMode(this.debugMode)
+                .withBlockingQuery(blockingQuery).withLogger(this.logger).build();
+    }
+
+    /**
+     * Value of the semaphore key:  <code>{"Limit":2,"Holders":["session",...]}</code>.
+     */
+    static final class Semaphore {
+        final int limit;
+        final List<String> holders;
+
+        Semaphore(int limit, List<String> holders) {
+            this.limit = limit;
+            this.holders = holders;
+        }
+
+        /**
+         * @param value value of the semaphore key, or null when it does not exist yet
+         * @return semaphore, limit 0 when it does not exist yet
+         * @throws ConsulRequestException when the value is not a semaphore
+         */
+        static Semaphore parse(String value) throws ConsulRequestException {
+            List<String> holders = new ArrayList<String>();
+
+            if (Strings.isBlank(value)) {
+                return new Semaphore(0, holders);
+            }
+
+            try {
+                JsonNode node = MAPPER.readTree(value);
+                JsonNode holdersNode = node.get("Holders");
+
+                if (holdersNode != null) {
+                    for (JsonNode holder : holdersNode) {
+                        holders.add(holder.asText());
+                    }
+                }
+
+                return new Semaphore(node.path("Limit").asInt(), holders);
+            } catch (IOException ioe) {
+                throw new ConsulRequestException(String.format("Not a semaphore:  %s", value), ioe);
+            }
+        }
+
+        String toJson() throws ConsulRequestException {
+            Map<String, Object> semaphore = new LinkedHashMap<String, Object>();
+            semaphore.put("Limit", this.limit);
+            semaphore.put("Holders", this.holders);
+
+            try {
+                return MAPPER.writeValueAsString(semaphore);
+            } catch (IOException ioe) {
+                throw new ConsulRequestException("Consul Request Failed.", ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.jenkinsci.plugins.consulkv.common.mirror;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Incremental mirror of a K/V prefix into a directory, one file per key.  A manifest in the directory records the
+ * <code>ModifyIndex</code> of every mirrored key, so a sync only writes the keys whose index changed and deletes the
+ * keys that are gone.  Files hold the raw bytes of the values, binary values included.  {@link ReadManifest} and
+ * {@link Apply} run on the agent holding the directory.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class MirrorSync {
+    public static final String MANIFEST = ".consul-kv-mirror";
+    private static final char SEPARATOR = '/';
+
+    private MirrorSync() {
+
+    }
+
+    /**
+     * Compares a listing of the prefix with the manifest of the last sync.
+     *
+     * @param manifest ModifyIndex by key relative to the prefix, as mirrored by the last sync
+     * @param entries  recursive read of the prefix
+     * @param prefix   prefix, ending with a slash unless blank
+     * @param skipped  receives the keys that cannot be mirrored, e.g. with <code>..</code> segments
+     * @return changes to apply
+     */
+    public static Changes diff(Map<String, Long> manifest, List<ConsulKVEntry> entries, String prefix, List<String>
+            skipped) {
+        Changes changes = new Changes();
+
+        for (ConsulKVEntry entry : entries) {
+            if (!entry.getKey().startsWith(prefix) || entry.getKey().endsWith(String.valueOf(SEPARATOR))) {
+                //Folders, their files create them
+                continue;
+            }
+
+            String key = entry.getKey().substring(prefix.length());
+
+            if (!isSafe(key)) {
+                skipped.add(entry.getKey());
+                continue;
+            }
+
+            changes.manifest.put(key, entry.getModifyIndex());
+
+            Long index = manifest.get(key);
+            if (index == null || index != entry.getModifyIndex()) {
+                changes.writes.put(key, (entry.getData() == null) ? new byte[0] : entry.getData());
+            }
+        }
+
+        for (String key : manifest.keySet()) {
+            if (!changes.manifest.containsKey(key)) {
+                changes.deletes.add(key);
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * @param prefix prefix as configured
+     * @return prefix without leading slash, ending with a slash unless blank, so that <code>app</code> does not
+     * mirror <code>app2/</code>
+     */
+    public static String normalizePrefix(String prefix) {
+        String normalized = (prefix == null) ? "" : prefix.trim();
+
+        while (normalized.startsWith(String.valueOf(SEPARATOR))) {
+            normalized = normalized.substring(1);
+        }
+
+        if (!normalized.isEmpty() && normalized.charAt(normalized.length() - 1) != SEPARATOR) {
+            normalized += SEPARATOR;
+        }
+
+        return normalized;
+    }
+
+    /**
+     * @param key key relative to the prefix
+     * @return true when the key maps to a file inside the directory
+     */
+    public static boolean isSafe(String key) {
+        if (key.isEmpty() || key.charAt(0) == SEPARATOR || key.indexOf('\\') != -1 || MANIFEST.equals(key)) {
+            return false;
+        }
+
+        for (String segment : key.split(String.valueOf(SEPARATOR))) {
+            if (segment.isEmpty() || ".".equals(segment) || "..".equals(segment)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static File file(File directory, String key) {
+        return new File(directory, key.replace(SEPARATOR, File.separatorChar));
+    }
+
+    /*
+     * Writes next to the target and moves it in place, readers never see a partial file.
+     */
+    private static void write(File target, byte[] data) throws IOException {
+        File directory = target.getParentFile();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create directory %s.", directory));
+        }
+
+        File temp = File.createTempFile(".consul-mirror", ".tmp", directory);
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(data);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Changes between the manifest and the prefix, sent to the agent.
+     */
+    public static final class Changes implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, byte[]> writes = new HashMap<String, byte[]>();
+        private final ArrayList<String> deletes = new ArrayList<String>();
+        private final HashMap<String, Long> manifest = new HashMap<String, Long>();
+
+        /**
+         * @return raw values by key, of the new and modified keys
+         */
+        public Map<String, byte[]> getWrites() {
+            return writes;
+        }
+
+        /**
+         * @return keys removed from the prefix
+         */
+        public List<String> getDeletes() {
+            return deletes;
+        }
+
+        /**
+         * @return ModifyIndex by key, the manifest once the changes are applied
+         */
+        public Map<String, Long> getManifest() {
+            return manifest;
+        }
+
+        public boolean isEmpty() {
+            return writes.isEmpty() && deletes.isEmpty();
+        }
+    }
+
+    /**
+     * Reads the manifest of a directory, on the agent.  Keys whose file went missing since the last sync are left
+     * out, so that they are written again.
+     */
+    public static final class ReadManifest extends MasterToSlaveFileCallable<HashMap<String, Long>> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public HashMap<String, Long> invoke(File directory, VirtualChannel channel) throws IOException,
+                InterruptedException {
+            HashMap<String, Long> manifest = new HashMap<String, Long>();
+            File manifestFile = new File(directory, MANIFEST);
+
+            if (!manifestFile.isFile()) {
+                return manifest;
+            }
+
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(manifestFile)) {
+                properties.load(in);
+            }
+
+            for (String key : properties.stringPropertyNames()) {
+                try {
+                    if (isSafe(key) && file(directory, key).isFile()) {
+                        manifest.put(key, Long.parseLong(properties.getProperty(key)));
+                    }
+                } catch (NumberFormatException nfe) {
+                    //Written again
+                }
+            }
+
+            return manifest;
+        }
+    }
+
+    /**
+     * Writes the modified keys, deletes the removed ones and then the manifest, on the agent.  An interrupted sync
+     * leaves the previous manifest, the next sync then rewrites what it cannot vouch for.
+     */
+    public static final class Apply extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Changes changes;
+
+        public Apply(Changes changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public Void invoke(File directory, VirtualChannel channel) throws IOException, InterruptedException {
+            for (Map.Entry<String, byte[]> write : changes.writes.entrySet()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                write(file(directory, write.getKey()), write.getValue());
+            }
+
+            for (String key : changes.deletes) {
+                File file = file(directory, key);
+                Files.deleteIfExists(file.toPath());
+
+                //Prune the folders the key leaves empty
+                File parent = file.getParentFile();
+                while (parent != null && !parent.equals(directory) && parent.delete()) {
+                    parent = parent.getParentFile();
+                }
+            }
+
+            Properties properties = new Properties();
+            for (Map.Entry<String, Long> entry : changes.manifest.entrySet()) {
+                properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            properties.store(out, "Consul K/V mirror, ModifyIndex by key");
+            write(new File(directory, MANIFEST), out.toByteArray());
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.consulkv.common.template;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Smallest set of K/V reads that resolves the keys of a template.  Keys sharing a folder are fetched with one
+ * recursive read of the folder, a folder nested in another planned folder is covered by it, and the remaining keys
+ * are read one by one.  Keys at the root are never grouped, a recursive read of the root would fetch the whole store.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class TemplatePlan {
+    private static final int MIN_GROUP = 2;
+    private static final char SEPARATOR = '/';
+
+    private final List<String> prefixes;
+    private final List<String> keys;
+
+    private TemplatePlan(List<String> prefixes, List<String> keys) {
+        this.prefixes = Collections.unmodifiableList(prefixes);
+        this.keys = Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * @param templateKeys keys referenced by a template, duplicates allowed
+     * @return plan, prefixes and keys sorted
+     */
+    public static TemplatePlan plan(Collection<String> templateKeys) {
+        Map<String, Integer> folders = new TreeMap<String, Integer>();
+        TreeSet<String> unique = new TreeSet<String>(templateKeys);
+
+        for (String key : unique) {
+            String folder = folder(key);
+            if (folder != null) {
+                Integer count = folders.get(folder);
+                folders.put(folder, (count == null) ? 1 : count + 1);
+            }
+        }
+
+        //Sorted, a folder comes before the folders nested in it
+        List<String> prefixes = new ArrayList<String>();
+        for (Map.Entry<String, Integer> folder : folders.entrySet()) {
+            if (folder.getValue() >= MIN_GROUP && covering(prefixes, folder.getKey()) == null) {
+                prefixes.add(folder.getKey());
+            }
+        }
+
+        List<String> keys = new ArrayList<String>();
+        for (String key : unique) {
+            if (covering(prefixes, key) == null) {
+                keys.add(key);
+            }
+        }
+
+        return new TemplatePlan(prefixes, keys);
+    }
+
+    /**
+     * @param prefixes planned prefixes
+     * @param key      key or folder
+     * @return prefix the key is under, or null
+     */
+    public static String covering(List<String> prefixes, String key) {
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+
+        return null;
+    }
+
+    private static String folder(String key) {
+        int end = key.lastIndexOf(SEPARATOR);
+        return (end <= 0) ? null : key.substring(0, end + 1);
+    }
+
+    /**
+     * @return folders to read recursively, each ending with a slash
+     */
+    public List<String> getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * @return keys to read one by one
+     */
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return number of requests the plan takes
+     */
+    public int size() {
+        return prefixes.size() + keys.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TemplatePlan{" +
+                "prefixes=" + prefixes +
+                ", keys=" + keys +
+                '}';
+    }
+}
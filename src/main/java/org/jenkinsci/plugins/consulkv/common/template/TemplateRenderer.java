@@ -0,0 +1,223 @@
+package org.jenkinsci.plugins.consulkv.common.template;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Renders <code>${consul:path/to/key}</code> placeholders.  Templates are streamed character by character, neither
+ * the template nor the output is ever held in memory, see {@link Scan} and {@link Render} for the parts that run on
+ * the agent holding the workspace.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class TemplateRenderer {
+    public static final String PLACEHOLDER_START = "${consul:";
+    private static final char PLACEHOLDER_END = '}';
+    private static final int MAX_KEY_LENGTH = 1024;
+
+    private TemplateRenderer() {
+
+    }
+
+    /**
+     * Resolves the key of a placeholder.
+     */
+    public interface Resolver {
+        /**
+         * @param key K/V key, without leading slash
+         * @return replacement of the placeholder
+         * @throws IOException when the key cannot be resolved
+         */
+        String resolve(String key) throws IOException;
+    }
+
+    /**
+     * Copies the template to the output, replacing each placeholder with what the resolver returns.  Text that only
+     * looks like the start of a placeholder, e.g. one left open at the end of a line, is copied as is.
+     *
+     * @param reader   template
+     * @param writer   output, null to only scan the template
+     * @param resolver resolver of the placeholder keys
+     * @return number of placeholders
+     * @throws IOException on IO failures, or when the resolver fails
+     */
+    public static int process(Reader reader, Writer writer, Resolver resolver) throws IOException {
+        PushbackReader in = new PushbackReader(reader);
+        StringBuilder pending = new StringBuilder();
+        int placeholders = 0;
+        int c;
+
+        while ((c = in.read()) != -1) {
+            if (c != PLACEHOLDER_START.charAt(0)) {
+                write(writer, c);
+                continue;
+            }
+
+            pending.setLength(0);
+            pending.append((char) c);
+
+            //Match the rest of the opening
+            while (pending.length() < PLACEHOLDER_START.length()) {
+                c = in.read();
+                if (c != PLACEHOLDER_START.charAt(pending.length())) {
+                    break;
+                }
+                pending.append((char) c);
+            }
+
+            if (pending.length() == PLACEHOLDER_START.length()) {
+                //Then the key
+                while ((c = in.read()) != -1 && c != PLACEHOLDER_END && c != '\n' && c != PLACEHOLDER_START.charAt
+                        (0) && pending.length() < PLACEHOLDER_START.length() + MAX_KEY_LENGTH) {
+                    pending.append((char) c);
+                }
+
+                String key = normalizeKey(pending.substring(PLACEHOLDER_START.length()));
+
+                if (c == PLACEHOLDER_END && !key.isEmpty()) {
+                    placeholders++;
+                    String value = resolver.resolve(key);
+                    if (writer != null && value != null) {
+                        writer.write(value);
+                    }
+                    continue;
+                }
+            }
+
+            write(writer, pending);
+            if (c == PLACEHOLDER_START.charAt(0)) {
+                //It may open a placeholder of its own
+                in.unread(c);
+            } else if (c != -1) {
+                write(writer, c);
+            }
+        }
+
+        return placeholders;
+    }
+
+    /**
+     * @param key key as written in the placeholder
+     * @return key as sent to Consul
+     */
+    public static String normalizeKey(String key) {
+        String normalized = key.trim();
+
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+
+        return normalized;
+    }
+
+    private static void write(Writer writer, int c) throws IOException {
+        if (writer != null) {
+            writer.write(c);
+        }
+    }
+
+    private static void write(Writer writer, CharSequence text) throws IOException {
+        if (writer != null) {
+            writer.append(text);
+        }
+    }
+
+    private static Reader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.DEFAULT_ENCODING));
+    }
+
+    /**
+     * Collects the keys of a template, on the agent.
+     */
+    public static final class Scan extends MasterToSlaveFileCallable<TreeSet<String>> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public TreeSet<String> invoke(File template, VirtualChannel channel) throws IOException,
+                InterruptedException {
+            final TreeSet<String> keys = new TreeSet<String>();
+
+            try (Reader reader = open(template)) {
+                process(reader, null, new Resolver() {
+                    @Override
+                    public String resolve(String key) {
+                        keys.add(key);
+                        return null;
+                    }
+                });
+            }
+
+            return keys;
+        }
+    }
+
+    /**
+     * Renders a template into the output file, on the agent.  The output is written next to its final location and
+     * moved in place once complete, so readers never see a partial file and the template may be its own output.
+     */
+    public static final class Render extends MasterToSlaveFileCallable<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final String output;
+        private final HashMap<String, String> values;
+
+        /**
+         * @param output remote path of the output file, on the template's agent
+         * @param values values by key, keys without a value render as an empty string
+         */
+        public Render(String output, Map<String, String> values) {
+            this.output = output;
+            this.values = new HashMap<String, String>(values);
+        }
+
+        @Override
+        public Integer invoke(File template, VirtualChannel channel) throws IOException, InterruptedException {
+            File target = new File(output).getAbsoluteFile();
+            File directory = target.getParentFile();
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException(String.format("Could not create directory %s.", directory));
+            }
+
+            File temp = File.createTempFile(".consul-template", ".tmp", directory);
+            try {
+                int placeholders;
+
+                try (Reader reader = open(template); Writer writer = new BufferedWriter(new OutputStreamWriter(new
+                        FileOutputStream(temp), Constants.DEFAULT_ENCODING))) {
+                    placeholders = process(reader, writer, new Resolver() {
+                        @Override
+                        public String resolve(String key) {
+                            String value = values.get(key);
+                            return (value == null) ? "" : value;
+                        }
+                    });
+                }
+
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return placeholders;
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+    }
+}
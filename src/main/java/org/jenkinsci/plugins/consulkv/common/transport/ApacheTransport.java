@@ -0,0 +1,37 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+
+import java.io.IOException;
+
+/**
+ * Apache HttpClient transport, the default:  one client per request, closed once the response is handled.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ApacheTransport implements ConsulTransport {
+
+    @Override
+    public <T> T execute(final ConsulRequest consulRequest, final HttpRequestBase httpRequestBase, final
+    ResponseHandler<T> responseHandler, final ConsulSlowLog.Timing timing) throws IOException {
+        CloseableHttpClient httpclient = timing.isEnabled() ? TimedHttpClients.create(timing) : HttpClients
+                .createDefault();
+
+        try {
+            return httpclient.execute(httpRequestBase, responseHandler);
+        } finally {
+            try {
+                httpclient.close();
+            } catch (IOException ioe) {
+                consulRequest.getLogger().printf("IO Exception was encountered when closing HTTP client.  %s%n",
+                        ioe);
+            }
+        }
+    }
+}
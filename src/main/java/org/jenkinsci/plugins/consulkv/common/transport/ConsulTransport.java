@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+
+import java.io.IOException;
+
+/**
+ * Sends the blocking Consul requests.  The request and response are described with the HttpCore model whatever the
+ * backend, so that the response handlers are shared:  the timeouts are in the request's <code>RequestConfig</code>,
+ * and {@link HttpRequestBase#abort()} must abort the request at any point, from another thread.
+ * <p>
+ * Implementations are stateless and thread-safe, see {@link ConsulTransports} for the one in use.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public interface ConsulTransport {
+
+    /**
+     * Sends a request and hands its response to the handler, releasing the connection once the handler returns.
+     *
+     * @param consulRequest   request settings, e.g. its logger
+     * @param httpRequestBase method, URL, headers and body
+     * @param responseHandler reads the response
+     * @param timing          marks the phases of the request, for the slow request log
+     * @param <T>             result of the handler
+     * @return result of the handler
+     * @throws IOException when the request failed, was aborted, or the handler failed
+     */
+    <T> T execute(ConsulRequest consulRequest, HttpRequestBase httpRequestBase, ResponseHandler<T> responseHandler,
+                  ConsulSlowLog.Timing timing) throws IOException;
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import java.util.Map;
+
+/**
+ * Transport selected in the global configuration, used by every blocking Consul request.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulTransports {
+    private static final ConsulTransport APACHE = new ApacheTransport();
+    private static final ConsulTransport JDK = new JdkTransport();
+    private static final UnixSocketTransport UNIX_SOCKET = new UnixSocketTransport();
+
+    private static volatile ConsulTransport transport = APACHE;
+
+    private ConsulTransports() {
+
+    }
+
+    /**
+     * Applies the global setting.
+     *
+     * @param transportType transport, null for the default
+     */
+    public static void configure(TransportType transportType) {
+        transport = ConsulTransports.of(transportType);
+    }
+
+    public static ConsulTransport get() {
+        return transport;
+    }
+
+    /**
+     * @param url request URL
+     * @return the Unix socket transport for <code>unix://</code> URLs, else the transport in use
+     */
+    public static ConsulTransport forUrl(String url) {
+        return UnixSocketTransport.isUnixSocket(url) ? UNIX_SOCKET : transport;
+    }
+
+    /**
+     * The TCP transports are not listed:  they open a connection per request.
+     *
+     * @return leased, available and pending connections of the Unix socket pools, by socket
+     */
+    public static Map<String, int[]> getPoolStats() {
+        return UNIX_SOCKET.getPoolStats();
+    }
+
+    /**
+     * @param transportType transport, null for the default
+     * @return shared instance of the transport
+     */
+    public static ConsulTransport of(TransportType transportType) {
+        return (transportType == TransportType.JDK) ? JDK : APACHE;
+    }
+}
@@ -0,0 +1,150 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JDK <code>HttpURLConnection</code> transport.  Connections are kept alive and reused by the JDK's connection cache
+ * across requests, unlike the per-request Apache client, and no client is built per request.  DNS, connect and TLS are
+ * timed as a single connect phase.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class JdkTransport implements ConsulTransport {
+
+    @Override
+    public <T> T execute(final ConsulRequest consulRequest, final HttpRequestBase httpRequestBase, final
+    ResponseHandler<T> responseHandler, final ConsulSlowLog.Timing timing) throws IOException {
+        URLConnection urlConnection = httpRequestBase.getURI().toURL().openConnection();
+
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            throw new IOException(String.format("Not an HTTP URL:  %s", httpRequestBase.getURI().getScheme()));
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+        httpRequestBase.setCancellable(new Cancellable() {
+            @Override
+            public boolean cancel() {
+                connection.disconnect();
+                return true;
+            }
+        });
+        if (httpRequestBase.isAborted()) {
+            throw new IOException("Consul request was aborted.");
+        }
+
+        InputStream body = null;
+        try {
+            JdkTransport.prepare(httpRequestBase, connection);
+
+            timing.connectStarted(null);
+            connection.connect();
+            timing.connectFinished();
+
+            timing.requestSent();
+            JdkTransport.send(httpRequestBase, connection);
+            int status = connection.getResponseCode();
+            timing.responseStarted(status);
+
+            BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, status,
+                    connection.getResponseMessage()));
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                //The status line has a null name
+                if (header.getKey() != null) {
+                    for (String value : header.getValue()) {
+                        response.addHeader(header.getKey(), value);
+                    }
+                }
+            }
+
+            body = (status >= 400) ? connection.getErrorStream() : connection.getInputStream();
+            if (body != null) {
+                BasicHttpEntity entity = new BasicHttpEntity();
+                entity.setContent(body);
+                entity.setContentLength(connection.getContentLengthLong());
+                if (connection.getContentType() != null) {
+                    entity.setContentType(connection.getContentType());
+                }
+                response.setEntity(entity);
+            }
+
+            return responseHandler.handleResponse(response);
+        } catch (IOException ioe) {
+            if (httpRequestBase.isAborted()) {
+                throw new IOException("Consul request was aborted.", ioe);
+            }
+            throw ioe;
+        } finally {
+            //A fully read and closed body returns the connection to the JDK's keep-alive cache
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException ioe) {
+                    consulRequest.getLogger().printf("IO Exception was encountered when closing HTTP response.  " +
+                            "%s%n", ioe);
+                }
+            }
+        }
+    }
+
+    private static void prepare(final HttpRequestBase httpRequestBase, final HttpURLConnection connection) throws
+            IOException {
+        RequestConfig config = httpRequestBase.getConfig();
+
+        if (config != null) {
+            connection.setConnectTimeout(Math.max(0, config.getConnectTimeout()));
+            connection.setReadTimeout(Math.max(0, config.getSocketTimeout()));
+        }
+
+        connection.setRequestMethod(httpRequestBase.getMethod());
+        connection.setUseCaches(false);
+        for (Header header : httpRequestBase.getAllHeaders()) {
+            connection.addRequestProperty(header.getName(), header.getValue());
+        }
+
+        HttpEntity entity = (httpRequestBase instanceof HttpEntityEnclosingRequest) ? ((HttpEntityEnclosingRequest)
+                httpRequestBase).getEntity() : null;
+        if (entity != null) {
+            connection.setDoOutput(true);
+            if (entity.getContentType() != null && connection.getRequestProperty(Constants.LABEL_CONTENT_TYPE) ==
+                    null) {
+                connection.setRequestProperty(Constants.LABEL_CONTENT_TYPE, entity.getContentType().getValue());
+            }
+            if (entity.getContentLength() >= 0) {
+                connection.setFixedLengthStreamingMode(entity.getContentLength());
+            } else {
+                connection.setChunkedStreamingMode(0);
+            }
+        }
+    }
+
+    private static void send(final HttpRequestBase httpRequestBase, final HttpURLConnection connection) throws
+            IOException {
+        if (connection.getDoOutput()) {
+            try (OutputStream out = connection.getOutputStream()) {
+                ((HttpEntityEnclosingRequest) httpRequestBase).getEntity().writeTo(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.DefaultHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.ssl.SSLContexts;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * HTTP clients that mark the phases of their request in a {@link ConsulSlowLog.Timing}: DNS, connect, TLS, request
+ * sent and response headers received.  Like the default client, one is created per request.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+final class TimedHttpClients {
+
+    private TimedHttpClients() {
+
+    }
+
+    static CloseableHttpClient create(final ConsulSlowLog.Timing timing) {
+        DnsResolver dnsResolver = new DnsResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                timing.dnsStarted();
+                try {
+                    return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+                } finally {
+                    timing.dnsFinished();
+                }
+            }
+        };
+
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new PlainSocketFactory(timing))
+                .register("https", new SslSocketFactory(timing))
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(new BasicHttpClientConnectionManager(registry, null, null, dnsResolver))
+                .setRequestExecutor(new RequestExecutor(timing))
+                .build();
+    }
+
+    private static final class PlainSocketFactory extends PlainConnectionSocketFactory {
+        private final ConsulSlowLog.Timing timing;
+
+        private PlainSocketFactory(ConsulSlowLog.Timing timing) {
+            this.timing = timing;
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress
+                remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+            timing.connectStarted(remoteAddress);
+            try {
+                return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            } finally {
+                timing.connectFinished();
+            }
+        }
+    }
+
+    /*
+     * The TCP connect ends where the TLS handshake, in createLayeredSocket, starts.
+     */
+    private static final class SslSocketFactory extends SSLConnectionSocketFactory {
+        private final ConsulSlowLog.Timing timing;
+
+        private SslSocketFactory(ConsulSlowLog.Timing timing) {
+            super(SSLContexts.createDefault(), new DefaultHostnameVerifier());
+            this.timing = timing;
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress
+                remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+            timing.connectStarted(remoteAddress);
+            try {
+                return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            } finally {
+                timing.connectFinished();
+            }
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws
+                IOException {
+            timing.tlsStarted();
+            try {
+                return super.createLayeredSocket(socket, target, port, context);
+            } finally {
+                timing.tlsFinished();
+            }
+        }
+    }
+
+    private static final class RequestExecutor extends HttpRequestExecutor {
+        private final ConsulSlowLog.Timing timing;
+
+        private RequestExecutor(ConsulSlowLog.Timing timing) {
+            this.timing = timing;
+        }
+
+        @Override
+        protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                throws IOException, HttpException {
+            timing.requestSent();
+            return super.doSendRequest(request, conn, context);
+        }
+
+        @Override
+        protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext
+                context) throws HttpException, IOException {
+            HttpResponse response = super.doReceiveResponse(request, conn, context);
+            timing.responseStarted(response.getStatusLine().getStatusCode());
+            return response;
+        }
+    }
+}
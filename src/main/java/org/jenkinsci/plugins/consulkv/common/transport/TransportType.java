@@ -0,0 +1,23 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import hudson.util.ListBoxModel;
+
+/**
+ * Transport of the blocking Consul requests:  APACHE is Apache HttpClient, JDK is the JDK's
+ * <code>HttpURLConnection</code>.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public enum TransportType {
+
+    APACHE, JDK;
+
+    public static ListBoxModel getFillItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (TransportType transportType : values()) {
+            items.add(transportType.name());
+        }
+        return items;
+    }
+}
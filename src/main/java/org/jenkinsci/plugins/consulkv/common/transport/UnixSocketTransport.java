@@ -0,0 +1,283 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport to a node-local Consul agent listening on a Unix domain socket, for host URLs such as
+ * <code>unix:///var/run/consul/consul.sock</code>.  The socket path ends where the Consul API, <code>/v1/</code>,
+ * starts.  Unlike the TCP transports, each socket keeps a pool of open connections that are reused across requests.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class UnixSocketTransport implements ConsulTransport {
+    private static final String API_PREFIX = "/v1/";
+    private static final String ATTRIBUTE_TIMING = UnixSocketTransport.class.getName() + ".timing";
+    private static final String HOST = "localhost";
+
+    //The host name is never looked up, the connection goes to the socket whatever the address
+    private static final DnsResolver LOOPBACK = new DnsResolver() {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return new InetAddress[]{InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1})};
+        }
+    };
+
+    private final ConcurrentMap<String, CloseableHttpClient> clients = new ConcurrentHashMap<String,
+            CloseableHttpClient>();
+    private final ConcurrentMap<String, PoolingHttpClientConnectionManager> pools = new ConcurrentHashMap<String,
+            PoolingHttpClientConnectionManager>();
+
+    /**
+     * @param url host URL or request URL
+     * @return true when the URL addresses a Unix domain socket
+     */
+    public static boolean isUnixSocket(String url) {
+        return url != null && url.regionMatches(true, 0, Constants.UNIX_SOCKET_SCHEME, 0, Constants
+                .UNIX_SOCKET_SCHEME.length());
+    }
+
+    /**
+     * @param url host URL or request URL
+     * @return scheme and socket path of the URL, never its API path or query string
+     */
+    public static String host(String url) {
+        String address = url.split("\\?")[0];
+        int start = address.indexOf(API_PREFIX, Constants.UNIX_SOCKET_SCHEME.length());
+
+        return (start == -1) ? address : address.substring(0, start);
+    }
+
+    /**
+     * @param url request URL, e.g. <code>unix:///var/run/consul/consul.sock/v1/kv/a</code>
+     * @return path of the socket, e.g. <code>/var/run/consul/consul.sock</code>
+     * @throws IOException when the URL has no Consul API path
+     */
+    static String socketPath(String url) throws IOException {
+        return url.substring(Constants.UNIX_SOCKET_SCHEME.length(), UnixSocketTransport.apiStart(url));
+    }
+
+    /**
+     * @param url request URL, e.g. <code>unix:///var/run/consul/consul.sock/v1/kv/a?recurse</code>
+     * @return URL the agent sees, e.g. <code>http://localhost/v1/kv/a?recurse</code>
+     * @throws IOException when the URL has no Consul API path
+     */
+    static String httpUrl(String url) throws IOException {
+        return "http://" + HOST + url.substring(UnixSocketTransport.apiStart(url));
+    }
+
+    private static int apiStart(String url) throws IOException {
+        int start = url.indexOf(API_PREFIX, Constants.UNIX_SOCKET_SCHEME.length());
+
+        if (start <= Constants.UNIX_SOCKET_SCHEME.length()) {
+            throw new IOException(String.format("Unix socket URL has no socket path, or no %s API path:  %s",
+                    API_PREFIX, url.split("\\?")[0]));
+        }
+
+        return start;
+    }
+
+    @Override
+    public <T> T execute(final ConsulRequest consulRequest, final HttpRequestBase httpRequestBase, final
+    ResponseHandler<T> responseHandler, final ConsulSlowLog.Timing timing) throws IOException {
+        String url = httpRequestBase.getURI().toString();
+        CloseableHttpClient httpclient = this.client(UnixSocketTransport.socketPath(url));
+
+        //The caller's request keeps its unix:// URI, e.g. for a retry; abort it to abort the copy that is sent
+        final HttpUriRequest request = RequestBuilder.copy(httpRequestBase).setUri(URI.create(UnixSocketTransport
+                .httpUrl(url))).build();
+        httpRequestBase.setCancellable(new Cancellable() {
+            @Override
+            public boolean cancel() {
+                request.abort();
+                return true;
+            }
+        });
+        if (httpRequestBase.isAborted()) {
+            throw new IOException("Consul request was aborted.");
+        }
+
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(ATTRIBUTE_TIMING, timing);
+
+        return httpclient.execute(request, responseHandler, context);
+    }
+
+    private CloseableHttpClient client(String socketPath) {
+        CloseableHttpClient httpclient = clients.get(socketPath);
+
+        if (httpclient == null) {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager
+                    (RegistryBuilder.<ConnectionSocketFactory>create().register("http", new SocketFactory(new File
+                            (socketPath))).build(), null, null, LOOPBACK, -1, TimeUnit.MILLISECONDS);
+            connectionManager.setMaxTotal(Constants.UNIX_SOCKET_MAX_CONNECTIONS);
+            connectionManager.setDefaultMaxPerRoute(Constants.UNIX_SOCKET_MAX_CONNECTIONS);
+
+            httpclient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setRequestExecutor(new RequestExecutor())
+                    .evictIdleConnections(Constants.UNIX_SOCKET_IDLE, TimeUnit.MILLISECONDS)
+                    .build();
+
+            CloseableHttpClient existing = clients.putIfAbsent(socketPath, httpclient);
+            if (existing != null) {
+                UnixSocketTransport.close(httpclient);
+                httpclient = existing;
+            } else {
+                pools.put(socketPath, connectionManager);
+            }
+        }
+
+        return httpclient;
+    }
+
+    /**
+     * @return leased, available and pending connections by socket, e.g. <code>unix:///var/run/consul.sock</code>
+     */
+    public Map<String, int[]> getPoolStats() {
+        Map<String, int[]> stats = new TreeMap<String, int[]>();
+
+        for (Map.Entry<String, PoolingHttpClientConnectionManager> pool : pools.entrySet()) {
+            PoolStats poolStats = pool.getValue().getTotalStats();
+            stats.put(Constants.UNIX_SOCKET_SCHEME + pool.getKey(), new int[]{poolStats.getLeased(), poolStats
+                    .getAvailable(), poolStats.getPending()});
+        }
+        return stats;
+    }
+
+    /**
+     * Closes the pooled connections of every socket.
+     */
+    public void close() {
+        for (String socketPath : clients.keySet()) {
+            CloseableHttpClient httpclient = clients.remove(socketPath);
+            pools.remove(socketPath);
+            if (httpclient != null) {
+                UnixSocketTransport.close(httpclient);
+            }
+        }
+    }
+
+    private static void close(CloseableHttpClient httpclient) {
+        try {
+            httpclient.close();
+        } catch (IOException ioe) {
+            //Only pooled, idle connections to a local socket are lost
+        }
+    }
+
+    private static ConsulSlowLog.Timing timing(HttpContext context) {
+        return (context == null) ? null : (ConsulSlowLog.Timing) context.getAttribute(ATTRIBUTE_TIMING);
+    }
+
+    /*
+     * The connection operator sets the socket options on the socket from createSocket before connecting it.  That is
+     * a plain, never connected, socket:  junixsocket does not support every TCP option.  connectSocket replaces it
+     * with the Unix socket, keeping its read timeout.
+     */
+    private static final class SocketFactory implements ConnectionSocketFactory {
+        private final File socketFile;
+
+        private SocketFactory(File socketFile) {
+            this.socketFile = socketFile;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return new Socket();
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress
+                remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+            ConsulSlowLog.Timing timing = UnixSocketTransport.timing(context);
+            int soTimeout = (socket == null) ? 0 : socket.getSoTimeout();
+            if (socket != null) {
+                socket.close();
+            }
+
+            if (timing != null) {
+                timing.connectStarted(null);
+            }
+            AFUNIXSocket unixSocket = AFUNIXSocket.newInstance();
+            try {
+                unixSocket.setSoTimeout(soTimeout);
+                unixSocket.connect(new AFUNIXSocketAddress(socketFile), connectTimeout);
+            } catch (IOException ioe) {
+                unixSocket.close();
+                throw new IOException(String.format("Unable to connect to the Consul agent socket %s.", socketFile),
+                        ioe);
+            } finally {
+                if (timing != null) {
+                    timing.connectFinished();
+                }
+            }
+
+            return unixSocket;
+        }
+    }
+
+    /*
+     * The clients are shared, the timing of the request travels in its context.
+     */
+    private static final class RequestExecutor extends HttpRequestExecutor {
+
+        @Override
+        protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                throws IOException, HttpException {
+            ConsulSlowLog.Timing timing = UnixSocketTransport.timing(context);
+            if (timing != null) {
+                timing.requestSent();
+            }
+            return super.doSendRequest(request, conn, context);
+        }
+
+        @Override
+        protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext
+                context) throws HttpException, IOException {
+            HttpResponse response = super.doReceiveResponse(request, conn, context);
+            ConsulSlowLog.Timing timing = UnixSocketTransport.timing(context);
+            if (timing != null) {
+                timing.responseStarted(response.getStatusLine().getStatusCode());
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.ConsulFlightRecorder;
+import org.jenkinsci.plugins.consulkv.common.ConsulInFlight;
+import org.jenkinsci.plugins.consulkv.common.ConsulMetrics;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.transport.UnixSocketTransport;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking counterparts of the {@link ConsulRequestUtils} requests, for callers that must not hold a thread while
+ * Consul answers, e.g. pipeline steps.  Requests share one I/O reactor, its connection pool bounds the concurrent
+ * requests per endpoint, and the responses go through the same handlers and size limit as blocking requests.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulAsyncRequestUtils {
+    private static final Map<String, HttpRoute> ROUTES = new ConcurrentHashMap<String, HttpRoute>();
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(new
+            NamingThreadFactory(new DaemonThreadFactory(), "Consul K/V async deadlines"));
+
+    private ConsulAsyncRequestUtils() {
+
+    }
+
+    /**
+     * Reads a key, or a prefix.  A 404 completes with a null body.
+     *
+     * @param consulRequest request
+     * @param callback      receives the response, or the failure
+     * @return handle to cancel the request, null when it failed before it was sent
+     */
+    public static Future<?> readResponse(final ConsulRequest consulRequest, final FutureCallback<ConsulResponse>
+            callback) {
+        return ConsulAsyncRequestUtils.execute(consulRequest, new HttpGet(consulRequest.getUrl()),
+                ConsulRequestUtils.getConsulResponseHandler(consulRequest), callback);
+    }
+
+    /**
+     * @param consulRequest request, value being written
+     * @param callback      receives the raw response, or the failure
+     * @return handle to cancel the request, null when it failed before it was sent
+     */
+    public static Future<?> write(final ConsulRequest consulRequest, final FutureCallback<String> callback) {
+        HttpPut httpPut = new HttpPut(consulRequest.getUrl());
+
+        httpPut.addHeader(Constants.LABEL_ACCEPT, Constants.MEDIA_TYPE_APP_JSON);
+        httpPut.setEntity(new StringEntity(Strings.nvl(consulRequest.getValue(), ""), ContentType.create(ContentType
+                .TEXT_PLAIN.getMimeType(), Charset.forName(Constants.DEFAULT_ENCODING))));
+
+        return ConsulAsyncRequestUtils.execute(consulRequest, httpPut, ConsulRequestUtils.getResponseHandler
+                (consulRequest), callback);
+    }
+
+    /**
+     * @param consulRequest request
+     * @param callback      receives the raw response, or the failure
+     * @return handle to cancel the request, null when it failed before it was sent
+     */
+    public static Future<?> delete(final ConsulRequest consulRequest, final FutureCallback<String> callback) {
+        return ConsulAsyncRequestUtils.execute(consulRequest, new HttpDelete(consulRequest.getUrl()),
+                ConsulRequestUtils.getResponseHandler(consulRequest), callback);
+    }
+
+    /*
+     * Sends the request on the reactor; the callback runs on a reactor thread, it must not block.  The total time
+     * limit is enforced by cancelling the request, without a thread waiting on it.
+     */
+    private static <T> Future<?> execute(final ConsulRequest consulRequest, final HttpRequestBase httpRequestBase,
+                                         final ResponseHandler<T> responseHandler, final FutureCallback<T>
+                                                 callback) {
+        final long limit = ConsulRequestUtils.getTimeLimit(consulRequest);
+
+        //The reactor only opens TCP connections
+        if (UnixSocketTransport.isUnixSocket(consulRequest.getUrl())) {
+            callback.failed(new ConsulRequestException("Unix socket host URLs are not supported by asynchronous " +
+                    "Consul requests."));
+            return null;
+        }
+
+        if (limit < 0) {
+            callback.failed(new ConsulRequestException(String.format("Deadline of %d ms expired before the Consul " +
+                    "request.", consulRequest.getDeadline().getBudget())));
+            return null;
+        }
+
+        int timeoutResponse = consulRequest.getTimeoutResponse();
+        int timeoutConnect = consulRequest.getTimeoutConnect();
+        if (limit > 0) {
+            timeoutResponse = (int) Math.min(timeoutResponse, limit);
+            timeoutConnect = (int) Math.min(timeoutConnect, limit);
+        }
+
+        httpRequestBase.setConfig(RequestConfig.custom().setConnectTimeout(timeoutConnect).setSocketTimeout
+                (timeoutResponse).setConnectionRequestTimeout((int) limit).build());
+
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final ScheduledFuture<?>[] deadline = new ScheduledFuture<?>[1];
+        final ConsulFlightRecorder.Recording recording = ConsulFlightRecorder.begin(httpRequestBase.getMethod(),
+                consulRequest.getUrl());
+        final ResponseHandler<T> handler = (recording == ConsulFlightRecorder.NONE) ? responseHandler :
+                ConsulRequestUtils.recorded(responseHandler, recording);
+
+        if (recording != ConsulFlightRecorder.NONE && httpRequestBase instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntity entity = ((HttpEntityEnclosingRequestBase) httpRequestBase).getEntity();
+            recording.bytesOut((entity == null) ? 0 : entity.getContentLength());
+        }
+
+        final ConsulInFlight.Request inFlight = ConsulInFlight.startAsync(httpRequestBase.getMethod(),
+                consulRequest.getUrl());
+        ConsulAsyncRequestUtils.route(httpRequestBase);
+
+        ConsulMetrics.requestStarted();
+        final Future<HttpResponse> future = Holder.CLIENT.execute(HttpAsyncMethods.create(httpRequestBase), new
+                LimitedResponseConsumer(consulRequest.getMaxResponseSize()), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                finished();
+                boolean failed = true;
+                try {
+                    T result = handler.handleResponse(response);
+                    failed = false;
+                    callback.completed(result);
+                } catch (IOException ioe) {
+                    callback.failed(new ConsulRequestException("Consul Request Failed.", ioe));
+                } catch (RuntimeException re) {
+                    callback.failed(re);
+                } finally {
+                    recording.end();
+                    inFlight.finish(failed);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                finished();
+                recording.end();
+                inFlight.finish(true);
+                callback.failed(new ConsulRequestException("Consul Request Failed.", ex));
+            }
+
+            @Override
+            public void cancelled() {
+                finished();
+                recording.end();
+                inFlight.finish(true);
+                if (timedOut.get()) {
+                    callback.failed(new ConsulRequestException(String.format("Consul request did not complete " +
+                            "within %d ms, aborted.", limit)));
+                } else {
+                    callback.cancelled();
+                }
+            }
+
+            private void finished() {
+                ConsulMetrics.requestFinished();
+                synchronized (deadline) {
+                    if (deadline[0] != null) {
+                        deadline[0].cancel(false);
+                    }
+                }
+            }
+        });
+
+        inFlight.setFuture(future);
+        if (limit > 0) {
+            synchronized (deadline) {
+                if (!future.isDone()) {
+                    deadline[0] = DEADLINES.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            timedOut.set(true);
+                            future.cancel(true);
+                        }
+                    }, limit, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * @return leased, available and pending connections of the reactor's pool, by route
+     */
+    public static Map<String, int[]> getPoolStats() {
+        Map<String, int[]> stats = new TreeMap<String, int[]>();
+
+        //Do not start the reactor just to report that it is idle
+        for (Map.Entry<String, HttpRoute> route : ROUTES.entrySet()) {
+            PoolStats poolStats = Holder.POOL.getStats(route.getValue());
+            stats.put(route.getKey(), new int[]{poolStats.getLeased(), poolStats.getAvailable(), poolStats
+                    .getPending()});
+        }
+        return stats;
+    }
+
+    /*
+     * Remembers the route of a request the way the route planner builds it, as the pool does not list its routes.
+     */
+    private static void route(final HttpRequestBase httpRequestBase) {
+        HttpHost host = URIUtils.extractHost(httpRequestBase.getURI());
+
+        if (host != null && !ROUTES.containsKey(host.toURI())) {
+            int port = (host.getPort() > 0) ? host.getPort() : ("https".equalsIgnoreCase(host.getSchemeName()) ?
+                    443 : 80);
+            ROUTES.put(host.toURI(), new HttpRoute(new HttpHost(host.getHostName(), port, host.getSchemeName()),
+                    null, "https".equalsIgnoreCase(host.getSchemeName())));
+        }
+    }
+
+    /*
+     * Started on first use, the reactor threads are daemons and live as long as the controller.
+     */
+    private static final class Holder {
+        private static final PoolingNHttpClientConnectionManager POOL = Holder.pool();
+        private static final CloseableHttpAsyncClient CLIENT = HttpAsyncClients.custom().setThreadFactory(new
+                NamingThreadFactory(new DaemonThreadFactory(), "Consul K/V async")).setConnectionManager(POOL)
+                .build();
+
+        static {
+            CLIENT.start();
+        }
+
+        private static PoolingNHttpClientConnectionManager pool() {
+            try {
+                PoolingNHttpClientConnectionManager pool = new PoolingNHttpClientConnectionManager(new
+                        DefaultConnectingIOReactor(IOReactorConfig.DEFAULT, new NamingThreadFactory(new
+                        DaemonThreadFactory(), "Consul K/V async I/O")));
+                pool.setDefaultMaxPerRoute(Constants.CONCURRENCY_LIMIT_READ);
+                pool.setMaxTotal(Constants.CONCURRENCY_LIMIT_READ * 4);
+                return pool;
+            } catch (IOReactorException ire) {
+                throw new IllegalStateException("Could not start the Consul K/V I/O reactor.", ire);
+            }
+        }
+    }
+
+    /*
+     * Buffers the body like the basic consumer, but gives up as soon as it outgrows the maximum response size.
+     */
+    private static final class LimitedResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+        private final long maxResponseSize;
+        private volatile HttpResponse response;
+        private volatile SimpleInputBuffer buffer;
+
+        private LimitedResponseConsumer(long maxResponseSize) {
+            this.maxResponseSize = maxResponseSize;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) throws IOException {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            long length = entity.getContentLength();
+
+            if (maxResponseSize > 0 && length > maxResponseSize) {
+                ConsulMetrics.responseRejected();
+                throw new SizeLimitedInputStream.ResponseTooLargeException(maxResponseSize);
+            }
+
+            this.buffer = new SimpleInputBuffer((length > 0) ? (int) length : 4096, HeapByteBufferAllocator.INSTANCE);
+            this.response.setEntity(new ContentBufferEntity(entity, this.buffer));
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            this.buffer.consumeContent(decoder);
+
+            if (maxResponseSize > 0 && this.buffer.length() > maxResponseSize) {
+                ConsulMetrics.responseRejected();
+                throw new SizeLimitedInputStream.ResponseTooLargeException(maxResponseSize);
+            }
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) throws Exception {
+            return this.response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            this.response = null;
+            this.buffer = null;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.util.Base64;
+import com.google.common.io.BaseEncoding;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Chunked storage of values over Consul's per-value size limit.  The value is split into chunk keys under
+ * <code>&lt;key&gt;.chunks/&lt;generation&gt;/</code>, and the key itself holds a small JSON manifest with the chunk
+ * count, the SHA-256 of the value and the compression.  The generation is derived from the hash, chunks are written
+ * first and the manifest last, so readers always see a complete generation; the generation it replaced is deleted
+ * after.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulChunkUtils {
+    public static final String FIELD_CHUNKED = "consul-kv-chunked";
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_DEFLATE = "deflate";
+
+    private static final String FIELD_GENERATION = "generation";
+    private static final String FIELD_COUNT = "count";
+    private static final String FIELD_SIZE = "size";
+    private static final String FIELD_SHA256 = "sha256";
+    private static final String FIELD_COMPRESSION = "compression";
+    private static final String CHUNKS_SUFFIX = ".chunks/";
+    private static final int GENERATION_LENGTH = 16;
+    private static final int MANIFEST_VERSION = 1;
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+    private static final int THREADS = 8;
+    private static final int READ_AHEAD = 4;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V chunks"));
+
+    private ConsulChunkUtils() {
+
+    }
+
+    /**
+     * Writes a value as chunks and a manifest.
+     *
+     * @param consulRequest settings of the requests, its URL and value are ignored
+     * @param hostUrl       host URL
+     * @param apiUri        K/V API URI
+     * @param key           key of the manifest
+     * @param token         ACL token, or null
+     * @param data          value
+     * @param compress      true to deflate the value before splitting it
+     * @return manifest written to the key
+     * @throws ConsulRequestException on failed writes
+     * @throws IOException            on compression failures
+     * @throws InterruptedException   when interrupted, the requests are aborted
+     */
+    public static String write(final ConsulRequest consulRequest, final String hostUrl, final String apiUri, final
+    String key, final String token, final byte[] data, final boolean compress) throws ConsulRequestException,
+            IOException, InterruptedException {
+        String sha256 = BaseEncoding.base16().lowerCase().encode(digest().digest(data));
+        String generation = sha256.substring(0, GENERATION_LENGTH);
+        byte[] payload = data;
+
+        if (compress) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+                deflater.write(data);
+            }
+            payload = out.toByteArray();
+        }
+
+        int chunkSize = (int) Constants.CHUNK_SIZE;
+        int count = Math.max(1, (payload.length + chunkSize - 1) / chunkSize);
+        final String txnUrl = url(hostUrl, ConsulTxnUtils.txnUri(apiUri), "", null, token);
+        List<Callable<Void>> writes = new ArrayList<Callable<Void>>();
+
+        for (int i = 0; i < count; i++) {
+            byte[] chunk = Arrays.copyOfRange(payload, i * chunkSize, Math.min(payload.length, (i + 1) *
+                    chunkSize));
+            final ConsulRequest chunkRequest = derive(consulRequest, txnUrl, ConsulTxnUtils.toJson(Collections
+                    .singletonList(ConsulTxnUtils.setOp(chunkKey(key, generation, i), chunk))), RequestMode.WRITE);
+
+            writes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    ConsulResponse response = ConsulRequestUtils.transaction(chunkRequest);
+                    if (response.getStatus() == Constants.HTTP_CONFLICT) {
+                        throw new ConsulRequestException(String.format("Chunk write was rolled back:  %s",
+                                ConsulTxnUtils.parseErrors(response.getBody())));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ConsulChunkUtils.run(writes);
+
+        Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+        manifest.put(FIELD_CHUNKED, MANIFEST_VERSION);
+        manifest.put(FIELD_GENERATION, generation);
+        manifest.put(FIELD_COUNT, count);
+        manifest.put(FIELD_SIZE, data.length);
+        manifest.put(FIELD_SHA256, sha256);
+        manifest.put(FIELD_COMPRESSION, compress ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+        String manifestJson = MAPPER.writeValueAsString(manifest);
+
+        //The switch to the new generation
+        String replaced = ConsulChunkUtils.switchManifest(consulRequest, hostUrl, apiUri, key, token, manifestJson);
+
+        if (replaced != null && !replaced.equals(generation)) {
+            ConsulChunkUtils.deleteGeneration(consulRequest, hostUrl, apiUri, key, token, replaced);
+        }
+
+        return manifestJson;
+    }
+
+    /**
+     * Only values with the complete shape of a manifest qualify, so that a JSON value which happens to contain the
+     * marker field is read as it is.
+     *
+     * @param value value of a key
+     * @return true when the value is a chunk manifest
+     */
+    public static boolean isManifest(final String value) {
+        if (value == null || !value.trim().startsWith("{") || !value.contains(FIELD_CHUNKED)) {
+            return false;
+        }
+
+        try {
+            JsonNode node = MAPPER.readTree(value);
+
+            return node.path(FIELD_CHUNKED).isInt() && node.path(FIELD_CHUNKED).asInt() == MANIFEST_VERSION && node
+                    .path(FIELD_GENERATION).isTextual() && node.path(FIELD_COUNT).isInt() && node.path(FIELD_COUNT)
+                    .asInt() > 0 && node.path(FIELD_SHA256).isTextual() && SHA256.matcher(node.path(FIELD_SHA256)
+                    .asText()).matches();
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Fetches the chunks of a manifest, up to four ahead of the one being written, and streams the reassembled value,
+     * in order, to the output.  The SHA-256 of the value is verified once the last chunk was written.
+     *
+     * @param consulRequest settings of the requests, its URL and value are ignored
+     * @param hostUrl       host URL
+     * @param apiUri        K/V API URI
+     * @param key           key of the manifest
+     * @param token         ACL token, or null
+     * @param manifest      manifest read from the key
+     * @param output        receives the value, not closed
+     * @return size of the value
+     * @throws ConsulRequestException on failed reads, missing chunks and hash mismatches
+     * @throws IOException            on parse and output failures
+     * @throws InterruptedException   when interrupted, the requests are aborted
+     */
+    public static long read(final ConsulRequest consulRequest, final String hostUrl, final String apiUri, final
+    String key, final String token, final String manifest, final OutputStream output) throws
+            ConsulRequestException, IOException, InterruptedException {
+        JsonNode node = MAPPER.readTree(manifest);
+        String generation = node.path(FIELD_GENERATION).asText();
+        int count = node.path(FIELD_COUNT).asInt();
+        String sha256 = node.path(FIELD_SHA256).asText();
+        boolean compressed = COMPRESSION_DEFLATE.equals(node.path(FIELD_COMPRESSION).asText());
+
+        Deque<Future<byte[]>> window = new ArrayDeque<Future<byte[]>>();
+
+        try {
+            for (int i = 0; i < Math.min(count, READ_AHEAD); i++) {
+                window.add(EXECUTOR.submit(readChunk(consulRequest, hostUrl, apiUri, key, token, generation, i)));
+            }
+
+            MessageDigest digest = digest();
+            CountingOutputStream counter = new CountingOutputStream(output);
+            OutputStream sink = new DigestOutputStream(counter, digest);
+            if (compressed) {
+                sink = new InflaterOutputStream(sink);
+            }
+
+            for (int i = 0; i < count; i++) {
+                byte[] chunk = ConsulChunkUtils.get(window.remove());
+                //Only the read-ahead window is held in memory, not the whole value
+                if (i + READ_AHEAD < count) {
+                    window.add(EXECUTOR.submit(readChunk(consulRequest, hostUrl, apiUri, key, token, generation, i
+                            + READ_AHEAD)));
+                }
+                sink.write(chunk);
+            }
+
+            //Flushes the inflater, the caller's stream stays open
+            if (compressed) {
+                ((InflaterOutputStream) sink).finish();
+            }
+            sink.flush();
+
+            if (!sha256.equals(BaseEncoding.base16().lowerCase().encode(digest.digest()))) {
+                throw new ConsulRequestException(String.format("SHA-256 of the value read from %s does not match " +
+                        "its manifest.", key));
+            }
+
+            return counter.count;
+        } finally {
+            for (Future<byte[]> future : window) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static Callable<byte[]> readChunk(final ConsulRequest consulRequest, final String hostUrl, final String
+            apiUri, final String key, final String token, final String generation, final int index) throws
+            ConsulRequestException {
+        final String chunkKey = chunkKey(key, generation, index);
+        final ConsulRequest chunkRequest = derive(consulRequest, url(hostUrl, apiUri, chunkKey, null, token), null,
+                RequestMode.READ);
+
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                ConsulResponse response = ConsulRequestUtils.readResponse(chunkRequest);
+                JsonNode entries = (response.getBody() == null) ? null : MAPPER.readTree(response.getBody());
+
+                if (entries == null || entries.size() == 0) {
+                    throw new ConsulRequestException(String.format("Chunk %s was not found, the value was probably " +
+                            "rewritten during the read.", chunkKey));
+                }
+
+                JsonNode value = entries.get(0).get(Constants.FIELD_VALUE);
+                return (value == null || value.isNull()) ? new byte[0] : Base64.decodeBase64(value.asText());
+            }
+        };
+    }
+
+    /*
+     * Writes the manifest with ?cas= of the value it replaces, so that the generation to delete is the one this write
+     * actually replaced.  The generations of concurrent writers are left to them, whichever manifest they replace.
+     */
+    private static String switchManifest(final ConsulRequest consulRequest, final String hostUrl, final String
+            apiUri, final String key, final String token, final String manifestJson) throws ConsulRequestException,
+            IOException, InterruptedException {
+        String keyUrl = url(hostUrl, apiUri, key, null, token);
+        ConsulRequest readRequest = derive(consulRequest, keyUrl, null, RequestMode.READ);
+
+        for (int attempt = 0; attempt <= Constants.CAS_RETRIES; attempt++) {
+            List<ConsulKVEntry> entries = ConsulRequestUtils.parseEntries(ConsulRequestUtils.readResponse
+                    (readRequest).getBody());
+            //0 only creates the key, should it not exist yet
+            long index = entries.isEmpty() ? 0 : entries.get(0).getModifyIndex();
+            String current = entries.isEmpty() ? null : entries.get(0).getValue();
+
+            if (Boolean.parseBoolean(Strings.trim(ConsulRequestUtils.write(derive(consulRequest, url(hostUrl,
+                    apiUri, key, "cas=" + index, token), manifestJson, RequestMode.WRITE))))) {
+                return isManifest(current) ? MAPPER.readTree(current).path(FIELD_GENERATION).asText() : null;
+            }
+
+            //Jittered backoff, so concurrent writers do not conflict again in lockstep
+            long backoff = Constants.CAS_BACKOFF << attempt;
+            Thread.sleep(backoff / 2 + (long) (Math.random() * backoff / 2));
+        }
+
+        throw new ConsulRequestException(String.format("Manifest of %s changed %d times during the write, giving " +
+                "up.", key, Constants.CAS_RETRIES + 1));
+    }
+
+    /*
+     * Best effort, a failure leaves unreferenced chunks behind but the value is intact.
+     */
+    private static void deleteGeneration(final ConsulRequest consulRequest, final String hostUrl, final String
+            apiUri, final String key, final String token, final String generation) throws InterruptedException {
+        try {
+            ConsulRequestUtils.delete(derive(consulRequest, url(hostUrl, apiUri, key + CHUNKS_SUFFIX + generation +
+                    "/", "recurse", token), null, RequestMode.DELETE));
+        } catch (ConsulRequestException cre) {
+            consulRequest.getLogger().println(String.format("Could not delete the previous chunks of %s:  %s", key,
+                    cre));
+        }
+    }
+
+    private static void run(List<Callable<Void>> tasks) throws ConsulRequestException, InterruptedException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        try {
+            for (Callable<Void> task : tasks) {
+                futures.add(EXECUTOR.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                ConsulChunkUtils.get(future);
+            }
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws ConsulRequestException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof ConsulRequestException) {
+                throw (ConsulRequestException) ee.getCause();
+            }
+            throw new ConsulRequestException("Consul Request Failed.", ee.getCause());
+        }
+    }
+
+    private static ConsulRequest derive(ConsulRequest consulRequest, String url, String value, RequestMode
+            requestMode) throws ConsulRequestException {
+        try {
+            return ConsulRequestFactory.copyOf(consulRequest).withUrl(url).withValue(value).withRequestMode
+                    (requestMode).build();
+        } catch (ValidationException ve) {
+            throw new ConsulRequestException("Consul Request Failed.", ve);
+        }
+    }
+
+    private static String chunkKey(String key, String generation, int index) {
+        return key + CHUNKS_SUFFIX + generation + "/" + index;
+    }
+
+    private static String url(String hostUrl, String apiUri, String path, String query, String token) {
+        StringBuilder url = new StringBuilder(hostUrl).append(apiUri).append(path);
+        char separator = '?';
+
+        if (query != null) {
+            url.append(separator).append(query);
+            separator = '&';
+        }
+
+        if (token != null) {
+            url.append(separator).append("token=").append(token);
+        }
+
+        return url.toString();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            //Every JRE has SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
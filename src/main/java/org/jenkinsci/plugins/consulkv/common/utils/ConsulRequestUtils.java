@@ -3,38 +3,70 @@ package org.jenkinsci.plugins.consulkv.common.utils;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.util.Base64;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
 import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.ConsulFlightRecorder;
+import org.jenkinsci.plugins.consulkv.common.ConsulHedger;
+import org.jenkinsci.plugins.consulkv.common.ConsulInFlight;
+import org.jenkinsci.plugins.consulkv.common.ConsulLimiter;
+import org.jenkinsci.plugins.consulkv.common.ConsulMetrics;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
 import org.jenkinsci.plugins.consulkv.common.Constants;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
 import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.transport.ConsulTransport;
+import org.jenkinsci.plugins.consulkv.common.transport.ConsulTransports;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Utility class for HTTP requests to Hashicorp Consul REST API.
@@ -43,103 +75,678 @@ import java.util.Map;
  * @version 1.0.0
  */
 public final class ConsulRequestUtils {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V request"));
 
     private ConsulRequestUtils() {
 
     }
 
-    public static String read(final ConsulRequest consulRequest) throws ConsulRequestException {
+    public static String read(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
         HttpGet httpGet = new HttpGet(consulRequest.getUrl());
 
-        CloseableHttpClient httpclient = ConsulRequestUtils.getHttpClient(consulRequest, httpGet);
-
-        ResponseHandler<String> responseHandler = ConsulRequestUtils.getResponseHandler(consulRequest.getDebugMode(),
-                consulRequest.getLogger());
-
-        String responseBody = null;
-        try {
-            responseBody = httpclient.execute(httpGet, responseHandler);
-        } catch (IOException ioe) {
-            consulRequest.getLogger().println(ExceptionUtils.getFullStackTrace(ioe));
-            throw new ConsulRequestException("Consul Request Failed.");
-        } finally {
-            ConsulRequestUtils.closeHttpClient(httpclient, consulRequest);
-        }
-
-        return responseBody;
+        return ConsulRequestUtils.execute(consulRequest, httpGet, ConsulRequestUtils.getResponseHandler
+                (consulRequest));
     }
 
-    public static String write(final ConsulRequest consulRequest) throws ConsulRequestException {
+    public static String write(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
         HttpPut httpPut = new HttpPut(consulRequest.getUrl());
 
-        CloseableHttpClient httpclient = ConsulRequestUtils.getHttpClient(consulRequest, httpPut);
-
         httpPut.addHeader(Constants.LABEL_CONTENT_TYPE, Constants.MEDIA_TYPE_PLAIN_TEXT);
         httpPut.addHeader(Constants.LABEL_ACCEPT, Constants.MEDIA_TYPE_APP_JSON);
-        String responseBody = null;
 
         try {
             StringEntity input = new StringEntity(consulRequest.getValue());
             httpPut.setEntity(input);
+        } catch (UnsupportedEncodingException uee) {
+            consulRequest.getLogger().println(ExceptionUtils.getFullStackTrace(uee));
+            throw new ConsulRequestException("Consul Request Failed.", uee);
+        }
+
+        return ConsulRequestUtils.execute(consulRequest, httpPut, ConsulRequestUtils.getResponseHandler
+                (consulRequest));
+    }
+
+    /**
+     * Writes the request value only if it differs from the current one, so that rewriting an unchanged value does
+     * not commit to Raft nor wake the watchers of the key.  The write uses <code>?cas=</code> with the index of the
+     * value it was compared with, and on a conflict compares and writes again, up to {@link Constants#CAS_RETRIES}
+     * times.
+     *
+     * @param consulRequest write request, URL pointing at the key
+     * @return true when the value was written, false when it was already current
+     * @throws ConsulRequestException on IO failures, unexpected status codes, expired deadlines and when the key
+     *                                kept changing under the write
+     * @throws InterruptedException   when interrupted, the request is aborted
+     */
+    public static boolean writeIfChanged(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
+        String value = Strings.nvl(consulRequest.getValue(), "");
+        PrintStream logger = consulRequest.getLogger();
+
+        try {
+            ConsulRequest readRequest = ConsulRequestFactory.copyOf(consulRequest).withValue(null).withRequestMode
+                    (RequestMode.READ).build();
+
+            for (int attempt = 0; attempt <= Constants.CAS_RETRIES; attempt++) {
+                ConsulResponse current = ConsulRequestUtils.readResponse(readRequest);
+                List<ConsulKVEntry> entries = ConsulRequestUtils.parseEntries(current.getBody());
+                //0 only creates the key, should it not exist yet
+                long index = entries.isEmpty() ? 0 : entries.get(0).getModifyIndex();
+
+                if (!entries.isEmpty() && value.equals(Strings.nvl(entries.get(0).getValue(), ""))) {
+                    logger.println(String.format("Value unchanged at index %d, write skipped.", index));
+                    return false;
+                }
 
-            ResponseHandler<String> responseHandler = ConsulRequestUtils.getResponseHandler(consulRequest
-                    .getDebugMode(), consulRequest.getLogger());
+                String url = consulRequest.getUrl();
+                ConsulRequest casRequest = ConsulRequestFactory.copyOf(consulRequest).withUrl(url + (url.contains
+                        ("?") ? '&' : '?') + "cas=" + index).withRequestMode(RequestMode.WRITE).build();
 
+                if (Boolean.parseBoolean(Strings.trim(ConsulRequestUtils.write(casRequest)))) {
+                    return true;
+                }
 
-            responseBody = httpclient.execute(httpPut, responseHandler);
+                //Jittered backoff, so concurrent writers do not conflict again in lockstep
+                long backoff = Constants.CAS_BACKOFF << attempt;
+                logger.println(String.format("Key changed since index %d, retrying the write.", index));
+                Thread.sleep(backoff / 2 + (long) (Math.random() * backoff / 2));
+            }
+        } catch (ValidationException ve) {
+            throw new ConsulRequestException("Consul Request Failed.", ve);
         } catch (IOException ioe) {
-            consulRequest.getLogger().println(ExceptionUtils.getFullStackTrace(ioe));
-            throw new ConsulRequestException("Consul Request Failed.");
-        } finally {
-            ConsulRequestUtils.closeHttpClient(httpclient, consulRequest);
+            throw new ConsulRequestException("Consul Request Failed.", ioe);
         }
-        return responseBody;
+
+        throw new ConsulRequestException(String.format("Check-and-set write conflicted %d times, giving up.",
+                Constants.CAS_RETRIES + 1));
     }
 
-    public static String delete(final ConsulRequest consulRequest) throws ConsulRequestException {
+    public static String delete(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
         HttpDelete httpDelete = new HttpDelete(consulRequest.getUrl());
 
-        CloseableHttpClient httpclient = ConsulRequestUtils.getHttpClient(consulRequest, httpDelete);
-
         httpDelete.addHeader(Constants.LABEL_CONTENT_TYPE, Constants.MEDIA_TYPE_PLAIN_TEXT);
         httpDelete.addHeader(Constants.LABEL_ACCEPT, Constants.MEDIA_TYPE_APP_JSON);
 
-        ResponseHandler<String> responseHandler = ConsulRequestUtils.getResponseHandler(consulRequest.getDebugMode(),
-                consulRequest.getLogger());
+        return ConsulRequestUtils.execute(consulRequest, httpDelete, ConsulRequestUtils.getResponseHandler
+                (consulRequest));
+    }
+
+    /**
+     * Reads a key, or a prefix, and returns the body along with the <code>X-Consul-Index</code> header.  A 404 is
+     * not treated as a failure, since blocking queries on missing keys still return a usable index.
+     *
+     * @param consulRequest request
+     * @return response
+     * @throws ConsulRequestException on IO failures, unexpected status codes and expired deadlines
+     * @throws InterruptedException   when interrupted, the request is aborted
+     */
+    public static ConsulResponse readResponse(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
+        HttpGet httpGet = new HttpGet(consulRequest.getUrl());
+
+        return ConsulRequestUtils.execute(consulRequest, httpGet, ConsulRequestUtils.getConsulResponseHandler
+                (consulRequest));
+    }
+
+    /**
+     * Reads a single key and returns its decoded value.  The body is parsed while it streams from the socket, and is
+     * never buffered beyond the request's maximum response size.
+     *
+     * @param consulRequest request
+     * @return decoded value of the first entry, or null when it has no value
+     * @throws ConsulRequestException on IO failures, unexpected status codes, oversized responses and expired
+     *                                deadlines
+     * @throws InterruptedException   when interrupted, the request is aborted
+     */
+    public static String readValue(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
+        HttpGet httpGet = new HttpGet(consulRequest.getUrl());
+
+        return ConsulRequestUtils.execute(consulRequest, httpGet, ConsulRequestUtils.getValueResponseHandler
+                (consulRequest));
+    }
+
+    /**
+     * Submits a transaction, the request value carrying the JSON operations.  A rolled back transaction (409) is
+     * returned rather than thrown, so callers can report the per-operation errors.
+     *
+     * @param consulRequest request, URL pointing at the transaction endpoint
+     * @return response, with the <code>X-Consul-Index</code> of the snapshot the transaction ran against
+     * @throws ConsulRequestException on IO failures, unexpected status codes and expired deadlines
+     * @throws InterruptedException   when interrupted, the request is aborted
+     */
+    public static ConsulResponse transaction(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
+        HttpPut httpPut = new HttpPut(consulRequest.getUrl());
+
+        httpPut.addHeader(Constants.LABEL_ACCEPT, Constants.MEDIA_TYPE_APP_JSON);
+        httpPut.setEntity(new StringEntity(consulRequest.getValue(), ContentType.APPLICATION_JSON));
+
+        return ConsulRequestUtils.execute(consulRequest, httpPut, ConsulRequestUtils.getConsulResponseHandler
+                (consulRequest));
+    }
+
+    /**
+     * Body of a TTL session.  Consul invalidates a session within twice its TTL, the behavior then applies to the keys
+     * it holds.
+     *
+     * @param name       session name
+     * @param ttlSeconds TTL, clamped to the bounds Consul accepts
+     * @param behavior   {@link Constants#SESSION_BEHAVIOR_RELEASE} to keep the keys, or
+     *                   {@link Constants#SESSION_BEHAVIOR_DELETE} to delete them
+     * @return session creation body
+     * @throws IOException on serialization failures
+     */
+    public static String sessionJson(String name, int ttlSeconds, String behavior) throws IOException {
+        Map<String, Object> session = new LinkedHashMap<String, Object>();
+        session.put("Name", name);
+        session.put("TTL", Math.max(Constants.SESSION_TTL_MIN, Math.min(Constants.SESSION_TTL_MAX, ttlSeconds)) +
+                "s");
+        session.put("Behavior", behavior);
+        session.put("LockDelay", "0s");
+
+        return new ObjectMapper().writeValueAsString(session);
+    }
+
+    /**
+     * Creates a session, the request value carrying its JSON definition.
+     *
+     * @param consulRequest request, URL pointing at the session create endpoint
+     * @return ID of the session
+     * @throws ConsulRequestException on IO failures, unexpected status codes, expired deadlines and responses
+     *                                without an ID
+     * @throws InterruptedException   when interrupted, the request is aborted
+     */
+    public static String createSession(final ConsulRequest consulRequest) throws ConsulRequestException,
+            InterruptedException {
+        String response = ConsulRequestUtils.write(consulRequest);
 
-        String responseBody = null;
         try {
-            responseBody = httpclient.execute(httpDelete, responseHandler);
+            JsonNode id = (response == null) ? null : new ObjectMapper().readTree(response).get(Constants
+                    .FIELD_ID);
+
+            if (id == null || id.isNull()) {
+                throw new ConsulRequestException(String.format("Session was not created:  %s", response));
+            }
+
+            return id.asText();
         } catch (IOException ioe) {
-            consulRequest.getLogger().println(ExceptionUtils.getFullStackTrace(ioe));
-            throw new ConsulRequestException("Consul Request Failed.");
+            throw new ConsulRequestException("Consul Request Failed.", ioe);
+        }
+    }
+
+    /*
+     * Runs the request on the request pool and waits for it here, so that the wait is bounded by the total timeout
+     * and the step deadline, and so that an aborted build (interrupt) aborts the connection instead of waiting for
+     * the socket timeout.  Requests other than blocking queries first take a slot from the cluster's limiter.
+     */
+    private static <T> T execute(final ConsulRequest consulRequest, final HttpRequestBase httpRequestBase, final
+    ResponseHandler<T> responseHandler) throws ConsulRequestException, InterruptedException {
+        ConsulInFlight.Request inFlight = ConsulInFlight.start(httpRequestBase.getMethod(), consulRequest.getUrl());
+        ConsulFlightRecorder.Recording recording = ConsulFlightRecorder.begin(httpRequestBase.getMethod(),
+                consulRequest.getUrl());
+        ResponseHandler<T> handler = responseHandler;
+
+        if (recording != ConsulFlightRecorder.NONE) {
+            if (httpRequestBase instanceof HttpEntityEnclosingRequestBase) {
+                HttpEntity entity = ((HttpEntityEnclosingRequestBase) httpRequestBase).getEntity();
+                recording.bytesOut((entity == null) ? 0 : entity.getContentLength());
+            }
+            handler = ConsulRequestUtils.recorded(responseHandler, recording);
+        }
+
+        boolean failed = true;
+        try {
+            T result = ConsulRequestUtils.execute(consulRequest, httpRequestBase, handler, recording);
+            failed = false;
+            return result;
+        } catch (InterruptedException ie) {
+            if (inFlight.isCancelled()) {
+                throw new ConsulRequestException("Consul request was cancelled from the Consul K/V management page.",
+                        ie);
+            }
+            throw ie;
         } finally {
-            ConsulRequestUtils.closeHttpClient(httpclient, consulRequest);
+            inFlight.finish(failed);
+            recording.end();
+        }
+    }
+
+    private static <T> T execute(final ConsulRequest consulRequest, final HttpRequestBase httpRequestBase, final
+    ResponseHandler<T> responseHandler, final ConsulFlightRecorder.Recording recording) throws
+            ConsulRequestException, InterruptedException {
+        long limit = ConsulRequestUtils.getTimeLimit(consulRequest);
+
+        if (limit < 0) {
+            throw new ConsulRequestException(String.format("Deadline of %d ms expired before the Consul request.",
+                    consulRequest.getDeadline().getBudget()));
+        }
+
+        ConsulSlowLog.Timing timing = ConsulSlowLog.start(httpRequestBase.getMethod(), consulRequest.getUrl());
+
+        ConsulLimiter limiter = consulRequest.isBlockingQuery() ? null : ConsulLimiter.get(consulRequest.getUrl(),
+                consulRequest.getRequestMode() != RequestMode.READ);
+
+        if (limiter != null) {
+            limiter.acquire(ConsulRequestUtils.getQueueTimeout(limit));
+
+            //Time spent in the queue counts against the deadline
+            limit = ConsulRequestUtils.getTimeLimit(consulRequest);
+            if (limit < 0) {
+                limiter.cancel();
+                throw new ConsulRequestException(String.format("Deadline of %d ms expired while the Consul request" +
+                        " was queued.", consulRequest.getDeadline().getBudget()));
+            }
+        }
+
+        //Only idempotent single-key reads are hedged
+        ConsulHedger hedger = (httpRequestBase instanceof HttpGet && consulRequest.getRequestMode() == RequestMode
+                .READ && !consulRequest.isBlockingQuery()) ? ConsulHedger.get(consulRequest.getUrl()) : null;
+        BlockingQueue<RequestTask<T>> completions = (hedger == null) ? null : new LinkedBlockingQueue<RequestTask<T>>();
+        long started = System.nanoTime();
+
+        RequestTask<T> task = ConsulRequestUtils.submit(consulRequest, httpRequestBase, responseHandler, limiter,
+                hedger, completions, limit, timing);
+        try {
+            if (hedger != null) {
+                return ConsulRequestUtils.hedge(consulRequest, task, hedger, completions, limit, started,
+                        recording);
+            }
+
+            return (limit == 0) ? task.future.get() : task.future.get(limit, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            consulRequest.getLogger().println(ExceptionUtils.getFullStackTrace(cause));
+            throw new ConsulRequestException("Consul Request Failed.", cause);
+        } catch (TimeoutException te) {
+            task.abort(false);
+            throw new ConsulRequestException(String.format("Consul request did not complete within %d ms, " +
+                    "aborted.", limit));
+        } catch (InterruptedException ie) {
+            task.abort(true);
+            consulRequest.getLogger().println("Interrupted, aborted the Consul request.");
+            throw ie;
+        }
+    }
+
+    private static <T> RequestTask<T> submit(final ConsulRequest consulRequest, final HttpRequestBase
+            httpRequestBase, final ResponseHandler<T> responseHandler, final ConsulLimiter limiter, final
+    ConsulHedger hedger, final BlockingQueue<RequestTask<T>> completions, final long limit, final ConsulSlowLog
+            .Timing timing) throws ConsulRequestException {
+        ConsulRequestUtils.setTimeouts(consulRequest, httpRequestBase, limit);
+        RequestTask<T> task = new RequestTask<T>(consulRequest, httpRequestBase, responseHandler, ConsulTransports
+                .forUrl(httpRequestBase.getURI().toString()), limiter, hedger, completions, timing);
+
+        try {
+            task.future = EXECUTOR.submit(task);
+        } catch (RejectedExecutionException ree) {
+            task.discard();
+            throw new ConsulRequestException("Consul Request Failed.", ree);
+        }
+
+        return task;
+    }
+
+    /*
+     * Waits for the read up to the cluster's p95 latency, then, if the hedge budget allows it, sends a duplicate to
+     * another endpoint and returns the first successful answer.  The slower request is abandoned.
+     */
+    private static <T> T hedge(final ConsulRequest consulRequest, final RequestTask<T> task, final ConsulHedger
+            hedger, final BlockingQueue<RequestTask<T>> completions, final long limit, final long started, final
+    ConsulFlightRecorder.Recording recording) throws ConsulRequestException, ExecutionException, TimeoutException,
+            InterruptedException {
+        long threshold = hedger.started();
+
+        if (threshold < 0 || (limit > 0 && threshold >= limit)) {
+            return (limit == 0) ? task.future.get() : task.future.get(limit, TimeUnit.MILLISECONDS);
+        }
+
+        if (completions.poll(threshold, TimeUnit.MILLISECONDS) != null) {
+            return task.future.get();
+        }
+
+        String hedgeUrl = hedger.hedgeUrl(consulRequest.getUrl());
+        ConsulLimiter hedgeLimiter = (task.limiter == null) ? null : ConsulLimiter.get(hedgeUrl, false);
+
+        //A hedge is optional, it never queues behind the limiter
+        if (hedgeLimiter != null && !hedgeLimiter.tryAcquire()) {
+            return ConsulRequestUtils.await(task, limit, started);
+        }
+
+        if (!hedger.tryHedge()) {
+            if (hedgeLimiter != null) {
+                hedgeLimiter.cancel();
+            }
+            return ConsulRequestUtils.await(task, limit, started);
+        }
+
+        if (consulRequest.getDebugMode().equals(DebugMode.ENABLED)) {
+            consulRequest.getLogger().println(String.format("Consul read took over %d ms (p95), hedging it.",
+                    threshold));
+        }
+
+        RequestTask<T> hedge;
+        try {
+            hedge = ConsulRequestUtils.submit(consulRequest, new HttpGet(hedgeUrl), task.responseHandler,
+                    hedgeLimiter, hedger, completions, ConsulRequestUtils.remaining(limit, started), ConsulSlowLog
+                            .start(HttpGet.METHOD_NAME, hedgeUrl));
+        } catch (ConsulRequestException cre) {
+            //No hedge then, the read itself is still running
+            return ConsulRequestUtils.await(task, limit, started);
+        }
+        ConsulMetrics.hedgeSent();
+        recording.retry();
+
+        try {
+            ExecutionException failure = null;
+            for (int pending = 2; pending > 0; pending--) {
+                long remaining = ConsulRequestUtils.remaining(limit, started);
+                RequestTask<T> done = (limit == 0) ? completions.take() : completions.poll(remaining, TimeUnit
+                        .MILLISECONDS);
+
+                if (done == null) {
+                    throw new TimeoutException();
+                }
+
+                try {
+                    T result = done.future.get();
+                    if (done == hedge) {
+                        ConsulMetrics.hedgeWon();
+                        task.abort(true);
+                    } else {
+                        hedge.abort(true);
+                    }
+                    return result;
+                } catch (ExecutionException ee) {
+                    failure = ee;
+                }
+            }
+            throw failure;
+        } catch (TimeoutException | InterruptedException e) {
+            hedge.abort(e instanceof InterruptedException);
+            throw e;
+        }
+    }
+
+    /*
+     * Notes the status and size of the response in the flight recorder event before handling it.
+     */
+    static <T> ResponseHandler<T> recorded(final ResponseHandler<T> responseHandler, final
+    ConsulFlightRecorder.Recording recording) {
+        return new ResponseHandler<T>() {
+            @Override
+            public T handleResponse(HttpResponse response) throws IOException {
+                HttpEntity entity = response.getEntity();
+
+                recording.status(response.getStatusLine().getStatusCode());
+                recording.bytesIn((entity == null) ? 0 : Math.max(0, entity.getContentLength()));
+                return responseHandler.handleResponse(response);
+            }
+        };
+    }
+
+    private static <T> T await(final RequestTask<T> task, final long limit, final long started) throws
+            ExecutionException, TimeoutException, InterruptedException {
+        return (limit == 0) ? task.future.get() : task.future.get(ConsulRequestUtils.remaining(limit, started),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * @return milliseconds left of the time limit, at least 1 so that a get() with it times out rather than blocks
+     */
+    private static long remaining(final long limit, final long started) {
+        if (limit == 0) {
+            return 0;
+        }
+
+        return Math.max(1, limit - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private static long getQueueTimeout(final long limit) {
+        long queueTimeout = ConsulLimiter.getQueueTimeout();
+
+        if (limit > 0) {
+            queueTimeout = (queueTimeout == 0) ? limit : Math.min(queueTimeout, limit);
+        }
+
+        return queueTimeout;
+    }
+
+    /**
+     * @param consulRequest Consul request
+     * @return milliseconds the request may take, 0 for no limit, -1 when the deadline already expired
+     */
+    public static long getTimeLimit(final ConsulRequest consulRequest) {
+        long limit = consulRequest.getTimeoutTotal();
+        ConsulDeadline deadline = consulRequest.getDeadline();
+
+        if (deadline != null) {
+            long remaining = deadline.remaining();
+            if (remaining == 0) {
+                return -1;
+            }
+            limit = (limit == 0) ? remaining : Math.min(limit, remaining);
+        }
+
+        return limit;
+    }
+
+    /**
+     * Tells an unavailable Consul from one that answered, e.g. with a 403 for a revoked token or a 404 for a deleted
+     * key.  Requests aborted by a timeout or deadline fail without a cause.
+     *
+     * @param failure failure of a request
+     * @return true on IO failures, timeouts and 5xx responses
+     */
+    public static boolean isUnavailable(final Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpResponseException) {
+                return ((HttpResponseException) cause).getStatusCode() >= Constants.HTTP_SERVER_ERROR;
+            }
+            if (cause instanceof SizeLimitedInputStream.ResponseTooLargeException) {
+                return false;
+            }
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof ConsulRequestException && cause.getCause() == null) {
+                return true;
+            }
         }
-        return responseBody;
+
+        return false;
     }
 
-    private static ResponseHandler<String> getResponseHandler(final DebugMode debugMode, final PrintStream logger) {
+    /*
+     * Request run on the request pool.  Whoever claims the task first owns the limiter slot: the
+     * pool thread when it starts the request, or the caller when it gives up before the request started.
+     */
+    private static final class RequestTask<T> implements Callable<T> {
+        private final ConsulRequest consulRequest;
+        private final HttpRequestBase httpRequestBase;
+        private final ResponseHandler<T> responseHandler;
+        private final ConsulTransport transport;
+        private final ConsulLimiter limiter;
+        private final ConsulHedger hedger;
+        private final BlockingQueue<RequestTask<T>> completions;
+        private final ConsulSlowLog.Timing timing;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile Future<T> future;
+        private volatile boolean abandoned;
+
+        private RequestTask(ConsulRequest consulRequest, HttpRequestBase httpRequestBase, ResponseHandler<T>
+                responseHandler, ConsulTransport transport, ConsulLimiter limiter, ConsulHedger hedger,
+                            BlockingQueue<RequestTask<T>> completions, ConsulSlowLog.Timing timing) {
+            this.consulRequest = consulRequest;
+            this.httpRequestBase = httpRequestBase;
+            this.responseHandler = responseHandler;
+            this.transport = transport;
+            this.limiter = limiter;
+            this.hedger = hedger;
+            this.completions = completions;
+            this.timing = timing;
+        }
+
+        @Override
+        public T call() throws IOException {
+            if (!claimed.compareAndSet(false, true)) {
+                throw new IOException("Consul request was aborted before it started.");
+            }
+
+            ConsulMetrics.requestStarted();
+            timing.dequeued();
+            long started = System.nanoTime();
+            boolean dropped = true;
+            Throwable failure = null;
+            try {
+                T result = transport.execute(consulRequest, httpRequestBase, responseHandler, timing);
+                dropped = false;
+                if (hedger != null) {
+                    hedger.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                }
+                return result;
+            } catch (HttpResponseException hre) {
+                //Only throttling and server errors hint at overload, other statuses are answers
+                dropped = hre.getStatusCode() == Constants.HTTP_TOO_MANY_REQUESTS || hre.getStatusCode() >=
+                        Constants.HTTP_SERVER_ERROR;
+                failure = hre;
+                throw hre;
+            } catch (SizeLimitedInputStream.ResponseTooLargeException rtle) {
+                dropped = false;
+                failure = rtle;
+                throw rtle;
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                timing.finish(limiter, failure);
+                ConsulMetrics.requestFinished();
+                if (limiter != null) {
+                    if (abandoned) {
+                        limiter.cancel();
+                    } else {
+                        limiter.release(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), dropped);
+                    }
+                }
+                if (completions != null) {
+                    completions.offer(this);
+                }
+            }
+        }
+
+        /*
+         * @param abandoned true when the outcome says nothing about the server, e.g. the caller was interrupted or
+         *                  a hedge answered first
+         */
+        private void abort(boolean abandoned) {
+            this.abandoned = abandoned;
+            httpRequestBase.abort();
+            if (future != null) {
+                future.cancel(true);
+            }
+            discard();
+        }
+
+        private void discard() {
+            if (claimed.compareAndSet(false, true)) {
+                if (limiter != null) {
+                    limiter.cancel();
+                }
+            }
+        }
+    }
+
+    private static ResponseHandler<String> getValueResponseHandler(final ConsulRequest consulRequest) {
         ResponseHandler<String> responseHandler = new ResponseHandler<String>() {
             @Override
             public String handleResponse(final HttpResponse response) throws IOException {
-                if (debugMode.equals(DebugMode.ENABLED)) {
-                    logger.println("Response Headers: ");
-                    Header[] headers = response.getAllHeaders();
-                    for (Header header : headers) {
-                        logger.println(String.format("%s=%s", header.getName(), header.getValue()));
+                logHeaders(consulRequest, response);
+
+                int status = response.getStatusLine().getStatusCode();
+                if (status >= Constants.HTTP_OK && status < Constants.HTTP_MULTI_CHOICES) {
+                    HttpEntity entity = response.getEntity();
+
+                    if (entity != null) {
+                        InputStream in = openLimited(entity, consulRequest.getMaxResponseSize());
+                        try {
+                            return parseValue(JSON_FACTORY.createParser(in));
+                        } finally {
+                            in.close();
+                        }
+                    }
+                } else {
+                    throw new HttpResponseException(status, "Unexpected response status: " + status);
+                }
+
+                return null;
+            }
+        };
+
+        return responseHandler;
+    }
+
+    static ResponseHandler<ConsulResponse> getConsulResponseHandler(final ConsulRequest consulRequest) {
+        ResponseHandler<ConsulResponse> responseHandler = new ResponseHandler<ConsulResponse>() {
+            @Override
+            public ConsulResponse handleResponse(final HttpResponse response) throws IOException {
+                PrintStream logger = consulRequest.getLogger();
+                logHeaders(consulRequest, response);
+
+                long index = 0;
+                Header indexHeader = response.getFirstHeader(Constants.HEADER_CONSUL_INDEX);
+                if (indexHeader != null) {
+                    try {
+                        index = Long.parseLong(indexHeader.getValue());
+                    } catch (NumberFormatException nfe) {
+                        logger.printf("Invalid %s header:  %s%n", Constants.HEADER_CONSUL_INDEX, indexHeader
+                                .getValue());
                     }
                 }
 
+                int status = response.getStatusLine().getStatusCode();
+                if (status >= Constants.HTTP_OK && status < Constants.HTTP_MULTI_CHOICES) {
+                    HttpEntity entity = response.getEntity();
+                    return new ConsulResponse(status, entity != null ? entityToString(entity, consulRequest
+                            .getMaxResponseSize()) : null, index);
+                } else if (status == Constants.HTTP_NOT_FOUND) {
+                    EntityUtils.consume(response.getEntity());
+                    return new ConsulResponse(status, null, index);
+                } else if (status == Constants.HTTP_CONFLICT) {
+                    HttpEntity entity = response.getEntity();
+                    return new ConsulResponse(status, entity != null ? entityToString(entity, consulRequest
+                            .getMaxResponseSize()) : null, index);
+                } else {
+                    throw new HttpResponseException(status, "Unexpected response status: " + status);
+                }
+            }
+        };
+
+        return responseHandler;
+    }
+
+    static ResponseHandler<String> getResponseHandler(final ConsulRequest consulRequest) {
+        ResponseHandler<String> responseHandler = new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(final HttpResponse response) throws IOException {
+                logHeaders(consulRequest, response);
+
                 int status = response.getStatusLine().getStatusCode();
                 if (status >= Constants.HTTP_OK && status < Constants.HTTP_MULTI_CHOICES) {
                     HttpEntity entity = response.getEntity();
 
                     if (entity != null) {
-                        return EntityUtils.toString(entity);
+                        return ConsulRequestUtils.entityToString(entity, consulRequest.getMaxResponseSize());
                     }
                 } else {
-                    throw new ClientProtocolException("Unexpected response status: " + status);
+                    throw new HttpResponseException(status, "Unexpected response status: " + status);
                 }
 
                 return null;
@@ -149,30 +756,58 @@ public final class ConsulRequestUtils {
         return responseHandler;
     }
 
-    private static CloseableHttpClient getHttpClient(final ConsulRequest consulRequest, final HttpRequestBase
-            httpRequestBase) {
-        CloseableHttpClient httpclient = HttpClients.createDefault();
+    private static void logHeaders(final ConsulRequest consulRequest, final HttpResponse response) {
+        if (consulRequest.getDebugMode().equals(DebugMode.ENABLED)) {
+            consulRequest.getLogger().println("Response Headers: ");
+            Header[] headers = response.getAllHeaders();
+            for (Header header : headers) {
+                consulRequest.getLogger().println(String.format("%s=%s", header.getName(), header.getValue()));
+            }
+        }
+    }
 
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setSocketTimeout(consulRequest.getTimeoutConnect())
-                .setConnectTimeout(consulRequest.getTimeoutConnect())
-                .setConnectionRequestTimeout(consulRequest.getTimeoutResponse())
-                .build();
+    /*
+     * Rejects a declared Content-Length over the limit up front, and enforces the limit while reading otherwise.
+     */
+    private static InputStream openLimited(final HttpEntity entity, final long maxResponseSize) throws IOException {
+        if (maxResponseSize > 0 && entity.getContentLength() > maxResponseSize) {
+            ConsulMetrics.responseRejected();
+            EntityUtils.consumeQuietly(entity);
+            throw new SizeLimitedInputStream.ResponseTooLargeException(maxResponseSize);
+        }
 
-        httpRequestBase.setConfig(requestConfig);
+        return new SizeLimitedInputStream(entity.getContent(), maxResponseSize);
+    }
 
-        return httpclient;
+    private static String entityToString(final HttpEntity entity, final long maxResponseSize) throws IOException {
+        Charset charset = ContentType.getOrDefault(entity).getCharset();
+        InputStream in = openLimited(entity, maxResponseSize);
+        try {
+            return IOUtils.toString(in, charset != null ? charset : Charset.forName(Constants.DEFAULT_ENCODING));
+        } finally {
+            in.close();
+        }
     }
 
-    private static void closeHttpClient(final CloseableHttpClient httpclient, final ConsulRequest consulRequest) {
-        if (httpclient != null) {
-            try {
-                httpclient.close();
-            } catch (IOException ioe) {
-                consulRequest.getLogger().printf("IO Exception was encountered when closing HTTP client.  %s%n",
-                        ioe);
-            }
+    /*
+     * Connect and response (time to first byte, and between bytes) timeouts never exceed the total time limit.
+     */
+    private static void setTimeouts(final ConsulRequest consulRequest, final HttpRequestBase httpRequestBase, final
+    long limit) {
+        int timeoutConnect = consulRequest.getTimeoutConnect();
+        int timeoutResponse = consulRequest.getTimeoutResponse();
+        if (limit > 0) {
+            timeoutConnect = (int) Math.min(timeoutConnect, limit);
+            timeoutResponse = (int) Math.min(timeoutResponse, limit);
         }
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setSocketTimeout(timeoutResponse)
+                .setConnectTimeout(timeoutConnect)
+                .setConnectionRequestTimeout(timeoutConnect)
+                .build();
+
+        httpRequestBase.setConfig(requestConfig);
     }
 
     public static String parseJson(String data, String field) throws IOException {
@@ -196,6 +831,67 @@ public final class ConsulRequestUtils {
         return map;
     }
 
+    /**
+     * Parses a K/V read response (single key or recursive) into entries, decoding the values.
+     *
+     * @param data raw JSON array returned by the K/V endpoint
+     * @return entries, empty when there is no data
+     * @throws IOException on parse failures
+     */
+    public static List<ConsulKVEntry> parseEntries(String data) throws IOException {
+        List<ConsulKVEntry> entries = new ArrayList<ConsulKVEntry>();
+
+        if (Strings.isBlank(data)) {
+            return entries;
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode jsonArray = mapper.readTree(data);
+
+        for (JsonNode node : jsonArray) {
+            JsonNode valueNode = node.get(Constants.FIELD_VALUE);
+            //Raw bytes, a binary value is only decoded to text when read as such
+            byte[] raw = (valueNode == null || valueNode.isNull()) ? null : Base64.decodeBase64(valueNode.asText());
+            JsonNode sessionNode = node.get(Constants.FIELD_SESSION);
+            entries.add(new ConsulKVEntry(node.get(Constants.FIELD_KEY).asText(), raw, node.get(Constants
+                    .FIELD_MODIFY_INDEX).asLong(), (sessionNode == null || sessionNode.isNull()) ? null :
+                    sessionNode.asText()));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Pulls the <code>Value</code> of the first entry out of a K/V read response, skipping every other field without
+     * building a tree.
+     *
+     * @param jsonParser parser positioned before the response array
+     * @return decoded value, or null
+     * @throws IOException on parse failures
+     */
+    public static String parseValue(JsonParser jsonParser) throws IOException {
+        try {
+            if (jsonParser.nextToken() != JsonToken.START_ARRAY || jsonParser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = jsonParser.getCurrentName();
+                JsonToken token = jsonParser.nextToken();
+
+                if (Constants.FIELD_VALUE.equals(fieldName)) {
+                    return (token == JsonToken.VALUE_NULL) ? null : decodeValue(jsonParser.getText());
+                }
+
+                jsonParser.skipChildren();
+            }
+
+            return null;
+        } finally {
+            jsonParser.close();
+        }
+    }
+
     public static String decodeValue(String value) throws UnsupportedEncodingException {
         byte[] valueDecoded = Base64.decodeBase64(value);
         return new String(valueDecoded, Constants.DEFAULT_ENCODING);
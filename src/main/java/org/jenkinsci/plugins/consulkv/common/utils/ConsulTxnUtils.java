@@ -0,0 +1,208 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.util.Base64;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility class to build and parse Hashicorp Consul <code>/v1/txn</code> payloads.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulTxnUtils {
+    private static final String FIELD_KV = "KV";
+    private static final String FIELD_VERB = "Verb";
+    private static final String FIELD_INDEX = "Index";
+    private static final String FIELD_RESULTS = "Results";
+    private static final String FIELD_ERRORS = "Errors";
+    private static final String FIELD_WHAT = "What";
+    private static final String FIELD_OP_INDEX = "OpIndex";
+
+    private ConsulTxnUtils() {
+
+    }
+
+    /**
+     * Transaction endpoint next to a K/V API base, e.g. <code>/consul/v1/txn</code> for <code>/consul/v1/kv/</code>
+     * behind a reverse proxy.
+     *
+     * @param apiUri K/V API URI, blank for the default
+     * @return transaction URI
+     */
+    public static String txnUri(final String apiUri) {
+        String base = Strings.trim(apiUri);
+
+        if (Strings.isBlank(base)) {
+            return Constants.TXN_URI;
+        }
+
+        while (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+
+        //The K/V endpoint is the last segment, the transaction endpoint is its sibling
+        return base.substring(0, Math.max(0, base.lastIndexOf('/'))) + "/txn";
+    }
+
+    public static Map<String, Object> getOp(final String key) {
+        return op("get", key, (byte[]) null, null);
+    }
+
+    public static Map<String, Object> setOp(final String key, final String value) {
+        return op("set", key, value, null);
+    }
+
+    public static Map<String, Object> setOp(final String key, final byte[] value) {
+        return op("set", key, value, null);
+    }
+
+    public static Map<String, Object> casOp(final String key, final String value, final long index) {
+        return op("cas", key, value, index);
+    }
+
+    public static Map<String, Object> deleteOp(final String key) {
+        return op("delete", key, (byte[]) null, null);
+    }
+
+    /**
+     * Splits K/V pairs into transaction sized chunks, at most {@link Constants#TXN_MAX_OPS} operations and about
+     * <code>maxBytes</code> of values each.  A value larger than that gets a chunk of its own.
+     *
+     * @param values   values by key
+     * @param maxOps   operations per chunk
+     * @param maxBytes value bytes per chunk, before base64 encoding
+     * @return chunks, in the order of the values
+     */
+    public static List<Map<String, String>> chunk(final Map<String, String> values, final int maxOps, final long
+            maxBytes) {
+        List<Map<String, String>> chunks = new ArrayList<Map<String, String>>();
+        Map<String, String> chunk = new LinkedHashMap<String, String>();
+        long bytes = 0;
+
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            long size = entry.getValue().getBytes(Charset.forName(Constants.DEFAULT_ENCODING)).length;
+
+            if (!chunk.isEmpty() && (chunk.size() >= maxOps || bytes + size > maxBytes)) {
+                chunks.add(chunk);
+                chunk = new LinkedHashMap<String, String>();
+                bytes = 0;
+            }
+
+            chunk.put(entry.getKey(), entry.getValue());
+            bytes += size;
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * @param ops operations, at most {@link Constants#TXN_MAX_OPS}
+     * @return JSON payload of the transaction
+     * @throws IOException on serialization failures
+     */
+    public static String toJson(final List<Map<String, Object>> ops) throws IOException {
+        return new ObjectMapper().writeValueAsString(ops);
+    }
+
+    /**
+     * Parses the <code>KV</code> results of a successful transaction, values decoded.
+     *
+     * @param data response body
+     * @return entries, in operation order
+     * @throws IOException on parse failures
+     */
+    public static List<ConsulKVEntry> parseResults(final String data) throws IOException {
+        List<ConsulKVEntry> entries = new ArrayList<ConsulKVEntry>();
+
+        if (Strings.isBlank(data)) {
+            return entries;
+        }
+
+        JsonNode results = new ObjectMapper().readTree(data).get(FIELD_RESULTS);
+
+        if (results == null || results.isNull()) {
+            return entries;
+        }
+
+        for (JsonNode result : results) {
+            JsonNode node = result.get(FIELD_KV);
+            if (node == null) {
+                continue;
+            }
+            JsonNode valueNode = node.get(Constants.FIELD_VALUE);
+            String value = (valueNode == null || valueNode.isNull()) ? null : ConsulRequestUtils.decodeValue
+                    (valueNode.asText());
+            entries.add(new ConsulKVEntry(node.get(Constants.FIELD_KEY).asText(), value, node.get(Constants
+                    .FIELD_MODIFY_INDEX).asLong()));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Parses the errors of a rolled back transaction.
+     *
+     * @param data response body
+     * @return one message per failed operation
+     * @throws IOException on parse failures
+     */
+    public static List<String> parseErrors(final String data) throws IOException {
+        List<String> errors = new ArrayList<String>();
+
+        if (Strings.isBlank(data)) {
+            return errors;
+        }
+
+        JsonNode nodes = new ObjectMapper().readTree(data).get(FIELD_ERRORS);
+
+        if (nodes == null || nodes.isNull()) {
+            return errors;
+        }
+
+        for (JsonNode node : nodes) {
+            errors.add(String.format("Operation %s:  %s", node.path(FIELD_OP_INDEX).asText(), node.path(FIELD_WHAT)
+                    .asText()));
+        }
+
+        return errors;
+    }
+
+    private static Map<String, Object> op(final String verb, final String key, final String value, final Long
+            index) {
+        return op(verb, key, (value == null) ? null : value.getBytes(Charset.forName(Constants.DEFAULT_ENCODING)),
+                index);
+    }
+
+    private static Map<String, Object> op(final String verb, final String key, final byte[] value, final Long
+            index) {
+        Map<String, Object> kv = new LinkedHashMap<String, Object>();
+        kv.put(FIELD_VERB, verb);
+        kv.put(Constants.FIELD_KEY, key);
+
+        if (value != null) {
+            kv.put(Constants.FIELD_VALUE, Base64.encodeBase64String(value));
+        }
+
+        if (index != null) {
+            kv.put(FIELD_INDEX, index);
+        }
+
+        Map<String, Object> op = new LinkedHashMap<String, Object>();
+        op.put(FIELD_KV, kv);
+        return op;
+    }
+}
@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import org.jenkinsci.plugins.consulkv.common.ConsulMetrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that fails as soon as more than a maximum number of bytes have been read, so a response body is never
+ * buffered past the configured ceiling.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class SizeLimitedInputStream extends FilterInputStream {
+    private final long maxSize;
+    private long count;
+    private boolean closed;
+
+    public SizeLimitedInputStream(InputStream in, long maxSize) {
+        super(in);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read != -1) {
+            count(1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            ConsulMetrics.responseRead(count);
+        }
+        super.close();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void count(long read) throws IOException {
+        count += read;
+        if (maxSize > 0 && count > maxSize) {
+            ConsulMetrics.responseRejected();
+            throw new ResponseTooLargeException(maxSize);
+        }
+    }
+
+    /**
+     * Thrown when a response exceeds the configured maximum response size.
+     */
+    public static class ResponseTooLargeException extends IOException {
+        private static final long serialVersionUID = 4518331239624107851L;
+
+        public ResponseTooLargeException(long maxSize) {
+            super(String.format("Consul response exceeded the maximum response size of %d bytes.", maxSize));
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.jenkinsci.plugins.consulkv.common.ValueFormat;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Flattens structured K/V values (JSON, YAML or properties) into ENV variables named
+ * <code>PREFIX_PATH_TO_FIELD</code>, one per scalar field.  JSON and YAML are read token by token, subtrees outside
+ * the selection are skipped without being parsed into objects.
+ * <p>
+ * Selections use a JSONPath subset: <code>$.database.hosts[0]</code>, <code>$['dotted.name']</code>, and
+ * <code>*</code> to match any field or index.
+ * <p>
+ * Values can also be flattened into K/V keys named <code>prefix/path/to/field</code>, see
+ * {@link #flattenKeys(Reader, ValueFormat, String)}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ValueFlattener {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final YAMLFactory YAML_FACTORY = new YAMLFactory();
+    private static final String WILDCARD = "*";
+    private static final char SEPARATOR = '_';
+    private static final char KEY_SEPARATOR = '/';
+
+    private ValueFlattener() {
+
+    }
+
+    /**
+     * @param value  decoded value
+     * @param format format of the value, TEXT is stored as is under the prefix
+     * @param prefix ENV variable prefix
+     * @param select optional selection of the subtree to flatten, e.g. <code>$.service.db</code>
+     * @return ENV variables, in document order
+     * @throws IOException         when the value cannot be parsed
+     * @throws ValidationException when the selection cannot be parsed
+     */
+    public static Map<String, String> flatten(String value, ValueFormat format, String prefix, String select)
+            throws IOException, ValidationException {
+        Target target = new Target(prefix, SEPARATOR, true);
+        List<String> selector = parseSelector(select);
+
+        if (Strings.isBlank(value)) {
+            return target.variables;
+        }
+
+        switch (format) {
+            case JSON:
+                flattenTokens(JSON_FACTORY.createParser(value), selector, target);
+                break;
+            case YAML:
+                flattenTokens(YAML_FACTORY.createParser(value), selector, target);
+                break;
+            case PROPERTIES:
+                flattenProperties(new StringReader(value), selector, target);
+                break;
+            default:
+                target.variables.put(Strings.normalizeStoragekey(prefix), value);
+        }
+
+        return target.variables;
+    }
+
+    /**
+     * Flattens a structured document into K/V pairs, reading it from the reader as it goes.  Property names are
+     * split on dots, so <code>db.host</code> under <code>app</code> becomes <code>app/db/host</code>.
+     *
+     * @param reader document, closed when done
+     * @param format format of the document, TEXT stores the whole document under the prefix
+     * @param prefix key prefix, without trailing slash
+     * @return values by key, in document order
+     * @throws IOException when the document cannot be read or parsed
+     */
+    public static Map<String, String> flattenKeys(Reader reader, ValueFormat format, String prefix) throws
+            IOException {
+        String keyPrefix = Strings.nvl(prefix, "");
+        while (keyPrefix.endsWith(String.valueOf(KEY_SEPARATOR))) {
+            keyPrefix = keyPrefix.substring(0, keyPrefix.length() - 1);
+        }
+
+        Target target = new Target(keyPrefix, KEY_SEPARATOR, false);
+        List<String> selector = new ArrayList<String>();
+
+        try {
+            switch (format) {
+                case JSON:
+                    flattenTokens(JSON_FACTORY.createParser(reader), selector, target);
+                    break;
+                case YAML:
+                    flattenTokens(YAML_FACTORY.createParser(reader), selector, target);
+                    break;
+                case PROPERTIES:
+                    flattenProperties(reader, selector, target);
+                    break;
+                default:
+                    StringBuilder builder = new StringBuilder();
+                    char[] buffer = new char[8192];
+                    int read;
+                    while ((read = reader.read(buffer)) != -1) {
+                        builder.append(buffer, 0, read);
+                    }
+                    target.variables.put(keyPrefix, builder.toString());
+            }
+        } finally {
+            reader.close();
+        }
+
+        return target.variables;
+    }
+
+    /**
+     * @param select selection, e.g. <code>$.a.b[0]</code>, blank or <code>$</code> for the whole value
+     * @return path segments, field names and indices
+     * @throws ValidationException on syntax errors
+     */
+    public static List<String> parseSelector(String select) throws ValidationException {
+        List<String> segments = new ArrayList<String>();
+
+        if (Strings.isBlank(select)) {
+            return segments;
+        }
+
+        String path = select.trim();
+        int i = path.startsWith("$") ? 1 : 0;
+
+        //A leading name without a dot, e.g. "a.b"
+        if (i == 0 && path.charAt(0) != '.' && path.charAt(0) != '[') {
+            path = "." + path;
+        }
+
+        while (i < path.length()) {
+            char c = path.charAt(i);
+
+            if (c == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i + 1) {
+                    throw new ValidationException(String.format("Empty field name in selection %s.", select));
+                }
+                segments.add(path.substring(i + 1, end));
+                i = end;
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end == -1) {
+                    throw new ValidationException(String.format("Unclosed [ in selection %s.", select));
+                }
+                String segment = path.substring(i + 1, end).trim();
+                if (segment.length() >= 2 && (segment.charAt(0) == '\'' || segment.charAt(0) == '"')) {
+                    segment = segment.substring(1, segment.length() - 1);
+                } else if (!WILDCARD.equals(segment) && !segment.matches("\\d+")) {
+                    throw new ValidationException(String.format("Invalid index %s in selection %s.", segment,
+                            select));
+                }
+                segments.add(segment);
+                i = end + 1;
+            } else {
+                throw new ValidationException(String.format("Unexpected '%s' in selection %s.", c, select));
+            }
+        }
+
+        return segments;
+    }
+
+    private static void flattenTokens(JsonParser jsonParser, List<String> selector, Target target) throws
+            IOException {
+        try {
+            if (jsonParser.nextToken() != null) {
+                flattenToken(jsonParser, selector, new ArrayList<String>(), target);
+            }
+        } finally {
+            jsonParser.close();
+        }
+    }
+
+    /*
+     * Flattens the value at the current token, which is at the end of the path.
+     */
+    private static void flattenToken(JsonParser jsonParser, List<String> selector, List<String> path, Target
+            target) throws IOException {
+        JsonToken token = jsonParser.getCurrentToken();
+        int depth = path.size();
+
+        if (token == JsonToken.START_OBJECT) {
+            while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = jsonParser.getCurrentName();
+                jsonParser.nextToken();
+                flattenChild(jsonParser, selector, path, name, target);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                flattenChild(jsonParser, selector, path, String.valueOf(index++), target);
+            }
+        } else if (depth >= selector.size()) {
+            //Scalars above the selection are not part of it
+            target.variables.put(target.name(selector, path), token == JsonToken.VALUE_NULL ? "" : jsonParser
+                    .getText());
+        }
+    }
+
+    private static void flattenChild(JsonParser jsonParser, List<String> selector, List<String> path, String name,
+                                     Target target) throws IOException {
+        int depth = path.size();
+
+        if (depth < selector.size() && !matches(selector.get(depth), name)) {
+            jsonParser.skipChildren();
+            return;
+        }
+
+        path.add(name);
+        flattenToken(jsonParser, selector, path, target);
+        path.remove(depth);
+    }
+
+    private static void flattenProperties(Reader reader, List<String> selector, Target target) throws
+            IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+
+        //Properties do not keep the file order, sort for stable output
+        for (String key : new TreeSet<String>(properties.stringPropertyNames())) {
+            List<String> path = Arrays.asList(key.split("\\."));
+
+            if (path.size() < selector.size()) {
+                continue;
+            }
+
+            boolean selected = true;
+            for (int i = 0; i < selector.size() && selected; i++) {
+                selected = matches(selector.get(i), path.get(i));
+            }
+
+            if (selected) {
+                target.variables.put(target.name(selector, path), properties.getProperty(key));
+            }
+        }
+    }
+
+    private static boolean matches(String segment, String name) {
+        return WILDCARD.equals(segment) || segment.equals(name);
+    }
+
+    /*
+     * Where flattened values go, and how they are named.
+     */
+    private static final class Target {
+        private final String prefix;
+        private final char separator;
+        private final boolean env;
+        private final Map<String, String> variables = new LinkedHashMap<String, String>();
+
+        private Target(String prefix, char separator, boolean env) {
+            this.prefix = prefix;
+            this.separator = separator;
+            this.env = env;
+        }
+
+        /*
+         * The selected part of the path is left out, except for what wildcards matched.
+         */
+        private String name(List<String> selector, List<String> path) {
+            StringBuilder builder = new StringBuilder(Strings.nvl(prefix, ""));
+
+            for (int i = 0; i < path.size(); i++) {
+                if (i >= selector.size() || WILDCARD.equals(selector.get(i))) {
+                    if (builder.length() > 0) {
+                        builder.append(separator);
+                    }
+                    builder.append(path.get(i));
+                }
+            }
+
+            return env ? Strings.normalizeStoragekey(builder.toString()) : builder.toString();
+        }
+    }
+}
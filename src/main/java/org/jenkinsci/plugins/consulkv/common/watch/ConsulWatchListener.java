@@ -0,0 +1,22 @@
+package org.jenkinsci.plugins.consulkv.common.watch;
+
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+
+import java.util.List;
+
+/**
+ * Callback for changes detected by a {@link ConsulWatcher}
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public interface ConsulWatchListener {
+
+    /**
+     * Called from the watcher thread when one or more entries have a new <code>ModifyIndex</code>, or were removed.
+     *
+     * @param changed entries whose <code>ModifyIndex</code> changed
+     * @param removed keys that no longer exist
+     */
+    void onChange(List<ConsulKVEntry> changed, List<String> removed);
+}
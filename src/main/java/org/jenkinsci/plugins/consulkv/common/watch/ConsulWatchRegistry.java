@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.consulkv.common.watch;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Controller-wide registry of {@link ConsulWatcher}s, so that every listener of the same key/prefix shares a single
+ * blocking query.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulWatchRegistry {
+    private static Logger LOGGER = Logger.getLogger(ConsulWatchRegistry.class.getName());
+
+    private static final Map<String, ConsulWatcher> WATCHERS = new HashMap<String, ConsulWatcher>();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new NamingThreadFactory(new
+            DaemonThreadFactory(), "Consul K/V watcher"));
+
+    private ConsulWatchRegistry() {
+
+    }
+
+    public static synchronized void subscribe(String url, String aclToken, boolean recurse, int timeoutConnect,
+                                              ConsulWatchListener listener) {
+        String watchKey = watchKey(url, aclToken, recurse);
+        ConsulWatcher watcher = WATCHERS.get(watchKey);
+
+        if (watcher == null) {
+            watcher = new ConsulWatcher(url, aclToken, recurse, timeoutConnect);
+            WATCHERS.put(watchKey, watcher);
+            EXECUTOR.execute(watcher);
+            LOGGER.fine(String.format("Started Consul watch on %s", url));
+        }
+
+        watcher.addListener(listener);
+    }
+
+    public static synchronized void unsubscribe(ConsulWatchListener listener) {
+        Iterator<ConsulWatcher> iterator = WATCHERS.values().iterator();
+
+        while (iterator.hasNext()) {
+            ConsulWatcher watcher = iterator.next();
+            if (watcher.removeListener(listener)) {
+                watcher.stop();
+                iterator.remove();
+                LOGGER.fine(String.format("Stopped Consul watch on %s", watcher.getUrl()));
+            }
+        }
+    }
+
+    public static synchronized int size() {
+        return WATCHERS.size();
+    }
+
+    static synchronized ConsulWatcher get(String url, String aclToken, boolean recurse) {
+        return WATCHERS.get(watchKey(url, aclToken, recurse));
+    }
+
+    private static String watchKey(String url, String aclToken, boolean recurse) {
+        return url + '|' + aclToken + '|' + recurse;
+    }
+}
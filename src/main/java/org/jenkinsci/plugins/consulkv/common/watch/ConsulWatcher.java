@@ -0,0 +1,228 @@
+package org.jenkinsci.plugins.consulkv.common.watch;
+
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-polls a Consul key, or prefix, with blocking queries and notifies its listeners when a
+ * <code>ModifyIndex</code> changes.  One watcher is shared by every listener of the same key/prefix, see
+ * {@link ConsulWatchRegistry}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulWatcher implements Runnable {
+    private static Logger LOGGER = Logger.getLogger(ConsulWatcher.class.getName());
+
+    private final String url;
+    private final String aclToken;
+    private final boolean recurse;
+    private final int timeoutConnect;
+    private final Set<ConsulWatchListener> listeners = new CopyOnWriteArraySet<ConsulWatchListener>();
+    private final Random random = new Random();
+
+    private volatile boolean running = true;
+    private volatile Thread thread;
+    private long index;
+    private int failures;
+    private Map<String, Long> snapshot;
+
+    /**
+     * @param url            host URL, API URI and key, without a query string
+     * @param aclToken       optional ACL token
+     * @param recurse        watch every key under the prefix
+     * @param timeoutConnect connection timeout in milliseconds
+     */
+    public ConsulWatcher(String url, String aclToken, boolean recurse, int timeoutConnect) {
+        this.url = url;
+        this.aclToken = aclToken;
+        this.recurse = recurse;
+        this.timeoutConnect = timeoutConnect;
+    }
+
+    public void addListener(ConsulWatchListener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean removeListener(ConsulWatchListener listener) {
+        listeners.remove(listener);
+        return listeners.isEmpty();
+    }
+
+    /**
+     * Stops the watcher, aborting the blocking query in flight rather than waiting for it to return.
+     */
+    public void stop() {
+        running = false;
+
+        Thread current = thread;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    /*
+     * True while the watch loop runs on a thread.
+     */
+    boolean isWatching() {
+        return thread != null;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            watch();
+        } finally {
+            thread = null;
+            //Pool threads are reused, do not leak the interrupt
+            Thread.interrupted();
+        }
+    }
+
+    private void watch() {
+        while (running) {
+            try {
+                poll();
+                failures = 0;
+            } catch (InterruptedException ie) {
+                return;
+            } catch (ConsulRequestException | ValidationException | IOException e) {
+                failures++;
+                long delay = backoff(failures, random);
+                LOGGER.log(Level.WARNING, String.format("Consul watch on %s failed (%d), retrying in %d ms.", url,
+                        failures, delay), e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void poll() throws ConsulRequestException, ValidationException, IOException, InterruptedException {
+        // Consul adds up to wait/16 of jitter to blocking queries, leave room for it on the socket.
+        int timeoutResponse = (Constants.WATCH_WAIT_SECONDS * 1000) + (Constants.WATCH_WAIT_SECONDS * 1000 / 16) +
+                timeoutConnect;
+
+        ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(buildUrl())
+                .withTimeoutConnect(timeoutConnect).withTimeoutResponse(timeoutResponse)
+                .withRequestMode(RequestMode.READ).withDebugMode(DebugMode.DISABLED).withBlockingQuery(true)
+                .withLogger(TaskListener.NULL.getLogger()).build();
+
+        ConsulResponse response = ConsulRequestUtils.readResponse(consulRequest);
+
+        if (!running) {
+            return;
+        }
+
+        long newIndex = response.getIndex();
+        if (snapshot != null && newIndex == index) {
+            //Wait elapsed without changes
+            return;
+        }
+
+        //Reset when the index goes backwards, e.g. after a snapshot restore
+        index = (newIndex < index || newIndex < 0) ? 0 : newIndex;
+
+        List<ConsulKVEntry> entries = ConsulRequestUtils.parseEntries(response.getBody());
+        Map<String, Long> current = new HashMap<String, Long>();
+        List<ConsulKVEntry> changed = new ArrayList<ConsulKVEntry>();
+
+        for (ConsulKVEntry entry : entries) {
+            current.put(entry.getKey(), entry.getModifyIndex());
+            Long previous = (snapshot == null) ? null : snapshot.get(entry.getKey());
+            if (previous == null || previous != entry.getModifyIndex()) {
+                changed.add(entry);
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+        if (snapshot != null) {
+            for (String key : snapshot.keySet()) {
+                if (!current.containsKey(key)) {
+                    removed.add(key);
+                }
+            }
+        }
+
+        boolean baseline = (snapshot == null);
+        snapshot = current;
+
+        if (baseline || (changed.isEmpty() && removed.isEmpty())) {
+            return;
+        }
+
+        for (ConsulWatchListener listener : listeners) {
+            try {
+                listener.onChange(changed, removed);
+            } catch (RuntimeException re) {
+                LOGGER.log(Level.WARNING, "Consul watch listener failed.", re);
+            }
+        }
+    }
+
+    private String buildUrl() {
+        StringBuilder builder = new StringBuilder(url);
+        builder.append("?index=").append(index).append("&wait=").append(Constants.WATCH_WAIT_SECONDS).append("s");
+
+        if (recurse) {
+            builder.append("&recurse");
+        }
+
+        if (!Strings.isBlank(aclToken)) {
+            builder.append("&token=").append(aclToken);
+        }
+
+        return builder.toString();
+    }
+
+    /*
+     * Exponential backoff with full jitter.
+     */
+    static long backoff(int failures, Random random) {
+        long ceiling = Constants.WATCH_BACKOFF_MIN << Math.min(failures, 16);
+        ceiling = Math.min(ceiling, Constants.WATCH_BACKOFF_MAX);
+        return Constants.WATCH_BACKOFF_MIN + (long) (random.nextDouble() * (ceiling - Constants.WATCH_BACKOFF_MIN));
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulWatcher{" +
+                "url='" + url + '\'' +
+                ", recurse=" + recurse +
+                ", index=" + index +
+                ", listeners=" + listeners.size() +
+                '}';
+    }
+}
@@ -0,0 +1,182 @@
+package org.jenkinsci.plugins.consulkv.steps;
+
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.GlobalConsulConfig;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.CheckForNull;
+import java.io.PrintStream;
+
+/**
+ * Settings shared by the Consul K/V pipeline steps.  Every setting is optional and falls back to the global Consul
+ * configuration, then to the defaults in {@link Constants}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public abstract class AbstractConsulStep extends AbstractStepImpl {
+    private String hostUrl;
+    private String aclToken;
+    private String apiUri;
+    private int timeoutConnection;
+    private int timeoutResponse;
+    private int timeoutTotal;
+    private DebugMode debugMode;
+
+    public String getHostUrl() {
+        return this.hostUrl;
+    }
+
+    @DataBoundSetter
+    public void setHostUrl(@CheckForNull String hostUrl) {
+        this.hostUrl = hostUrl;
+    }
+
+    public String getAclToken() {
+        return this.aclToken;
+    }
+
+    @DataBoundSetter
+    public void setAclToken(@CheckForNull String aclToken) {
+        this.aclToken = aclToken;
+    }
+
+    public String getApiUri() {
+        return this.apiUri;
+    }
+
+    @DataBoundSetter
+    public void setApiUri(@CheckForNull String apiUri) {
+        this.apiUri = apiUri;
+    }
+
+    public int getTimeoutConnection() {
+        return this.timeoutConnection;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutConnection(int timeoutConnection) {
+        this.timeoutConnection = timeoutConnection;
+    }
+
+    public int getTimeoutResponse() {
+        return this.timeoutResponse;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutResponse(int timeoutResponse) {
+        this.timeoutResponse = timeoutResponse;
+    }
+
+    public int getTimeoutTotal() {
+        return this.timeoutTotal;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutTotal(int timeoutTotal) {
+        this.timeoutTotal = timeoutTotal;
+    }
+
+    public DebugMode getDebugMode() {
+        return this.debugMode;
+    }
+
+    @DataBoundSetter
+    public void setDebugMode(@CheckForNull DebugMode debugMode) {
+        this.debugMode = debugMode;
+    }
+
+    /**
+     * @return deadline of the whole step, shared by its requests
+     */
+    ConsulDeadline deadline() {
+        GlobalConsulConfig.DescriptorImpl global = getGlobalDescriptor();
+        return ConsulDeadline.after((this.timeoutTotal == 0 && global != null) ? global.getConsulTimeoutTotal() :
+                this.timeoutTotal);
+    }
+
+    /**
+     * @param key      key, or prefix
+     * @param query    query parameters without the token, or null
+     * @param value    value written, or null
+     * @param mode     request mode
+     * @param deadline deadline of the step
+     * @param logger   build log
+     * @return request to the K/V endpoint
+     * @throws ValidationException when no host URL is configured
+     */
+    ConsulRequest request(String key, String query, String value, RequestMode mode, ConsulDeadline deadline,
+                          PrintStream logger) throws ValidationException {
+        GlobalConsulConfig.DescriptorImpl global = getGlobalDescriptor();
+
+        String host = this.hostUrl;
+        String token = this.aclToken;
+        String api = this.apiUri;
+        int timeoutConn = this.timeoutConnection;
+        int timeoutResp = this.timeoutResponse;
+        DebugMode debug = this.debugMode;
+
+        if (global != null) {
+            host = Strings.isEmpty(host) ? global.getConsulHostUrl() : host;
+            token = Strings.isEmpty(token) ? global.getConsulAclToken() : token;
+            api = Strings.isEmpty(api) ? global.getConsulApiUri() : api;
+            timeoutConn = (timeoutConn == 0) ? global.getConsulTimeoutConnection() : timeoutConn;
+            timeoutResp = (timeoutResp == 0) ? global.getConsulTimeoutResponse() : timeoutResp;
+            debug = (debug == null) ? global.getConsulDebugMode() : debug;
+        }
+
+        if (Strings.isEmpty(host)) {
+            throw new ValidationException("No Consul host URL was set on the step nor in the global settings.");
+        }
+
+        StringBuilder url = new StringBuilder(host).append(Strings.isEmpty(api) ? Constants.API_URI : api).append
+                (key);
+        char separator = '?';
+
+        if (query != null) {
+            url.append(separator).append(query);
+            separator = '&';
+        }
+        if (!Strings.isEmpty(token)) {
+            url.append(separator).append("token=").append(token);
+        }
+
+        return ConsulRequestFactory.request().withUrl(url.toString()).withValue(value).withTimeoutConnect(
+                (timeoutConn == 0) ? Constants.TIMEOUT_CONNECTION : timeoutConn).withTimeoutResponse((timeoutResp ==
+                0) ? Constants.TIMEOUT_RESPONSE : timeoutResp).withDeadline(deadline).withDebugMode((debug == null) ?
+                DebugMode.DISABLED : debug).withRequestMode(mode).withLogger(logger).build();
+    }
+
+    private static GlobalConsulConfig.DescriptorImpl getGlobalDescriptor() {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        return (jenkins == null) ? null : (GlobalConsulConfig.DescriptorImpl) jenkins.getDescriptor
+                (GlobalConsulConfig.class);
+    }
+
+    /**
+     * Descriptor shared by the Consul K/V pipeline steps.
+     */
+    public abstract static class AbstractConsulStepDescriptor extends AbstractStepDescriptorImpl {
+
+        protected AbstractConsulStepDescriptor(Class<? extends StepExecution> executionType) {
+            super(executionType);
+        }
+
+        public ListBoxModel doFillDebugModeItems() {
+            return DebugMode.getFillItems();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.consulkv.steps;
+
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Asynchronous execution of a Consul K/V pipeline step.  {@link #begin()} sends the requests and returns; the
+ * callbacks complete the step, so no thread is held while Consul answers.  The requests do not survive a restart, a
+ * step resumed after one fails.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public abstract class AbstractConsulStepExecution extends AbstractStepExecutionImpl {
+    private static final long serialVersionUID = 1L;
+
+    @StepContextParameter
+    protected transient TaskListener listener;
+
+    private transient List<Future<?>> requests;
+    private transient AtomicBoolean done;
+
+    @Override
+    public final boolean start() throws Exception {
+        this.requests = new CopyOnWriteArrayList<Future<?>>();
+        this.done = new AtomicBoolean();
+
+        try {
+            this.begin();
+        } catch (Exception e) {
+            //Some requests may already be running
+            this.fail(e);
+        }
+        return false;
+    }
+
+    /**
+     * Sends the requests, registering them with {@link #track(Future)}.
+     *
+     * @throws Exception fails the step
+     */
+    protected abstract void begin() throws Exception;
+
+    /**
+     * @param request handle of a request, cancelled when the step is stopped or fails
+     */
+    protected void track(Future<?> request) {
+        if (request != null) {
+            this.requests.add(request);
+            if (this.done.get()) {
+                request.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Completes the step, once.
+     *
+     * @param result value returned to the pipeline
+     */
+    protected void succeed(Object result) {
+        if (this.done.compareAndSet(false, true)) {
+            getContext().onSuccess(result);
+        }
+    }
+
+    /**
+     * Fails the step, once, and cancels its other requests.
+     *
+     * @param cause failure
+     */
+    protected void fail(Throwable cause) {
+        if (this.done == null) {
+            //Resumed after a restart, nothing is running
+            getContext().onFailure(cause);
+        } else if (this.done.compareAndSet(false, true)) {
+            this.cancelRequests();
+            getContext().onFailure(cause);
+        }
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        this.fail(cause);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        getContext().onFailure(new IOException("Jenkins restarted while the Consul request was running."));
+    }
+
+    private void cancelRequests() {
+        for (Future<?> request : this.requests) {
+            request.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.consulkv.steps;
+
+import com.google.inject.Inject;
+import hudson.Extension;
+import org.apache.http.concurrent.FutureCallback;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulAsyncRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * <code>consulKVDelete</code> pipeline step: deletes a key, or a whole prefix with <code>recurse: true</code>, and
+ * returns true once Consul accepted it.
+ *
+ * <pre>
+ * consulKVDelete key: 'app/feature-branch/', recurse: true
+ * </pre>
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVDeleteStep extends AbstractConsulStep {
+    private final String key;
+    private boolean recurse;
+
+    @DataBoundConstructor
+    public ConsulKVDeleteStep(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public boolean isRecurse() {
+        return this.recurse;
+    }
+
+    @DataBoundSetter
+    public void setRecurse(boolean recurse) {
+        this.recurse = recurse;
+    }
+
+    public static class Execution extends AbstractConsulStepExecution {
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient ConsulKVDeleteStep step;
+
+        @Override
+        protected void begin() throws Exception {
+            if (Strings.isBlank(step.getKey())) {
+                throw new ConsulRequestException("Key is required.");
+            }
+
+            track(ConsulAsyncRequestUtils.delete(step.request(step.getKey(), step.isRecurse() ? "recurse" : null,
+                    null, RequestMode.DELETE, step.deadline(), listener.getLogger()), new FutureCallback<String>() {
+                @Override
+                public void completed(String response) {
+                    succeed("true".equals(Strings.nvl(response, "").trim()));
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    fail(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    fail(new ConsulRequestException(String.format("Delete of %s was cancelled.", step.getKey())));
+                }
+            }));
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractConsulStepDescriptor {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "consulKVDelete";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Delete Consul K/V pairs";
+        }
+    }
+}
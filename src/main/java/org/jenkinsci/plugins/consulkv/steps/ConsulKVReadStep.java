@@ -0,0 +1,142 @@
+package org.jenkinsci.plugins.consulkv.steps;
+
+import com.google.inject.Inject;
+import hudson.Extension;
+import org.apache.http.concurrent.FutureCallback;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulAsyncRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>consulKVRead</code> pipeline step: reads keys concurrently and returns their values by key, null for a
+ * missing key.
+ *
+ * <pre>
+ * def values = consulKVRead keys: ['app/db/host', 'app/db/port']
+ * </pre>
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVReadStep extends AbstractConsulStep {
+    private final List<String> keys;
+    private boolean failOnMissing;
+
+    @DataBoundConstructor
+    public ConsulKVReadStep(List<String> keys) {
+        this.keys = (keys == null) ? Collections.<String>emptyList() : new ArrayList<String>(new
+                LinkedHashSet<String>(keys));
+    }
+
+    public List<String> getKeys() {
+        return this.keys;
+    }
+
+    public boolean isFailOnMissing() {
+        return this.failOnMissing;
+    }
+
+    @DataBoundSetter
+    public void setFailOnMissing(boolean failOnMissing) {
+        this.failOnMissing = failOnMissing;
+    }
+
+    /**
+     * Sends every read at once, the last callback returns the map.
+     */
+    public static class Execution extends AbstractConsulStepExecution {
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient ConsulKVReadStep step;
+
+        @Override
+        protected void begin() throws Exception {
+            final List<String> keys = step.getKeys();
+
+            if (keys.isEmpty()) {
+                succeed(new LinkedHashMap<String, String>());
+                return;
+            }
+
+            //Values may be null, the map holds them wrapped
+            final Map<String, String[]> values = new ConcurrentHashMap<String, String[]>();
+            final AtomicInteger pending = new AtomicInteger(keys.size());
+            ConsulDeadline deadline = step.deadline();
+
+            for (final String key : keys) {
+                track(ConsulAsyncRequestUtils.readResponse(step.request(key, null, null, RequestMode.READ, deadline,
+                        listener.getLogger()), new FutureCallback<ConsulResponse>() {
+                    @Override
+                    public void completed(ConsulResponse response) {
+                        try {
+                            List<ConsulKVEntry> entries = ConsulRequestUtils.parseEntries(response.getBody());
+
+                            if (entries.isEmpty() && step.isFailOnMissing()) {
+                                fail(new ConsulRequestException(String.format("Key %s was not found.", key)));
+                                return;
+                            }
+
+                            values.put(key, new String[]{entries.isEmpty() ? null : entries.get(0).getValue()});
+                        } catch (IOException ioe) {
+                            fail(ioe);
+                            return;
+                        }
+
+                        if (pending.decrementAndGet() == 0) {
+                            LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+                            for (String key : keys) {
+                                result.put(key, values.get(key)[0]);
+                            }
+                            succeed(result);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        fail(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        fail(new ConsulRequestException(String.format("Read of %s was cancelled.", key)));
+                    }
+                }));
+            }
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractConsulStepDescriptor {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "consulKVRead";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Read Consul K/V pairs";
+        }
+    }
+}
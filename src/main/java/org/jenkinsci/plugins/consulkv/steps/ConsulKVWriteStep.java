@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.consulkv.steps;
+
+import com.google.inject.Inject;
+import hudson.Extension;
+import org.apache.http.concurrent.FutureCallback;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulAsyncRequestUtils;
+import org.jenkinsci.plugins.consulkv.common.utils.Strings;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * <code>consulKVWrite</code> pipeline step: writes a value and returns true once Consul accepted it.
+ *
+ * <pre>
+ * consulKVWrite key: 'app/version', value: env.BUILD_NUMBER
+ * </pre>
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVWriteStep extends AbstractConsulStep {
+    private final String key;
+    private final String value;
+
+    @DataBoundConstructor
+    public ConsulKVWriteStep(String key, String value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public static class Execution extends AbstractConsulStepExecution {
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient ConsulKVWriteStep step;
+
+        @Override
+        protected void begin() throws Exception {
+            if (Strings.isBlank(step.getKey())) {
+                throw new ConsulRequestException("Key is required.");
+            }
+
+            track(ConsulAsyncRequestUtils.write(step.request(step.getKey(), null, Strings.nvl(step.getValue(), ""),
+                    RequestMode.WRITE, step.deadline(), listener.getLogger()), new FutureCallback<String>() {
+                @Override
+                public void completed(String response) {
+                    succeed("true".equals(Strings.nvl(response, "").trim()));
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    fail(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    fail(new ConsulRequestException(String.format("Write of %s was cancelled.", step.getKey())));
+                }
+            }));
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractConsulStepDescriptor {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "consulKVWrite";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Write a Consul K/V pair";
+        }
+    }
+}
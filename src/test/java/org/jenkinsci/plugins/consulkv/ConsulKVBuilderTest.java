@@ -6,6 +6,7 @@ import org.apache.commons.io.FileUtils;
 import org.jenkinsci.plugins.consulkv.common.DebugMode;
 import org.jenkinsci.plugins.consulkv.common.RequestMode;
 import org.jenkinsci.plugins.consulkv.common.exceptions.BuilderException;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -14,7 +15,9 @@ import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * This test uses the Jenkins test harness and requires a Consul server be reachable and for the correct ACL entries
@@ -103,4 +106,16 @@ public class ConsulKVBuilderTest {
             throw new BuilderException(ConsulKVBuilderTest.EXECUTION_EXCEPTION_TEXT, ee);
         }
     }
+
+    @Test
+    public void binaryFileRejectedUnlessChunked() throws Exception {
+        assertEquals("caf\u00e9", ConsulKVBuilder.toText("caf\u00e9".getBytes("UTF-8"), "value.txt"));
+
+        try {
+            ConsulKVBuilder.toText(new byte[]{(byte) 0x30, (byte) 0x82, (byte) 0xff, (byte) 0xfe}, "keystore.jks");
+            fail("Expected ValidationException");
+        } catch (ValidationException ve) {
+            assertEquals("keystore.jks is not UTF-8 text, enable chunked to write binary files.", ve.getMessage());
+        }
+    }
 }
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.consulkv;
+
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConsulKVPrefetcher}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVPrefetcherTest {
+
+    private static final String URL = "http://consul:8500/v1/kv/a?dc=dc2";
+
+    @Test
+    public void consume() throws Exception {
+        ConsulKVPrefetcher.prefetch(1L, URL, 5000, value("value"));
+
+        assertEquals("value", ConsulKVPrefetcher.consume(1L, URL, null, 60000L));
+        assertFalse(ConsulKVPrefetcher.isPrefetched(1L));
+        assertNull(ConsulKVPrefetcher.consume(1L, URL, null, 60000L));
+    }
+
+    @Test
+    public void otherUrl() throws Exception {
+        ConsulKVPrefetcher.prefetch(2L, URL, 5000, value("value"));
+
+        assertNull(ConsulKVPrefetcher.consume(2L, "http://consul:8500/v1/kv/a", null, 60000L));
+        ConsulKVPrefetcher.discard(2L);
+    }
+
+    @Test
+    public void stale() throws Exception {
+        ConsulKVPrefetcher.prefetch(3L, URL, 5000, value("value"));
+        Thread.sleep(100L);
+
+        assertNull(ConsulKVPrefetcher.consume(3L, URL, null, 50L));
+    }
+
+    @Test
+    public void waitLimitedByDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ConsulKVPrefetcher.prefetch(4L, URL, 10000, blocked(release));
+        long started = System.currentTimeMillis();
+
+        try {
+            assertNull(ConsulKVPrefetcher.consume(4L, URL, ConsulDeadline.after(100L), 60000L));
+            assertTrue(System.currentTimeMillis() - started < 5000L);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void discardCancelsInFlight() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        ConsulKVPrefetcher.prefetch(5L, URL, 10000, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    interrupted.countDown();
+                    throw ie;
+                }
+                return "value";
+            }
+        });
+        assertTrue(ConsulKVPrefetcher.isPrefetched(5L));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        ConsulKVPrefetcher.discard(5L);
+
+        assertFalse(ConsulKVPrefetcher.isPrefetched(5L));
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    private static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    private static Callable<String> blocked(final CountDownLatch release) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                release.await(10, TimeUnit.SECONDS);
+                return "value";
+            }
+        };
+    }
+}
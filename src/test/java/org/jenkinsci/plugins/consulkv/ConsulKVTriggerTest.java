@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.consulkv;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import hudson.model.FreeStyleProject;
+import org.jenkinsci.plugins.consulkv.common.watch.ConsulWatchRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ConsulKVTrigger}, the watches served by a local HTTP server standing in for Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulKVTriggerTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private ExecutorService executor;
+    private HttpServer server;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                //A blocking query without changes
+                try {
+                    Thread.sleep(10000L);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void triggersShareOneWatch() throws Exception {
+        FreeStyleProject first = jenkinsRule.createFreeStyleProject();
+        FreeStyleProject second = jenkinsRule.createFreeStyleProject();
+        ConsulKVTrigger firstTrigger = trigger("app/config");
+        ConsulKVTrigger secondTrigger = trigger("app/config");
+        ConsulKVTrigger otherTrigger = trigger("app/other");
+        int watchers = ConsulWatchRegistry.size();
+
+        firstTrigger.start(first, true);
+        secondTrigger.start(second, true);
+        assertEquals(watchers + 1, ConsulWatchRegistry.size());
+
+        otherTrigger.start(second, true);
+        assertEquals(watchers + 2, ConsulWatchRegistry.size());
+
+        firstTrigger.stop();
+        assertEquals(watchers + 2, ConsulWatchRegistry.size());
+
+        secondTrigger.stop();
+        otherTrigger.stop();
+        assertEquals(watchers, ConsulWatchRegistry.size());
+    }
+
+    private ConsulKVTrigger trigger(String key) {
+        ConsulKVTrigger trigger = new ConsulKVTrigger(host, key);
+        trigger.setIgnoreGlobalSettings(true);
+        trigger.setTimeoutConnection(5000);
+        return trigger;
+    }
+}
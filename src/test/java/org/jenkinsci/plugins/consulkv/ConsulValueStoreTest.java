@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.consulkv;
+
+import com.google.api.client.util.Base64;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ConsulValueStore}.  The Jenkins test harness provides the store's directory and the secret
+ * key of encrypted values; a local HTTP server stands in for Consul, answering with the status in the key's name.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulValueStoreTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private HttpServer server;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                exchange.sendResponseHeaders(Integer.parseInt(path.substring(path.lastIndexOf('/') + 1)), -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void staleAgeLimit() throws IOException {
+        String keyUrl = host + "/v1/kv/stale";
+        long twoHoursAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        File file = ConsulValueStore.getFile();
+        file.getParentFile().mkdirs();
+        FileUtils.writeStringToFile(file, twoHoursAgo + "\tP\t" + Base64.encodeBase64URLSafeString(keyUrl.getBytes
+                ("UTF-8")) + "\t" + Base64.encodeBase64URLSafeString("old".getBytes("UTF-8")) + "\n", "UTF-8", true);
+        ConsulValueStore.load();
+
+        assertNull(ConsulValueStore.get(keyUrl, null, 3600, System.out));
+        assertEquals("old", ConsulValueStore.get(keyUrl, null, 3 * 3600, System.out));
+        assertEquals("old", ConsulValueStore.get(keyUrl, null, 0, System.out));
+    }
+
+    @Test
+    public void encryptedRecordReloads() throws IOException {
+        String keyUrl = host + "/v1/kv/secret";
+        ConsulValueStore.put(keyUrl, "token-a", "secret-value");
+
+        String log = FileUtils.readFileToString(ConsulValueStore.getFile(), "UTF-8");
+        assertFalse(log.contains("secret-value"));
+        assertFalse(log.contains("token-a"));
+
+        ConsulValueStore.clear();
+        ConsulValueStore.load();
+
+        assertEquals("secret-value", ConsulValueStore.get(keyUrl, "token-a", 0, System.out));
+        assertNull(ConsulValueStore.get(keyUrl, "token-b", 0, System.out));
+        assertNull(ConsulValueStore.get(keyUrl, null, 0, System.out));
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        String keyUrl = host + "/v1/kv/compacted";
+        int writes = 1500;
+
+        for (int i = 0; i < writes; i++) {
+            ConsulValueStore.put(keyUrl, null, "value-" + i);
+        }
+
+        List<String> lines = FileUtils.readLines(ConsulValueStore.getFile(), "UTF-8");
+        assertTrue(lines.size() < writes);
+
+        ConsulValueStore.clear();
+        ConsulValueStore.load();
+        assertEquals("value-" + (writes - 1), ConsulValueStore.get(keyUrl, null, 0, System.out));
+    }
+
+    @Test
+    public void noFallbackOnForbidden() throws Exception {
+        assertNoFallback(host + "/v1/kv/403");
+    }
+
+    @Test
+    public void noFallbackOnNotFound() throws Exception {
+        assertNoFallback(host + "/v1/kv/404");
+    }
+
+    @Test
+    public void fallbackOnServerError() throws Exception {
+        String keyUrl = host + "/v1/kv/500";
+        ConsulValueStore.put(keyUrl, "token", "last-known-good");
+
+        assertEquals("last-known-good", ConsulValueStore.read(request(keyUrl), keyUrl, "token", 0, 0, System.out));
+    }
+
+    @Test
+    public void fallbackOnlyWithSameToken() throws Exception {
+        String keyUrl = host + "/v1/kv/503";
+        ConsulValueStore.put(keyUrl, "token-a", "last-known-good");
+
+        try {
+            ConsulValueStore.read(request(keyUrl), keyUrl, "token-b", 0, 0, System.out);
+            fail("Served a value read with another token.");
+        } catch (ConsulRequestException cre) {
+            //Expected
+        }
+    }
+
+    private void assertNoFallback(String keyUrl) throws Exception {
+        ConsulValueStore.put(keyUrl, "token", "last-known-good");
+
+        try {
+            ConsulValueStore.read(request(keyUrl), keyUrl, "token", 0, 0, System.out);
+            fail("Served the last-known-good value for an answer from Consul.");
+        } catch (ConsulRequestException cre) {
+            //Expected
+        }
+    }
+
+    private static ConsulRequest request(String url) throws Exception {
+        return ConsulRequestFactory.request().withUrl(url).withTimeoutConnect(5000).withTimeoutResponse(5000)
+                .withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.READ).withLogger(System.out).build();
+    }
+}
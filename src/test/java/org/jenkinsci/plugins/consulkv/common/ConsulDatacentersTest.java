@@ -0,0 +1,168 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.HttpResponseException;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ConsulDatacenters}, the datacenter ranking served by a local HTTP server standing in for
+ * Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulDatacentersTest {
+
+    private HttpServer server;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(Constants.DATACENTERS_URI, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "[\"dc2\",\"dc1\",\"dc3\"]".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void url() {
+        assertEquals("http://consul/v1/kv/a?dc=dc1", ConsulDatacenters.url("http://consul/v1/kv/a", "dc1"));
+        assertEquals("http://consul/v1/kv/a?token=t&dc=us%20east", ConsulDatacenters.url
+                ("http://consul/v1/kv/a?token=t", " us east "));
+        assertEquals("http://consul/v1/kv/a", ConsulDatacenters.url("http://consul/v1/kv/a", ""));
+        assertEquals("http://consul/v1/kv/a", ConsulDatacenters.url("http://consul/v1/kv/a", "Nearest"));
+    }
+
+    @Test
+    public void isNearest() {
+        assertTrue(ConsulDatacenters.isNearest(" nearest"));
+        assertFalse(ConsulDatacenters.isNearest("dc1"));
+        assertFalse(ConsulDatacenters.isNearest(null));
+    }
+
+    @Test
+    public void parse() throws Exception {
+        assertEquals(Arrays.asList("dc2", "dc1"), ConsulDatacenters.parse("[\"dc2\",\"dc1\"]"));
+    }
+
+    @Test(expected = IOException.class)
+    public void parseInvalid() throws Exception {
+        ConsulDatacenters.parse("{\"dc\":\"dc1\"}");
+    }
+
+    @Test
+    public void nearest() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+
+        String value = ConsulDatacenters.read(request(), "nearest", new ConsulDatacenters.Reader<String>() {
+            @Override
+            public String read(ConsulRequest consulRequest) {
+                urls.add(consulRequest.getUrl());
+                return "value";
+            }
+        });
+
+        assertEquals("value", value);
+        assertEquals(Arrays.asList(host + "/v1/kv/a?dc=dc2"), urls);
+    }
+
+    @Test
+    public void fallback() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+        ConsulDatacenters.Reader<String> reader = new ConsulDatacenters.Reader<String>() {
+            @Override
+            public String read(ConsulRequest consulRequest) throws ConsulRequestException {
+                urls.add(consulRequest.getUrl());
+                if (consulRequest.getUrl().endsWith("dc=dc2")) {
+                    throw new ConsulRequestException("Consul Request Failed.");
+                }
+                return "value";
+            }
+        };
+
+        assertEquals("value", ConsulDatacenters.read(request(), "nearest", reader));
+        assertEquals(Arrays.asList(host + "/v1/kv/a?dc=dc2", host + "/v1/kv/a?dc=dc1"), urls);
+
+        //dc2 cools down behind the others
+        assertEquals(Arrays.asList("dc1", "dc3", "dc2"), ConsulDatacenters.of(host).route(request()));
+    }
+
+    @Test
+    public void answered() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+        ConsulDatacenters.Reader<String> reader = new ConsulDatacenters.Reader<String>() {
+            @Override
+            public String read(ConsulRequest consulRequest) throws ConsulRequestException {
+                urls.add(consulRequest.getUrl());
+                throw new ConsulRequestException("Consul Request Failed.", new HttpResponseException(403,
+                        "Forbidden"));
+            }
+        };
+
+        try {
+            ConsulDatacenters.read(request(), "nearest", reader);
+            fail("A 403 answer should not be routed to other datacenters.");
+        } catch (ConsulRequestException cre) {
+            assertTrue(cre.getCause() instanceof HttpResponseException);
+        }
+
+        assertEquals(Arrays.asList(host + "/v1/kv/a?dc=dc2"), urls);
+        //dc2 answered, it is not cooling down
+        assertEquals(Arrays.asList("dc2", "dc1", "dc3"), ConsulDatacenters.of(host).route(request()));
+    }
+
+    @Test
+    public void explicit() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+
+        ConsulDatacenters.read(request(), "dc1", new ConsulDatacenters.Reader<String>() {
+            @Override
+            public String read(ConsulRequest consulRequest) {
+                urls.add(consulRequest.getUrl());
+                return "value";
+            }
+        });
+
+        assertEquals(Arrays.asList(host + "/v1/kv/a"), urls);
+    }
+
+    private ConsulRequest request() throws Exception {
+        return ConsulRequestFactory.request().withUrl(host + "/v1/kv/a").withTimeoutConnect(5000)
+                .withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.READ)
+                .withLogger(System.out).build();
+    }
+}
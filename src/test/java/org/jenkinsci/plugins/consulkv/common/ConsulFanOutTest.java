@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ConsulFanOut}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulFanOutTest {
+
+    @Test
+    public void parse() {
+        assertEquals(Arrays.asList("dc1", "dc2", "dc3"), ConsulFanOut.parse(" dc1, dc2 dc3,,dc1 "));
+        assertTrue(ConsulFanOut.parse(null).isEmpty());
+    }
+
+    @Test
+    public void quorum() {
+        assertEquals(4, ConsulFanOut.quorum(0, 4));
+        assertEquals(3, ConsulFanOut.quorum(3, 4));
+        assertEquals(4, ConsulFanOut.quorum(5, 4));
+    }
+
+    @Test
+    public void quorumReached() throws Exception {
+        final CountDownLatch straggler = new CountDownLatch(1);
+        ConsulFanOutAction results = new ConsulFanOutAction();
+
+        int succeeded = ConsulFanOut.write(results, null, "WRITE a", Arrays.asList("dc1", "dc2", "dc3"), 2,
+                request(), new ConsulFanOut.Writer<String>() {
+                    @Override
+                    public String write(ConsulRequest consulRequest) throws InterruptedException {
+                        if (consulRequest.getUrl().endsWith("dc=dc3")) {
+                            straggler.await(10, TimeUnit.SECONDS);
+                        }
+                        return "true";
+                    }
+                });
+
+        assertEquals(2, succeeded);
+        assertEquals(ConsulFanOutAction.PENDING, results.getRecords().get(2).getState());
+
+        straggler.countDown();
+        for (int i = 0; i < 500 && !ConsulFanOutAction.SUCCEEDED.equals(results.getRecords().get(2).getState());
+             i++) {
+            Thread.sleep(10L);
+        }
+        assertEquals(ConsulFanOutAction.SUCCEEDED, results.getRecords().get(2).getState());
+    }
+
+    @Test
+    public void quorumFailed() throws Exception {
+        ConsulFanOutAction results = new ConsulFanOutAction();
+
+        try {
+            ConsulFanOut.write(results, null, "WRITE a", Arrays.asList("dc1", "dc2"), 0, request(), new
+                    ConsulFanOut.Writer<String>() {
+                        @Override
+                        public String write(ConsulRequest consulRequest) throws ConsulRequestException {
+                            if (consulRequest.getUrl().endsWith("dc=dc2")) {
+                                throw new ConsulRequestException("Consul Request Failed.");
+                            }
+                            return "true";
+                        }
+                    });
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertTrue(cre.getMessage(), cre.getMessage().contains("cannot be reached"));
+        }
+
+        List<ConsulFanOutAction.Record> records = results.getRecords();
+        assertEquals(ConsulFanOutAction.FAILED, records.get(1).getState());
+        assertEquals(Constants.FANOUT_RETRIES + 1, records.get(1).getAttempts());
+    }
+
+    private ConsulRequest request() throws Exception {
+        return ConsulRequestFactory.request().withUrl("http://127.0.0.1:8500/v1/kv/a").withValue("value")
+                .withTimeoutConnect(5000).withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED)
+                .withRequestMode(RequestMode.WRITE).withLogger(System.out).build();
+    }
+}
@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link ConsulFlightRecorder}.  No recording runs during the tests, so events are not recorded.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulFlightRecorderTest {
+
+    @Test
+    public void pathDropsQueryString() {
+        assertEquals("/v1/kv/app/x", ConsulFlightRecorder.path("http://consul:8500/v1/kv/app/x?token=secret&dc=dc1"));
+        assertEquals("/v1/kv/app/x", ConsulFlightRecorder.path("https://consul/v1/kv/app/x"));
+    }
+
+    @Test
+    public void pathOfUnparsableUrl() {
+        assertEquals("/v1/kv/a b", ConsulFlightRecorder.path("http://consul:8500/v1/kv/a b?token=s e"));
+        assertEquals("", ConsulFlightRecorder.path("http://consul:8500"));
+        assertEquals("", ConsulFlightRecorder.path(null));
+    }
+
+    @Test
+    public void notRecording() {
+        if (ConsulFlightRecorder.isEnabled()) {
+            return;
+        }
+
+        ConsulFlightRecorder.Recording recording = ConsulFlightRecorder.begin("GET", "http://consul:8500/v1/kv/a");
+        assertSame(ConsulFlightRecorder.NONE, recording);
+
+        recording.status(200);
+        recording.retry();
+        recording.end();
+        ConsulFlightRecorder.cached("GET", "http://consul:8500/v1/kv/a", ConsulFlightRecorder.CACHE_MEMO, "value");
+    }
+}
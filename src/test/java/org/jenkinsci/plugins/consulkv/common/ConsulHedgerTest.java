@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConsulHedger}, no Consul server required.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulHedgerTest {
+
+    @After
+    public void reset() {
+        ConsulHedger.configure(Constants.HEDGE_PERCENT, null);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertNull(ConsulHedger.get("http://disabled:8500/v1/kv/a"));
+    }
+
+    @Test
+    public void thresholdNeedsSamples() {
+        ConsulHedger.configure(10, null);
+        ConsulHedger hedger = ConsulHedger.get("http://threshold:8500/v1/kv/a");
+
+        assertEquals(-1, hedger.started());
+        for (int i = 1; i <= 128; i++) {
+            hedger.record(i);
+        }
+        assertEquals(123, hedger.started());
+    }
+
+    @Test
+    public void hedgesAreCapped() {
+        ConsulHedger.configure(10, null);
+        ConsulHedger hedger = ConsulHedger.get("http://capped:8500/v1/kv/a");
+
+        for (int i = 0; i < 20; i++) {
+            hedger.started();
+        }
+
+        assertTrue(hedger.tryHedge());
+        assertTrue(hedger.tryHedge());
+        assertFalse(hedger.tryHedge());
+    }
+
+    @Test
+    public void hedgeUrl() {
+        ConsulHedger.configure(10, "http://hedge-a:8500, http://hedge-b:8500/");
+        ConsulHedger hedger = ConsulHedger.get("http://hedge-a:8500/v1/kv/a");
+
+        assertEquals("http://hedge-b:8500/v1/kv/a?token=t", hedger.hedgeUrl("http://hedge-a:8500/v1/kv/a?token=t"));
+    }
+}
@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ConsulInFlight}, cancelling requests sent to a local HTTP server standing in for Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulInFlightTest {
+
+    private HttpServer server;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void registersUntilFinished() {
+        ConsulInFlight.Request request = ConsulInFlight.start("GET", host + "/v1/kv/a?token=secret");
+
+        assertTrue(ConsulInFlight.getRequests().contains(request));
+        assertEquals(host, request.getEndpoint());
+        assertEquals("/v1/kv/a", request.getPath());
+
+        request.finish(false);
+        assertFalse(ConsulInFlight.getRequests().contains(request));
+        assertFalse(ConsulInFlight.cancel(request.getId()));
+    }
+
+    @Test
+    public void cancelClearsLateInterrupt() {
+        ConsulInFlight.Request request = ConsulInFlight.start("GET", host + "/v1/kv/a");
+
+        assertTrue(ConsulInFlight.cancel(request.getId()));
+        assertTrue(request.isCancelled());
+
+        request.finish(false);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void cancelAsync() {
+        ConsulInFlight.Request request = ConsulInFlight.startAsync("GET", host + "/v1/kv/a");
+        FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+
+            }
+        }, null);
+
+        assertTrue(ConsulInFlight.cancel(request.getId()));
+        request.setFuture(future);
+        assertTrue(future.isCancelled());
+        request.finish(true);
+    }
+
+    @Test(timeout = 4000)
+    public void cancelFailsBlockedRequest() throws Exception {
+        final Thread caller = Thread.currentThread();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        for (ConsulInFlight.Request request : ConsulInFlight.getRequests()) {
+                            if (request.getPath().equals("/v1/kv/stuck") && caller.isAlive()) {
+                                ConsulInFlight.cancel(request.getId());
+                                return;
+                            }
+                        }
+                        TimeUnit.MILLISECONDS.sleep(20);
+                    }
+                } catch (InterruptedException ie) {
+                    //Done
+                }
+            }
+        }).start();
+
+        try {
+            ConsulRequestUtils.readResponse(ConsulRequestFactory.request().withUrl(host + "/v1/kv/stuck")
+                    .withTimeoutConnect(10000).withTimeoutResponse(10000).withDebugMode(DebugMode.DISABLED)
+                    .withRequestMode(RequestMode.READ).withLogger(System.out).build());
+            fail("Request was not cancelled.");
+        } catch (ConsulRequestException cre) {
+            assertTrue(cre.getMessage().contains("cancelled"));
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void errorRateWindow() {
+        String endpoint = "http://error-rate:8500";
+        long now = TimeUnit.MINUTES.toMillis(1000);
+
+        ConsulInFlight.record(endpoint, false, now - TimeUnit.MINUTES.toMillis(10));
+        ConsulInFlight.record(endpoint, true, System.currentTimeMillis());
+        ConsulInFlight.record(endpoint, false, System.currentTimeMillis());
+
+        assertArrayEquals(new long[]{2, 1}, ConsulInFlight.getErrorRates().get(endpoint));
+    }
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ConsulLimiter}, no Consul server required.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulLimiterTest {
+
+    @Test
+    public void sharedPerClusterAndDirection() {
+        ConsulLimiter read = ConsulLimiter.get("http://shared:8500/v1/kv/a?token=secret", false);
+
+        assertSame(read, ConsulLimiter.get("http://shared:8500/v1/kv/b", false));
+        assertTrue(read != ConsulLimiter.get("http://shared:8500/v1/kv/a", true));
+        assertEquals("http://shared:8500", read.getCluster());
+    }
+
+    @Test
+    public void disabled() {
+        try {
+            ConsulLimiter.configure(-1, Constants.CONCURRENCY_LIMIT_WRITE, Constants.QUEUE_TIMEOUT);
+            assertNull(ConsulLimiter.get("http://disabled:8500/v1/kv/a", false));
+        } finally {
+            ConsulLimiter.configure(Constants.CONCURRENCY_LIMIT_READ, Constants.CONCURRENCY_LIMIT_WRITE, Constants
+                    .QUEUE_TIMEOUT);
+        }
+    }
+
+    @Test
+    public void metricsSeeLimitersCreatedLater() throws Exception {
+        Gauge<?> inFlight = ConsulMetrics.getRegistry().getGauges().get(MetricRegistry.name(Constants.PLUGIN_LABEL,
+                "limiter", "write", "in-flight"));
+        int before = (Integer) inFlight.getValue();
+
+        ConsulLimiter limiter = ConsulLimiter.get("http://metrics:8500/v1/kv/a", true);
+        limiter.acquire(0);
+        try {
+            assertEquals(before + 1, inFlight.getValue());
+        } finally {
+            limiter.cancel();
+        }
+    }
+
+    @Test
+    public void queueTimesOut() throws Exception {
+        ConsulLimiter limiter = ConsulLimiter.get("http://queue:8500/v1/kv/a", false);
+        int limit = limiter.getCurrentLimit();
+
+        for (int i = 0; i < limit; i++) {
+            limiter.acquire(0);
+        }
+
+        try {
+            limiter.acquire(50);
+            fail("Expected the queued request to time out.");
+        } catch (ConsulRequestException cre) {
+            assertEquals(0, limiter.getQueueDepth());
+        }
+
+        limiter.cancel();
+        limiter.acquire(50);
+        assertEquals(limit, limiter.getInFlight());
+    }
+
+    @Test
+    public void backsOffOnFailures() throws Exception {
+        ConsulLimiter limiter = ConsulLimiter.get("http://backoff:8500/v1/kv/a", true);
+        int limit = limiter.getCurrentLimit();
+
+        limiter.acquire(0);
+        limiter.release(10, false);
+        limiter.acquire(0);
+        limiter.release(10, true);
+
+        assertTrue(limiter.getCurrentLimit() < limit);
+        assertEquals(0, limiter.getInFlight());
+    }
+}
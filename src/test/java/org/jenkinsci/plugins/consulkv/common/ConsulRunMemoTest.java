@@ -0,0 +1,280 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ConsulRunMemo}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulRunMemoTest {
+
+    @Test
+    public void maxAge() {
+        assertEquals(ConsulRunMemo.DISABLED, ConsulRunMemo.maxAge(null, null, 0));
+        assertEquals(ConsulRunMemo.DISABLED, ConsulRunMemo.maxAge(null, MemoMode.DISABLED, 30));
+        assertEquals(ConsulRunMemo.PINNED, ConsulRunMemo.maxAge(null, MemoMode.PINNED, 0));
+        assertEquals(30000L, ConsulRunMemo.maxAge("", MemoMode.TTL, 30));
+        assertEquals(ConsulRunMemo.DISABLED, ConsulRunMemo.maxAge(null, MemoMode.TTL, 0));
+    }
+
+    @Test
+    public void maxAgeOverride() {
+        assertEquals(ConsulRunMemo.PINNED, ConsulRunMemo.maxAge(" Pinned ", MemoMode.DISABLED, 0));
+        assertEquals(5000L, ConsulRunMemo.maxAge("5", MemoMode.PINNED, 0));
+        assertEquals(ConsulRunMemo.DISABLED, ConsulRunMemo.maxAge("off", MemoMode.PINNED, 0));
+        assertEquals(ConsulRunMemo.DISABLED, ConsulRunMemo.maxAge("0", MemoMode.TTL, 30));
+    }
+
+    @Test
+    public void pinned() throws Exception {
+        ConsulRunMemo memo = new ConsulRunMemo();
+        Counter counter = new Counter();
+
+        assertEquals("value-1", memo.read("url", ConsulRunMemo.PINNED, counter));
+        assertEquals("value-1", memo.read("url", ConsulRunMemo.PINNED, counter));
+        assertEquals("value-2", memo.read("other-url", ConsulRunMemo.PINNED, counter));
+        assertEquals(1L, memo.getHits());
+        assertEquals(2L, memo.getMisses());
+        assertEquals(2, memo.size());
+    }
+
+    @Test
+    public void sharedPerRunUntilDiscarded() throws Exception {
+        ConsulRunMemo memo = ConsulRunMemo.of("job#1");
+        memo.read("url", ConsulRunMemo.PINNED, new Counter());
+
+        assertSame(memo, ConsulRunMemo.of("job#1"));
+        assertNotSame(memo, ConsulRunMemo.of("job#2"));
+
+        ConsulRunMemo.discard("job#1");
+        ConsulRunMemo.discard("job#2");
+        assertEquals(0, ConsulRunMemo.of("job#1").size());
+        ConsulRunMemo.discard("job#1");
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        ConsulRunMemo memo = new ConsulRunMemo();
+        Counter counter = new Counter();
+
+        memo.read("url", ConsulRunMemo.DISABLED, counter);
+        assertEquals("value-2", memo.read("url", ConsulRunMemo.DISABLED, counter));
+        assertEquals(0, memo.size());
+    }
+
+    @Test
+    public void ttl() throws Exception {
+        ConsulRunMemo memo = new ConsulRunMemo();
+        Counter counter = new Counter();
+
+        assertEquals("value-1", memo.read("url", 50L, counter));
+        assertEquals("value-1", memo.read("url", 50L, counter));
+        Thread.sleep(100L);
+        assertEquals("value-2", memo.read("url", 50L, counter));
+    }
+
+    @Test
+    public void failureNotMemoized() throws Exception {
+        ConsulRunMemo memo = new ConsulRunMemo();
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    throw new ConsulRequestException("Consul Request Failed.");
+                }
+                return "value";
+            }
+        };
+
+        try {
+            memo.read("url", ConsulRunMemo.PINNED, loader);
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertEquals("Consul Request Failed.", cre.getMessage());
+        }
+        assertEquals("value", memo.read("url", ConsulRunMemo.PINNED, loader));
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        final ConsulRunMemo memo = new ConsulRunMemo();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await(10, TimeUnit.SECONDS);
+                return "value";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Future<?>[] reads = new Future<?>[4];
+            for (int i = 0; i < reads.length; i++) {
+                reads[i] = executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return memo.read("url", ConsulRunMemo.PINNED, loader);
+                    }
+                });
+            }
+            while (memo.getHits() + memo.getMisses() < reads.length) {
+                Thread.sleep(10L);
+            }
+            release.countDown();
+
+            for (Future<?> read : reads) {
+                assertEquals("value", read.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(1L, memo.getMisses());
+            assertEquals(3L, memo.getHits());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void abortedLoadRetriedByWaiter() throws Exception {
+        final ConsulRunMemo memo = new ConsulRunMemo();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    started.countDown();
+                    new CountDownLatch(1).await();
+                }
+                return "value";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<String> aborted = executor.submit(new MemoRead(memo, loader, null));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> waiter = executor.submit(new MemoRead(memo, loader, null));
+            while (memo.getHits() < 1) {
+                Thread.sleep(10L);
+            }
+            aborted.cancel(true);
+
+            assertEquals("value", waiter.get(10, TimeUnit.SECONDS));
+            assertEquals(2, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waiterDeadline() throws Exception {
+        ConsulRequest consulRequest = request().withDeadline(ConsulDeadline.after(100L)).build();
+
+        try {
+            waitBehindStuckLoad(consulRequest);
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertEquals("Deadline of 100 ms expired while the Consul request was waiting for the read of another " +
+                    "branch.", cre.getMessage());
+        }
+
+        try {
+            waitBehindStuckLoad(consulRequest);
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertEquals("Deadline of 100 ms expired before the Consul request.", cre.getMessage());
+        }
+    }
+
+    @Test
+    public void waiterTimeoutTotal() throws Exception {
+        try {
+            waitBehindStuckLoad(request().withTimeoutTotal(100).build());
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertEquals("Consul request did not complete within 100 ms, aborted.", cre.getMessage());
+        }
+    }
+
+    /*
+     * Reads a key whose load by another thread never completes.
+     */
+    private static void waitBehindStuckLoad(ConsulRequest consulRequest) throws Exception {
+        final ConsulRunMemo memo = new ConsulRunMemo();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return "value";
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            executor.submit(new MemoRead(memo, loader, null));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            memo.read("url", ConsulRunMemo.PINNED, consulRequest, loader);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static ConsulRequestFactory request() {
+        return ConsulRequestFactory.request().withUrl("http://localhost:8500/v1/kv/a").withTimeoutConnect(5000)
+                .withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.READ)
+                .withLogger(System.out);
+    }
+
+    private static final class MemoRead implements Callable<String> {
+        private final ConsulRunMemo memo;
+        private final Callable<String> loader;
+        private final ConsulRequest consulRequest;
+
+        private MemoRead(ConsulRunMemo memo, Callable<String> loader, ConsulRequest consulRequest) {
+            this.memo = memo;
+            this.loader = loader;
+            this.consulRequest = consulRequest;
+        }
+
+        @Override
+        public String call() throws Exception {
+            return this.memo.read("url", ConsulRunMemo.PINNED, this.consulRequest, this.loader);
+        }
+    }
+
+    private static final class Counter implements Callable<String> {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String call() {
+            return "value-" + calls.incrementAndGet();
+        }
+    }
+}
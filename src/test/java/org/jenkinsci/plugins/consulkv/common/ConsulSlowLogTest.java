@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.consulkv.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConsulSlowLog}.  Without Jenkins the records go to the class logger, captured here; the
+ * requests go to a local HTTP server standing in for Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulSlowLogTest {
+
+    private HttpServer server;
+    private String host;
+    private final List<String> records = new CopyOnWriteArrayList<String>();
+    private final Handler capture = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void close() {
+
+        }
+    };
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestURI().getPath().endsWith("/slow")) {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                byte[] body = "[{\"Key\":\"a\",\"Value\":\"dGVzdC12YWx1ZQ==\",\"ModifyIndex\":1}]".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+        Logger.getLogger(ConsulSlowLog.class.getName()).addHandler(capture);
+    }
+
+    @After
+    public void stopServer() {
+        Logger.getLogger(ConsulSlowLog.class.getName()).removeHandler(capture);
+        ConsulSlowLog.configure(Constants.SLOW_REQUEST_THRESHOLD, Constants.SLOW_REQUEST_RATE);
+        server.stop(0);
+    }
+
+    @Test
+    public void disabled() {
+        ConsulSlowLog.configure(0, 60);
+
+        assertFalse(ConsulSlowLog.start("GET", host + "/v1/kv/a").isEnabled());
+    }
+
+    @Test
+    public void slowRequestIsLogged() throws Exception {
+        ConsulSlowLog.configure(100, 60);
+
+        ConsulRequestUtils.readResponse(ConsulRequestFactory.request().withUrl(host + "/v1/kv/slow?token=secret")
+                .withTimeoutConnect(5000).withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED)
+                .withRequestMode(RequestMode.READ).withLogger(System.out).build());
+        ConsulRequestUtils.readResponse(ConsulRequestFactory.request().withUrl(host + "/v1/kv/fast")
+                .withTimeoutConnect(5000).withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED)
+                .withRequestMode(RequestMode.READ).withLogger(System.out).build());
+
+        assertEquals(1, records.size());
+        JsonNode record = new ObjectMapper().readTree(records.get(0));
+        assertEquals("GET", record.get("method").asText());
+        assertEquals(host, record.get("server").asText());
+        assertEquals("127.0.0.1", record.get("address").asText());
+        assertEquals("/v1/kv/slow", record.get("path").asText());
+        assertEquals(200, record.get("status").asInt());
+        assertTrue(record.get("ttfbMs").asLong() >= 150);
+        assertTrue(record.get("dnsMs").asLong() >= 0);
+        assertTrue(record.get("connectMs").asLong() >= 0);
+        assertEquals(-1, record.get("tlsMs").asLong());
+        assertFalse(records.get(0).contains("secret"));
+    }
+
+    @Test
+    public void samplerLimitsRecordsPerMinute() {
+        ConsulSlowLog.Sampler sampler = new ConsulSlowLog.Sampler(2);
+        long now = 1000000L;
+
+        assertEquals(0, sampler.admit(now));
+        assertEquals(0, sampler.admit(now + 1));
+        assertEquals(-1, sampler.admit(now + 2));
+        assertEquals(-1, sampler.admit(now + 3));
+        assertEquals(2, sampler.admit(now + 60000));
+        assertEquals(0, sampler.admit(now + 60001));
+    }
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.consulkv.common.cache;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link StageCache}, no Consul server required.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class StageCacheTest {
+
+    @Test
+    public void keyIgnoresParameterOrder() {
+        Map<String, String> first = new LinkedHashMap<String, String>();
+        first.put("A", "1");
+        first.put("B", "2");
+        Map<String, String> second = new LinkedHashMap<String, String>();
+        second.put("B", "2");
+        second.put("A", "1");
+
+        assertEquals(StageCache.key("files", first), StageCache.key("files", second));
+        assertEquals(64, StageCache.key("files", first).length());
+    }
+
+    @Test
+    public void keySeparatesFields() {
+        assertFalse(StageCache.key("", Collections.singletonMap("AB", "C")).equals(StageCache.key("", Collections
+                .singletonMap("A", "BC"))));
+        assertFalse(StageCache.key("x", Collections.<String, String>emptyMap()).equals(StageCache.key("y",
+                Collections.<String, String>emptyMap())));
+    }
+
+    @Test
+    public void outputsRoundTrip() throws IOException {
+        Map<String, String> outputs = new LinkedHashMap<String, String>();
+        outputs.put("ARTIFACT", "com.example:app:1.0");
+        outputs.put("TESTS", "42 passed");
+
+        assertEquals(outputs, StageCache.parseOutputs(StageCache.toJson(outputs, "job#1")));
+    }
+
+    @Test
+    public void sessionTtlIsClamped() throws IOException {
+        assertThat(StageCache.sessionJson("cache", 1), containsString("\"TTL\":\"10s\""));
+        assertThat(StageCache.sessionJson("cache", 100000), containsString("\"TTL\":\"86400s\""));
+        assertThat(StageCache.sessionJson("cache", 3600), containsString("\"Behavior\":\"delete\""));
+    }
+}
@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.consulkv.common.lock;
+
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConsulLock}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulLockTest {
+
+    @Test
+    public void semaphore() throws Exception {
+        ConsulLock.Semaphore semaphore = ConsulLock.Semaphore.parse("{\"Limit\":2,\"Holders\":[\"a\",\"b\"]}");
+
+        assertEquals(2, semaphore.limit);
+        assertEquals(Arrays.asList("a", "b"), semaphore.holders);
+        assertEquals("{\"Limit\":2,\"Holders\":[\"a\",\"b\"]}", semaphore.toJson());
+    }
+
+    @Test
+    public void semaphoreMissing() throws Exception {
+        ConsulLock.Semaphore semaphore = ConsulLock.Semaphore.parse(null);
+
+        assertEquals(0, semaphore.limit);
+        assertTrue(semaphore.holders.isEmpty());
+    }
+
+    @Test(expected = ConsulRequestException.class)
+    public void semaphoreInvalid() throws Exception {
+        ConsulLock.Semaphore.parse("{not json");
+    }
+
+    @Test
+    public void sessions() throws Exception {
+        List<ConsulKVEntry> entries = ConsulRequestUtils.parseEntries("[{\"Key\":\"ci/env/a\",\"Value\":null," +
+                "\"ModifyIndex\":7,\"Session\":\"a\"},{\"Key\":\"ci/env/.lock\",\"Value\":null,\"ModifyIndex\":8}]");
+
+        assertEquals("a", entries.get(0).getSession());
+        assertNull(entries.get(1).getSession());
+    }
+}
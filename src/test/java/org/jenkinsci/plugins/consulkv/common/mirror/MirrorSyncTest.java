@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.consulkv.common.mirror;
+
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MirrorSync}, no Consul server required.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class MirrorSyncTest {
+
+    @Test
+    public void writesOnlyChangedKeys() throws Exception {
+        Map<String, Long> manifest = new HashMap<String, Long>();
+        manifest.put("same", 5L);
+        manifest.put("changed", 6L);
+        manifest.put("removed", 7L);
+
+        List<ConsulKVEntry> entries = Arrays.asList(new ConsulKVEntry("app/", null, 1), new ConsulKVEntry
+                ("app/same", "a", 5), new ConsulKVEntry("app/changed", "b", 9), new ConsulKVEntry("app/new/key",
+                null, 10), new ConsulKVEntry("app/../escape", "c", 11));
+        List<String> skipped = new ArrayList<String>();
+
+        MirrorSync.Changes changes = MirrorSync.diff(manifest, entries, "app/", skipped);
+
+        assertEquals(2, changes.getWrites().size());
+        assertArrayEquals("b".getBytes("UTF-8"), changes.getWrites().get("changed"));
+        assertArrayEquals(new byte[0], changes.getWrites().get("new/key"));
+        assertEquals(Collections.singletonList("removed"), changes.getDeletes());
+        assertEquals(3, changes.getManifest().size());
+        assertEquals(Collections.singletonList("app/../escape"), skipped);
+    }
+
+    @Test
+    public void keepsBinaryValues() {
+        byte[] data = {(byte) 0x89, 'P', 'N', 'G', 0, (byte) 0xff, (byte) 0xfe};
+        MirrorSync.Changes changes = MirrorSync.diff(Collections.<String, Long>emptyMap(), Collections.singletonList
+                (new ConsulKVEntry("app/logo.png", data, 3, null)), "app/", new ArrayList<String>());
+
+        assertArrayEquals(data, changes.getWrites().get("logo.png"));
+    }
+
+    @Test
+    public void unchanged() {
+        Map<String, Long> manifest = Collections.singletonMap("key", 5L);
+        MirrorSync.Changes changes = MirrorSync.diff(manifest, Collections.singletonList(new ConsulKVEntry
+                ("app/key", "a", 5)), "app/", new ArrayList<String>());
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void safeKeys() {
+        assertTrue(MirrorSync.isSafe("a/b.properties"));
+        assertFalse(MirrorSync.isSafe("a/../b"));
+        assertFalse(MirrorSync.isSafe("a//b"));
+        assertFalse(MirrorSync.isSafe(MirrorSync.MANIFEST));
+    }
+
+    @Test
+    public void normalizePrefix() {
+        assertEquals("app/", MirrorSync.normalizePrefix(" /app"));
+        assertEquals("app/", MirrorSync.normalizePrefix("app/"));
+        assertEquals("", MirrorSync.normalizePrefix(null));
+    }
+}
@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.consulkv.common.template;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link TemplatePlan} and {@link TemplateRenderer}, no Consul server required.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class TemplateRendererTest {
+
+    @Test
+    public void groupsKeysByFolder() {
+        TemplatePlan plan = TemplatePlan.plan(Arrays.asList("app/db/host", "app/db/port", "app/db/host",
+                "app/db/pool/size", "app/name", "root", "other/key"));
+
+        assertEquals(Collections.singletonList("app/db/"), plan.getPrefixes());
+        assertEquals(Arrays.asList("app/name", "other/key", "root"), plan.getKeys());
+        assertEquals(4, plan.size());
+    }
+
+    @Test
+    public void nestedFoldersAreCovered() {
+        TemplatePlan plan = TemplatePlan.plan(Arrays.asList("a/x", "a/y", "a/b/x", "a/b/y"));
+
+        assertEquals(Collections.singletonList("a/"), plan.getPrefixes());
+        assertEquals(Collections.<String>emptyList(), plan.getKeys());
+    }
+
+    @Test
+    public void rendersPlaceholders() throws IOException {
+        StringWriter writer = new StringWriter();
+        int placeholders = TemplateRenderer.process(new StringReader("host=${consul:/app/db/host}\n$${consul:a}" +
+                "${consul:open\n${}${consul:}$"), writer, new TemplateRenderer.Resolver() {
+            @Override
+            public String resolve(String key) {
+                return "<" + key + ">";
+            }
+        });
+
+        assertEquals(2, placeholders);
+        assertEquals("host=<app/db/host>\n$<a>${consul:open\n${}${consul:}$", writer.toString());
+    }
+}
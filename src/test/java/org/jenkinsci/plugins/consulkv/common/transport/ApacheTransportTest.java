@@ -0,0 +1,15 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+/**
+ * Runs the {@link ConsulTransportConformanceTest} checks against {@link ApacheTransport}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ApacheTransportTest extends ConsulTransportConformanceTest {
+
+    @Override
+    protected ConsulTransport transport() {
+        return ConsulTransports.of(TransportType.APACHE);
+    }
+}
@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the transports under concurrent reads of a local HTTP server standing in for Consul, printing throughput
+ * and latency percentiles.  Not run by the build, run it by hand:  <code>ConsulTransportBenchmark [threads]
+ * [requests per thread]</code>.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public final class ConsulTransportBenchmark {
+
+    private static final ResponseHandler<Integer> STATUS = new ResponseHandler<Integer>() {
+        @Override
+        public Integer handleResponse(HttpResponse response) throws IOException {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    };
+
+    private ConsulTransportBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        int requests = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "[{\"Key\":\"a\",\"Value\":\"dGVzdC12YWx1ZQ==\",\"ModifyIndex\":1}]".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/kv/a";
+
+        try {
+            for (TransportType transportType : TransportType.values()) {
+                //Warm up, then measure
+                run(transportType, url, threads, Math.max(1, requests / 10));
+                run(transportType, url, threads, requests);
+            }
+        } finally {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    private static void run(final TransportType transportType, final String url, int threads, final int requests)
+            throws Exception {
+        final ConsulTransport transport = ConsulTransports.of(transportType);
+        final ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(url).withTimeoutConnect(5000)
+                .withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.READ)
+                .withLogger(System.out).build();
+        final RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(5000)
+                .build();
+        final long[] latencies = new long[threads * requests];
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < requests; i++) {
+                            HttpGet httpGet = new HttpGet(url);
+                            httpGet.setConfig(requestConfig);
+                            long sent = System.nanoTime();
+                            try {
+                                int status = transport.execute(consulRequest, httpGet, STATUS, ConsulSlowLog.start
+                                        ("GET", url));
+                                if (status == 200) {
+                                    latencies[succeeded.getAndIncrement()] = System.nanoTime() - sent;
+                                } else {
+                                    failures.incrementAndGet();
+                                }
+                            } catch (IOException ioe) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        //Failed requests are left out of the figures, and reported next to them
+        int count = succeeded.get();
+        if (count == 0) {
+            System.out.printf("%-6s every request failed (%d)%n", transportType, failures.get());
+            return;
+        }
+
+        long[] measured = Arrays.copyOf(latencies, count);
+        Arrays.sort(measured);
+        System.out.printf("%-6s %8.0f req/s  p50 %6d us  p99 %6d us  failures %d%n", transportType,
+                count / (elapsed / (double) TimeUnit.SECONDS.toNanos(1)),
+                TimeUnit.NANOSECONDS.toMicros(measured[count / 2]),
+                TimeUnit.NANOSECONDS.toMicros(measured[(int) (count * 0.99)]), failures.get());
+    }
+}
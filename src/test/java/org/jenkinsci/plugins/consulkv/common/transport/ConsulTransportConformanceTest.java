@@ -0,0 +1,198 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Behaviour every {@link ConsulTransport} must share, checked against a local HTTP server standing in for Consul.
+ * Subclasses supply the transport.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public abstract class ConsulTransportConformanceTest {
+
+    private static final ResponseHandler<String> STATUS_AND_BODY = new ResponseHandler<String>() {
+        @Override
+        public String handleResponse(HttpResponse response) throws IOException {
+            String body = (response.getEntity() == null) ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+            return response.getStatusLine().getStatusCode() + " " + body;
+        }
+    };
+
+    private HttpServer server;
+    private String host;
+    private ConsulRequest consulRequest;
+
+    protected abstract ConsulTransport transport();
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.endsWith("/slow")) {
+                    try {
+                        Thread.sleep(3000);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (path.endsWith("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+
+                ByteArrayOutputStream received = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[1024];
+                    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                        received.write(buffer, 0, read);
+                    }
+                }
+
+                String token = exchange.getRequestHeaders().getFirst("X-Consul-Token");
+                byte[] body = (exchange.getRequestMethod() + ":" + token + ":" + received.toString("UTF-8"))
+                        .getBytes("UTF-8");
+                exchange.getResponseHeaders().add("X-Consul-Index", "42");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+        consulRequest = ConsulRequestFactory.request().withUrl(host + "/v1/kv/a").withTimeoutConnect(5000)
+                .withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.READ)
+                .withLogger(System.out).build();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void get() throws IOException {
+        HttpGet httpGet = new HttpGet(host + "/v1/kv/a");
+        httpGet.setHeader("X-Consul-Token", "secret");
+
+        String header = transport().execute(consulRequest, httpGet, new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(HttpResponse response) throws IOException {
+                EntityUtils.consume(response.getEntity());
+                return response.getFirstHeader("X-Consul-Index").getValue();
+            }
+        }, ConsulSlowLog.start("GET", host));
+
+        assertEquals("42", header);
+        assertEquals("200 GET:null:", execute(new HttpGet(host + "/v1/kv/a")));
+    }
+
+    @Test
+    public void notFound() throws IOException {
+        assertEquals("404 ", execute(new HttpGet(host + "/v1/kv/missing")));
+    }
+
+    @Test
+    public void putSendsBody() throws IOException {
+        HttpPut httpPut = new HttpPut(host + "/v1/kv/a");
+        httpPut.setEntity(new StringEntity("value", "UTF-8"));
+
+        assertEquals("200 PUT:null:value", execute(httpPut));
+    }
+
+    @Test
+    public void delete() throws IOException {
+        assertEquals("200 DELETE:null:", execute(new HttpDelete(host + "/v1/kv/a")));
+    }
+
+    @Test(timeout = 2500)
+    public void readTimeout() {
+        HttpGet httpGet = new HttpGet(host + "/v1/kv/slow");
+        httpGet.setConfig(RequestConfig.custom().setConnectTimeout(1000).setSocketTimeout(200).build());
+
+        try {
+            execute(httpGet);
+            fail("Request did not time out.");
+        } catch (IOException ioe) {
+            //Expected
+        }
+    }
+
+    @Test(timeout = 2500)
+    public void abortFromAnotherThread() throws InterruptedException {
+        final HttpGet httpGet = new HttpGet(host + "/v1/kv/slow");
+        Thread aborter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(200);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                httpGet.abort();
+            }
+        });
+        aborter.start();
+
+        try {
+            execute(httpGet);
+            fail("Request was not aborted.");
+        } catch (IOException ioe) {
+            //Expected
+        }
+        aborter.join();
+    }
+
+    @Test
+    public void abortedBeforeSending() {
+        HttpRequestBase httpGet = new HttpGet(host + "/v1/kv/a");
+        httpGet.abort();
+
+        try {
+            execute(httpGet);
+            fail("Aborted request was sent.");
+        } catch (IOException ioe) {
+            //Expected
+        }
+    }
+
+    private String execute(HttpRequestBase httpRequestBase) throws IOException {
+        return transport().execute(consulRequest, httpRequestBase, STATUS_AND_BODY, ConsulSlowLog.start
+                (httpRequestBase.getMethod(), host));
+    }
+}
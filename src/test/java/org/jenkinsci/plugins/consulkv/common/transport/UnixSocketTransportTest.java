@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.consulkv.common.transport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.ConsulLimiter;
+import org.jenkinsci.plugins.consulkv.common.ConsulSlowLog;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.jenkinsci.plugins.consulkv.common.utils.ConsulRequestUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.newsclub.net.unix.AFUNIXServerSocket;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link UnixSocketTransport}, against a minimal HTTP/1.1 server on a Unix socket standing in for the
+ * Consul agent.  The socket tests are skipped where junixsocket has no native library.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class UnixSocketTransportTest {
+
+    private static final ResponseHandler<String> BODY = new ResponseHandler<String>() {
+        @Override
+        public String handleResponse(HttpResponse response) throws IOException {
+            return EntityUtils.toString(response.getEntity(), "UTF-8");
+        }
+    };
+
+    private final UnixSocketTransport transport = new UnixSocketTransport();
+    private final AtomicInteger connections = new AtomicInteger();
+    private AFUNIXServerSocket server;
+    private String host;
+
+    @After
+    public void stopServer() throws IOException {
+        transport.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void urls() throws IOException {
+        String url = "unix:///var/run/consul/consul.sock/v1/kv/a/b?token=secret";
+
+        assertEquals("/var/run/consul/consul.sock", UnixSocketTransport.socketPath(url));
+        assertEquals("http://localhost/v1/kv/a/b?token=secret", UnixSocketTransport.httpUrl(url));
+        assertEquals("unix:///var/run/consul/consul.sock", UnixSocketTransport.host(url));
+        assertEquals("unix:///var/run/consul/consul.sock", UnixSocketTransport.host
+                ("unix:///var/run/consul/consul.sock"));
+        assertEquals("unix:///var/run/consul/consul.sock", ConsulLimiter.cluster(url));
+        assertTrue(UnixSocketTransport.isUnixSocket("UNIX:///var/run/consul/consul.sock"));
+        assertFalse(UnixSocketTransport.isUnixSocket("http://127.0.0.1:8500"));
+    }
+
+    @Test(expected = IOException.class)
+    public void noApiPath() throws IOException {
+        UnixSocketTransport.socketPath("unix:///var/run/consul/consul.sock");
+    }
+
+    @Test
+    public void reusesConnection() throws IOException {
+        startServer();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("GET /v1/kv/a?recurse ", execute(new HttpGet(host + "/v1/kv/a?recurse")));
+        }
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void putSendsBody() throws IOException {
+        startServer();
+        HttpPut httpPut = new HttpPut(host + "/v1/kv/a");
+        httpPut.setEntity(new StringEntity("value", "UTF-8"));
+
+        assertEquals("PUT /v1/kv/a value", execute(httpPut));
+    }
+
+    @Test
+    public void readResponse() throws Exception {
+        startServer();
+
+        ConsulResponse response = ConsulRequestUtils.readResponse(request(host + "/v1/kv/a"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(7, response.getIndex());
+        assertEquals("GET /v1/kv/a ", response.getBody());
+    }
+
+    @Test
+    public void missingSocket() throws Exception {
+        Assume.assumeTrue(AFUNIXSocket.isSupported());
+        File missing = new File(System.getProperty("java.io.tmpdir"), "consul-missing-" + System.nanoTime() + ".sock");
+
+        try {
+            execute(new HttpGet("unix://" + missing.getAbsolutePath() + "/v1/kv/a"));
+            fail("Connected to a missing socket.");
+        } catch (IOException ioe) {
+            //Expected
+        }
+    }
+
+    private String execute(HttpRequestBase httpRequestBase) throws IOException {
+        httpRequestBase.setConfig(RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(5000).build());
+        return transport.execute(request(httpRequestBase.getURI().toString()), httpRequestBase, BODY, ConsulSlowLog
+                .start(httpRequestBase.getMethod(), host));
+    }
+
+    private static ConsulRequest request(String url) throws IOException {
+        try {
+            return ConsulRequestFactory.request().withUrl(url).withTimeoutConnect(5000).withTimeoutResponse(5000)
+                    .withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.READ).withLogger(System.out)
+                    .build();
+        } catch (ValidationException ve) {
+            throw new IOException(ve);
+        }
+    }
+
+    private void startServer() throws IOException {
+        Assume.assumeTrue(AFUNIXSocket.isSupported());
+        File socketFile = new File(System.getProperty("java.io.tmpdir"), "consul-" + System.nanoTime() + ".sock");
+        socketFile.deleteOnExit();
+
+        server = AFUNIXServerSocket.newInstance();
+        server.bind(new AFUNIXSocketAddress(socketFile));
+        host = "unix://" + socketFile.getAbsolutePath();
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        connections.incrementAndGet();
+                        Thread connection = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                UnixSocketTransportTest.serve(socket);
+                            }
+                        });
+                        connection.setDaemon(true);
+                        connection.start();
+                    }
+                } catch (IOException ioe) {
+                    //Closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /*
+     * Answers each request on the connection with its method, path and body, keeping the connection open.
+     */
+    private static void serve(Socket socket) {
+        try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+            for (String requestLine = readLine(in); requestLine != null && !requestLine.isEmpty(); requestLine =
+                    readLine(in)) {
+                int length = 0;
+                for (String header = readLine(in); header != null && !header.isEmpty(); header = readLine(in)) {
+                    if (header.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(header.substring("content-length:".length()).trim());
+                    }
+                }
+
+                byte[] received = new byte[length];
+                for (int read = 0; read < length; ) {
+                    int count = in.read(received, read, length - read);
+                    if (count < 0) {
+                        return;
+                    }
+                    read += count;
+                }
+
+                String[] parts = requestLine.split(" ");
+                byte[] body = (parts[0] + " " + parts[1] + " " + new String(received, "UTF-8")).getBytes("UTF-8");
+                out.write(("HTTP/1.1 200 OK\r\nX-Consul-Index: 7\r\nContent-Type: text/plain\r\nContent-Length: " +
+                        body.length + "\r\n\r\n").getBytes("UTF-8"));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            //Client went away
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                return null;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        return line.toString("UTF-8");
+    }
+}
@@ -0,0 +1,174 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.ConsulResponse;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConsulAsyncRequestUtils} against a local HTTP server standing in for Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulAsyncRequestUtilsTest {
+
+    private HttpServer server;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+
+                if (path.endsWith("/slow")) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                if (path.endsWith("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else if (path.endsWith("/big") || path.endsWith("/big-chunked")) {
+                    byte[] body = new byte[4000];
+                    //Length 0 streams the body chunked, without a Content-Length
+                    exchange.sendResponseHeaders(200, path.endsWith("/big") ? body.length : 0);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    } catch (IOException ioe) {
+                        //The client gave up on the body
+                    }
+                } else {
+                    byte[] body = "PUT".equals(exchange.getRequestMethod()) ? "true".getBytes("UTF-8") :
+                            "[{\"Key\":\"a\",\"Value\":\"dGVzdC12YWx1ZQ==\",\"ModifyIndex\":1}]".getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void read() throws Exception {
+        Result<ConsulResponse> result = new Result<ConsulResponse>();
+        ConsulAsyncRequestUtils.readResponse(request("/v1/kv/a", 0), result);
+
+        assertTrue(result.await());
+        assertEquals("test-value", ConsulRequestUtils.parseEntries(result.value.getBody()).get(0).getValue());
+    }
+
+    @Test
+    public void missing() throws Exception {
+        Result<ConsulResponse> result = new Result<ConsulResponse>();
+        ConsulAsyncRequestUtils.readResponse(request("/v1/kv/missing", 0), result);
+
+        assertTrue(result.await());
+        assertNull(result.value.getBody());
+    }
+
+    @Test
+    public void write() throws Exception {
+        Result<String> result = new Result<String>();
+        ConsulAsyncRequestUtils.write(request("/v1/kv/a", 0), result);
+
+        assertTrue(result.await());
+        assertEquals("true", result.value);
+    }
+
+    @Test
+    public void deadline() throws Exception {
+        Result<ConsulResponse> result = new Result<ConsulResponse>();
+        ConsulAsyncRequestUtils.readResponse(request("/v1/kv/slow", 200), result);
+
+        assertTrue(result.await());
+        assertTrue(String.valueOf(result.failure), result.failure != null);
+    }
+
+    @Test
+    public void tooLargeWithContentLength() throws Exception {
+        assertTooLarge("/v1/kv/big");
+    }
+
+    @Test
+    public void tooLargeWithoutContentLength() throws Exception {
+        assertTooLarge("/v1/kv/big-chunked");
+    }
+
+    private void assertTooLarge(String path) throws Exception {
+        Result<ConsulResponse> result = new Result<ConsulResponse>();
+        ConsulAsyncRequestUtils.readResponse(ConsulRequestFactory.copyOf(request(path, 0)).withMaxResponseSize(1000)
+                .build(), result);
+
+        assertTrue(result.await());
+        assertTrue(String.valueOf(result.failure), ExceptionUtils.indexOfThrowable(result.failure,
+                SizeLimitedInputStream.ResponseTooLargeException.class) >= 0);
+    }
+
+    private ConsulRequest request(String path, int timeoutTotal) throws Exception {
+        return ConsulRequestFactory.request().withUrl(host + path).withValue("value").withTimeoutConnect(5000)
+                .withTimeoutResponse(5000).withDeadline(ConsulDeadline.after(timeoutTotal)).withDebugMode
+                        (DebugMode.DISABLED).withRequestMode(RequestMode.READ).withLogger(System.out).build();
+    }
+
+    private static final class Result<T> implements FutureCallback<T> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile T value;
+        private volatile Exception failure;
+
+        @Override
+        public void completed(T result) {
+            value = result;
+            latch.countDown();
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            failure = ex;
+            latch.countDown();
+        }
+
+        @Override
+        public void cancelled() {
+            latch.countDown();
+        }
+
+        private boolean await() throws InterruptedException {
+            return latch.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.util.Base64;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConsulChunkUtils}, the K/V store served by a local HTTP server standing in for Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulChunkUtilsTest {
+
+    private static final String SHA256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private final Map<String, byte[]> store = new ConcurrentHashMap<String, byte[]>();
+    private final Map<String, Long> indexes = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong index = new AtomicLong();
+    private HttpServer server;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String method = exchange.getRequestMethod();
+                byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+                String response = "true";
+                int status = 200;
+
+                String query = Strings.nvl(exchange.getRequestURI().getQuery(), "");
+
+                if (path.equals(Constants.TXN_URI)) {
+                    for (JsonNode op : new ObjectMapper().readTree(body)) {
+                        JsonNode kv = op.get("KV");
+                        put(kv.get(Constants.FIELD_KEY).asText(), Base64.decodeBase64(kv.get(Constants.FIELD_VALUE)
+                                .asText()));
+                    }
+                    response = "{\"Results\":[]}";
+                } else {
+                    String key = path.substring(Constants.API_URI.length());
+
+                    if ("PUT".equals(method) && query.startsWith("cas=")) {
+                        Long index = indexes.get(key);
+                        response = String.valueOf(Long.parseLong(query.substring(4)) == ((index == null) ? 0 :
+                                index));
+                        if (Boolean.parseBoolean(response)) {
+                            put(key, body);
+                        }
+                    } else if ("PUT".equals(method)) {
+                        put(key, body);
+                    } else if ("DELETE".equals(method)) {
+                        for (String stored : store.keySet()) {
+                            if (stored.equals(key) || (query.contains("recurse") && stored.startsWith(key))) {
+                                store.remove(stored);
+                                indexes.remove(stored);
+                            }
+                        }
+                    } else if (store.containsKey(key)) {
+                        response = String.format("[{\"Key\":\"%s\",\"ModifyIndex\":%d,\"Value\":\"%s\"}]",
+                                key, indexes.get(key), Base64.encodeBase64String(store.get(key)));
+                    } else {
+                        status = 404;
+                    }
+                }
+
+                byte[] bytes = response.getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, (status == 404) ? -1 : bytes.length);
+                if (status != 404) {
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(bytes);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void recognizesManifests() {
+        assertTrue(ConsulChunkUtils.isManifest(" {\"consul-kv-chunked\":1,\"generation\":\"0123456789abcdef\"," +
+                "\"count\":3,\"size\":600000,\"sha256\":\"" + SHA256 + "\",\"compression\":\"none\"}"));
+    }
+
+    @Test
+    public void ignoresPlainValues() {
+        assertFalse(ConsulChunkUtils.isManifest(null));
+        assertFalse(ConsulChunkUtils.isManifest("consul-kv-chunked"));
+        assertFalse(ConsulChunkUtils.isManifest("{\"key\":\"consul-kv-chunked\"}"));
+        assertFalse(ConsulChunkUtils.isManifest("{\"consul-kv-chunked\": broken"));
+    }
+
+    @Test
+    public void ignoresValuesWithoutTheManifestShape() {
+        assertFalse(ConsulChunkUtils.isManifest("{\"consul-kv-chunked\":true}"));
+        assertFalse(ConsulChunkUtils.isManifest("{\"consul-kv-chunked\":1,\"generation\":\"0123456789abcdef\"," +
+                "\"sha256\":\"" + SHA256 + "\"}"));
+        assertFalse(ConsulChunkUtils.isManifest("{\"consul-kv-chunked\":2,\"generation\":\"0123456789abcdef\"," +
+                "\"count\":3,\"sha256\":\"" + SHA256 + "\"}"));
+        assertFalse(ConsulChunkUtils.isManifest("{\"consul-kv-chunked\":1,\"generation\":\"0123456789abcdef\"," +
+                "\"count\":0,\"sha256\":\"" + SHA256 + "\"}"));
+        assertFalse(ConsulChunkUtils.isManifest("{\"consul-kv-chunked\":1,\"generation\":\"0123456789abcdef\"," +
+                "\"count\":3,\"sha256\":\"00\"}"));
+    }
+
+    @Test
+    public void binaryRoundTrip() throws Exception {
+        roundTrip(false);
+    }
+
+    @Test
+    public void compressedBinaryRoundTrip() throws Exception {
+        roundTrip(true);
+    }
+
+    @Test
+    public void readsMoreChunksThanTheReadAhead() throws Exception {
+        byte[] data = new byte[(int) Constants.CHUNK_SIZE * 9 + 7];
+        new Random(7).nextBytes(data);
+
+        String manifest = ConsulChunkUtils.write(request(), host, Constants.API_URI, "big", null, data, false);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, ConsulChunkUtils.read(request(), host, Constants.API_URI, "big", null, manifest,
+                out));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void deletesOnlyTheReplacedGeneration() throws Exception {
+        String first = ConsulChunkUtils.write(request(), host, Constants.API_URI, "gen", null, "first".getBytes
+                ("UTF-8"), false);
+        //Chunks of a concurrent writer whose manifest is not written yet
+        put("gen.chunks/0123456789abcdef/0", "other".getBytes("UTF-8"));
+
+        String second = ConsulChunkUtils.write(request(), host, Constants.API_URI, "gen", null, "second".getBytes
+                ("UTF-8"), false);
+
+        assertEquals(second, new String(store.get("gen"), "UTF-8"));
+        assertFalse(store.containsKey("gen.chunks/" + generation(first) + "/0"));
+        assertTrue(store.containsKey("gen.chunks/" + generation(second) + "/0"));
+        assertTrue(store.containsKey("gen.chunks/0123456789abcdef/0"));
+    }
+
+    private void roundTrip(boolean compress) throws Exception {
+        byte[] data = new byte[(int) Constants.CHUNK_SIZE * 2 + 123];
+        new Random(42).nextBytes(data);
+        ConsulRequest consulRequest = ConsulRequestFactory.request().withUrl(host + Constants.API_URI + "bin")
+                .withTimeoutConnect(5000).withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED)
+                .withRequestMode(RequestMode.WRITE).withValue("-").withLogger(System.out).build();
+
+        String manifest = ConsulChunkUtils.write(consulRequest, host, Constants.API_URI, "bin", null, data,
+                compress);
+
+        assertTrue(ConsulChunkUtils.isManifest(manifest));
+        assertEquals(manifest, new String(store.get("bin"), "UTF-8"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, ConsulChunkUtils.read(consulRequest, host, Constants.API_URI, "bin", null,
+                manifest, out));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    private ConsulRequest request() throws Exception {
+        return ConsulRequestFactory.request().withUrl(host + Constants.API_URI + "key").withTimeoutConnect(5000)
+                .withTimeoutResponse(5000).withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.WRITE)
+                .withValue("-").withLogger(System.out).build();
+    }
+
+    private void put(String key, byte[] value) {
+        store.put(key, value);
+        indexes.put(key, index.incrementAndGet());
+    }
+
+    private static String generation(String manifest) throws IOException {
+        return new ObjectMapper().readTree(manifest).get("generation").asText();
+    }
+}
@@ -0,0 +1,351 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.google.api.client.util.Base64;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.HttpResponseException;
+import org.jenkinsci.plugins.consulkv.ConsulRequest;
+import org.jenkinsci.plugins.consulkv.ConsulRequestFactory;
+import org.jenkinsci.plugins.consulkv.common.ConsulDeadline;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.jenkinsci.plugins.consulkv.common.DebugMode;
+import org.jenkinsci.plugins.consulkv.common.RequestMode;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ConsulRequestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ConsulRequestUtils} against a local HTTP server standing in for Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulRequestUtilsTest {
+
+    private static final String ENTRY = "{\"LockIndex\":0,\"Key\":\"a\",\"Flags\":0,\"Value\":\"%s\"," +
+            "\"CreateIndex\":1,\"ModifyIndex\":%d}";
+
+    private final List<String> casRequests = Collections.synchronizedList(new ArrayList<String>());
+    private volatile String casValue;
+    private volatile long casIndex;
+    private volatile int casConflicts;
+    private HttpServer server;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+
+                if (path.endsWith("/delay")) {
+                    sleep(250L);
+                } else if (path.endsWith("/trickle")) {
+                    //Never idle long enough for the socket timeout, never done either
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        for (int i = 0; i < 60; i++) {
+                            out.write(' ');
+                            out.flush();
+                            sleep(50L);
+                        }
+                    } catch (IOException ioe) {
+                        //The client gave up on the body
+                    }
+                    exchange.close();
+                    return;
+                }
+
+                if (path.endsWith("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else if (path.endsWith("/big") || path.endsWith("/big-chunked")) {
+                    byte[] body = String.format("[" + ENTRY + "]", new String(new char[4000]).replace('\0', 'A'),
+                            1).getBytes("UTF-8");
+                    //Length 0 streams the body chunked, without a Content-Length
+                    exchange.sendResponseHeaders(200, path.endsWith("/big") ? body.length : 0);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    } catch (IOException ioe) {
+                        //The client gave up on the body
+                    }
+                } else {
+                    byte[] body = String.format("[" + ENTRY + "]", "dGVzdC12YWx1ZQ==", 1).getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.createContext("/v1/kv/cas", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getQuery();
+                String response;
+
+                synchronized (ConsulRequestUtilsTest.this) {
+                    if ("GET".equals(exchange.getRequestMethod())) {
+                        casRequests.add("GET");
+                        if (casValue == null) {
+                            exchange.sendResponseHeaders(404, -1);
+                            exchange.close();
+                            return;
+                        }
+                        response = String.format("[" + ENTRY + "]", Base64.encodeBase64String(casValue.getBytes
+                                ("UTF-8")), casIndex);
+                    } else {
+                        casRequests.add("PUT " + query);
+                        long cas = Long.parseLong(query.substring(query.indexOf("cas=") + 4));
+                        String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+
+                        if (casConflicts > 0) {
+                            //Another writer got there first
+                            casConflicts--;
+                            casValue = "other-" + casIndex;
+                            casIndex++;
+                            response = "false";
+                        } else if ((cas == 0 && casValue == null) || (cas != 0 && cas == casIndex)) {
+                            casValue = body;
+                            casIndex++;
+                            response = "true";
+                        } else {
+                            response = "false";
+                        }
+                    }
+                }
+
+                byte[] bytes = response.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        host = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void readValue() throws Exception {
+        assertEquals("test-value", ConsulRequestUtils.readValue(request("/v1/kv/a").build()));
+    }
+
+    @Test
+    public void readValueNotFound() throws Exception {
+        try {
+            ConsulRequestUtils.readValue(request("/v1/kv/missing").build());
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertTrue(String.valueOf(cre.getCause()), cre.getCause() instanceof HttpResponseException);
+            assertEquals(404, ((HttpResponseException) cre.getCause()).getStatusCode());
+        }
+    }
+
+    @Test
+    public void tooLargeWithContentLength() throws Exception {
+        assertTooLarge("/v1/kv/big");
+    }
+
+    @Test
+    public void tooLargeWithoutContentLength() throws Exception {
+        assertTooLarge("/v1/kv/big-chunked");
+    }
+
+    @Test
+    public void withinLimit() throws Exception {
+        assertEquals(3000, ConsulRequestUtils.readValue(request("/v1/kv/big").withMaxResponseSize(8000).build())
+                .length());
+    }
+
+    @Test
+    public void sessionJson() throws Exception {
+        assertEquals("{\"Name\":\"lock\",\"TTL\":\"10s\",\"Behavior\":\"release\",\"LockDelay\":\"0s\"}",
+                ConsulRequestUtils.sessionJson("lock", 1, Constants.SESSION_BEHAVIOR_RELEASE));
+        assertTrue(ConsulRequestUtils.sessionJson("lock", 100000, Constants.SESSION_BEHAVIOR_DELETE).contains
+                ("\"TTL\":\"86400s\",\"Behavior\":\"delete\""));
+    }
+
+    @Test
+    public void parseValue() throws Exception {
+        assertEquals("test-value", parse("[" + String.format(ENTRY, "dGVzdC12YWx1ZQ==", 1) + "]"));
+        assertEquals("test-value", parse("[{\"Key\":\"a\",\"Nested\":{\"Value\":\"b3RoZXI=\",\"List\":[1,2]}," +
+                "\"Value\":\"dGVzdC12YWx1ZQ==\"}]"));
+    }
+
+    @Test
+    public void parseValueEmpty() throws Exception {
+        assertNull(parse(""));
+        assertNull(parse("[]"));
+    }
+
+    @Test
+    public void parseValueFirstOfMany() throws Exception {
+        assertEquals("test-value", parse("[" + String.format(ENTRY, "dGVzdC12YWx1ZQ==", 1) + "," + String.format
+                (ENTRY, "b3RoZXI=", 2) + "]"));
+    }
+
+    @Test
+    public void parseValueNull() throws Exception {
+        assertNull(parse("[{\"Key\":\"a/\",\"Value\":null}]"));
+        assertNull(parse("[{\"Key\":\"a/\"}]"));
+    }
+
+    @Test
+    public void writeIfChangedUnchanged() throws Exception {
+        casValue = "value";
+        casIndex = 5;
+
+        assertFalse(ConsulRequestUtils.writeIfChanged(write("value")));
+        assertEquals(Arrays.asList("GET"), casRequests);
+    }
+
+    @Test
+    public void writeIfChanged() throws Exception {
+        casValue = "old";
+        casIndex = 5;
+
+        assertTrue(ConsulRequestUtils.writeIfChanged(write("new")));
+        assertEquals(Arrays.asList("GET", "PUT cas=5"), casRequests);
+        assertEquals("new", casValue);
+    }
+
+    @Test
+    public void writeIfChangedMissingKey() throws Exception {
+        assertTrue(ConsulRequestUtils.writeIfChanged(write("new")));
+        assertEquals(Arrays.asList("GET", "PUT cas=0"), casRequests);
+        assertEquals("new", casValue);
+    }
+
+    @Test
+    public void writeIfChangedRetriesWithFreshIndex() throws Exception {
+        casValue = "old";
+        casIndex = 5;
+        casConflicts = 1;
+
+        assertTrue(ConsulRequestUtils.writeIfChanged(write("new")));
+        assertEquals(Arrays.asList("GET", "PUT cas=5", "GET", "PUT cas=6"), casRequests);
+        assertEquals("new", casValue);
+    }
+
+    @Test
+    public void writeIfChangedGivesUp() throws Exception {
+        casValue = "old";
+        casIndex = 5;
+        casConflicts = Integer.MAX_VALUE;
+
+        try {
+            ConsulRequestUtils.writeIfChanged(write("new"));
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertEquals(String.format("Check-and-set write conflicted %d times, giving up.", Constants.CAS_RETRIES
+                    + 1), cre.getMessage());
+        }
+        assertEquals((Constants.CAS_RETRIES + 1) * 2, casRequests.size());
+        assertEquals("PUT cas=" + (5 + Constants.CAS_RETRIES), casRequests.get(casRequests.size() - 1));
+    }
+
+    @Test
+    public void deadlineExpiredBeforeSending() throws Exception {
+        ConsulRequest consulRequest = request("/v1/kv/cas").withDeadline(ConsulDeadline.after(50L)).build();
+        Thread.sleep(100L);
+
+        try {
+            ConsulRequestUtils.readValue(consulRequest);
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertEquals("Deadline of 50 ms expired before the Consul request.", cre.getMessage());
+        }
+        assertTrue(casRequests.isEmpty());
+    }
+
+    @Test
+    public void timeoutTotalAbortsStalledResponse() throws Exception {
+        long started = System.currentTimeMillis();
+
+        try {
+            ConsulRequestUtils.readValue(request("/v1/kv/trickle").withTimeoutTotal(300).build());
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertEquals("Consul request did not complete within 300 ms, aborted.", cre.getMessage());
+        }
+        assertTrue(System.currentTimeMillis() - started < 2000L);
+    }
+
+    @Test
+    public void deadlineShrinksAcrossRequests() throws Exception {
+        ConsulRequest consulRequest = request("/v1/kv/delay").withDeadline(ConsulDeadline.after(400L)).build();
+
+        assertEquals("test-value", ConsulRequestUtils.readValue(consulRequest));
+        long remaining = ConsulRequestUtils.getTimeLimit(consulRequest);
+        assertTrue(String.valueOf(remaining), remaining > 0 && remaining <= 150L);
+
+        try {
+            ConsulRequestUtils.readValue(ConsulRequestFactory.copyOf(consulRequest).withUrl(host +
+                    "/v1/kv/trickle").build());
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertTrue(cre.getMessage(), cre.getMessage().matches("Consul request did not complete within \\d+ " +
+                    "ms, aborted\\."));
+            long limit = Long.parseLong(cre.getMessage().replaceAll("\\D", ""));
+            assertTrue(String.valueOf(limit), limit <= remaining);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ConsulRequest write(String value) throws Exception {
+        return request("/v1/kv/cas").withValue(value).withRequestMode(RequestMode.CONDITIONAL_WRITE).build();
+    }
+
+    private void assertTooLarge(String path) throws Exception {
+        try {
+            ConsulRequestUtils.readValue(request(path).withMaxResponseSize(1000).build());
+            fail("Expected ConsulRequestException");
+        } catch (ConsulRequestException cre) {
+            assertTrue(String.valueOf(cre.getCause()), cre.getCause() instanceof SizeLimitedInputStream
+                    .ResponseTooLargeException);
+        }
+    }
+
+    private static String parse(String body) throws IOException {
+        return ConsulRequestUtils.parseValue(new JsonFactory().createParser(body));
+    }
+
+    private ConsulRequestFactory request(String path) {
+        return ConsulRequestFactory.request().withUrl(host + path).withTimeoutConnect(5000).withTimeoutResponse(5000)
+                .withDebugMode(DebugMode.DISABLED).withRequestMode(RequestMode.READ).withLogger(System.out);
+    }
+}
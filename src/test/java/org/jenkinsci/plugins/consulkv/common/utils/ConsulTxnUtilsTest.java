@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link ConsulTxnUtils}, no Consul server required.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulTxnUtilsTest {
+
+    private static final String RESULTS = "{\"Results\":[{\"KV\":{\"Key\":\"test/a\",\"Value\":\"dGVzdC12YWx1ZQ==\"," +
+            "\"ModifyIndex\":42}},{\"KV\":{\"Key\":\"test/b\",\"Value\":null,\"ModifyIndex\":7}}],\"Errors\":null}";
+    private static final String ERRORS = "{\"Results\":null,\"Errors\":[{\"OpIndex\":1,\"What\":\"key \\\"test/c\\\" " +
+            "doesn't exist\"}]}";
+
+    @Test
+    public void txnUri() {
+        assertEquals("/v1/txn", ConsulTxnUtils.txnUri(null));
+        assertEquals("/v1/txn", ConsulTxnUtils.txnUri("/v1/kv/"));
+        assertEquals("/consul/v1/txn", ConsulTxnUtils.txnUri(" /consul/v1/kv/ "));
+        assertEquals("/consul/v1/txn", ConsulTxnUtils.txnUri("/consul/v1/kv"));
+    }
+
+    @Test
+    public void toJson() throws IOException {
+        List<Map<String, Object>> ops = new ArrayList<Map<String, Object>>();
+        ops.add(ConsulTxnUtils.getOp("test/a"));
+        ops.add(ConsulTxnUtils.setOp("test/b", "test-value"));
+
+        String json = ConsulTxnUtils.toJson(ops);
+        assertThat(json, containsString("{\"KV\":{\"Verb\":\"get\",\"Key\":\"test/a\"}}"));
+        assertThat(json, containsString("{\"KV\":{\"Verb\":\"set\",\"Key\":\"test/b\",\"Value\":\"dGVzdC12YWx1ZQ==\"}}"));
+    }
+
+    @Test
+    public void parseResults() throws IOException {
+        List<ConsulKVEntry> entries = ConsulTxnUtils.parseResults(RESULTS);
+
+        assertEquals(2, entries.size());
+        assertEquals("test/a", entries.get(0).getKey());
+        assertEquals("test-value", entries.get(0).getValue());
+        assertEquals(42, entries.get(0).getModifyIndex());
+        assertNull(entries.get(1).getValue());
+    }
+
+    @Test
+    public void parseErrors() throws IOException {
+        List<String> errors = ConsulTxnUtils.parseErrors(ERRORS);
+
+        assertEquals(1, errors.size());
+        assertThat(errors.get(0), containsString("test/c"));
+    }
+
+    @Test
+    public void chunk() {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 130; i++) {
+            values.put("test/" + i, "v");
+        }
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            large.append('x');
+        }
+        values.put("test/large", large.toString());
+
+        List<Map<String, String>> chunks = ConsulTxnUtils.chunk(values, 64, 64);
+
+        //130 values of 1 byte fill 64, 64 and 2 ops, the large value gets its own chunk
+        assertEquals(4, chunks.size());
+        assertEquals(64, chunks.get(0).size());
+        assertEquals(2, chunks.get(2).size());
+        assertEquals(large.toString(), chunks.get(3).get("test/large"));
+    }
+}
@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link SizeLimitedInputStream}.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class SizeLimitedInputStreamTest {
+
+    @Test
+    public void withinLimit() throws Exception {
+        SizeLimitedInputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[100]), 100);
+
+        assertEquals(100, IOUtils.toByteArray(in).length);
+        assertEquals(100L, in.getCount());
+    }
+
+    @Test
+    public void overLimit() throws Exception {
+        InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[101]), 100);
+
+        try {
+            IOUtils.toByteArray(in);
+            fail("Expected ResponseTooLargeException");
+        } catch (SizeLimitedInputStream.ResponseTooLargeException rtle) {
+            assertEquals("Consul response exceeded the maximum response size of 100 bytes.", rtle.getMessage());
+        }
+    }
+
+    @Test
+    public void overLimitByteByByte() throws Exception {
+        InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[3]), 2);
+
+        in.read();
+        in.read();
+        try {
+            in.read();
+            fail("Expected ResponseTooLargeException");
+        } catch (SizeLimitedInputStream.ResponseTooLargeException rtle) {
+            //expected
+        }
+    }
+
+    @Test
+    public void skipCounts() throws Exception {
+        InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[200]), 100);
+
+        in.skip(100);
+        try {
+            in.skip(1);
+            fail("Expected ResponseTooLargeException");
+        } catch (SizeLimitedInputStream.ResponseTooLargeException rtle) {
+            //expected
+        }
+    }
+
+    @Test
+    public void noLimit() throws Exception {
+        assertEquals(10000, IOUtils.toByteArray(new SizeLimitedInputStream(new ByteArrayInputStream(new
+                byte[10000]), 0)).length);
+    }
+}
@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.consulkv.common.utils;
+
+import org.jenkinsci.plugins.consulkv.common.ValueFormat;
+import org.jenkinsci.plugins.consulkv.common.exceptions.ValidationException;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link ValueFlattener}, no Consul server required.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ValueFlattenerTest {
+
+    private static final String JSON = "{\"name\":\"svc\",\"database\":{\"host\":\"db1\",\"port\":5432," +
+            "\"replicas\":[\"db2\",\"db3\"],\"password\":null}}";
+    private static final String YAML = "name: svc\ndatabase:\n  host: db1\n  port: 5432\n";
+    private static final String PROPERTIES = "name=svc\ndatabase.host=db1\ndatabase.port=5432\n";
+
+    @Test
+    public void flattenJson() throws Exception {
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("APP_name", "svc");
+        expected.put("APP_database_host", "db1");
+        expected.put("APP_database_port", "5432");
+        expected.put("APP_database_replicas_0", "db2");
+        expected.put("APP_database_replicas_1", "db3");
+        expected.put("APP_database_password", "");
+
+        assertEquals(expected, ValueFlattener.flatten(JSON, ValueFormat.JSON, "APP", null));
+    }
+
+    @Test
+    public void selectSubtree() throws Exception {
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("DB_0", "db2");
+        expected.put("DB_1", "db3");
+
+        assertEquals(expected, ValueFlattener.flatten(JSON, ValueFormat.JSON, "DB", "$.database.replicas"));
+        assertEquals("db3", ValueFlattener.flatten(JSON, ValueFormat.JSON, "DB", "$.database.replicas[1]").get("DB"));
+        assertEquals("db1", ValueFlattener.flatten(JSON, ValueFormat.JSON, "APP", "$.*.host").get("APP_database"));
+    }
+
+    @Test
+    public void flattenYaml() throws Exception {
+        Map<String, String> variables = ValueFlattener.flatten(YAML, ValueFormat.YAML, "APP", "database");
+
+        assertEquals(2, variables.size());
+        assertEquals("db1", variables.get("APP_host"));
+        assertEquals("5432", variables.get("APP_port"));
+    }
+
+    @Test
+    public void flattenProperties() throws Exception {
+        Map<String, String> variables = ValueFlattener.flatten(PROPERTIES, ValueFormat.PROPERTIES, "APP", null);
+
+        assertEquals(3, variables.size());
+        assertEquals("db1", variables.get("APP_database_host"));
+        assertEquals("svc", variables.get("APP_name"));
+    }
+
+    @Test
+    public void parseSelector() throws Exception {
+        assertEquals(Arrays.asList("a", "0", "b.c", "*"), ValueFlattener.parseSelector("$.a[0]['b.c'].*"));
+        assertEquals(Arrays.asList("a", "b"), ValueFlattener.parseSelector("a.b"));
+        assertEquals(0, ValueFlattener.parseSelector("$").size());
+    }
+
+    @Test
+    public void flattenKeys() throws Exception {
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("app/name", "svc");
+        expected.put("app/database/host", "db1");
+        expected.put("app/database/port", "5432");
+        expected.put("app/database/replicas/0", "db2");
+        expected.put("app/database/replicas/1", "db3");
+        expected.put("app/database/password", "");
+
+        assertEquals(expected, ValueFlattener.flattenKeys(new StringReader(JSON), ValueFormat.JSON, "app/"));
+        assertEquals("5432", ValueFlattener.flattenKeys(new StringReader(PROPERTIES), ValueFormat.PROPERTIES, "app")
+                .get("app/database/port"));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void invalidSelector() throws Exception {
+        ValueFlattener.parseSelector("$.a[b");
+    }
+}
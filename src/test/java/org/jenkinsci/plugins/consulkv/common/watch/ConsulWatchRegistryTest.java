@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.consulkv.common.watch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jenkinsci.plugins.consulkv.ConsulKVEntry;
+import org.jenkinsci.plugins.consulkv.common.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConsulWatchRegistry} and {@link ConsulWatcher}, the blocking queries served by a local HTTP
+ * server standing in for Consul.
+ *
+ * @author Jimmy Ray
+ * @version 1.0.0
+ */
+public class ConsulWatchRegistryTest {
+
+    private final AtomicInteger polls = new AtomicInteger();
+    private ExecutorService executor;
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void startServer() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1/kv/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                polls.incrementAndGet();
+
+                //The first query answers at once, the next ones block like a wait without changes
+                if (!exchange.getRequestURI().getQuery().startsWith("index=0")) {
+                    try {
+                        Thread.sleep(10000L);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                byte[] body = "[{\"Key\":\"a\",\"Value\":null,\"ModifyIndex\":1}]".getBytes("UTF-8");
+                exchange.getResponseHeaders().add(Constants.HEADER_CONSUL_INDEX, "1");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                } catch (IOException ioe) {
+                    //The watcher was stopped
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/kv/a";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void listenersShareOneWatcher() throws Exception {
+        Listener first = new Listener();
+        Listener second = new Listener();
+        Listener otherToken = new Listener();
+        int watchers = ConsulWatchRegistry.size();
+
+        try {
+            ConsulWatchRegistry.subscribe(url, "token", false, 5000, first);
+            ConsulWatchRegistry.subscribe(url, "token", false, 5000, second);
+
+            assertEquals(watchers + 1, ConsulWatchRegistry.size());
+            ConsulWatcher watcher = ConsulWatchRegistry.get(url, "token", false);
+            awaitPolls(2);
+            assertEquals(2, polls.get());
+
+            ConsulWatchRegistry.subscribe(url, "other", false, 5000, otherToken);
+            assertEquals(watchers + 2, ConsulWatchRegistry.size());
+            assertNotSame(watcher, ConsulWatchRegistry.get(url, "other", false));
+            assertNotSame(watcher, ConsulWatchRegistry.get(url, "token", true));
+        } finally {
+            ConsulWatchRegistry.unsubscribe(first);
+            ConsulWatchRegistry.unsubscribe(second);
+            ConsulWatchRegistry.unsubscribe(otherToken);
+        }
+
+        assertEquals(watchers, ConsulWatchRegistry.size());
+    }
+
+    @Test
+    public void lastUnsubscribeStopsTheThread() throws Exception {
+        Listener first = new Listener();
+        Listener second = new Listener();
+
+        ConsulWatchRegistry.subscribe(url, null, true, 5000, first);
+        ConsulWatchRegistry.subscribe(url, null, true, 5000, second);
+        ConsulWatcher watcher = ConsulWatchRegistry.get(url, null, true);
+        awaitPolls(2);
+        assertTrue(watcher.isWatching());
+
+        ConsulWatchRegistry.unsubscribe(first);
+        assertSame(watcher, ConsulWatchRegistry.get(url, null, true));
+        assertTrue(watcher.isWatching());
+
+        //The blocking query in flight is aborted, not waited for
+        ConsulWatchRegistry.unsubscribe(second);
+        assertNull(ConsulWatchRegistry.get(url, null, true));
+        for (int i = 0; i < 500 && watcher.isWatching(); i++) {
+            Thread.sleep(10L);
+        }
+        assertFalse(watcher.isWatching());
+    }
+
+    @Test
+    public void backoffWithFullJitter() {
+        Random random = new Random(42);
+
+        for (int failures = 1; failures < 40; failures++) {
+            long ceiling = Math.min(Constants.WATCH_BACKOFF_MIN << Math.min(failures, 16), Constants
+                    .WATCH_BACKOFF_MAX);
+            for (int i = 0; i < 100; i++) {
+                long delay = ConsulWatcher.backoff(failures, random);
+                assertTrue(String.valueOf(delay), delay >= Constants.WATCH_BACKOFF_MIN && delay <= ceiling);
+            }
+        }
+        assertEquals(Constants.WATCH_BACKOFF_MIN, ConsulWatcher.backoff(0, random));
+    }
+
+    private void awaitPolls(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && polls.get() < count; i++) {
+            Thread.sleep(10L);
+        }
+        //Give a second watcher, if there were one, time to poll as well
+        Thread.sleep(200L);
+    }
+
+    private static final class Listener implements ConsulWatchListener {
+        @Override
+        public void onChange(List<ConsulKVEntry> changed, List<String> removed) {
+        }
+    }
+}